@@ -18,23 +18,22 @@ package ch.mimo.netty.example.icap.squidechoserver;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.net.InetSocketAddress;
+
+import ch.mimo.netty.handler.codec.icap.IcapTransport;
 
 public class IcapServer {
 
 	private static final int SERVER_PORT = 1344;
+	private static final int ACCEPTORS = 2;
 	
-	public static void main(String[] args) {
-        // Configure the server.
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
-        ServerBootstrap bootstrap = new ServerBootstrap();
-        bootstrap
-            .group(bossGroup, workerGroup)
-            .channel(NioServerSocketChannel.class)
-            .localAddress(SERVER_PORT)
-            .childHandler(new IcapServerChannelPipeline())
-            .bind();
+	public static void main(String[] args) throws InterruptedException {
+        // Configure the server, native epoll is used if available.
+        EventLoopGroup bossGroup = IcapTransport.newEventLoopGroup(ACCEPTORS);
+        EventLoopGroup workerGroup = IcapTransport.newEventLoopGroup(0);
+        ServerBootstrap bootstrap = IcapTransport.newServerBootstrap(bossGroup, workerGroup)
+            .childHandler(new IcapServerChannelPipeline());
+        IcapTransport.bindReusePort(bootstrap, new InetSocketAddress(SERVER_PORT), ACCEPTORS);
 	}
 }
@@ -42,6 +42,7 @@ public abstract class AbstractIcapMessage implements IcapMessage {
 	private FullHttpResponse httpResponse;
 	
 	private IcapMessageElementEnum body;
+	private IcapBodyDigest bodyDigest;
 	
 	public AbstractIcapMessage(IcapVersion version) {
 		this.version = version;
@@ -79,6 +80,13 @@ public abstract class AbstractIcapMessage implements IcapMessage {
 		return this;
 	}
 
+	/**
+	 * adds a header without validation, @see IcapHeaders#addTrustedHeader(String, String)
+	 */
+	void addTrustedHeader(String name, String value) {
+		icapHeader.addTrustedHeader(name,value);
+	}
+
 	@Override
 	public IcapMessage setHeader(String name, Object value) {
 		icapHeader.setHeader(name,value);
@@ -179,6 +187,23 @@ public abstract class AbstractIcapMessage implements IcapMessage {
 		}
 	}
 	
+	/**
+	 * Sets the digests of the encapsulated body.
+	 * @param digest @see {@link IcapBodyDigest} as computed by @see {@link IcapBodyDigestHandler}
+	 * @return self in order to chain the method calls
+	 */
+	public IcapMessage setBodyDigest(IcapBodyDigest digest) {
+		this.bodyDigest = digest;
+		return this;
+	}
+	
+	/**
+	 * @return @see {@link IcapBodyDigest} of the encapsulated body or null if no digest was computed.
+	 */
+	public IcapBodyDigest getBodyDigest() {
+		return bodyDigest;
+	}
+	
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder();
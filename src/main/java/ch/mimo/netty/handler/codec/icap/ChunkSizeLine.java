@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Single pass parser for chunk size lines: {@code hex-size *( ";" name [ "=" value ] )}.
+ * 
+ * The size is read directly from the buffer as a long and the only extensions ICAP cares about,
+ * ieof and use-original-body, are recognized without materializing the extensions. One instance
+ * is held per decoder and reused for every chunk.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see ReadChunkSizeState
+ */
+final class ChunkSizeLine {
+	
+	/**
+	 * value of {@link #getUseOriginalBody()} if the extension is not present.
+	 */
+	static final int NO_USE_ORIGINAL_BODY = -1;
+	
+	/**
+	 * value of {@link #getUseOriginalBody()} if the extension value is not a valid offset.
+	 */
+	static final int INVALID_USE_ORIGINAL_BODY = -2;
+	
+	private static final byte[] IEOF = IcapCodecUtil.EXTENSION_IEOF.getBytes();
+	private static final byte[] USE_ORIGINAL_BODY = IcapCodecUtil.EXTENSION_USE_ORIGINAL_BODY.getBytes();
+
+	private long size;
+	private boolean ieof;
+	private int useOriginalBody;
+	
+	/**
+	 * parses the chunk size line at the readerIndex of the buffer and consumes it including the line break.
+	 * 
+	 * @param buffer
+	 * @param maxLineLength
+	 * @return false if the line does not start with a valid chunk size, in which case it is not consumed.
+	 * @throws DecodingException if the line exceeds maxLineLength.
+	 */
+	boolean parse(ByteBuf buffer, int maxLineLength) throws DecodingException {
+		int start = buffer.readerIndex();
+		int lineFeed = IcapDecoderUtil.findLineEnd(buffer,maxLineLength);
+		int end = IcapDecoderUtil.getLineContentEnd(buffer,start,lineFeed);
+		size = 0;
+		ieof = false;
+		useOriginalBody = NO_USE_ORIGINAL_BODY;
+		
+		int index = skipWhitespace(buffer,start,end);
+		int digits = 0;
+		for(; index < end ; index++) {
+			int digit = hexValue(buffer.getByte(index));
+			if(digit < 0) {
+				break;
+			}
+			if(size > (Long.MAX_VALUE >>> 4)) {
+				return false;
+			}
+			size = (size << 4) | digit;
+			digits++;
+		}
+		if(digits == 0) {
+			return false;
+		}
+		if(index < end) {
+			byte value = buffer.getByte(index);
+			if(value != ';' && (value > ' ' || value < 0)) {
+				return false;
+			}
+		}
+		while(index < end && buffer.getByte(index) != ';') {
+			index++;
+		}
+		while(index < end) {
+			int extensionStart = index + 1;
+			int extensionEnd = extensionStart;
+			while(extensionEnd < end && buffer.getByte(extensionEnd) != ';') {
+				extensionEnd++;
+			}
+			parseExtension(buffer,extensionStart,extensionEnd);
+			index = extensionEnd;
+		}
+		buffer.readerIndex(lineFeed + 1);
+		return true;
+	}
+	
+	/**
+	 * @return the chunk size.
+	 */
+	long getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return true if the ieof extension is present.
+	 */
+	boolean isIeof() {
+		return ieof;
+	}
+	
+	/**
+	 * @return the use-original-body offset, {@link #NO_USE_ORIGINAL_BODY} or {@link #INVALID_USE_ORIGINAL_BODY}.
+	 */
+	int getUseOriginalBody() {
+		return useOriginalBody;
+	}
+	
+	private void parseExtension(ByteBuf buffer, int start, int end) {
+		int nameStart = skipWhitespace(buffer,start,end);
+		int equals = nameStart;
+		while(equals < end && buffer.getByte(equals) != '=') {
+			equals++;
+		}
+		int nameEnd = trimWhitespace(buffer,nameStart,equals);
+		if(matches(buffer,nameStart,nameEnd,IEOF)) {
+			ieof = true;
+		} else if(matches(buffer,nameStart,nameEnd,USE_ORIGINAL_BODY)) {
+			int valueStart = equals < end?skipWhitespace(buffer,equals + 1,end):end;
+			useOriginalBody = parseOffset(buffer,valueStart,trimWhitespace(buffer,valueStart,end));
+		}
+	}
+	
+	private static int parseOffset(ByteBuf buffer, int start, int end) {
+		if(start == end) {
+			return INVALID_USE_ORIGINAL_BODY;
+		}
+		long offset = 0;
+		for(int index = start ; index < end ; index++) {
+			int digit = buffer.getByte(index) - '0';
+			if(digit < 0 || digit > 9) {
+				return INVALID_USE_ORIGINAL_BODY;
+			}
+			offset = offset * 10 + digit;
+			if(offset > Integer.MAX_VALUE) {
+				return INVALID_USE_ORIGINAL_BODY;
+			}
+		}
+		return (int)offset;
+	}
+	
+	private static boolean matches(ByteBuf buffer, int start, int end, byte[] name) {
+		if(end - start != name.length) {
+			return false;
+		}
+		for(int i = 0 ; i < name.length ; i++) {
+			if(buffer.getByte(start + i) != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int skipWhitespace(ByteBuf buffer, int start, int end) {
+		while(start < end && buffer.getByte(start) <= ' ' && buffer.getByte(start) >= 0) {
+			start++;
+		}
+		return start;
+	}
+	
+	private static int trimWhitespace(ByteBuf buffer, int start, int end) {
+		while(end > start && buffer.getByte(end - 1) <= ' ' && buffer.getByte(end - 1) >= 0) {
+			end--;
+		}
+		return end;
+	}
+	
+	private static int hexValue(byte value) {
+		if(value >= '0' && value <= '9') {
+			return value - '0';
+		} else if(value >= 'a' && value <= 'f') {
+			return value - 'a' + 10;
+		} else if(value >= 'A' && value <= 'F') {
+			return value - 'A' + 10;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.compression.DecompressionException;
+
+/**
+ * Incremental gzip / deflate decoder that is fed one body chunk at a time.
+ * 
+ * The gzip header and trailer are parsed byte by byte so that they may be split over any number of
+ * chunks. Deflate content is accepted with zlib wrapper (RFC 1950) as well as raw (RFC 1951) since both
+ * are found in the wild. Output is produced in windows of a fixed size and the ratio between decoded and
+ * compressed bytes is verified after every window, a decompression bomb is therefore detected before more
+ * than one window beyond the limit was produced.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapContentDecompressor
+ */
+final class ContentInflater {
+	
+	/**
+	 * amount of decoded bytes that are accepted regardless of the ratio. Very small compressed 
+	 * bodies (e.g. a page full of white space) legitimately exceed any sensible ratio.
+	 */
+	static final int RATIO_GRACE = 64 * 1024;
+	
+	private static final int GZIP_HEADER_LENGTH = 10;
+	private static final int GZIP_TRAILER_LENGTH = 8;
+	private static final int FHCRC = 0x02;
+	private static final int FEXTRA = 0x04;
+	private static final int FNAME = 0x08;
+	private static final int FCOMMENT = 0x10;
+	
+	private static final int GZIP_HEADER = 0;
+	private static final int GZIP_EXTRA_LENGTH = 1;
+	private static final int GZIP_EXTRA = 2;
+	private static final int GZIP_NAME = 3;
+	private static final int GZIP_COMMENT = 4;
+	private static final int GZIP_HEADER_CRC = 5;
+	private static final int DEFLATE_HEADER = 6;
+	private static final int INFLATE = 7;
+	private static final int GZIP_TRAILER = 8;
+	private static final int FINISHED = 9;
+	
+	private final boolean gzip;
+	private final int windowSize;
+	private final int maxRatio;
+	private final byte[] header = new byte[GZIP_HEADER_LENGTH];
+	private final byte[] probe = new byte[1];
+	private final CRC32 crc;
+	private Inflater inflater;
+	private byte[] input;
+	private int state;
+	private int headerIndex;
+	private int flags;
+	private int skip;
+	private long wrapperBytes;
+	private long decodedBytes;
+	
+	private ContentInflater(boolean gzip, int windowSize, int maxRatio) {
+		this.gzip = gzip;
+		this.windowSize = windowSize;
+		this.maxRatio = maxRatio;
+		if(gzip) {
+			crc = new CRC32();
+			inflater = new Inflater(true);
+			state = GZIP_HEADER;
+		} else {
+			crc = null;
+			state = DEFLATE_HEADER;
+		}
+	}
+	
+	/**
+	 * @param contentEncoding value of a Content-Encoding header.
+	 * @param windowSize maximum size of one decoded buffer.
+	 * @param maxRatio maximum ratio between decoded and compressed bytes.
+	 * @return an inflater or null if the encoding is neither gzip nor deflate.
+	 */
+	static ContentInflater newInstance(String contentEncoding, int windowSize, int maxRatio) {
+		if(contentEncoding == null) {
+			return null;
+		}
+		String encoding = contentEncoding.trim();
+		if(encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+			return new ContentInflater(true,windowSize,maxRatio);
+		} else if(encoding.equalsIgnoreCase("deflate") || encoding.equalsIgnoreCase("x-deflate")) {
+			return new ContentInflater(false,windowSize,maxRatio);
+		}
+		return null;
+	}
+	
+	/**
+	 * decodes all readable bytes of the input. Bytes after the end of the compressed stream are ignored.
+	 * 
+	 * @param in compressed input, will be fully consumed.
+	 * @param allocator to allocate the decoded windows with.
+	 * @param out receives the decoded windows, each holding at most windowSize bytes.
+	 * @throws DecompressionException if the input is not valid.
+	 * @throws TooLongFrameException if the decompression ratio is exceeded.
+	 */
+	void inflate(ByteBuf in, ByteBufAllocator allocator, List<ByteBuf> out) throws TooLongFrameException {
+		while(in.isReadable() && state != FINISHED) {
+			switch(state) {
+			case GZIP_HEADER:
+				header[headerIndex++] = readWrapperByte(in);
+				if(headerIndex == GZIP_HEADER_LENGTH) {
+					if(header[0] != (byte)0x1f || header[1] != (byte)0x8b || header[2] != 8) {
+						throw new DecompressionException("Input is not in the gzip format");
+					}
+					flags = header[3];
+					headerIndex = 0;
+					nextGzipHeaderState();
+				}
+				break;
+			case GZIP_EXTRA_LENGTH:
+				header[headerIndex++] = readWrapperByte(in);
+				if(headerIndex == 2) {
+					skip = (header[0] & 0xff) | (header[1] & 0xff) << 8;
+					headerIndex = 0;
+					state = GZIP_EXTRA;
+					if(skip == 0) {
+						nextGzipHeaderState();
+					}
+				}
+				break;
+			case GZIP_EXTRA:
+			case GZIP_HEADER_CRC:
+				int length = Math.min(skip,in.readableBytes());
+				in.skipBytes(length);
+				wrapperBytes += length;
+				skip -= length;
+				if(skip == 0) {
+					nextGzipHeaderState();
+				}
+				break;
+			case GZIP_NAME:
+			case GZIP_COMMENT:
+				if(readWrapperByte(in) == 0) {
+					nextGzipHeaderState();
+				}
+				break;
+			case DEFLATE_HEADER:
+				header[headerIndex++] = in.readByte();
+				if(headerIndex == 2) {
+					int cmf = header[0] & 0xff;
+					boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | (header[1] & 0xff)) % 31 == 0;
+					inflater = new Inflater(!zlib);
+					state = INFLATE;
+					inflate(header,0,2,allocator,out);
+				}
+				break;
+			case INFLATE:
+				if(in.hasArray()) {
+					in.skipBytes(inflate(in.array(),in.arrayOffset() + in.readerIndex(),in.readableBytes(),allocator,out));
+				} else {
+					if(input == null) {
+						input = new byte[windowSize];
+					}
+					int amount = Math.min(input.length,in.readableBytes());
+					in.getBytes(in.readerIndex(),input,0,amount);
+					in.skipBytes(inflate(input,0,amount,allocator,out));
+				}
+				break;
+			case GZIP_TRAILER:
+				header[headerIndex++] = readWrapperByte(in);
+				if(headerIndex == GZIP_TRAILER_LENGTH) {
+					if(readInt(0) != (int)crc.getValue()) {
+						throw new DecompressionException("gzip CRC does not match");
+					}
+					if(readInt(4) != (int)inflater.getBytesWritten()) {
+						throw new DecompressionException("gzip size does not match");
+					}
+					state = FINISHED;
+				}
+				break;
+			default:
+				throw new IllegalStateException("unknown state " + state);
+			}
+		}
+		in.skipBytes(in.readableBytes());
+	}
+	
+	/**
+	 * @return true if the end of the compressed stream was reached.
+	 */
+	boolean isFinished() {
+		return state == FINISHED;
+	}
+	
+	/**
+	 * releases the native resources of the inflater.
+	 */
+	void end() {
+		if(inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		state = FINISHED;
+	}
+	
+	private int inflate(byte[] array, int offset, int length, ByteBufAllocator allocator, List<ByteBuf> out) throws TooLongFrameException {
+		inflater.setInput(array,offset,length);
+		// zlib may hold pending output after it took all input, inflate until it produces nothing anymore.
+		// A window is only allocated once the first byte of it was produced, most calls end without output.
+		while(inflate(probe,0,1) == 1) {
+			ByteBuf window = allocator.heapBuffer(windowSize,windowSize);
+			boolean drained = false;
+			try {
+				window.writeByte(probe[0]);
+				while(window.isWritable()) {
+					int written = inflate(window.array(),window.arrayOffset() + window.writerIndex(),window.writableBytes());
+					if(written == 0) {
+						drained = true;
+						break;
+					}
+					window.writerIndex(window.writerIndex() + written);
+				}
+			} catch(RuntimeException e) {
+				window.release();
+				throw e;
+			}
+			decodedBytes += window.readableBytes();
+			out.add(window);
+			if(decodedBytes > RATIO_GRACE && decodedBytes > (wrapperBytes + inflater.getBytesRead()) * maxRatio) {
+				throw new TooLongFrameException("Decompression ratio of [" + maxRatio + "] exceeded, " + decodedBytes + " bytes decoded");
+			}
+			if(drained) {
+				break;
+			}
+		}
+		if(inflater.finished()) {
+			state = gzip?GZIP_TRAILER:FINISHED;
+			headerIndex = 0;
+		}
+		return length - inflater.getRemaining();
+	}
+	
+	private int inflate(byte[] output, int offset, int length) {
+		int written;
+		try {
+			written = inflater.inflate(output,offset,length);
+		} catch(DataFormatException e) {
+			throw new DecompressionException("Content is not valid " + (gzip?"gzip":"deflate") + " data",e);
+		}
+		if(written == 0 && inflater.needsDictionary()) {
+			throw new DecompressionException("deflate dictionaries are not supported");
+		}
+		if(crc != null) {
+			crc.update(output,offset,written);
+		}
+		return written;
+	}
+	
+	private byte readWrapperByte(ByteBuf in) {
+		wrapperBytes++;
+		return in.readByte();
+	}
+	
+	private void nextGzipHeaderState() {
+		if(state < GZIP_EXTRA && (flags & FEXTRA) != 0) {
+			state = GZIP_EXTRA_LENGTH;
+		} else if(state < GZIP_NAME && (flags & FNAME) != 0) {
+			state = GZIP_NAME;
+		} else if(state < GZIP_COMMENT && (flags & FCOMMENT) != 0) {
+			state = GZIP_COMMENT;
+		} else if(state < GZIP_HEADER_CRC && (flags & FHCRC) != 0) {
+			state = GZIP_HEADER_CRC;
+			skip = 2;
+		} else {
+			state = INFLATE;
+		}
+	}
+	
+	private int readInt(int offset) {
+		return (header[offset] & 0xff) | (header[offset + 1] & 0xff) << 8 | (header[offset + 2] & 0xff) << 16 | (header[offset + 3] & 0xff) << 24;
+	}
+}
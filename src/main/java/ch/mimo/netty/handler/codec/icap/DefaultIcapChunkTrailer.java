@@ -31,6 +31,7 @@ public class DefaultIcapChunkTrailer extends DefaultLastHttpContent implements I
 	private boolean preview;
 	private boolean earlyTerminated;
 	private Integer useOriginalBodyOffset;
+	private IcapBodyDigest bodyDigest;
 
 	public DefaultIcapChunkTrailer() {
 		this.preview = false;
@@ -83,6 +84,20 @@ public class DefaultIcapChunkTrailer extends DefaultLastHttpContent implements I
 		return useOriginalBodyOffset;
 	}
 
+	/**
+	 * @param digest @see {@link IcapBodyDigest} as computed by @see {@link IcapBodyDigestHandler}
+	 */
+	public void setBodyDigest(IcapBodyDigest digest) {
+		this.bodyDigest = digest;
+	}
+
+	/**
+	 * @return @see {@link IcapBodyDigest} of the encapsulated body or null if no digest was computed.
+	 */
+	public IcapBodyDigest getBodyDigest() {
+		return bodyDigest;
+	}
+
 	public String toString() {
 		return "DefaultIcapChunkTrailer: [isPreviewChunk=" + preview + "] [wasEarlyTerminated=" + earlyTerminated + "] [useOriginalBodyOffset=" + useOriginalBodyOffset + "]";
 	}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics implementation that counts all measurements with atomic counters.
+ * 
+ * Requests are counted per standard method, all extension methods share one counter. The method is chosen
+ * by the peer, a counter per method name would let a peer grow the metrics without bound.
+ * 
+ * Decoding errors are counted by the type of their cause if they are wrapped into a @see {@link DecodingException},
+ * e.g. @see {@link TooLongFrameException}.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class DefaultIcapCodecMetrics implements IcapCodecMetrics {
+
+	private static final int OTHER_METHOD = 3;
+	
+	private final AtomicLong[] decodedRequests = newCounters(OTHER_METHOD + 1);
+	private final AtomicLong[] encodedRequests = newCounters(OTHER_METHOD + 1);
+	private final AtomicLong[] decodedResponses = newCounters(IcapResponseStatus.values().length);
+	private final AtomicLong[] encodedResponses = newCounters(IcapResponseStatus.values().length);
+	private final AtomicLong previewMessages = new AtomicLong();
+	private final AtomicLong fullMessages = new AtomicLong();
+	private final AtomicLong decodedChunks = new AtomicLong();
+	private final AtomicLong encodedChunks = new AtomicLong();
+	private final AtomicLong earlyTerminations = new AtomicLong();
+	private final AtomicLong decodedBytes = new AtomicLong();
+	private final AtomicLong encodedBytes = new AtomicLong();
+	private final ConcurrentMap<Class<?>,AtomicLong> decodingErrors = new ConcurrentHashMap<Class<?>,AtomicLong>();
+	private final AtomicLong[] stateExecutions = newCounters(StateEnum.values().length);
+	private final AtomicLong[] stateNanos = newCounters(StateEnum.values().length);
+	
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public void messageDecoded(IcapMessage message) {
+		if(message instanceof IcapResponse) {
+			decodedResponses[((IcapResponse)message).getStatus().ordinal()].incrementAndGet();
+		} else if(message instanceof IcapRequest) {
+			decodedRequests[methodIndex(((IcapRequest)message).getMethod())].incrementAndGet();
+		}
+		if(message.isPreviewMessage()) {
+			previewMessages.incrementAndGet();
+		} else {
+			fullMessages.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void chunkDecoded(IcapChunk chunk) {
+		decodedChunks.incrementAndGet();
+		if(chunk.isEarlyTerminated()) {
+			earlyTerminations.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void bytesDecoded(int bytes) {
+		decodedBytes.addAndGet(bytes);
+	}
+
+	@Override
+	public void decodingFailed(Throwable cause) {
+		if(cause instanceof DecodingException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		counter(decodingErrors,cause.getClass()).incrementAndGet();
+	}
+
+	@Override
+	public void stateExecuted(StateEnum state, long nanos) {
+		stateExecutions[state.ordinal()].incrementAndGet();
+		stateNanos[state.ordinal()].addAndGet(nanos);
+	}
+
+	@Override
+	public void messageEncoded(IcapMessage message) {
+		if(message instanceof IcapResponse) {
+			encodedResponses[((IcapResponse)message).getStatus().ordinal()].incrementAndGet();
+		} else if(message instanceof IcapRequest) {
+			encodedRequests[methodIndex(((IcapRequest)message).getMethod())].incrementAndGet();
+		}
+	}
+
+	@Override
+	public void chunkEncoded(IcapChunk chunk) {
+		encodedChunks.incrementAndGet();
+	}
+
+	@Override
+	public void bytesEncoded(int bytes) {
+		encodedBytes.addAndGet(bytes);
+	}
+	
+	/**
+	 * @param method the ICAP method.
+	 * @return amount of decoded requests with the given method, the amount of all extension methods for a non standard method.
+	 */
+	public long getDecodedRequests(IcapMethod method) {
+		return decodedRequests[methodIndex(method)].get();
+	}
+	
+	/**
+	 * @param method the ICAP method.
+	 * @return amount of encoded requests with the given method, the amount of all extension methods for a non standard method.
+	 */
+	public long getEncodedRequests(IcapMethod method) {
+		return encodedRequests[methodIndex(method)].get();
+	}
+	
+	/**
+	 * @param status the ICAP response status.
+	 * @return amount of decoded responses with the given status.
+	 */
+	public long getDecodedResponses(IcapResponseStatus status) {
+		return decodedResponses[status.ordinal()].get();
+	}
+	
+	/**
+	 * @param status the ICAP response status.
+	 * @return amount of encoded responses with the given status.
+	 */
+	public long getEncodedResponses(IcapResponseStatus status) {
+		return encodedResponses[status.ordinal()].get();
+	}
+	
+	/**
+	 * @return amount of decoded preview messages.
+	 */
+	public long getPreviewMessages() {
+		return previewMessages.get();
+	}
+	
+	/**
+	 * @return amount of decoded messages without preview.
+	 */
+	public long getFullMessages() {
+		return fullMessages.get();
+	}
+	
+	/**
+	 * @return amount of decoded chunks including trailers.
+	 */
+	public long getDecodedChunks() {
+		return decodedChunks.get();
+	}
+	
+	/**
+	 * @return amount of encoded chunks including trailers.
+	 */
+	public long getEncodedChunks() {
+		return encodedChunks.get();
+	}
+	
+	/**
+	 * @return amount of preview messages that were terminated with ieof.
+	 */
+	public long getEarlyTerminations() {
+		return earlyTerminations.get();
+	}
+	
+	/**
+	 * @return amount of bytes consumed by the decoders.
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes.get();
+	}
+	
+	/**
+	 * @return amount of bytes produced by the encoders.
+	 */
+	public long getEncodedBytes() {
+		return encodedBytes.get();
+	}
+	
+	/**
+	 * @param type the exception or error type, e.g. @see {@link TooLongFrameException} or @see {@link IcapDecodingError}.
+	 * @return amount of decoding failures of exactly this type.
+	 */
+	public long getDecodingErrors(Class<? extends Throwable> type) {
+		return value(decodingErrors.get(type));
+	}
+	
+	/**
+	 * @param state the decoder state.
+	 * @return amount of executions of the given state, including replays.
+	 */
+	public long getStateExecutions(StateEnum state) {
+		return stateExecutions[state.ordinal()].get();
+	}
+	
+	/**
+	 * @param state the decoder state.
+	 * @return total time in nanoseconds spent in the given state.
+	 */
+	public long getStateNanos(StateEnum state) {
+		return stateNanos[state.ordinal()].get();
+	}
+	
+	private static <K> AtomicLong counter(ConcurrentMap<K,AtomicLong> counters, K key) {
+		AtomicLong counter = counters.get(key);
+		if(counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(key,newCounter);
+			if(counter == null) {
+				counter = newCounter;
+			}
+		}
+		return counter;
+	}
+	
+	private static int methodIndex(IcapMethod method) {
+		if(IcapMethod.REQMOD.equals(method)) {
+			return 0;
+		} else if(IcapMethod.RESPMOD.equals(method)) {
+			return 1;
+		} else if(IcapMethod.OPTIONS.equals(method)) {
+			return 2;
+		}
+		return OTHER_METHOD;
+	}
+	
+	private static long value(AtomicLong counter) {
+		return counter != null?counter.get():0L;
+	}
+	
+	private static AtomicLong[] newCounters(int size) {
+		AtomicLong[] counters = new AtomicLong[size];
+		for(int i = 0 ; i < size ; i++) {
+			counters[i] = new AtomicLong();
+		}
+		return counters;
+	}
+}
@@ -26,6 +26,7 @@ public class DefaultIcapRequest extends AbstractIcapMessage implements IcapReque
 	
 	private IcapMethod method;
 	private String uri;
+	private String detectedContentType;
 	
 	/**
 	 * This will create an initial icap request with all necessary details.
@@ -60,4 +61,22 @@ public class DefaultIcapRequest extends AbstractIcapMessage implements IcapReque
 	public String getUri() {
 		return uri;
 	}
+	
+	/**
+	 * Sets the content type of the encapsulated body as it was detected from its content,
+	 * e.g. by @see {@link IcapContentTypeSniffer}.
+	 * @param contentType the detected mime type.
+	 * @return self in order to chain the method calls
+	 */
+	public IcapMessage setDetectedContentType(String contentType) {
+		this.detectedContentType = contentType;
+		return this;
+	}
+	
+	/**
+	 * @return the detected content type of the encapsulated body or null if it was not detected.
+	 */
+	public String getDetectedContentType() {
+		return detectedContentType;
+	}
 }
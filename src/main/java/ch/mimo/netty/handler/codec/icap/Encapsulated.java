@@ -1,26 +1,21 @@
-/*******************************************************************************
- * Copyright 2012 Michael Mimo Moratti
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *   http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
-import java.util.StringTokenizer;
 
 import io.netty.buffer.ByteBuf;
 
@@ -28,15 +23,37 @@ import io.netty.buffer.ByteBuf;
  * This class parses, creates and provides the very important Encapsulated header to the Decoder and
  * encapsulates the complexity of that header.
  * 
+ * Entries are kept in a position array indexed by the ordinal of @see {@link IcapMessageElementEnum}
+ * together with a presence and a processed bitmask. Since there are only six possible elements all
+ * queries are constant time and no per entry objects are created.
+ * 
  * @author Michael Mimo Moratti (mimo@mimo.ch)
  *
  */
 public final class Encapsulated {
 	
-	private List<Entry> entries;
+	private static final IcapMessageElementEnum[] ELEMENTS = IcapMessageElementEnum.values();
+	private static final int BODY_MASK = mask(IcapMessageElementEnum.OPTBODY) | 
+											mask(IcapMessageElementEnum.REQBODY) | 
+											mask(IcapMessageElementEnum.RESBODY) | 
+											mask(IcapMessageElementEnum.NULLBODY);
+	private static final byte[] HEADER_NAME = "Encapsulated: ".getBytes(IcapCodecUtil.ASCII_CHARSET);
+	private static final byte[][] ENCODED_NAMES = new byte[ELEMENTS.length][];
+	
+	static {
+		for(IcapMessageElementEnum element : ELEMENTS) {
+			ENCODED_NAMES[element.ordinal()] = (element.getValue() + "=").getBytes(IcapCodecUtil.ASCII_CHARSET);
+		}
+	}
+	
+	private final int[] positions = new int[ELEMENTS.length];
+	private final byte[] order = new byte[ELEMENTS.length];
+	private int size;
+	private int present;
+	private int processed;
+	private int cursor;
 	
 	public Encapsulated() {
-		entries = new ArrayList<Encapsulated.Entry>();
 	}
 	
 	/**
@@ -44,11 +61,20 @@ public final class Encapsulated {
 	 * 
 	 * @param headerValue valid Encapsulated value.
 	 */
-	public Encapsulated(String headerValue) {
+	public Encapsulated(CharSequence headerValue) {
 		this();
 		parseHeaderValue(headerValue);
 	}
 	
+	/**
+	 * Creates an instance based on the value given.
+	 * 
+	 * @param headerValue valid Encapsulated value.
+	 */
+	public Encapsulated(String headerValue) {
+		this((CharSequence)headerValue);
+	}
+	
 	/**
 	 * Gets whether a given entry exists in the header value.
 	 * 
@@ -56,12 +82,7 @@ public final class Encapsulated {
 	 * @return boolean true if the entity in question is present.
 	 */
 	public boolean containsEntry(IcapMessageElementEnum entity) {
-		for(Entry entry : entries) {
-			if(entry.getName().equals(entity)) {
-				return true;
-			}
-		}
-		return false;
+		return (present & mask(entity)) != 0;
  	}
 	
 	/**
@@ -72,23 +93,19 @@ public final class Encapsulated {
 	 * @return the correct @see {@link IcapMessageElementEnum} value.
 	 */
 	public IcapMessageElementEnum containsBodyEntry() {
-		IcapMessageElementEnum body = null;
-		for(Entry entry : entries) {
-			if(entry.getName().equals(IcapMessageElementEnum.OPTBODY)) {
-				body = entry.getName();
-				break;
-			} else if(entry.getName().equals(IcapMessageElementEnum.REQBODY)) {
-				body = entry.getName();
-				break;
-			} else if(entry.getName().equals(IcapMessageElementEnum.RESBODY)) {
-				body = entry.getName();
-				break;
-			} else if(entry.getName().equals(IcapMessageElementEnum.NULLBODY)) {
-				body = entry.getName();
-				break;
+		int bodies = present & BODY_MASK;
+		if(bodies == 0) {
+			return null;
+		}
+		if((bodies & (bodies - 1)) == 0) {
+			return ELEMENTS[Integer.numberOfTrailingZeros(bodies)];
+		}
+		for(int i = 0 ; i < size ; i++) {
+			if((bodies & (1 << order[i])) != 0) {
+				return ELEMENTS[order[i]];
 			}
 		}
-		return body;
+		return null;
 	}
 	
 	/**
@@ -100,14 +117,10 @@ public final class Encapsulated {
 	 * @return @see {@link IcapMessageElementEnum} or null if no more entries are available.
 	 */
 	public IcapMessageElementEnum getNextEntry() {
-		IcapMessageElementEnum entryName = null;
-		for(Entry entry : entries) {
-			if(!entry.isProcessed()) {
-				entryName = entry.getName();
-				break;
-			}
+		while(cursor < size && (processed & (1 << order[cursor])) != 0) {
+			cursor++;
 		}
-		return entryName;
+		return cursor < size?ELEMENTS[order[cursor]]:null;
 	}
 	
 	/**
@@ -117,21 +130,33 @@ public final class Encapsulated {
 	 * @param entryName the entry that was procesed.
 	 */
 	public void setEntryAsProcessed(IcapMessageElementEnum entryName) {
-		Entry entry = getEntryByName(entryName);
-		if(entry != null) {
-			entry.setIsProcessed();
+		if(entryName != null) {
+			processed |= present & mask(entryName);
 		}
 	}
 	
 	/**
-	 * Sets an entry with it's corresponding position.
+	 * Sets an entry with it's corresponding position. Setting an entry that is already
+	 * present replaces its position.
 	 * 
 	 * @param name the name of the Entry.
 	 * @param position the position of the entry within the icap message.
 	 */
 	public void addEntry(IcapMessageElementEnum name, int position) {
-		Entry entry = new Entry(name,position);
-		entries.add(entry);
+		if(name == null) {
+			throw new NullPointerException("name");
+		}
+		if(position < 0) {
+			throw new IllegalArgumentException("position must not be negative [" + position + "]");
+		}
+		int ordinal = name.ordinal();
+		if((present & mask(name)) != 0) {
+			remove(ordinal);
+		}
+		positions[ordinal] = position;
+		present |= mask(name);
+		insert(ordinal);
+		cursor = 0;
 	}
 	
 	/**
@@ -142,23 +167,19 @@ public final class Encapsulated {
 	 * @throws UnsupportedEncodingException If a character cannot be encoded in ASCII.
 	 */
 	public int encode(ByteBuf buffer) throws UnsupportedEncodingException {
-		int index = buffer.readableBytes();
-		Collections.sort(entries);
-		buffer.writeBytes("Encapsulated: ".getBytes(IcapCodecUtil.ASCII_CHARSET));
-		Iterator<Entry> entryIterator = entries.iterator();
-		while(entryIterator.hasNext()) {
-			Entry entry = entryIterator.next();
-			buffer.writeBytes(entry.getName().getValue().getBytes(IcapCodecUtil.ASCII_CHARSET));
-			buffer.writeBytes("=".getBytes(IcapCodecUtil.ASCII_CHARSET));
-			buffer.writeBytes(Integer.toString(entry.getPosition()).getBytes(IcapCodecUtil.ASCII_CHARSET));
-			if(entryIterator.hasNext()) {
+		int index = buffer.writerIndex();
+		buffer.writeBytes(HEADER_NAME);
+		for(int i = 0 ; i < size ; i++) {
+			if(i > 0) {
 				buffer.writeByte(',');
 				buffer.writeByte(IcapCodecUtil.SPACE);
 			}
+			buffer.writeBytes(ENCODED_NAMES[order[i]]);
+			writePosition(buffer,positions[order[i]]);
 		}
         buffer.writeBytes(IcapCodecUtil.CRLF);
         buffer.writeBytes(IcapCodecUtil.CRLF);
-		return buffer.readableBytes() - index;
+		return buffer.writerIndex() - index;
 	}
 	
 	/*
@@ -168,100 +189,129 @@ public final class Encapsulated {
 	RESPMOD response:	 [res-hdr] res-body
 	OPTIONS response:	 opt-body
 	 */
-	private void parseHeaderValue(String headerValue) {
+	private void parseHeaderValue(CharSequence headerValue) {
 		if(headerValue == null) {
 			throw new IcapDecodingError("No value associated with Encapsualted header");
 		}
-		StringTokenizer tokenizer = new StringTokenizer(headerValue,",");
-		while(tokenizer.hasMoreTokens()) {
-			String parameterString = tokenizer.nextToken();
-			if(parameterString != null) {
-				String[] parameter = splitParameter(parameterString.trim());
-				try {
-					int value = Integer.parseInt(parameter[1]);
-					Entry entry = new Entry(IcapMessageElementEnum.fromString(parameter[0]),value);
-					entries.add(entry);
-				} catch(NumberFormatException nfe) {
-					throw new IcapDecodingError("the Encapsulated header value [" + parameter[1] + "] for the key [" + parameter[0] + "] is not a number");
-				}
+		int length = headerValue.length();
+		int start = 0;
+		while(start < length) {
+			int end = start;
+			while(end < length && headerValue.charAt(end) != ',') {
+				end++;
 			}
+			if(end > start) {
+				parseParameter(headerValue,start,end);
+			}
+			start = end + 1;
 		}
-		Collections.sort(entries);
 	}
 	
-	private String[] splitParameter(String parameter) {
-		int offset = parameter.indexOf('=');
-		if(offset <= 0) {
-			throw new IcapDecodingError("Encapsulated header value was not understood [" + parameter + "]");
+	private void parseParameter(CharSequence headerValue, int start, int end) {
+		start = skipWhitespace(headerValue,start,end);
+		end = trimWhitespace(headerValue,start,end);
+		int offset = start;
+		while(offset < end && headerValue.charAt(offset) != '=') {
+			offset++;
+		}
+		if(offset == start || offset == end) {
+			throw new IcapDecodingError("Encapsulated header value was not understood [" + headerValue.subSequence(start,end) + "]");
+		}
+		int keyEnd = trimWhitespace(headerValue,start,offset);
+		int value = parsePosition(headerValue,offset + 1,end);
+		if(value < 0) {
+			throw new IcapDecodingError("the Encapsulated header value [" + headerValue.subSequence(offset + 1,end) + "] for the key [" + headerValue.subSequence(start,keyEnd) + "] is not a number");
 		}
-		String key = parameter.substring(0,offset);
-		String value = parameter.substring(offset + 1,parameter.length());
-		if(value.contains(",")) {
-			value = value.substring(0,value.indexOf(','));
+		IcapMessageElementEnum element = IcapMessageElementEnum.fromCharSequence(headerValue,start,keyEnd);
+		if(element == null) {
+			throw new IcapDecodingError("the Encapsulated header element [" + headerValue.subSequence(start,keyEnd) + "] is unknown");
 		}
-		return new String[]{key.trim(),value};
+		if(containsEntry(element)) {
+			throw new IcapDecodingError("the Encapsulated header element [" + element.getValue() + "] occurs more than once");
+		}
+		addEntry(element,value);
 	}
 	
-	private Entry getEntryByName(IcapMessageElementEnum entryName) {
-		Entry returnValue = null;
-		for(Entry entry : entries) {
-			if(entry.getName().equals(entryName)) {
-				returnValue = entry;
-				break;
+	private static int parsePosition(CharSequence value, int start, int end) {
+		if(start == end) {
+			return -1;
+		}
+		long position = 0;
+		for(int i = start ; i < end ; i++) {
+			char c = value.charAt(i);
+			if(c < '0' | c > '9') {
+				return -1;
+			}
+			position = position * 10 + (c - '0');
+			if(position > Integer.MAX_VALUE) {
+				return -1;
 			}
 		}
-		return returnValue;
+		return (int)position;
 	}
 	
-	private final static class Entry implements Comparable<Entry> {
-
-		private final IcapMessageElementEnum name;
-		private final Integer position;
-		private boolean processed;
-		
-		public Entry(IcapMessageElementEnum name, Integer position) {
-			this.name = name;
-			this.position = position;
-		}
-		
-		public IcapMessageElementEnum getName() {
-			return name;
-		}
-		
-		public int getPosition() {
-			return position;
+	private static int skipWhitespace(CharSequence value, int start, int end) {
+		while(start < end && value.charAt(start) <= ' ') {
+			start++;
 		}
-		
-		public void setIsProcessed() {
-			processed = true;
+		return start;
+	}
+	
+	private static int trimWhitespace(CharSequence value, int start, int end) {
+		while(end > start && value.charAt(end - 1) <= ' ') {
+			end--;
 		}
-		
-		public boolean isProcessed() {
-			return processed;
+		return end;
+	}
+	
+	private static void writePosition(ByteBuf buffer, int position) {
+		if(position >= 10) {
+			writePosition(buffer,position / 10);
 		}
-		
-		@Override
-		public int compareTo(Entry entry) {			
-			if(this.name.equals(IcapMessageElementEnum.NULLBODY)) {
-				return 1;
+		buffer.writeByte('0' + position % 10);
+	}
+	
+	/*
+	 * keeps the order array sorted by position with null-body always last. Entries with
+	 * equal positions stay in insertion order.
+	 */
+	private void insert(int ordinal) {
+		int index = size;
+		if(ordinal != IcapMessageElementEnum.NULLBODY.ordinal()) {
+			while(index > 0 && isAfter(order[index - 1],ordinal)) {
+				order[index] = order[index - 1];
+				index--;
 			}
-			return this.position.compareTo(entry.position);
 		}
-		
-		@Override
-		public String toString() {
-			return name + "=" + position + " : " + processed;
+		order[index] = (byte)ordinal;
+		size++;
+	}
+	
+	private boolean isAfter(int ordinal, int other) {
+		return ordinal == IcapMessageElementEnum.NULLBODY.ordinal() || positions[ordinal] > positions[other];
+	}
+	
+	private void remove(int ordinal) {
+		int index = 0;
+		while(order[index] != ordinal) {
+			index++;
 		}
+		System.arraycopy(order,index + 1,order,index,size - index - 1);
+		size--;
+		processed &= ~(1 << ordinal);
+	}
+	
+	private static int mask(IcapMessageElementEnum element) {
+		return 1 << element.ordinal();
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("Encapsulated: ");
-		for(Entry entry : entries) {
-			if(entry != null) {
-				builder.append(" [").append(entry.toString()).append("] ");
-			}
+		for(int i = 0 ; i < size ; i++) {
+			int ordinal = order[i];
+			builder.append(" [").append(ELEMENTS[ordinal]).append('=').append(positions[ordinal]).append(" : ").append((processed & (1 << ordinal)) != 0).append("] ");
 		}
  		return builder.toString();
 	}
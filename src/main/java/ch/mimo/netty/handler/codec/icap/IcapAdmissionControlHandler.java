@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sheds load before it reaches the service. Every ICAP request has to be admitted by a shared
+ * @see {@link IcapConcurrencyLimit}, the transaction is completed as soon as the final response
+ * (anything but 100 Continue) is written.
+ * 
+ * Requests that are not admitted are answered right away with a pre-encoded response and the body chunks
+ * that are still to come are discarded. The response is a 503 Service Unavailable, or a 204 No Content for
+ * services that are configured for bypass if the request allows it (preview or Allow: 204).
+ * The pre-encoded responses are built once per ISTag and shared by all handler instances.
+ * OPTIONS requests are always passed on.
+ * 
+ * The handler has to be placed right after the decoder and the encoder:
+ * 
+ * <pre>
+ * pipeline.addLast("decoder",new IcapRequestDecoder());
+ * pipeline.addLast("encoder",new IcapResponseEncoder());
+ * pipeline.addLast("admissionControl",new IcapAdmissionControlHandler(limit,"\"Serial-0815\""));
+ * pipeline.addLast("chunkAggregator",new IcapChunkAggregator(4096));
+ * pipeline.addLast("handler",new MyServiceHandler());
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapConcurrencyLimit
+ */
+public class IcapAdmissionControlHandler extends ChannelDuplexHandler {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapAdmissionControlHandler.class);
+	
+	private static final String ALLOW_204 = "204";
+	private static final int MAX_SHARED_RESPONSES = 16;
+	
+	private static final ConcurrentMap<String,ByteBuf[]> SHARED_RESPONSES = new ConcurrentHashMap<String,ByteBuf[]>();
+	
+	private final IcapConcurrencyLimit limit;
+	private final Set<String> bypassServices;
+	private final ByteBuf serviceUnavailable;
+	private final ByteBuf noContent;
+	
+	private boolean admitted;
+	private long start;
+	private boolean discardBody;
+	
+	/**
+	 * @param limit the shared concurrency limit.
+	 * @param isTag the ISTag header value of rejection responses.
+	 */
+	public IcapAdmissionControlHandler(IcapConcurrencyLimit limit, String isTag) {
+		this(limit,isTag,Collections.<String>emptySet());
+	}
+	
+	/**
+	 * @param limit the shared concurrency limit.
+	 * @param isTag the ISTag header value of rejection responses.
+	 * @param bypassServices services (e.g. "reqmod" for icap://host/reqmod) that answer with 204 No Content instead of 503.
+	 */
+	public IcapAdmissionControlHandler(IcapConcurrencyLimit limit, String isTag, Set<String> bypassServices) {
+		if(limit == null) {
+			throw new NullPointerException("limit");
+		}
+		if(isTag == null) {
+			throw new NullPointerException("isTag");
+		}
+		this.limit = limit;
+		this.bypassServices = new HashSet<String>(bypassServices);
+		ByteBuf[] responses = sharedResponses(isTag);
+		this.serviceUnavailable = responses[0];
+		this.noContent = responses[1];
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if(msg instanceof IcapRequest) {
+			IcapRequest request = (IcapRequest)msg;
+			discardBody = false;
+			if(!request.getMethod().equals(IcapMethod.OPTIONS)) {
+				if(!limit.tryAcquire()) {
+					reject(ctx,request);
+					return;
+				}
+				completeTransaction();
+				admitted = true;
+				start = nanoTime();
+			}
+		} else if(msg instanceof IcapChunk && discardBody) {
+			if(((IcapChunk)msg).isLast()) {
+				discardBody = false;
+			}
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+		ctx.fireChannelRead(msg);
+	}
+	
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if(admitted && msg instanceof IcapResponse && !((IcapResponse)msg).getStatus().equals(IcapResponseStatus.CONTINUE)) {
+			admitted = false;
+			limit.onSuccess(nanoTime() - start);
+		}
+		ctx.write(msg,promise);
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		completeTransaction();
+		ctx.fireChannelInactive();
+	}
+	
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		completeTransaction();
+	}
+	
+	long nanoTime() {
+		return System.nanoTime();
+	}
+	
+	private void completeTransaction() {
+		if(admitted) {
+			admitted = false;
+			limit.onIgnore();
+		}
+	}
+	
+	private void reject(ChannelHandlerContext ctx, IcapRequest request) {
+		ByteBuf response = serviceUnavailable;
+		if(isBypassAllowed(request)) {
+			response = noContent;
+		}
+		if(IcapTrace.isTracing(LOG,ctx)) {
+			IcapTrace.trace(LOG,ctx,"Concurrency limit of [{}] reached, rejecting request for [{}]",limit.getLimit(),request.getUri());
+		}
+		IcapMessageElementEnum body = request.getBodyType();
+		discardBody = body != null && !body.equals(IcapMessageElementEnum.NULLBODY);
+		ReferenceCountUtil.release(request);
+		ctx.writeAndFlush(response.retainedDuplicate());
+	}
+	
+	private boolean isBypassAllowed(IcapRequest request) {
+		if(bypassServices.isEmpty() || !bypassServices.contains(IcapCodecUtil.getServiceName(request.getUri()))) {
+			return false;
+		}
+		if(request.isPreviewMessage()) {
+			return true;
+		}
+		String allow = request.getHeader(IcapHeaders.Names.ALLOW);
+		return allow != null && allow.contains(ALLOW_204);
+	}
+	
+	private static ByteBuf[] sharedResponses(String isTag) {
+		ByteBuf[] responses = SHARED_RESPONSES.get(isTag);
+		if(responses == null) {
+			responses = new ByteBuf[] {encodeResponse(IcapResponseStatus.SERVICE_UNAVAILABLE,isTag),encodeResponse(IcapResponseStatus.NO_CONTENT,isTag)};
+			if(SHARED_RESPONSES.size() >= MAX_SHARED_RESPONSES) {
+				SHARED_RESPONSES.clear();
+			}
+			ByteBuf[] existing = SHARED_RESPONSES.putIfAbsent(isTag,responses);
+			if(existing != null) {
+				responses = existing;
+			}
+		}
+		return responses;
+	}
+	
+	private static ByteBuf encodeResponse(IcapResponseStatus status, String isTag) {
+		ByteBuf buffer = Unpooled.buffer(128);
+		buffer.writeBytes(IcapVersion.ICAP_1_0.toString().getBytes(IcapCodecUtil.ASCII_CHARSET));
+		buffer.writeByte(IcapCodecUtil.SPACE);
+		status.toResponseInitialLineValue(buffer);
+		buffer.writeBytes(IcapCodecUtil.CRLF);
+		writeHeader(buffer,IcapHeaders.Names.ISTAG,isTag);
+		writeHeader(buffer,IcapHeaders.Names.ENCAPSULATED,IcapMessageElementEnum.NULLBODY.getValue() + "=0");
+		buffer.writeBytes(IcapCodecUtil.CRLF);
+		return Unpooled.unreleasableBuffer(buffer);
+	}
+	
+	private static void writeHeader(ByteBuf buffer, String name, String value) {
+		buffer.writeBytes(name.getBytes(IcapCodecUtil.ASCII_CHARSET));
+		buffer.writeByte(IcapCodecUtil.COLON);
+		buffer.writeByte(IcapCodecUtil.SPACE);
+		buffer.writeBytes(value.getBytes(IcapCodecUtil.ASCII_CHARSET));
+		buffer.writeBytes(IcapCodecUtil.CRLF);
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBufUtil;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable set of digests of one encapsulated body, computed by @see {@link IcapBodyDigestHandler}.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapBodyDigestHandler#getBodyDigest(IcapMessage)
+ * @see IcapBodyDigestHandler#getBodyDigest(IcapChunkTrailer)
+ */
+public final class IcapBodyDigest {
+
+	private final Map<String, byte[]> digests;
+	private final long length;
+	
+	IcapBodyDigest(Map<String, byte[]> digests, long length) {
+		this.digests = Collections.unmodifiableMap(new LinkedHashMap<String, byte[]>(digests));
+		this.length = length;
+	}
+	
+	/**
+	 * @return the digest algorithms in the order they were configured, e.g. SHA-256.
+	 */
+	public Set<String> getAlgorithms() {
+		return digests.keySet();
+	}
+	
+	/**
+	 * @param algorithm the digest algorithm, e.g. SHA-256.
+	 * @return a copy of the digest or null if it was not computed.
+	 */
+	public byte[] getDigest(String algorithm) {
+		byte[] digest = digests.get(algorithm);
+		return digest != null?digest.clone():null;
+	}
+	
+	/**
+	 * @param algorithm the digest algorithm, e.g. SHA-256.
+	 * @return the digest as lower case hex string or null if it was not computed.
+	 */
+	public String getHexDigest(String algorithm) {
+		byte[] digest = digests.get(algorithm);
+		return digest != null?ByteBufUtil.hexDump(digest):null;
+	}
+	
+	/**
+	 * @return the amount of body bytes the digests were computed over.
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("IcapBodyDigest: [length=").append(length).append(']');
+		for(String algorithm : digests.keySet()) {
+			builder.append(" [").append(algorithm).append('=').append(getHexDigest(algorithm)).append(']');
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Computes digests of the encapsulated body while its chunks pass through the pipeline.
+ * 
+ * Chunk contents are fed to the @see {@link MessageDigest} instances through the NIO buffers of the chunk,
+ * so neither heap nor direct buffers are copied and the reader index of a chunk is not changed. 
+ * The digest survives the end of a preview and is finished with the last chunk of the body. The resulting
+ * @see {@link IcapBodyDigest} is attached to the message and to the @see {@link IcapChunkTrailer} before the
+ * trailer is passed on, both are read with {@link #getBodyDigest(IcapMessage)} and {@link #getBodyDigest(IcapChunkTrailer)}. A chunk aggregator further
+ * down the pipeline therefore passes on a message that already carries the digest.
+ * 
+ * If the handler is placed after a chunk aggregator the digest is computed over the aggregated body.
+ * 
+ * <pre>
+ * pipeline.addLast("decoder",new IcapRequestDecoder());
+ * pipeline.addLast("digest",new IcapBodyDigestHandler("MD5","SHA-256"));
+ * pipeline.addLast("chunkAggregator",new IcapChunkAggregator(4096));
+ * pipeline.addLast("handler",new MyServiceHandler());
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class IcapBodyDigestHandler extends ChannelInboundHandlerAdapter {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapBodyDigestHandler.class);
+	
+	public static final String MD5 = "MD5";
+	public static final String SHA1 = "SHA-1";
+	public static final String SHA256 = "SHA-256";
+	
+	private final MessageDigest[] digests;
+	
+	private IcapMessage message;
+	private long length;
+	
+	public IcapBodyDigestHandler() {
+		this(SHA256);
+	}
+	
+	/**
+	 * @param algorithms the digest algorithms to compute, e.g. MD5, SHA-1 or SHA-256.
+	 * @throws IllegalArgumentException if an algorithm is not available.
+	 */
+	public IcapBodyDigestHandler(String... algorithms) {
+		if(algorithms == null) {
+			throw new NullPointerException("algorithms");
+		}
+		if(algorithms.length == 0) {
+			throw new IllegalArgumentException("at least one digest algorithm is required");
+		}
+		digests = new MessageDigest[algorithms.length];
+		for(int i = 0 ; i < algorithms.length ; i++) {
+			try {
+				digests[i] = MessageDigest.getInstance(algorithms[i]);
+			} catch(NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException("digest algorithm is not available: " + algorithms[i],e);
+			}
+		}
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if(msg instanceof IcapMessage) {
+			reset();
+			startMessage((IcapMessage)msg);
+		} else if(msg instanceof IcapChunk && message != null) {
+			IcapChunk chunk = (IcapChunk)msg;
+			update(chunk.content());
+			if(chunk.isLast() && (!chunk.isPreviewChunk() || chunk.isEarlyTerminated())) {
+				IcapBodyDigest digest = finish();
+				IcapTrace.trace(LOG,ctx,"Body digest {}",digest);
+				if(chunk instanceof DefaultIcapChunkTrailer) {
+					((DefaultIcapChunkTrailer)chunk).setBodyDigest(digest);
+				} else if(chunk instanceof RecyclableIcapChunkTrailer) {
+					((RecyclableIcapChunkTrailer)chunk).setBodyDigest(digest);
+				}
+			}
+		}
+		ctx.fireChannelRead(msg);
+	}
+	
+	/**
+	 * @param message a message that passed this handler.
+	 * @return @see {@link IcapBodyDigest} of the encapsulated body or null if no digest was computed.
+	 */
+	public static IcapBodyDigest getBodyDigest(IcapMessage message) {
+		if(message instanceof AbstractIcapMessage) {
+			return ((AbstractIcapMessage)message).getBodyDigest();
+		}
+		return null;
+	}
+	
+	/**
+	 * @param trailer the last chunk of a body that passed this handler.
+	 * @return @see {@link IcapBodyDigest} of the encapsulated body or null if no digest was computed.
+	 */
+	public static IcapBodyDigest getBodyDigest(IcapChunkTrailer trailer) {
+		if(trailer instanceof DefaultIcapChunkTrailer) {
+			return ((DefaultIcapChunkTrailer)trailer).getBodyDigest();
+		}
+		if(trailer instanceof RecyclableIcapChunkTrailer) {
+			return ((RecyclableIcapChunkTrailer)trailer).getBodyDigest();
+		}
+		return null;
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		reset();
+		super.channelInactive(ctx);
+	}
+	
+	private void startMessage(IcapMessage icapMessage) {
+		IcapMessageElementEnum body = icapMessage.getBodyType();
+		if(body == null || IcapMessageElementEnum.NULLBODY.equals(body)) {
+			return;
+		}
+		message = icapMessage;
+		ByteBuf content = aggregatedContent(icapMessage,body);
+		if(content != null && content.isReadable()) {
+			update(content);
+			finish();
+		}
+	}
+	
+	private void update(ByteBuf content) {
+		int readable = content.readableBytes();
+		if(readable == 0) {
+			return;
+		}
+		length += readable;
+		if(content.nioBufferCount() == 1) {
+			ByteBuffer buffer = content.nioBuffer(content.readerIndex(),readable);
+			for(MessageDigest digest : digests) {
+				buffer.mark();
+				digest.update(buffer);
+				buffer.reset();
+			}
+		} else {
+			ByteBuffer[] buffers = content.nioBuffers(content.readerIndex(),readable);
+			for(MessageDigest digest : digests) {
+				for(ByteBuffer buffer : buffers) {
+					buffer.mark();
+					digest.update(buffer);
+					buffer.reset();
+				}
+			}
+		}
+	}
+	
+	private IcapBodyDigest finish() {
+		Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+		for(MessageDigest digest : digests) {
+			values.put(digest.getAlgorithm(),digest.digest());
+		}
+		IcapBodyDigest digest = new IcapBodyDigest(values,length);
+		if(message instanceof AbstractIcapMessage) {
+			((AbstractIcapMessage)message).setBodyDigest(digest);
+		}
+		message = null;
+		length = 0;
+		return digest;
+	}
+	
+	private void reset() {
+		for(MessageDigest digest : digests) {
+			digest.reset();
+		}
+		message = null;
+		length = 0;
+	}
+	
+	private static ByteBuf aggregatedContent(IcapMessage message, IcapMessageElementEnum body) {
+		FullHttpMessage httpMessage = null;
+		if(IcapMessageElementEnum.REQBODY.equals(body)) {
+			httpMessage = message.getHttpRequest();
+		} else if(IcapMessageElementEnum.RESBODY.equals(body)) {
+			httpMessage = message.getHttpResponse();
+		} else if(message instanceof IcapResponse) {
+			return ((IcapResponse)message).getContent();
+		}
+		return httpMessage != null?httpMessage.content():null;
+	}
+}
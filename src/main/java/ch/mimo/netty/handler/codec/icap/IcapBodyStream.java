@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encapsulated body that is produced while it is sent, e.g. an origin response that is still arriving
+ * at a proxy. The producer pushes buffers with {@link #write(ByteBuf)} from any thread and finishes the body with
+ * {@link #end()}, the buffers are pulled as @see {@link IcapChunk}s by a @see {@link ChunkedWriteHandler}
+ * as long as the ICAP channel is writable.
+ * 
+ * In order to not buffer an unbounded body, {@link #write(ByteBuf)} returns false once more than maxPendingBytes
+ * are waiting. The producer should then stop reading from its source, e.g. disable auto read of the origin
+ * channel, until the resume listener is invoked because the pending bytes fell below half of the limit. This
+ * is the same contract a reactive streams subscriber needs in order to request more data. Once the transfer 
+ * failed or the channel was closed, the stream is closed and {@link #write(ByteBuf)} throws an IllegalStateException 
+ * so that the producer aborts instead of waiting for a resume that never comes.
+ * 
+ * <pre>
+ * IcapBodyStream body = new IcapBodyStream(icapChannel,64 * 1024);
+ * body.setResumeListener(new Runnable() {
+ *     public void run() {
+ *         originChannel.config().setAutoRead(true);
+ *     }
+ * });
+ * request.setBody(IcapMessageElementEnum.RESBODY);
+ * icapChannel.write(request);
+ * icapChannel.writeAndFlush(body);
+ * 
+ * // for every HttpContent of the origin response
+ * if(!body.write(content.content().retain())) {
+ *     originChannel.config().setAutoRead(false);
+ * }
+ * // at the LastHttpContent
+ * body.end();
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapChunkedInput
+ */
+public class IcapBodyStream implements ChunkedInput<IcapChunk> {
+
+	private final Channel channel;
+	private final long maxPendingBytes;
+	
+	private final Queue<ByteBuf> queue = new ConcurrentLinkedQueue<ByteBuf>();
+	private final AtomicLong pendingBytes = new AtomicLong();
+	private final AtomicBoolean suspended = new AtomicBoolean();
+	private volatile boolean ended;
+	private volatile boolean closed;
+	private volatile Runnable resumeListener;
+	
+	private boolean trailerSent;
+	private long progress;
+	
+	/**
+	 * @param channel the ICAP channel the body is written to, it has a @see {@link ChunkedWriteHandler} in its pipeline.
+	 * @param maxPendingBytes amount of bytes that may wait for the channel before {@link #write(ByteBuf)} asks to pause.
+	 */
+	public IcapBodyStream(Channel channel, long maxPendingBytes) {
+		if(channel == null) {
+			throw new NullPointerException("channel");
+		}
+		if(maxPendingBytes <= 0) {
+			throw new IllegalArgumentException("maxPendingBytes must be a positive number: " + maxPendingBytes);
+		}
+		this.channel = channel;
+		this.maxPendingBytes = maxPendingBytes;
+	}
+	
+	/**
+	 * @param listener invoked on the event loop of the ICAP channel once a paused producer may continue.
+	 */
+	public void setResumeListener(Runnable listener) {
+		this.resumeListener = listener;
+	}
+	
+	/**
+	 * Appends a part of the body. The stream takes over the buffer and releases it once it was written.
+	 * 
+	 * @param content the next part of the body.
+	 * @return false if the producer should pause until the resume listener is invoked.
+	 * @throws IllegalStateException if the stream was already ended or closed, the buffer is released.
+	 */
+	public boolean write(ByteBuf content) {
+		if(ended || closed) {
+			content.release();
+			throw new IllegalStateException(ended?"body stream was already ended":"body stream was closed");
+		}
+		if(!content.isReadable()) {
+			content.release();
+			return pendingBytes.get() <= maxPendingBytes;
+		}
+		long pending = pendingBytes.addAndGet(content.readableBytes());
+		queue.add(content);
+		if(closed) {
+			releaseQueue();
+		}
+		resume();
+		if(pending > maxPendingBytes) {
+			suspended.set(true);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Marks the end of the body, the trailer is written once all pending parts were written.
+	 */
+	public void end() {
+		ended = true;
+		resume();
+	}
+	
+	/**
+	 * @return the amount of bytes that wait for the channel.
+	 */
+	public long getPendingBytes() {
+		return pendingBytes.get();
+	}
+	
+	@Override
+	public boolean isEndOfInput() throws Exception {
+		return trailerSent;
+	}
+	
+	@Override
+	public void close() throws Exception {
+		closed = true;
+		releaseQueue();
+	}
+	
+	@Override
+	@Deprecated
+	public IcapChunk readChunk(ChannelHandlerContext ctx) throws Exception {
+		return readChunk(ctx.alloc());
+	}
+	
+	@Override
+	public IcapChunk readChunk(ByteBufAllocator allocator) throws Exception {
+		if(trailerSent) {
+			return null;
+		}
+		boolean end = ended;
+		ByteBuf content = queue.poll();
+		if(content == null) {
+			if(end) {
+				trailerSent = true;
+				return new DefaultIcapChunkTrailer();
+			}
+			return null;
+		}
+		int readable = content.readableBytes();
+		progress += readable;
+		long pending = pendingBytes.addAndGet(-readable);
+		if(pending <= maxPendingBytes / 2 && suspended.compareAndSet(true,false)) {
+			Runnable listener = resumeListener;
+			if(listener != null) {
+				listener.run();
+			}
+		}
+		return new DefaultIcapChunk(content);
+	}
+	
+	@Override
+	public long length() {
+		return -1;
+	}
+	
+	@Override
+	public long progress() {
+		return progress;
+	}
+	
+	private void resume() {
+		ChunkedWriteHandler handler = channel.pipeline().get(ChunkedWriteHandler.class);
+		if(handler != null) {
+			handler.resumeTransfer();
+		}
+	}
+	
+	private void releaseQueue() {
+		ByteBuf content;
+		while((content = queue.poll()) != null) {
+			pendingBytes.addAndGet(-content.readableBytes());
+			content.release();
+		}
+	}
+}
@@ -55,6 +55,7 @@ public class IcapChunkAggregator extends ChannelInboundHandlerAdapter {
 	private long maxContentLength;
 	private IcapMessageWrapper message;
 	private boolean resetReaderIndex;
+	private Object aggregationEvent;
 	
 	/**
 	 * Convenience method to retrieve a HTTP request,response or 
@@ -102,23 +103,25 @@ public class IcapChunkAggregator extends ChannelInboundHandlerAdapter {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
     	if(msg instanceof IcapMessage) {
-    		LOG.debug("Aggregation of message [" + msg.getClass().getName() + "] ");
+    		IcapTrace.trace(LOG,ctx,"Aggregation of message [{}]",msg.getClass().getName());
     		IcapMessage currentMessage = (IcapMessage)msg;
     		message = new IcapMessageWrapper(ctx.alloc(), currentMessage);
+    		aggregationEvent = IcapFlightRecorder.beginAggregation();
     		if(!message.hasBody()) {
+    			aggregationEvent = null;
                 message.getIcapMessage().removeHeader(IcapHeaders.Names.PREVIEW);
                 ctx.fireChannelRead(message.getIcapMessage());
     			message = null;
     			return;
     		}
     	} else if(msg instanceof IcapChunkTrailer) {
-    		LOG.debug("Aggregation of chunk trailer [" + msg.getClass().getName() + "] ");
+    		IcapTrace.trace(LOG,ctx,"Aggregation of chunk trailer [{}]",msg.getClass().getName());
     		if(message == null) {
     			ctx.fireChannelRead(msg);
     		} else {
     			IcapChunkTrailer trailer = (IcapChunkTrailer)msg;
                 if (trailer.isEarlyTerminated()) {
-                    LOG.debug("chunk trailer is early terminated, removing PREVIEW header");
+                    IcapTrace.trace(LOG,ctx,"chunk trailer is early terminated, removing {} header",IcapHeaders.Names.PREVIEW);
                     message.getIcapMessage().removeHeader(IcapHeaders.Names.PREVIEW);
                 }
                 if (trailer.trailingHeaders().size() > 0) {
@@ -129,18 +132,21 @@ public class IcapChunkAggregator extends ChannelInboundHandlerAdapter {
                 if (message.getIcapMessage() instanceof IcapResponse) {
 					((IcapResponse)message.getIcapMessage()).setUseOriginalBody(trailer.getUseOriginalBody());
 				}
+                trailer.release();
+                commitAggregationEvent();
                 ctx.fireChannelRead(message.getIcapMessage());
     		}
     	} else if(msg instanceof IcapChunk) {
-    		LOG.debug("Aggregation of chunk [" + msg.getClass().getName() + "] ");
+    		IcapTrace.trace(LOG,ctx,"Aggregation of chunk [{}]",msg.getClass().getName());
     		IcapChunk chunk = (IcapChunk)msg;
     		if(message == null) {
     			ctx.fireChannelRead(msg);
     		} else if(chunk.isLast()) {
     			if(chunk.isEarlyTerminated()) {
-                    LOG.debug("chunk is early terminated, removing PREVIEW header");
+                    IcapTrace.trace(LOG,ctx,"chunk is early terminated, removing {} header",IcapHeaders.Names.PREVIEW);
                     message.getIcapMessage().removeHeader(IcapHeaders.Names.PREVIEW);
     			}
+                commitAggregationEvent();
                 ctx.fireChannelRead(message.getIcapMessage());
     			message = null;
     		} else {
@@ -158,7 +164,7 @@ public class IcapChunkAggregator extends ChannelInboundHandlerAdapter {
     				}
     			}
 				} finally {
-					chunk.content().release();
+					chunk.release();
 				}
     		}
     	} else {
@@ -166,6 +172,13 @@ public class IcapChunkAggregator extends ChannelInboundHandlerAdapter {
     	}
     }
     
+    private void commitAggregationEvent() {
+    	if(aggregationEvent != null) {
+    		IcapFlightRecorder.commitAggregation(aggregationEvent,message.getIcapMessage(),message.getContent().readableBytes());
+    		aggregationEvent = null;
+    	}
+    }
+    
     private final class IcapMessageWrapper {
     	
     	private IcapMessage message;
@@ -16,10 +16,12 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
+import java.io.IOException;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelPromise;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
@@ -33,15 +35,26 @@ import io.netty.util.internal.logging.InternalLoggerFactory;
  * This separator cannot handle trailing headers at HTTP request or response bodies. If you have to
  * send trailing headers then consider not using this separator but handling the message body by yourself.
  * 
+ * On the client side the separator can retain the body of every REQMOD and RESPMOD request in an 
+ * @see {@link IcapClientTransaction}, including chunks that are written after a preview. This is required
+ * in order to continue with the original body after a 204 or a use-original-body response, see
+ * @see {@link IcapPartialContentHandler}. The retained body of the last request is released when the channel is closed.
+ * 
+ * Bodies that are not present as a whole can be streamed after the message with an @see {@link IcapChunkedInput}
+ * or an @see {@link IcapBodyStream} and a ChunkedWriteHandler behind this separator. The body type has to be set
+ * on the message in that case, the streamed chunks are retained like any other chunk.
+ * 
  * @author Michael Mimo Moratti (mimo@mimo.ch)
  *
  */
 @ChannelHandler.Sharable
-public class IcapChunkSeparator extends ChannelOutboundHandlerAdapter {
+public class IcapChunkSeparator extends ChannelDuplexHandler {
 
 	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapChunkSeparator.class);
 	
 	private int chunkSize;
+	private int memoryThreshold;
+	private boolean retainOriginalBody;
 	
 	/**
 	 * @param chunkSize defines the normal chunk size that is to be produced while separating.
@@ -49,17 +62,32 @@ public class IcapChunkSeparator extends ChannelOutboundHandlerAdapter {
 	public IcapChunkSeparator(int chunkSize) {
 		this.chunkSize = chunkSize;
 	}
+	
+	/**
+	 * Creates a separator that retains the body of every written request until the response is known.
+	 * 
+	 * @param chunkSize defines the normal chunk size that is to be produced while separating.
+	 * @param memoryThreshold amount of body bytes that are retained in memory before the body is moved to a temporary file.
+	 */
+	public IcapChunkSeparator(int chunkSize, int memoryThreshold) {
+		if(memoryThreshold < 0) {
+			throw new IllegalArgumentException("memoryThreshold must not be negative: " + memoryThreshold);
+		}
+		this.chunkSize = chunkSize;
+		this.memoryThreshold = memoryThreshold;
+		this.retainOriginalBody = true;
+	}
 
 	@Override
 	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
 		if(msg instanceof IcapMessage) {
-			LOG.debug("Separation of message [" + msg.getClass().getName() + "] ");
+			IcapTrace.trace(LOG,ctx,"Separation of message [{}]",msg.getClass().getName());
 			IcapMessage message = (IcapMessage)msg;
 			ByteBuf content = setBodyTypeAndGetContent(message);
 			if (content != null) {
 				content.retain();
 			}
-			ctx.write(message);
+			IcapClientTransaction transaction = beginTransaction(ctx,message,content);
 			if(content != null) {
 				boolean isPreview = message.isPreviewMessage();
 				boolean isEarlyTerminated = false;
@@ -68,6 +96,12 @@ public class IcapChunkSeparator extends ChannelOutboundHandlerAdapter {
 					isEarlyTerminated = content.readableBytes() < message.getPreviewAmount();
 				}
 				boolean appendTrailer = content.readableBytes() > 0 || useOriginalBody != null || isPreview;
+				// the promise of the caller completes with the last write, i.e. once the whole body was written.
+				if(appendTrailer) {
+					ctx.write(message);
+				} else {
+					ctx.write(message,promise);
+				}
 				while(content.readableBytes() > 0) {
 					IcapChunk chunk;
 					if(content.readableBytes() > chunkSize) {
@@ -77,6 +111,9 @@ public class IcapChunkSeparator extends ChannelOutboundHandlerAdapter {
 					}
 					chunk.setPreviewChunk(isPreview);
 					chunk.setEarlyTermination(isEarlyTerminated);
+					if(transaction != null) {
+						appendToTransaction(ctx,transaction,chunk.content());
+					}
 					ctx.write(chunk);
 				}
 				if (appendTrailer) {
@@ -84,13 +121,73 @@ public class IcapChunkSeparator extends ChannelOutboundHandlerAdapter {
 					trailer.setPreviewChunk(isPreview);
 					trailer.setEarlyTermination(isEarlyTerminated);
 					trailer.setUseOriginalBody(useOriginalBody);
-					ctx.write(trailer);
+					ctx.write(trailer,promise);
+				}
+				if(transaction != null && (!isPreview || isEarlyTerminated)) {
+					transaction.complete();
 				}
 				content.release();
+			} else {
+				ctx.write(message,promise);
 			}
 			ctx.flush();
 		} else {
-			ctx.writeAndFlush(msg);
+			if(retainOriginalBody && msg instanceof IcapChunk) {
+				IcapClientTransaction transaction = IcapClientTransaction.current(ctx.channel());
+				if(transaction != null) {
+					IcapChunk chunk = (IcapChunk)msg;
+					appendToTransaction(ctx,transaction,chunk.content());
+					if(chunk.isLast() && (!chunk.isPreviewChunk() || chunk.isEarlyTerminated())) {
+						transaction.complete();
+					}
+				}
+			}
+			ctx.write(msg,promise);
+		}
+	}
+	
+	@Override
+	public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+		IcapClientTransaction.end(ctx.channel());
+		ctx.close(promise);
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		IcapClientTransaction.end(ctx.channel());
+		ctx.fireChannelInactive();
+	}
+	
+	/**
+	 * @return whether this separator retains the body of every written request.
+	 */
+	boolean isRetainingOriginalBody() {
+		return retainOriginalBody;
+	}
+	
+	private IcapClientTransaction beginTransaction(ChannelHandlerContext ctx, IcapMessage message, ByteBuf content) {
+		if(!retainOriginalBody || !(message instanceof IcapRequest)) {
+			return null;
+		}
+		IcapMethod method = ((IcapRequest)message).getMethod();
+		IcapMessageElementEnum body = message.getBodyType();
+		boolean streamedBody = IcapMessageElementEnum.REQBODY.equals(body) || IcapMessageElementEnum.RESBODY.equals(body);
+		if((content == null && !streamedBody) || !(IcapMethod.REQMOD.equals(method) || IcapMethod.RESPMOD.equals(method))) {
+			IcapClientTransaction.end(ctx.channel());
+			return null;
+		}
+		IcapClientTransaction transaction = new IcapClientTransaction(ctx.alloc(),memoryThreshold);
+		IcapClientTransaction.begin(ctx.channel(),transaction);
+		return transaction;
+	}
+	
+	private void appendToTransaction(ChannelHandlerContext ctx, IcapClientTransaction transaction, ByteBuf content) {
+		try {
+			transaction.append(content);
+		} catch(IOException e) {
+			IcapTrace.trace(LOG,ctx,"Original body cannot be retained: {}",e.getMessage());
+			IcapClientTransaction.end(ctx.channel());
+			ctx.fireExceptionCaught(e);
 		}
 	}
     
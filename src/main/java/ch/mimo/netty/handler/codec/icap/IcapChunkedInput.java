@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedStream;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams an encapsulated body from any @see {@link ChunkedInput} of ByteBufs, e.g. a file or a stream, as
+ * @see {@link IcapChunk}s followed by an @see {@link IcapChunkTrailer}.
+ * 
+ * The input is written after the message it belongs to and is pulled by a @see {@link ChunkedWriteHandler} only
+ * as long as the channel is writable, so a large body is never held in memory as a whole. The body type of
+ * the message has to be set explicitly since the separator cannot see the streamed body:
+ * 
+ * <pre>
+ * pipeline.addLast("encoder",new IcapRequestEncoder());
+ * pipeline.addLast("chunkSeparator",new IcapChunkSeparator(4096));
+ * pipeline.addLast("chunkedWriter",new ChunkedWriteHandler());
+ * 
+ * request.setBody(IcapMessageElementEnum.RESBODY);
+ * channel.write(request);
+ * channel.writeAndFlush(IcapChunkedInput.fromFile(file,8192));
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapBodyStream
+ */
+public class IcapChunkedInput implements ChunkedInput<IcapChunk> {
+
+	private final ChunkedInput<ByteBuf> input;
+	
+	private boolean trailerSent;
+	
+	/**
+	 * @param input the body source, it is closed once the body was written.
+	 */
+	public IcapChunkedInput(ChunkedInput<ByteBuf> input) {
+		if(input == null) {
+			throw new NullPointerException("input");
+		}
+		this.input = input;
+	}
+	
+	/**
+	 * @param file the body.
+	 * @param chunkSize the size of the chunks the file is read in.
+	 * @return new input that reads the file.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public static IcapChunkedInput fromFile(File file, int chunkSize) throws IOException {
+		return new IcapChunkedInput(new ChunkedNioFile(file,chunkSize));
+	}
+	
+	/**
+	 * @param stream the body, read on the event loop so it should not block for long.
+	 * @param chunkSize the size of the chunks the stream is read in.
+	 * @return new input that reads the stream.
+	 */
+	public static IcapChunkedInput fromStream(InputStream stream, int chunkSize) {
+		return new IcapChunkedInput(new ChunkedStream(stream,chunkSize));
+	}
+	
+	@Override
+	public boolean isEndOfInput() throws Exception {
+		return trailerSent;
+	}
+	
+	@Override
+	public void close() throws Exception {
+		input.close();
+	}
+	
+	@Override
+	@Deprecated
+	public IcapChunk readChunk(ChannelHandlerContext ctx) throws Exception {
+		return readChunk(ctx.alloc());
+	}
+	
+	@Override
+	public IcapChunk readChunk(ByteBufAllocator allocator) throws Exception {
+		if(trailerSent) {
+			return null;
+		}
+		for(;;) {
+			if(input.isEndOfInput()) {
+				trailerSent = true;
+				return new DefaultIcapChunkTrailer();
+			}
+			ByteBuf content = input.readChunk(allocator);
+			if(content == null) {
+				return null;
+			}
+			if(content.isReadable()) {
+				return new DefaultIcapChunk(content);
+			}
+			content.release();
+		}
+	}
+	
+	@Override
+	public long length() {
+		return input.length();
+	}
+	
+	@Override
+	public long progress() {
+		return input.progress();
+	}
+}
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Client side state of one ICAP transaction: the original body that was sent to the server.
+ * 
+ * An ICAP server may answer with 204 No Content or with use-original-body, in both cases the client has to
+ * continue with the body it sent. The @see {@link IcapChunkSeparator} retains slices of every chunk it writes 
+ * in a transaction instead of the application buffering a copy. Up to memoryThreshold bytes are kept in memory 
+ * without copying, a body that grows beyond is moved to a temporary file and the memory is released.
+ * 
+ * The transaction of a channel is available via {@link #current(Channel)} while the response is handled and
+ * is released by @see {@link IcapPartialContentHandler} once the response is complete. Buffers returned 
+ * by {@link #readSlice(long, int)} are owned by the caller and stay valid after the release.
+ * 
+ * Spilling uses blocking file IO on the event loop, choose a threshold that keeps this the exception.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class IcapClientTransaction {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapClientTransaction.class);
+	
+	static final AttributeKey<IcapClientTransaction> KEY = AttributeKey.valueOf(IcapClientTransaction.class,"TRANSACTION");
+	
+	private final ByteBufAllocator allocator;
+	private final int memoryThreshold;
+	
+	private CompositeByteBuf memory;
+	private File file;
+	private FileChannel fileChannel;
+	private long length;
+	private boolean complete;
+	private boolean released;
+	
+	/**
+	 * @param allocator used for the in memory body and for buffers read back from the file.
+	 * @param memoryThreshold amount of bytes kept in memory before the body is moved to a temporary file.
+	 */
+	IcapClientTransaction(ByteBufAllocator allocator, int memoryThreshold) {
+		this.allocator = allocator;
+		this.memoryThreshold = memoryThreshold;
+		this.memory = allocator.compositeBuffer(Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @param channel the client channel.
+	 * @return the transaction of the request that is currently processed on this channel or null.
+	 */
+	public static IcapClientTransaction current(Channel channel) {
+		return channel.attr(KEY).get();
+	}
+	
+	/**
+	 * Replaces the current transaction of a channel, the previous one is released.
+	 */
+	static void begin(Channel channel, IcapClientTransaction transaction) {
+		IcapClientTransaction previous = channel.attr(KEY).getAndSet(transaction);
+		if(previous != null) {
+			previous.release();
+		}
+	}
+	
+	/**
+	 * Releases the current transaction of a channel if there is one.
+	 */
+	static void end(Channel channel) {
+		IcapClientTransaction transaction = channel.attr(KEY).getAndSet(null);
+		if(transaction != null) {
+			transaction.release();
+		}
+	}
+	
+	/**
+	 * Appends the readable bytes of a buffer to the original body. The buffer is not modified, 
+	 * a slice of it is retained as long as the body is kept in memory.
+	 */
+	void append(ByteBuf content) throws IOException {
+		int readable = content.readableBytes();
+		if(released || readable == 0) {
+			return;
+		}
+		if(fileChannel == null && length + readable > memoryThreshold) {
+			spill();
+		}
+		if(fileChannel != null) {
+			int index = content.readerIndex();
+			int end = index + readable;
+			long position = length;
+			while(index < end) {
+				int written = content.getBytes(index,fileChannel,position,end - index);
+				index += written;
+				position += written;
+			}
+		} else {
+			memory.addComponent(true,content.retainedSlice());
+		}
+		length += readable;
+	}
+	
+	/**
+	 * @return the amount of original body bytes retained so far.
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * Marks that the whole original body was written, i.e. a trailer that is not part of a preview 
+	 * or that terminated the preview with ieof.
+	 */
+	void complete() {
+		complete = true;
+	}
+	
+	/**
+	 * @return whether the whole original body was written and retained, a transaction that is not complete 
+	 * holds only the preview.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * @return whether the original body was moved to a temporary file.
+	 */
+	public boolean isSpilled() {
+		return file != null;
+	}
+	
+	/**
+	 * @return whether this transaction was released.
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+	
+	/**
+	 * Reads a part of the original body. If the body is kept in memory this is a retained slice, 
+	 * otherwise the bytes are read from the temporary file into a new buffer.
+	 * 
+	 * @param offset the offset within the original body.
+	 * @param amount the amount of bytes.
+	 * @return buffer that has to be released by the caller.
+	 * @throws IOException if the temporary file cannot be read.
+	 */
+	public ByteBuf readSlice(long offset, int amount) throws IOException {
+		if(released) {
+			throw new IllegalStateException("transaction was already released");
+		}
+		if(offset < 0 || amount < 0 || offset + amount > length) {
+			throw new IndexOutOfBoundsException("offset [" + offset + "] and amount [" + amount + "] exceed the original body of [" + length + "] bytes");
+		}
+		if(fileChannel == null) {
+			return memory.retainedSlice((int)offset,amount);
+		}
+		ByteBuf buffer = allocator.buffer(amount);
+		try {
+			long position = offset;
+			while(buffer.writerIndex() < amount) {
+				int read = buffer.writeBytes(fileChannel,position,amount - buffer.writerIndex());
+				if(read < 0) {
+					throw new IOException("unexpected end of " + file);
+				}
+				position += read;
+			}
+		} catch(IOException e) {
+			buffer.release();
+			throw e;
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Releases the retained memory or deletes the temporary file.
+	 */
+	public void release() {
+		if(released) {
+			return;
+		}
+		released = true;
+		if(memory != null) {
+			memory.release();
+			memory = null;
+		}
+		closeFile();
+	}
+	
+	private void spill() throws IOException {
+		file = File.createTempFile("icap-body",".tmp");
+		LOG.debug("Original body exceeds [{}] bytes, moving it to {}",memoryThreshold,file);
+		RandomAccessFile randomAccessFile = null;
+		try {
+			randomAccessFile = new RandomAccessFile(file,"rw");
+			fileChannel = randomAccessFile.getChannel();
+			for(ByteBuffer buffer : memory.nioBuffers()) {
+				while(buffer.hasRemaining()) {
+					fileChannel.write(buffer);
+				}
+			}
+		} catch(IOException e) {
+			if(randomAccessFile != null) {
+				randomAccessFile.close();
+			}
+			fileChannel = null;
+			if(!file.delete()) {
+				LOG.debug("Could not delete {}",file);
+			}
+			file = null;
+			throw e;
+		}
+		memory.release();
+		memory = null;
+	}
+	
+	private void closeFile() {
+		if(fileChannel != null) {
+			try {
+				fileChannel.close();
+			} catch(IOException e) {
+				LOG.debug("Could not close {}",file,e);
+			}
+			fileChannel = null;
+		}
+		if(file != null && !file.delete()) {
+			LOG.debug("Could not delete {}",file);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "IcapClientTransaction: [length=" + length + "] [complete=" + complete + "] [spilled=" + isSpilled() + "] [released=" + released + "]";
+	}
+}
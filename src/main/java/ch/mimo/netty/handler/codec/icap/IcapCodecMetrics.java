@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+/**
+ * Receives measurements from the ICAP decoders and encoders.
+ * 
+ * Implementations are shared between all channels and called from the event loops, they
+ * therefore have to be thread safe and must not block.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see NoopIcapCodecMetrics
+ * @see DefaultIcapCodecMetrics
+ */
+public interface IcapCodecMetrics {
+
+	/**
+	 * @return false if measurements are discarded, the codec then skips taking them.
+	 */
+	boolean isEnabled();
+	
+	/**
+	 * @param message a decoded request or response without its body.
+	 */
+	void messageDecoded(IcapMessage message);
+	
+	/**
+	 * @param chunk a decoded body chunk or trailer.
+	 */
+	void chunkDecoded(IcapChunk chunk);
+	
+	/**
+	 * @param bytes amount of bytes consumed by the decoder.
+	 */
+	void bytesDecoded(int bytes);
+	
+	/**
+	 * @param cause the exception or error the decoder failed with.
+	 */
+	void decodingFailed(Throwable cause);
+	
+	/**
+	 * @param state the decoder state that was executed.
+	 * @param nanos the time the execution took, including executions that had to be replayed.
+	 */
+	void stateExecuted(StateEnum state, long nanos);
+	
+	/**
+	 * @param message an encoded request or response.
+	 */
+	void messageEncoded(IcapMessage message);
+	
+	/**
+	 * @param chunk an encoded body chunk or trailer.
+	 */
+	void chunkEncoded(IcapChunk chunk);
+	
+	/**
+	 * @param bytes amount of bytes produced by the encoder.
+	 */
+	void bytesEncoded(int bytes);
+}
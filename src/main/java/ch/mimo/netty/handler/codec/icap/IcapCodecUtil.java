@@ -78,6 +78,55 @@ public final class IcapCodecUtil {
     private IcapCodecUtil() {
     }
 
+    /**
+     * character class of a byte that must not occur in a header name.
+     */
+    private static final byte NAME_PROHIBITED = 1;
+    
+    /**
+     * character class of a byte that needs a closer look within a header value.
+     */
+    private static final byte VALUE_SPECIAL = 2;
+    
+    private static final byte[] CHARACTER_CLASSES = new byte[256];
+    
+    static {
+    	for(int i = 128 ; i < CHARACTER_CLASSES.length ; i++) {
+    		CHARACTER_CLASSES[i] = NAME_PROHIBITED;
+    	}
+    	for(char c : new char[]{'\t','\n',0x0b,'\f','\r',' ',',',':',';','='}) {
+    		CHARACTER_CLASSES[c] = NAME_PROHIBITED;
+    	}
+    	for(char c : new char[]{'\n',0x0b,'\f','\r'}) {
+    		CHARACTER_CLASSES[c] |= VALUE_SPECIAL;
+    	}
+    }
+    
+    /**
+     * Checks a header that was read from a single, already split header line with one table lookup per character.
+     * A header that passes can be added without validation, a header that does not pass has to take the 
+     * validating path which rejects it with a precise message.
+     * 
+     * @param name the decoded header name.
+     * @param value the decoded header value.
+     * @return true if the name contains no prohibited character and the value neither CR, LF, VT nor FF.
+     */
+    static boolean isValidDecodedHeader(String name, String value) {
+        for (int i = 0; i < name.length(); i ++) {
+            char caracter = name.charAt(i);
+            if (caracter > 255 || (CHARACTER_CLASSES[caracter] & NAME_PROHIBITED) != 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < value.length(); i ++) {
+            char caracter = value.charAt(i);
+            if (caracter < 256 && (CHARACTER_CLASSES[caracter] & VALUE_SPECIAL) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Valiation method for Icap header names.
      * 
@@ -89,15 +138,11 @@ public final class IcapCodecUtil {
         }
         for (int i = 0; i < name.length(); i ++) {
             char caracter = name.charAt(i);
-            if (caracter > 127) {
-                throw new IllegalArgumentException("name contains non-ascii character: " + name);
-            }
-
-            // Check prohibited characters.
-            switch (caracter) {
-            case '\t': case '\n': case 0x0b: case '\f': case '\r':
-            case ' ':  case ',':  case ':':  case ';':  case '=':
-                throw new IllegalArgumentException("name contains one of the following prohibited characters: =,;: \\t\\r\\n\\v\\f: " + name);
+            if (caracter > 255 || (CHARACTER_CLASSES[caracter] & NAME_PROHIBITED) != 0) {
+            	if (caracter > 127) {
+            		throw new IllegalArgumentException("name contains non-ascii character: " + name);
+            	}
+            	throw new IllegalArgumentException("name contains one of the following prohibited characters: =,;: \\t\\r\\n\\v\\f: " + name);
             }
         }
     }
@@ -111,13 +156,25 @@ public final class IcapCodecUtil {
         if (value == null) {
             throw new NullPointerException("value");
         }
-
+        for (int i = 0; i < value.length(); i ++) {
+        	char caracter = value.charAt(i);
+        	if (caracter < 256 && (CHARACTER_CLASSES[caracter] & VALUE_SPECIAL) != 0) {
+        		validateHeaderValue(value,i);
+        		return;
+        	}
+        }
+    }
+    
+    /*
+     * checks the rest of a value from the first CR, LF, VT or FF on.
+     */
+    private static void validateHeaderValue(String value, int offset) {
         // 0 - the previous character was neither CR nor LF
         // 1 - the previous character was CR
         // 2 - the previous character was LF
         int state = 0;
 
-        for (int i = 0; i < value.length(); i ++) {
+        for (int i = offset; i < value.length(); i ++) {
             final char caracter = value.charAt(i);
 
             // Check the absolutely prohibited characters.
@@ -152,4 +209,49 @@ public final class IcapCodecUtil {
             throw new IllegalArgumentException("value must not end with '\\r' or '\\n':" + value);
         }
     }
+
+    /**
+     * Extracts the service name from an ICAP URI, e.g. "reqmod" from icap://icap.mimo.ch:1344/reqmod?mode=fast
+     * 
+     * @param uri the ICAP request URI
+     * @return the service name without leading slashes and query, empty if the URI contains no path.
+     */
+    public static String getServiceName(String uri) {
+		int start = uri.indexOf("://");
+		start = start < 0?0:uri.indexOf('/',start + 3);
+		if(start < 0) {
+			return "";
+		}
+		while(start < uri.length() && uri.charAt(start) == '/') {
+			start++;
+		}
+		int end = uri.indexOf('?',start);
+		return uri.substring(start,end < 0?uri.length():end);
+    }
+    
+    /**
+     * Checks whether the Allow header of a message lists a status code, e.g. 204 or 206 for 
+     * icap-ext-partial-content.
+     * 
+     * @param message the ICAP message, usually a request.
+     * @param code the status code.
+     * @return true if the code is one of the comma separated values of the Allow header.
+     */
+    public static boolean isAllowed(IcapMessage message, int code) {
+		String allow = message.getHeader(IcapHeaders.Names.ALLOW);
+		if(allow == null) {
+			return false;
+		}
+		String value = Integer.toString(code);
+		int start = 0;
+		while(start <= allow.length()) {
+			int end = allow.indexOf(',',start);
+			end = end < 0?allow.length():end;
+			if(allow.substring(start,end).trim().equals(value)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+    }
 }
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit of concurrently processed ICAP transactions, shared by all channels of a server.
+ * 
+ * The limit follows an additive increase / multiplicative decrease scheme on the observed
+ * transaction latency: every transaction that completes within the latency threshold raises the limit
+ * by 1/limit (about one per round of transactions), every transaction that exceeds it
+ * lowers the limit by 10 percent. The limit always stays between the configured minimum and maximum.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapAdmissionControlHandler
+ */
+public class IcapConcurrencyLimit {
+
+	private static final double BACKOFF_RATIO = 0.9D;
+	
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThreshold;
+	
+	private double limit;
+	private int inFlight;
+	
+	/**
+	 * @param initialLimit the limit to start with.
+	 * @param minLimit the lower bound of the limit.
+	 * @param maxLimit the upper bound of the limit.
+	 * @param latencyThreshold transactions taking longer than this reduce the limit.
+	 * @param unit the unit of the latency threshold.
+	 */
+	public IcapConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long latencyThreshold, TimeUnit unit) {
+		if(minLimit <= 0) {
+			throw new IllegalArgumentException("minLimit must be a positive integer: " + minLimit);
+		}
+		if(maxLimit < minLimit) {
+			throw new IllegalArgumentException("maxLimit must not be smaller than minLimit: " + maxLimit);
+		}
+		if(initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit: " + initialLimit);
+		}
+		if(latencyThreshold <= 0) {
+			throw new IllegalArgumentException("latencyThreshold must be a positive number: " + latencyThreshold);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThreshold = unit.toNanos(latencyThreshold);
+		this.limit = initialLimit;
+	}
+	
+	/**
+	 * Tries to admit a new transaction.
+	 * 
+	 * @return true if the transaction is admitted, it has to be completed with either 
+	 * {@link #onSuccess(long)} or {@link #onIgnore()}. false if the limit is reached.
+	 */
+	public synchronized boolean tryAcquire() {
+		if(inFlight >= (int)limit) {
+			return false;
+		}
+		inFlight++;
+		return true;
+	}
+	
+	/**
+	 * Completes an admitted transaction and adapts the limit.
+	 * 
+	 * @param latencyNanos the time the transaction took in nanoseconds.
+	 */
+	public synchronized void onSuccess(long latencyNanos) {
+		inFlight--;
+		if(latencyNanos > latencyThreshold) {
+			limit = Math.max(minLimit,limit * BACKOFF_RATIO);
+		} else {
+			limit = Math.min(maxLimit,limit + 1D / limit);
+		}
+	}
+	
+	/**
+	 * Completes an admitted transaction without a latency sample, e.g. because the connection was closed.
+	 */
+	public synchronized void onIgnore() {
+		inFlight--;
+	}
+	
+	/**
+	 * @return the current limit.
+	 */
+	public synchronized int getLimit() {
+		return (int)limit;
+	}
+	
+	/**
+	 * @return the amount of admitted transactions that are not completed.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+}
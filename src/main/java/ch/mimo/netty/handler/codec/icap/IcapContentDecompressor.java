@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Inflates gzip or deflate encoded bodies of encapsulated HTTP messages chunk by chunk.
+ * 
+ * If the encapsulated HTTP message that carries the body (the HTTP response for a res-body, the HTTP request for
+ * a req-body) declares a Content-Encoding of gzip or deflate, every following body chunk is replaced by one or more
+ * decoded chunks of at most windowSize bytes. The Content-Encoding and Content-Length headers are removed from the
+ * HTTP message since they no longer describe the body that is passed on. Nothing is buffered beyond one window and 
+ * the decoder state survives the end of a preview so the remaining body after a 100 Continue is decoded as well.
+ * 
+ * A body that decodes to more than maxRatio times its compressed size is rejected with a 
+ * {@link io.netty.handler.codec.TooLongFrameException}, invalid data with a 
+ * {@link io.netty.handler.codec.compression.DecompressionException}. The remaining chunks of such a body, including
+ * its last chunk, are released instead of being passed on compressed after the Content-Encoding was removed.
+ * 
+ * If retainOriginalContent is set, slices of the original compressed chunks are kept (without copying) and
+ * are available through @see IcapContentDecompressor#getOriginalContent() until the next message arrives. This allows
+ * to answer with the unmodified body or to compute use-original-body offsets against what the client has sent.
+ * 
+ * The handler has to be placed directly after the decoder:
+ * 
+ * <pre>
+ * pipeline.addLast("decoder",new IcapRequestDecoder());
+ * pipeline.addLast("decompressor",new IcapContentDecompressor());
+ * pipeline.addLast("chunkAggregator",new IcapChunkAggregator(4096));
+ * pipeline.addLast("handler",new MyServiceHandler());
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class IcapContentDecompressor extends ChannelInboundHandlerAdapter {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapContentDecompressor.class);
+	
+	public static final int DEFAULT_WINDOW_SIZE = 8192;
+	
+	public static final int DEFAULT_MAX_RATIO = 100;
+	
+	private final int windowSize;
+	private final int maxRatio;
+	private final boolean retainOriginalContent;
+	
+	private ContentInflater inflater;
+	private String contentEncoding;
+	private CompositeByteBuf originalContent;
+	private boolean failed;
+	
+	public IcapContentDecompressor() {
+		this(DEFAULT_WINDOW_SIZE,DEFAULT_MAX_RATIO,false);
+	}
+	
+	/**
+	 * @param windowSize maximum size of one decoded chunk.
+	 * @param maxRatio maximum ratio between the decoded and the compressed body size.
+	 * @param retainOriginalContent whether the original compressed chunks are kept for @see IcapContentDecompressor#getOriginalContent()
+	 */
+	public IcapContentDecompressor(int windowSize, int maxRatio, boolean retainOriginalContent) {
+		if(windowSize <= 0) {
+			throw new IllegalArgumentException("windowSize must be a positive integer: " + windowSize);
+		}
+		if(maxRatio <= 0) {
+			throw new IllegalArgumentException("maxRatio must be a positive integer: " + maxRatio);
+		}
+		this.windowSize = windowSize;
+		this.maxRatio = maxRatio;
+		this.retainOriginalContent = retainOriginalContent;
+	}
+	
+	/**
+	 * @return the original compressed body of the current message received so far or null if the body was not
+	 * compressed or originals are not retained. The buffer is owned by this handler and released when the next
+	 * message arrives, call retain() in order to keep it longer.
+	 */
+	public ByteBuf getOriginalContent() {
+		return originalContent;
+	}
+	
+	/**
+	 * @return the Content-Encoding that was removed from the current message or null if the body is not decoded.
+	 */
+	public String getContentEncoding() {
+		return contentEncoding;
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if(msg instanceof IcapMessage) {
+			reset();
+			startMessage(ctx,(IcapMessage)msg);
+			ctx.fireChannelRead(msg);
+		} else if(msg instanceof IcapChunk && failed) {
+			IcapChunk chunk = (IcapChunk)msg;
+			if(chunk.isLast() && (!chunk.isPreviewChunk() || chunk.isEarlyTerminated())) {
+				failed = false;
+			}
+			IcapTrace.trace(LOG,ctx,"Dropping chunk of a {} body that could not be decoded",contentEncoding);
+			chunk.release();
+		} else if(msg instanceof IcapChunk && inflater != null) {
+			IcapChunk chunk = (IcapChunk)msg;
+			if(chunk.isLast()) {
+				if(!chunk.isPreviewChunk() || chunk.isEarlyTerminated()) {
+					if(!inflater.isFinished()) {
+						IcapTrace.trace(LOG,ctx,"{} body ended before the end of the compressed stream",contentEncoding);
+					}
+					endInflater();
+				}
+				ctx.fireChannelRead(msg);
+			} else {
+				inflateChunk(ctx,chunk);
+			}
+		} else {
+			ctx.fireChannelRead(msg);
+		}
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		reset();
+		super.channelInactive(ctx);
+	}
+	
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		reset();
+	}
+	
+	private void startMessage(ChannelHandlerContext ctx, IcapMessage message) {
+		HttpMessage httpMessage = null;
+		IcapMessageElementEnum body = message.getBodyType();
+		if(IcapMessageElementEnum.RESBODY.equals(body)) {
+			httpMessage = message.getHttpResponse();
+		} else if(IcapMessageElementEnum.REQBODY.equals(body)) {
+			httpMessage = message.getHttpRequest();
+		}
+		if(httpMessage == null) {
+			return;
+		}
+		String encoding = httpMessage.headers().get(HttpHeaderNames.CONTENT_ENCODING);
+		inflater = ContentInflater.newInstance(encoding,windowSize,maxRatio);
+		if(inflater != null) {
+			IcapTrace.trace(LOG,ctx,"Decoding {} encoded body",encoding);
+			contentEncoding = encoding;
+			httpMessage.headers().remove(HttpHeaderNames.CONTENT_ENCODING);
+			httpMessage.headers().remove(HttpHeaderNames.CONTENT_LENGTH);
+			if(retainOriginalContent) {
+				originalContent = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+			}
+		}
+	}
+	
+	private void inflateChunk(ChannelHandlerContext ctx, IcapChunk chunk) throws Exception {
+		boolean preview = chunk.isPreviewChunk();
+		List<ByteBuf> decoded = new ArrayList<ByteBuf>();
+		try {
+			ByteBuf content = chunk.content();
+			if(originalContent != null) {
+				originalContent.addComponent(true,content.retainedSlice());
+			}
+			inflater.inflate(content,ctx.alloc(),decoded);
+		} catch(Exception e) {
+			for(ByteBuf buffer : decoded) {
+				buffer.release();
+			}
+			endInflater();
+			failed = true;
+			throw e;
+		} finally {
+			chunk.release();
+		}
+		for(ByteBuf buffer : decoded) {
+			DefaultIcapChunk decodedChunk = new DefaultIcapChunk(buffer);
+			decodedChunk.setPreviewChunk(preview);
+			ctx.fireChannelRead(decodedChunk);
+		}
+	}
+	
+	private void endInflater() {
+		if(inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+	
+	private void reset() {
+		endInflater();
+		failed = false;
+		contentEncoding = null;
+		if(originalContent != null) {
+			originalContent.release();
+			originalContent = null;
+		}
+	}
+}
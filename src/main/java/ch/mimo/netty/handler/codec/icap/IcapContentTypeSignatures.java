@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled set of magic byte signatures that identify the type of a body by its first bytes.
+ * 
+ * Signatures are written as hex byte pairs, ?? matches any byte and white space is ignored, e.g.
+ * "52 49 46 46 ?? ?? ?? ?? 57 45 42 50" for WebP images. All signatures are compiled into one prefix trie
+ * so detection walks the body start once, independent of the amount of signatures. If several signatures
+ * match, the longest one wins.
+ * 
+ * Instances are immutable and can be shared between channels.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapContentTypeSniffer
+ */
+public final class IcapContentTypeSignatures {
+
+	private static final int WILDCARD = 256;
+	private static final int EDGES = 257;
+	
+	/**
+	 * Signatures of common document, image, media, archive and executable formats.
+	 */
+	public static final IcapContentTypeSignatures DEFAULT = compile(defaultSignatures());
+	
+	private final int[] transitions;
+	private final String[] types;
+	private final int maxLength;
+	
+	private IcapContentTypeSignatures(int[] transitions, String[] types, int maxLength) {
+		this.transitions = transitions;
+		this.types = types;
+		this.maxLength = maxLength;
+	}
+	
+	/**
+	 * Compiles signatures into a prefix trie.
+	 * 
+	 * @param signatures maps a signature in hex notation to the mime type it identifies.
+	 * @return new signatures instance.
+	 */
+	public static IcapContentTypeSignatures compile(Map<String, String> signatures) {
+		if(signatures == null) {
+			throw new NullPointerException("signatures");
+		}
+		int[] transitions = new int[EDGES * 16];
+		String[] types = new String[16];
+		int nodes = 1;
+		int maxLength = 0;
+		for(Map.Entry<String, String> signature : signatures.entrySet()) {
+			if(signature.getValue() == null) {
+				throw new NullPointerException("type of signature [" + signature.getKey() + "]");
+			}
+			int[] edges = parse(signature.getKey());
+			int node = 0;
+			for(int edge : edges) {
+				int slot = node * EDGES + edge;
+				if(transitions[slot] == 0) {
+					if(nodes == types.length) {
+						transitions = Arrays.copyOf(transitions,transitions.length * 2);
+						types = Arrays.copyOf(types,types.length * 2);
+					}
+					transitions[slot] = nodes++;
+				}
+				node = transitions[slot];
+			}
+			if(types[node] == null) {
+				types[node] = signature.getValue();
+			}
+			maxLength = Math.max(maxLength,edges.length);
+		}
+		return new IcapContentTypeSignatures(Arrays.copyOf(transitions,nodes * EDGES),Arrays.copyOf(types,nodes),maxLength);
+	}
+	
+	/**
+	 * @return the amount of bytes that is required to evaluate every signature.
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+	
+	/**
+	 * Detects the type of the body that starts with the readable bytes of the given buffer.
+	 * The reader index is not changed.
+	 * 
+	 * @param buffer the start of the body.
+	 * @return the mime type of the longest matching signature or null if no signature matches.
+	 */
+	public String detect(ByteBuf buffer) {
+		int length = Math.min(buffer.readableBytes(),maxLength);
+		int[] result = new int[]{-1,0};
+		walk(buffer,buffer.readerIndex(),length,0,0,result);
+		return result[0] < 0?null:types[result[0]];
+	}
+	
+	/*
+	 * Exact edges and wildcard edges may both continue, result holds the deepest node with a type and its depth.
+	 */
+	private void walk(ByteBuf buffer, int index, int length, int depth, int node, int[] result) {
+		if(types[node] != null && (result[0] < 0 || depth > result[1])) {
+			result[0] = node;
+			result[1] = depth;
+		}
+		if(depth == length) {
+			return;
+		}
+		int base = node * EDGES;
+		int next = transitions[base + (buffer.getByte(index + depth) & 0xff)];
+		if(next != 0) {
+			walk(buffer,index,length,depth + 1,next,result);
+		}
+		next = transitions[base + WILDCARD];
+		if(next != 0) {
+			walk(buffer,index,length,depth + 1,next,result);
+		}
+	}
+	
+	private static int[] parse(String signature) {
+		if(signature == null) {
+			throw new NullPointerException("signature");
+		}
+		int[] edges = new int[signature.length() / 2];
+		int count = 0;
+		for(int i = 0 ; i < signature.length() ; i++) {
+			char c = signature.charAt(i);
+			if(Character.isWhitespace(c)) {
+				continue;
+			}
+			if(i + 1 == signature.length()) {
+				throw new IllegalArgumentException("incomplete byte in signature: " + signature);
+			}
+			char d = signature.charAt(++i);
+			if(c == '?' && d == '?') {
+				edges[count++] = WILDCARD;
+			} else {
+				int high = Character.digit(c,16);
+				int low = Character.digit(d,16);
+				if(high < 0 || low < 0) {
+					throw new IllegalArgumentException("invalid byte [" + c + d + "] in signature: " + signature);
+				}
+				edges[count++] = high << 4 | low;
+			}
+		}
+		if(count == 0) {
+			throw new IllegalArgumentException("empty signature");
+		}
+		return Arrays.copyOf(edges,count);
+	}
+	
+	private static String ascii(String value) {
+		StringBuilder builder = new StringBuilder(value.length() * 3);
+		for(int i = 0 ; i < value.length() ; i++) {
+			builder.append(Character.forDigit(value.charAt(i) >> 4 & 0xf,16)).append(Character.forDigit(value.charAt(i) & 0xf,16)).append(' ');
+		}
+		return builder.toString();
+	}
+	
+	private static Map<String, String> defaultSignatures() {
+		Map<String, String> signatures = new LinkedHashMap<String, String>();
+		signatures.put(ascii("%PDF-"),"application/pdf");
+		signatures.put(ascii("%!PS"),"application/postscript");
+		signatures.put(ascii("{\\rtf"),"application/rtf");
+		signatures.put("89 50 4E 47 0D 0A 1A 0A","image/png");
+		signatures.put(ascii("GIF87a"),"image/gif");
+		signatures.put(ascii("GIF89a"),"image/gif");
+		signatures.put("FF D8 FF","image/jpeg");
+		signatures.put(ascii("BM"),"image/bmp");
+		signatures.put("49 49 2A 00","image/tiff");
+		signatures.put("4D 4D 00 2A","image/tiff");
+		signatures.put("00 00 01 00","image/x-icon");
+		signatures.put(ascii("RIFF") + "?? ?? ?? ??" + ascii("WEBP"),"image/webp");
+		signatures.put(ascii("RIFF") + "?? ?? ?? ??" + ascii("WAVE"),"audio/wav");
+		signatures.put(ascii("RIFF") + "?? ?? ?? ??" + ascii("AVI "),"video/x-msvideo");
+		signatures.put("?? ?? ?? ??" + ascii("ftyp"),"video/mp4");
+		signatures.put(ascii("ID3"),"audio/mpeg");
+		signatures.put(ascii("OggS"),"application/ogg");
+		signatures.put(ascii("fLaC"),"audio/flac");
+		signatures.put("1A 45 DF A3","video/webm");
+		signatures.put(ascii("wOFF"),"font/woff");
+		signatures.put(ascii("wOF2"),"font/woff2");
+		signatures.put("50 4B 03 04","application/zip");
+		signatures.put("50 4B 05 06","application/zip");
+		signatures.put("1F 8B","application/gzip");
+		signatures.put(ascii("BZh"),"application/x-bzip2");
+		signatures.put("FD 37 7A 58 5A 00","application/x-xz");
+		signatures.put("37 7A BC AF 27 1C","application/x-7z-compressed");
+		signatures.put(ascii("Rar!") + "1A 07","application/vnd.rar");
+		signatures.put("D0 CF 11 E0 A1 B1 1A E1","application/x-ole-storage");
+		signatures.put(ascii("MZ"),"application/x-msdownload");
+		signatures.put("7F 45 4C 46","application/x-executable");
+		signatures.put("CA FE BA BE","application/java-vm");
+		signatures.put("00 61 73 6D","application/wasm");
+		signatures.put(ascii("SQLite format 3") + "00","application/vnd.sqlite3");
+		signatures.put(ascii("<?xml"),"application/xml");
+		signatures.put(ascii("<!DOCTYPE html"),"text/html");
+		signatures.put(ascii("<!doctype html"),"text/html");
+		signatures.put(ascii("<html"),"text/html");
+		signatures.put(ascii("<HTML"),"text/html");
+		return signatures;
+	}
+}
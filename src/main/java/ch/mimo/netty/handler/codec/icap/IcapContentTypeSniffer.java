@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Detects the type of the encapsulated body from its first bytes and attaches it to the 
+ * @see {@link DefaultIcapRequest} before the request is passed on. It is read with {@link #getDetectedContentType(IcapRequest)}.
+ * 
+ * The request and its first chunks are held back until enough bytes to evaluate all 
+ * @see {@link IcapContentTypeSignatures} arrived, or until the preview or the body ended. If no signature
+ * matches, the Content-Type of the encapsulated HTTP message is used. Following chunks, e.g. the
+ * rest of the body after a 100 Continue, are passed on right away.
+ * 
+ * This allows a service to decide between a 204 and a full scan from the preview alone:
+ * 
+ * <pre>
+ * pipeline.addLast("decoder",new IcapRequestDecoder());
+ * pipeline.addLast("sniffer",new IcapContentTypeSniffer());
+ * pipeline.addLast("chunkAggregator",new IcapChunkAggregator(4096));
+ * pipeline.addLast("handler",new MyServiceHandler());
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class IcapContentTypeSniffer extends ChannelInboundHandlerAdapter {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapContentTypeSniffer.class);
+	
+	private final IcapContentTypeSignatures signatures;
+	
+	private final List<Object> pending = new ArrayList<Object>();
+	private IcapRequest request;
+	private ByteBuf head;
+	
+	public IcapContentTypeSniffer() {
+		this(IcapContentTypeSignatures.DEFAULT);
+	}
+	
+	/**
+	 * @param signatures the signatures to detect.
+	 */
+	public IcapContentTypeSniffer(IcapContentTypeSignatures signatures) {
+		if(signatures == null) {
+			throw new NullPointerException("signatures");
+		}
+		this.signatures = signatures;
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if(msg instanceof IcapRequest) {
+			detect(ctx);
+			IcapRequest icapRequest = (IcapRequest)msg;
+			if(icapRequest.getBodyType() == null || IcapMessageElementEnum.NULLBODY.equals(icapRequest.getBodyType())) {
+				setDetectedContentType(icapRequest,declaredContentType(icapRequest));
+				ctx.fireChannelRead(msg);
+			} else {
+				request = icapRequest;
+				pending.add(msg);
+				head = ctx.alloc().heapBuffer(signatures.getMaxLength());
+			}
+		} else if(msg instanceof IcapChunk && request != null) {
+			IcapChunk chunk = (IcapChunk)msg;
+			pending.add(msg);
+			ByteBuf content = chunk.content();
+			head.writeBytes(content,content.readerIndex(),Math.min(content.readableBytes(),head.writableBytes()));
+			if(!head.isWritable() || chunk.isLast()) {
+				detect(ctx);
+			}
+		} else {
+			ctx.fireChannelRead(msg);
+		}
+	}
+	
+	/**
+	 * @param request a request that passed this handler.
+	 * @return the detected content type of the encapsulated body or null if it was not detected.
+	 */
+	public static String getDetectedContentType(IcapRequest request) {
+		if(request instanceof DefaultIcapRequest) {
+			return ((DefaultIcapRequest)request).getDetectedContentType();
+		}
+		return null;
+	}
+	
+	private static void setDetectedContentType(IcapRequest request, String type) {
+		if(request instanceof DefaultIcapRequest) {
+			((DefaultIcapRequest)request).setDetectedContentType(type);
+		}
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		discard();
+		super.channelInactive(ctx);
+	}
+	
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		detect(ctx);
+	}
+	
+	private void detect(ChannelHandlerContext ctx) {
+		if(request == null) {
+			return;
+		}
+		String type = signatures.detect(head);
+		if(type != null) {
+			IcapTrace.trace(LOG,ctx,"Detected content type {}",type);
+		} else {
+			type = declaredContentType(request);
+		}
+		flush(ctx,type);
+	}
+	
+	private void flush(ChannelHandlerContext ctx, String type) {
+		setDetectedContentType(request,type);
+		request = null;
+		head.release();
+		head = null;
+		Object[] messages = pending.toArray();
+		pending.clear();
+		for(Object message : messages) {
+			ctx.fireChannelRead(message);
+		}
+	}
+	
+	private void discard() {
+		for(Object message : pending) {
+			ReferenceCountUtil.release(message);
+		}
+		pending.clear();
+		request = null;
+		if(head != null) {
+			head.release();
+			head = null;
+		}
+	}
+	
+	private static String declaredContentType(IcapRequest request) {
+		HttpMessage httpMessage = request.getHttpResponse();
+		if(httpMessage == null) {
+			httpMessage = request.getHttpRequest();
+		}
+		if(httpMessage == null) {
+			return null;
+		}
+		String contentType = httpMessage.headers().get(HttpHeaderNames.CONTENT_TYPE);
+		if(contentType == null) {
+			return null;
+		}
+		int parameters = contentType.indexOf(';');
+		return (parameters < 0?contentType:contentType.substring(0,parameters)).trim().toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.Date;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DateFormatter;
+
+/**
+ * Formats and parses Date header values (RFC 1123, always GMT).
+ * 
+ * The value for the current time is formatted at most once per second and shared by all threads.
+ * The cache is refreshed lazily by the first caller that observes a new second. Formatting is done
+ * arithmetically without a Calendar, parsing uses the thread safe @see {@link DateFormatter} of Netty.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapHeaders#addDateHeader(String)
+ */
+public final class IcapDateHeader {
+	
+	private static final String[] DAYS = {"Sun","Mon","Tue","Wed","Thu","Fri","Sat"};
+	private static final String[] MONTHS = {"Jan","Feb","Mar","Apr","May","Jun","Jul","Aug","Sep","Oct","Nov","Dec"};
+	
+	private static final byte[] HEADER_PREFIX = (IcapHeaders.Names.DATE + ": ").getBytes(IcapCodecUtil.ASCII_CHARSET);
+	
+	private static volatile CachedDate cachedDate = new CachedDate(System.currentTimeMillis() / 1000);
+	
+	private IcapDateHeader() {
+	}
+	
+	/**
+	 * @return the formatted value of the current time, e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}
+	 */
+	public static String now() {
+		return getCachedDate(System.currentTimeMillis()).value;
+	}
+	
+	/**
+	 * @param date the date to format.
+	 * @return the formatted date.
+	 */
+	public static String format(Date date) {
+		if(date == null) {
+			throw new NullPointerException("date");
+		}
+		return format(date.getTime());
+	}
+	
+	/**
+	 * @param value a RFC 1123, RFC 850 or asctime date.
+	 * @return the parsed date or null if the value is not a valid date.
+	 */
+	public static Date parse(CharSequence value) {
+		if(value == null) {
+			throw new NullPointerException("value");
+		}
+		return DateFormatter.parseHttpDate(value);
+	}
+	
+	/**
+	 * writes a complete Date header line for the current time including the terminating CRLF.
+	 * 
+	 * @param buffer the buffer to write to.
+	 */
+	static void writeHeader(ByteBuf buffer) {
+		buffer.writeBytes(getCachedDate(System.currentTimeMillis()).headerLine);
+	}
+	
+	/*
+	 * civil from days algorithm (proleptic gregorian calendar) as described by Howard Hinnant.
+	 */
+	static String format(long millis) {
+		long seconds = floorDiv(millis,1000);
+		long days = floorDiv(seconds,86400);
+		int secondOfDay = (int)(seconds - days * 86400);
+		long z = days + 719468;
+		long era = floorDiv(z,146097);
+		int dayOfEra = (int)(z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10?shiftedMonth + 2:shiftedMonth - 10;
+		long year = yearOfEra + era * 400 + (month < 2?1:0);
+		
+		StringBuilder builder = new StringBuilder(29);
+		builder.append(DAYS[(int)floorMod(days + 4,7)]).append(", ");
+		appendTwoDigits(builder,day).append(' ').append(MONTHS[month]).append(' ');
+		if(year >= 0 && year < 1000) {
+			builder.append(year < 10?"000":year < 100?"00":"0");
+		}
+		builder.append(year).append(' ');
+		appendTwoDigits(builder,secondOfDay / 3600).append(':');
+		appendTwoDigits(builder,secondOfDay / 60 % 60).append(':');
+		appendTwoDigits(builder,secondOfDay % 60).append(" GMT");
+		return builder.toString();
+	}
+	
+	private static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+		return builder.append((char)('0' + value / 10)).append((char)('0' + value % 10));
+	}
+	
+	private static long floorDiv(long x, long y) {
+		long result = x / y;
+		return (x % y != 0 && (x ^ y) < 0)?result - 1:result;
+	}
+	
+	private static long floorMod(long x, long y) {
+		return x - floorDiv(x,y) * y;
+	}
+	
+	static CachedDate getCachedDate(long currentTimeMillis) {
+		long second = currentTimeMillis / 1000;
+		CachedDate date = cachedDate;
+		if(date.second != second) {
+			date = new CachedDate(second);
+			cachedDate = date;
+		}
+		return date;
+	}
+	
+	static final class CachedDate {
+		
+		final long second;
+		final String value;
+		final byte[] headerLine;
+		
+		CachedDate(long second) {
+			this.second = second;
+			this.value = format(second * 1000);
+			byte[] valueBytes = value.getBytes(IcapCodecUtil.ASCII_CHARSET);
+			headerLine = new byte[HEADER_PREFIX.length + valueBytes.length + 2];
+			System.arraycopy(HEADER_PREFIX,0,headerLine,0,HEADER_PREFIX.length);
+			System.arraycopy(valueBytes,0,headerLine,HEADER_PREFIX.length,valueBytes.length);
+			headerLine[headerLine.length - 2] = IcapCodecUtil.CR;
+			headerLine[headerLine.length - 1] = IcapCodecUtil.LF;
+		}
+	}
+}
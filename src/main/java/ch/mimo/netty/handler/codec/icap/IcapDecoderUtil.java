@@ -17,6 +17,8 @@
 package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.ByteProcessor;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -32,6 +34,16 @@ import java.util.Map;
  */
 public final class IcapDecoderUtil {
 
+	private static final long LF_PATTERN = 0x0A0A0A0A0A0A0A0AL;
+	
+	private static final ByteProcessor FIND_NON_CONTROL_CHARACTER = new ByteProcessor() {
+		@Override
+		public boolean process(byte value) throws Exception {
+			int c = value & 0xFF;
+			return c <= ' ' || (c >= 0x7F && c <= 0x9F);
+		}
+	};
+	
 	private IcapDecoderUtil() {
 	}
 
@@ -41,14 +53,76 @@ public final class IcapDecoderUtil {
 	 * @param buffer
 	 */
     public static void skipControlCharacters(ByteBuf buffer) {
-        for (;;) {
-            char c = (char) buffer.readUnsignedByte();
-            if (!Character.isISOControl(c) &&
-                !Character.isWhitespace(c)) {
-                buffer.readerIndex(buffer.readerIndex() - 1);
-                break;
-            }
+        int index = buffer.forEachByte(FIND_NON_CONTROL_CHARACTER);
+        if(index < 0) {
+        	requireMoreData(buffer);
         }
+        buffer.readerIndex(index);
+    }
+    
+    /**
+     * finds the first LF within the given range. The range is scanned 8 bytes at a time 
+     * and only the remainder is inspected byte by byte.
+     * @param buffer the buffer to scan.
+     * @param fromIndex the first index to inspect.
+     * @param toIndex the index after the last index to inspect.
+     * @return the index of the LF or -1 if the range does not contain one.
+     */
+    public static int findLineFeed(ByteBuf buffer, int fromIndex, int toIndex) {
+    	int index = fromIndex;
+    	for(; index + 8 <= toIndex ; index += 8) {
+    		long word = buffer.getLong(index) ^ LF_PATTERN;
+    		long zeroBytes = ~(((word & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | word | 0x7F7F7F7F7F7F7F7FL);
+    		if(zeroBytes != 0) {
+    			return index + (Long.numberOfLeadingZeros(zeroBytes) >>> 3);
+    		}
+    	}
+    	for(; index < toIndex ; index++) {
+    		if(buffer.getByte(index) == IcapCodecUtil.LF) {
+    			return index;
+    		}
+    	}
+    	return -1;
+    }
+    
+    /**
+     * finds the terminating LF of the line that starts at the readerIndex of the buffer.
+     * @param buffer
+     * @param maxLineLength the maximum number of bytes of the line, CR and LF excluded.
+     * @return the index of the terminating LF.
+     * @throws DecodingException if the line is longer than maxLineLength.
+     */
+    public static int findLineEnd(ByteBuf buffer, int maxLineLength) throws DecodingException {
+    	int readerIndex = buffer.readerIndex();
+    	int limit = readerIndex + maxLineLength + 2;
+    	if(limit < 0) {
+    		limit = Integer.MAX_VALUE;
+    	}
+    	int writerIndex = buffer.writerIndex();
+    	int lineFeed = findLineFeed(buffer,readerIndex,Math.min(limit,writerIndex));
+    	if(lineFeed < 0) {
+    		if(writerIndex < limit) {
+    			requireMoreData(buffer);
+    		}
+    		throw lineTooLong(maxLineLength);
+    	}
+    	if(getLineContentEnd(buffer,readerIndex,lineFeed) - readerIndex > maxLineLength) {
+    		throw lineTooLong(maxLineLength);
+    	}
+    	return lineFeed;
+    }
+    
+    /**
+     * @param buffer
+     * @param lineStart the first index of the line.
+     * @param lineFeed the index of the terminating LF.
+     * @return the index after the last content byte of the line, a CR before the LF is excluded.
+     */
+    public static int getLineContentEnd(ByteBuf buffer, int lineStart, int lineFeed) {
+    	if(lineFeed > lineStart && buffer.getByte(lineFeed - 1) == IcapCodecUtil.CR) {
+    		return lineFeed - 1;
+    	}
+    	return lineFeed;
     }
 	
     /**
@@ -59,27 +133,11 @@ public final class IcapDecoderUtil {
      * @throws TooLongFrameException
      */
     public static String readLine(ByteBuf buffer, int maxLineLength) throws DecodingException {
-        StringBuilder sb = new StringBuilder(64);
-        int lineLength = 0;
-        while (true) {
-            byte nextByte = buffer.readByte();
-            if (nextByte == IcapCodecUtil.CR) {
-                nextByte = buffer.readByte();
-                if (nextByte == IcapCodecUtil.LF) {
-                    return sb.toString();
-                }
-            } else if (nextByte == IcapCodecUtil.LF) {
-                return sb.toString();
-            } else {
-                if (lineLength >= maxLineLength) {
-                    throw new DecodingException(new TooLongFrameException(
-                            "An HTTP line is larger than " + maxLineLength +
-                            " bytes."));
-                }
-                lineLength ++;
-                sb.append((char) nextByte);
-            }
-        }
+    	int readerIndex = buffer.readerIndex();
+    	int lineFeed = findLineEnd(buffer,maxLineLength);
+    	String line = toString(buffer,readerIndex,getLineContentEnd(buffer,readerIndex,lineFeed));
+    	buffer.readerIndex(lineFeed + 1);
+    	return line;
     }
     
     /**
@@ -91,29 +149,44 @@ public final class IcapDecoderUtil {
      * @throws DecodingException
      */
     public static String previewLine(ByteBuf buffer, int maxLineLength) throws DecodingException {
-        StringBuilder sb = new StringBuilder(64);
-        int lineLength = 0;
-        for(int i = buffer.readerIndex() ; i < buffer.readableBytes() ; i++) {
-            byte nextByte = buffer.getByte(i);
-            if (nextByte == IcapCodecUtil.CR) {
-                nextByte = buffer.getByte(++i);
-                if (nextByte == IcapCodecUtil.LF) {
-                	break;
-                }
-            } else if (nextByte == IcapCodecUtil.LF) {
-            	break;
-            } else {
-                if (lineLength >= maxLineLength) {
-                    throw new DecodingException(new TooLongFrameException(
-                            "An HTTP line is larger than " + maxLineLength +
-                            " bytes."));
-                }
-                lineLength ++;
-                sb.append((char) nextByte);
-            }
-        }
-        return sb.toString();
-    }    
+    	int readerIndex = buffer.readerIndex();
+    	int lineFeed = findLineEnd(buffer,maxLineLength);
+    	return toString(buffer,readerIndex,getLineContentEnd(buffer,readerIndex,lineFeed));
+    }
+    
+    /**
+     * decodes the given range byte per char (ISO-8859-1).
+     * @param buffer
+     * @param fromIndex first index of the range.
+     * @param toIndex index after the last byte of the range.
+     * @return the decoded string.
+     */
+	@SuppressWarnings("deprecation")
+	public static String toString(ByteBuf buffer, int fromIndex, int toIndex) {
+    	int length = toIndex - fromIndex;
+    	if(length == 0) {
+    		return "";
+    	}
+    	if(buffer.hasArray()) {
+    		return new String(buffer.array(),0,buffer.arrayOffset() + fromIndex,length);
+    	}
+    	byte[] bytes = new byte[length];
+    	buffer.getBytes(fromIndex,bytes);
+    	return new String(bytes,0,0,length);
+    }
+    
+    /**
+     * signals that the buffer does not contain enough data yet. Within the decoder this 
+     * replays the current state as soon as more data has arrived.
+     */
+    static void requireMoreData(ByteBuf buffer) {
+    	buffer.getByte(buffer.writerIndex());
+    	throw new IndexOutOfBoundsException("readerIndex(" + buffer.readerIndex() + ") exceeds writerIndex(" + buffer.writerIndex() + ")");
+    }
+    
+    private static DecodingException lineTooLong(int maxLineLength) {
+    	return new DecodingException(new TooLongFrameException("An HTTP line is larger than " + maxLineLength + " bytes."));
+    }
 	
     /**
      * Splits an initial line.
@@ -142,6 +215,52 @@ public final class IcapDecoderUtil {
 				cStart < cEnd ? sb.substring(cStart, cEnd) : "" };
 	}
 
+	/**
+	 * Splits an initial line in place. The start and end index of the three elements are
+	 * stored in the given array in the order aStart, aEnd, bStart, bEnd, cStart, cEnd.
+	 * @param buffer
+	 * @param fromIndex first index of the line.
+	 * @param toIndex index after the last content byte of the line.
+	 * @param bounds array of at least six elements that receives the element bounds.
+	 * @return the bounds array.
+	 */
+	public static int[] splitInitialLine(ByteBuf buffer, int fromIndex, int toIndex, int[] bounds) {
+		bounds[0] = findNonWhitespace(buffer,fromIndex,toIndex);
+		bounds[1] = findWhitespace(buffer,bounds[0],toIndex);
+		bounds[2] = findNonWhitespace(buffer,bounds[1],toIndex);
+		bounds[3] = findWhitespace(buffer,bounds[2],toIndex);
+		bounds[4] = findNonWhitespace(buffer,bounds[3],toIndex);
+		int end = toIndex;
+		while(end > bounds[4] && isWhitespace(buffer.getByte(end - 1))) {
+			end--;
+		}
+		bounds[5] = end;
+		return bounds;
+	}
+	
+	private static int findNonWhitespace(ByteBuf buffer, int fromIndex, int toIndex) {
+		int result = fromIndex;
+		while(result < toIndex && isWhitespace(buffer.getByte(result))) {
+			result++;
+		}
+		return result;
+	}
+	
+	private static int findWhitespace(ByteBuf buffer, int fromIndex, int toIndex) {
+		int result = fromIndex;
+		while(result < toIndex && !isWhitespace(buffer.getByte(result))) {
+			result++;
+		}
+		return result;
+	}
+	
+	/*
+	 * same as Character.isWhitespace for ISO-8859-1 characters.
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || (b >= 0x09 && b <= 0x0D) || (b >= 0x1C && b <= 0x1F);
+	}
+
 	/**
 	 * finds the first occurrence of a non whitespace character.
 	 * @param sb string to find non-whitespaces in
@@ -281,6 +400,24 @@ public final class IcapDecoderUtil {
 		return headerList;
 	}
 	
+	/**
+	 * adds a decoded header to the non validating headers of an encapsulated http message.
+	 * Names and values that do not pass @see {@link IcapCodecUtil#isValidDecodedHeader(String, String)}, 
+	 * e.g. because of a bare CR, are validated and rejected in order to not re-emit them.
+	 * 
+	 * @param headers the headers of the encapsulated http message.
+	 * @param name the decoded header name.
+	 * @param value the decoded header value.
+	 * @throws IllegalArgumentException if name or value contain a prohibited character.
+	 */
+	static void addDecodedHttpHeader(HttpHeaders headers, String name, String value) {
+		if(!IcapCodecUtil.isValidDecodedHeader(name,value)) {
+			IcapCodecUtil.validateHeaderName(name);
+			IcapCodecUtil.validateHeaderValue(value);
+		}
+		headers.add(name,value);
+	}
+	
 	public static boolean isHeaderLineSimpleValue(String header) {
 		char firstChar = header.charAt(0);
 		return firstChar == ' ' || firstChar == '\t';
@@ -294,23 +431,24 @@ public final class IcapDecoderUtil {
 	 * @throws TooLongFrameException In case the total header length is exceeded.
 	 */
 	public static String readSingleHeaderLine(ByteBuf buffer, SizeDelimiter sizeDelimiter) throws DecodingException {
-		StringBuilder sb = new StringBuilder(64);
-		loop: for (;;) {
-			char nextByte = (char) buffer.readByte();
-			sizeDelimiter.increment();
-
-			if(nextByte == IcapCodecUtil.CR) {
-				nextByte = (char) buffer.readByte();
-				sizeDelimiter.increment();
-				if (nextByte == IcapCodecUtil.LF) {
-					break loop;
-				}
-			} else if(nextByte == IcapCodecUtil.LF) {
-				break loop;
+		int readerIndex = buffer.readerIndex();
+		int remaining = sizeDelimiter.getRemaining();
+		int writerIndex = buffer.writerIndex();
+		int limit = readerIndex + remaining;
+		if(remaining < 0 || limit < 0) {
+			limit = Integer.MAX_VALUE;
+		}
+		int lineFeed = findLineFeed(buffer,readerIndex,Math.min(limit,writerIndex));
+		if(lineFeed < 0) {
+			if(writerIndex < limit) {
+				requireMoreData(buffer);
 			}
-			sb.append(nextByte);
+			sizeDelimiter.increment(remaining);
 		}
-		return sb.toString();
+		sizeDelimiter.increment(lineFeed + 1 - readerIndex);
+		String line = toString(buffer,readerIndex,getLineContentEnd(buffer,readerIndex,lineFeed));
+		buffer.readerIndex(lineFeed + 1);
+		return line;
 	}
 	
 	/**
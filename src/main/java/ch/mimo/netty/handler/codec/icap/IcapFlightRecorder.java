@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Entry point of the codec into Java Flight Recorder.
+ * 
+ * The JFR API is only available on newer JVMs, this class therefore contains no references to it and
+ * only delegates to @see {@link IcapFlightRecorderEvents} if the API is present. Events are passed
+ * around as plain objects for the same reason. Every method returns immediately if the respective
+ * event is not enabled in the running recording.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+final class IcapFlightRecorder {
+	
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapFlightRecorder.class);
+
+	static final boolean AVAILABLE = isFlightRecorderPresent();
+	
+	private IcapFlightRecorder() {
+	}
+	
+	/**
+	 * @return started message event or null if not enabled.
+	 */
+	static Object beginMessage() {
+		return AVAILABLE?IcapFlightRecorderEvents.beginMessage():null;
+	}
+	
+	/**
+	 * @param event event returned by {@link #beginMessage()}, may be null.
+	 * @param message the decoded message.
+	 * @param bodySize amount of decoded body bytes.
+	 */
+	static void commitMessage(Object event, IcapMessage message, long bodySize) {
+		if(event != null) {
+			IcapFlightRecorderEvents.commitMessage(event,message,bodySize);
+		}
+	}
+	
+	/**
+	 * @return started state event or null if not enabled.
+	 */
+	static Object beginState() {
+		return AVAILABLE?IcapFlightRecorderEvents.beginState():null;
+	}
+	
+	/**
+	 * Commits the event if the state execution exceeded the configured threshold.
+	 * 
+	 * @param event event returned by {@link #beginState()}, may be null.
+	 * @param state the executed state.
+	 */
+	static void commitState(Object event, StateEnum state) {
+		if(event != null) {
+			IcapFlightRecorderEvents.commitState(event,state);
+		}
+	}
+	
+	/**
+	 * @param message the message that was decoded, may be null.
+	 * @param cause the failure.
+	 */
+	static void decodingFailed(IcapMessage message, Throwable cause) {
+		if(AVAILABLE) {
+			IcapFlightRecorderEvents.decodingFailed(message,cause);
+		}
+	}
+	
+	/**
+	 * @return started aggregation event or null if not enabled.
+	 */
+	static Object beginAggregation() {
+		return AVAILABLE?IcapFlightRecorderEvents.beginAggregation():null;
+	}
+	
+	/**
+	 * @param event event returned by {@link #beginAggregation()}, may be null.
+	 * @param message the aggregated message.
+	 * @param bodySize the size of the aggregated body.
+	 */
+	static void commitAggregation(Object event, IcapMessage message, long bodySize) {
+		if(event != null) {
+			IcapFlightRecorderEvents.commitAggregation(event,message,bodySize);
+		}
+	}
+	
+	/**
+	 * @return started encoding event or null if not enabled.
+	 */
+	static Object beginEncoding() {
+		return AVAILABLE?IcapFlightRecorderEvents.beginEncoding():null;
+	}
+	
+	/**
+	 * @param event event returned by {@link #beginEncoding()}, may be null.
+	 * @param message the encoded message.
+	 * @param bytes the amount of bytes the message was encoded to.
+	 */
+	static void commitEncoding(Object event, IcapMessage message, long bytes) {
+		if(event != null) {
+			IcapFlightRecorderEvents.commitEncoding(event,message,bytes);
+		}
+	}
+	
+	private static boolean isFlightRecorderPresent() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch(Throwable t) {
+			LOG.debug("Java Flight Recorder API is not available",t);
+			return false;
+		}
+	}
+}
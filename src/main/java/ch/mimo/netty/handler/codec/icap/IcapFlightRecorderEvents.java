@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the codec. Only to be used through @see {@link IcapFlightRecorder}.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+final class IcapFlightRecorderEvents {
+	
+	private static final EventType MESSAGE_DECODED = EventType.getEventType(MessageDecodedEvent.class);
+	private static final EventType STATE_EXECUTED = EventType.getEventType(StateExecutedEvent.class);
+	private static final EventType DECODING_FAILED = EventType.getEventType(DecodingFailedEvent.class);
+	private static final EventType MESSAGE_AGGREGATED = EventType.getEventType(MessageAggregatedEvent.class);
+	private static final EventType MESSAGE_ENCODED = EventType.getEventType(MessageEncodedEvent.class);
+	
+	private IcapFlightRecorderEvents() {
+	}
+	
+	static Object beginMessage() {
+		if(!MESSAGE_DECODED.isEnabled()) {
+			return null;
+		}
+		MessageDecodedEvent event = new MessageDecodedEvent();
+		event.begin();
+		return event;
+	}
+	
+	static void commitMessage(Object object, IcapMessage message, long bodySize) {
+		MessageDecodedEvent event = (MessageDecodedEvent)object;
+		event.end();
+		if(event.shouldCommit()) {
+			event.set(message,bodySize);
+			event.commit();
+		}
+	}
+	
+	static Object beginState() {
+		if(!STATE_EXECUTED.isEnabled()) {
+			return null;
+		}
+		StateExecutedEvent event = new StateExecutedEvent();
+		event.begin();
+		return event;
+	}
+	
+	static void commitState(Object object, StateEnum state) {
+		StateExecutedEvent event = (StateExecutedEvent)object;
+		event.end();
+		if(event.shouldCommit()) {
+			event.state = state.name();
+			event.commit();
+		}
+	}
+	
+	static void decodingFailed(IcapMessage message, Throwable cause) {
+		if(!DECODING_FAILED.isEnabled()) {
+			return;
+		}
+		DecodingFailedEvent event = new DecodingFailedEvent();
+		if(cause instanceof DecodingException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		event.set(message);
+		event.failure = cause.getClass().getName();
+		event.failureMessage = cause.getMessage();
+		event.commit();
+	}
+	
+	static Object beginAggregation() {
+		if(!MESSAGE_AGGREGATED.isEnabled()) {
+			return null;
+		}
+		MessageAggregatedEvent event = new MessageAggregatedEvent();
+		event.begin();
+		return event;
+	}
+	
+	static void commitAggregation(Object object, IcapMessage message, long bodySize) {
+		MessageAggregatedEvent event = (MessageAggregatedEvent)object;
+		event.end();
+		if(event.shouldCommit()) {
+			event.set(message,bodySize);
+			event.commit();
+		}
+	}
+	
+	static Object beginEncoding() {
+		if(!MESSAGE_ENCODED.isEnabled()) {
+			return null;
+		}
+		MessageEncodedEvent event = new MessageEncodedEvent();
+		event.begin();
+		return event;
+	}
+	
+	static void commitEncoding(Object object, IcapMessage message, long bytes) {
+		MessageEncodedEvent event = (MessageEncodedEvent)object;
+		event.end();
+		if(event.shouldCommit()) {
+			event.set(message);
+			event.bytesWritten = bytes;
+			event.commit();
+		}
+	}
+	
+	@Category({"Netty","ICAP"})
+	@StackTrace(false)
+	abstract static class IcapMessageEvent extends Event {
+		
+		@Label("Method")
+		String method;
+		
+		@Label("URI")
+		String uri;
+		
+		@Label("Status")
+		int status;
+		
+		@Label("Preview")
+		boolean preview;
+		
+		void set(IcapMessage message) {
+			if(message instanceof IcapRequest) {
+				IcapRequest request = (IcapRequest)message;
+				method = request.getMethod().toString();
+				uri = request.getUri();
+			} else if(message instanceof IcapResponse) {
+				status = ((IcapResponse)message).getStatus().getCode();
+			}
+			if(message != null) {
+				preview = message.isPreviewMessage();
+			}
+		}
+	}
+	
+	abstract static class IcapBodyEvent extends IcapMessageEvent {
+		
+		@Label("Body Size")
+		@DataAmount
+		long bodySize;
+		
+		void set(IcapMessage message, long bodySize) {
+			set(message);
+			this.bodySize = bodySize;
+		}
+	}
+	
+	@Name("ch.mimo.netty.icap.MessageDecoded")
+	@Label("ICAP Message Decoded")
+	@Description("An ICAP message including its body was decoded")
+	static final class MessageDecodedEvent extends IcapBodyEvent {
+	}
+	
+	@Name("ch.mimo.netty.icap.DecodingFailed")
+	@Label("ICAP Decoding Failed")
+	@Description("The decoder failed to decode an ICAP message")
+	@StackTrace(true)
+	static final class DecodingFailedEvent extends IcapMessageEvent {
+		
+		@Label("Failure")
+		String failure;
+		
+		@Label("Failure Message")
+		String failureMessage;
+	}
+	
+	@Name("ch.mimo.netty.icap.MessageAggregated")
+	@Label("ICAP Message Aggregated")
+	@Description("The chunks of an ICAP message were aggregated into its body")
+	static final class MessageAggregatedEvent extends IcapBodyEvent {
+	}
+	
+	@Name("ch.mimo.netty.icap.MessageEncoded")
+	@Label("ICAP Message Encoded")
+	@Description("An ICAP message was encoded")
+	static final class MessageEncodedEvent extends IcapMessageEvent {
+		
+		@Label("Bytes Written")
+		@DataAmount
+		long bytesWritten;
+	}
+	
+	@Name("ch.mimo.netty.icap.StateExecuted")
+	@Label("ICAP Decoder State Executed")
+	@Description("A decoder state took longer than the threshold")
+	@Category({"Netty","ICAP"})
+	@StackTrace(false)
+	@Threshold("1 ms")
+	static final class StateExecutedEvent extends Event {
+		
+		@Label("State")
+		String state;
+	}
+}
@@ -16,14 +16,14 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,9 +38,24 @@ import java.util.Set;
 public final class IcapHeaders {
 
 	private final List<Entry> entries = new LinkedList<Entry>();
-
-	private static final String DATE_FORMAT = "E, dd MMM yyyy HH:mm:ss z";
 	
+	/**
+	 * The constants of @see {@link Names} by identity. Their names are valid and need no validation.
+	 */
+	private static final Map<String, Boolean> CONSTANT_NAMES = new IdentityHashMap<String, Boolean>();
+	
+	static {
+		for(Field field : Names.class.getFields()) {
+			if(Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+				try {
+					CONSTANT_NAMES.put((String)field.get(null),Boolean.TRUE);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
 	/**
 	 * The most common Icap Header names.
 	 * 
@@ -176,12 +191,40 @@ public final class IcapHeaders {
 	 * @param value Icap message header value. Can also be null
 	 */
 	public void addHeader(String name, Object value) {
-		entries.add(new Entry(name, value));
+		entries.add(new Entry(name, value, true));
+	}
+	
+	/**
+	 * Adds a header without validating name and value. This is reserved for headers that are 
+	 * known to be valid such as constants or headers the decoder has read from a single, 
+	 * already split header line and checked with @see {@link IcapCodecUtil#isValidDecodedHeader(String, String)}.
+	 * A value must never contain CR or LF.
+	 * 
+	 * @param name Icap message header name
+	 * @param value Icap message header value. Can also be null
+	 */
+	void addTrustedHeader(String name, String value) {
+		entries.add(new Entry(name, value, false));
 	}
 	
+	/**
+	 * Adds a date header in RFC 1123 format.
+	 * 
+	 * @param name Icap message header name
+	 * @param value the date
+	 */
 	public void addDateHeader(String name, Date value) {
-		SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT,Locale.ENGLISH);
-		addHeader(name,format.format(value));
+		addHeader(name,IcapDateHeader.format(value));
+	}
+	
+	/**
+	 * Adds a date header with the current time. The value is formatted at most
+	 * once per second, @see {@link IcapDateHeader#now()}
+	 * 
+	 * @param name Icap message header name
+	 */
+	public void addDateHeader(String name) {
+		addHeader(name,IcapDateHeader.now());
 	}
 	
 	/**
@@ -240,13 +283,11 @@ public final class IcapHeaders {
 	 */
 	public Date getDateHeader(String name) {
 		Date date = null;
-		SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT,Locale.ENGLISH);
 		String value = getHeader(name);
 		if(value != null) {
-			try {
-				date = format.parse(value);
-			} catch (ParseException e) {
-				throw new IllegalArgumentException("The header value [" + value + "] is not a valid date",e);
+			date = IcapDateHeader.parse(value);
+			if(date == null) {
+				throw new IllegalArgumentException("The header value [" + value + "] is not a valid date");
 			}
 		}
 		return date;
@@ -353,12 +394,16 @@ public final class IcapHeaders {
 		private String key;
 		private String value;
 
-		Entry(String key, Object value) {
-			IcapCodecUtil.validateHeaderName(key);
+		Entry(String key, Object value, boolean validate) {
+			if(validate && !CONSTANT_NAMES.containsKey(key)) {
+				IcapCodecUtil.validateHeaderName(key);
+			}
 			this.key = key;
 			if(value != null) {
 				this.value = value.toString();
-				IcapCodecUtil.validateHeaderValue(this.value);
+				if(validate) {
+					IcapCodecUtil.validateHeaderValue(this.value);
+				}
 			}
 		}
 		
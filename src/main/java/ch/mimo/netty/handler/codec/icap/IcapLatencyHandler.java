@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Measures the phases of server side ICAP transactions (see @see {@link IcapLatencyPhase}) and records 
+ * them into a shared @see {@link IcapLatencyRecorder}.
+ * 
+ * The handler works as a pair: the handler returned by {@link #getFirstByteHandler()} has to be placed in front
+ * of the decoder to take the time of the first byte of a request, the handler itself is placed after the encoder
+ * and in front of a @see {@link IcapChunkSeparator} so that it sees every chunk of the response that is written.
+ * 
+ * <pre>
+ * IcapLatencyHandler latency = new IcapLatencyHandler(recorder);
+ * pipeline.addLast("latencyFirstByte",latency.getFirstByteHandler());
+ * pipeline.addLast("decoder",new IcapRequestDecoder());
+ * pipeline.addLast("encoder",new IcapResponseEncoder());
+ * pipeline.addLast("latency",latency);
+ * pipeline.addLast("chunkSeparator",new IcapChunkSeparator(4096));
+ * pipeline.addLast("chunkAggregator",new IcapChunkAggregator(4096));
+ * pipeline.addLast("handler",new MyServiceHandler());
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class IcapLatencyHandler extends ChannelDuplexHandler {
+
+	private final IcapLatencyRecorder recorder;
+	private final ChannelHandler firstByteHandler = new ChannelInboundHandlerAdapter() {
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if(!receiving && !firstByteSeen && msg instanceof ByteBuf && recorder.isEnabled()) {
+				firstByteSeen = true;
+				firstByte = nanoTime();
+			}
+			ctx.fireChannelRead(msg);
+		}
+	};
+	
+	private boolean firstByteSeen;
+	private long firstByte;
+	
+	private boolean transaction;
+	private boolean receiving;
+	private boolean decoded;
+	private boolean awaitingLastChunk;
+	private String service;
+	private IcapMethod method;
+	private long start;
+	private long complete;
+	private long responseWrite;
+	
+	/**
+	 * @param recorder the shared recorder.
+	 */
+	public IcapLatencyHandler(IcapLatencyRecorder recorder) {
+		if(recorder == null) {
+			throw new NullPointerException("recorder");
+		}
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * @return the handler that has to be placed in front of the decoder.
+	 */
+	public ChannelHandler getFirstByteHandler() {
+		return firstByteHandler;
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if(recorder.isEnabled()) {
+			if(msg instanceof IcapRequest) {
+				IcapRequest request = (IcapRequest)msg;
+				long now = nanoTime();
+				start = firstByteSeen?firstByte:now;
+				firstByteSeen = false;
+				service = IcapCodecUtil.getServiceName(request.getUri());
+				method = request.getMethod();
+				transaction = true;
+				receiving = true;
+				decoded = false;
+				awaitingLastChunk = false;
+				if(!hasBody(request)) {
+					decoded(now);
+				}
+			} else if(receiving && msg instanceof IcapChunk && ((IcapChunk)msg).isLast()) {
+				decoded(nanoTime());
+			}
+		}
+		ctx.fireChannelRead(msg);
+	}
+	
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if(transaction && recorder.isEnabled()) {
+			if(!awaitingLastChunk && msg instanceof IcapResponse && !((IcapResponse)msg).getStatus().equals(IcapResponseStatus.CONTINUE)) {
+				responseWrite = nanoTime();
+				receiving = false;
+				if(decoded) {
+					recorder.record(service,method,IcapLatencyPhase.SERVICE,responseWrite - complete);
+				}
+				if(hasBody((IcapResponse)msg)) {
+					awaitingLastChunk = true;
+				} else {
+					promise = completeTransaction(promise);
+				}
+			} else if(awaitingLastChunk && msg instanceof IcapChunk && ((IcapChunk)msg).isLast()) {
+				promise = completeTransaction(promise);
+			}
+		}
+		ctx.write(msg,promise);
+	}
+	
+	long nanoTime() {
+		return System.nanoTime();
+	}
+	
+	private void decoded(long now) {
+		if(!decoded) {
+			decoded = true;
+			recorder.record(service,method,IcapLatencyPhase.DECODE,now - start);
+		}
+		receiving = false;
+		complete = now;
+	}
+	
+	private ChannelPromise completeTransaction(ChannelPromise promise) {
+		transaction = false;
+		awaitingLastChunk = false;
+		final String service = this.service;
+		final IcapMethod method = this.method;
+		final long start = this.start;
+		final long responseWrite = this.responseWrite;
+		promise = promise.unvoid();
+		promise.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if(future.isSuccess()) {
+					long now = nanoTime();
+					recorder.record(service,method,IcapLatencyPhase.WRITE,now - responseWrite);
+					recorder.record(service,method,IcapLatencyPhase.TOTAL,now - start);
+				}
+			}
+		});
+		return promise;
+	}
+	
+	private boolean hasBody(IcapMessage message) {
+		IcapMessageElementEnum body = message.getBodyType();
+		return body != null && !body.equals(IcapMessageElementEnum.NULLBODY);
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets in the style of HdrHistogram.
+ * 
+ * Every power of two is divided into 64 linear sub buckets, which keeps the error of a recorded 
+ * value below 1.6 percent. Values from 0 up to about 17 minutes (2^40 nanoseconds) are tracked, 
+ * larger values are counted in the highest bucket. Recording is a single atomic increment and 
+ * can be done concurrently from any thread.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class IcapLatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_VALUE_BITS = 40;
+	private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+	private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong sum = new AtomicLong();
+	
+	/**
+	 * @param nanos the latency in nanoseconds, negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucketIndex(Math.min(nanos,MAX_VALUE)));
+		sum.addAndGet(nanos);
+	}
+	
+	/**
+	 * @return a consistent copy of the recorded values, recording continues unaffected.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKET_COUNT];
+		long total = 0;
+		for(int i = 0 ; i < BUCKET_COUNT ; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy,total,sum.get());
+	}
+	
+	static int bucketIndex(long value) {
+		if(value < SUB_BUCKET_COUNT) {
+			return (int)value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int)((value >>> shift) - SUB_BUCKET_COUNT);
+	}
+	
+	static long lowestValue(int index) {
+		if(index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		return ((long)(index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT) << shift;
+	}
+	
+	static long highestValue(int index) {
+		if(index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		return lowestValue(index) + (1L << shift) - 1;
+	}
+	
+	/**
+	 * Immutable copy of a histogram. Values are reported as the highest value of their bucket.
+	 */
+	public static final class Snapshot {
+		
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		
+		private Snapshot(long[] counts, long count, long sum) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+		}
+		
+		/**
+		 * @return amount of recorded values.
+		 */
+		public long getCount() {
+			return count;
+		}
+		
+		/**
+		 * @return the exact mean of all recorded values in nanoseconds, 0 if nothing was recorded.
+		 */
+		public double getMean() {
+			return count == 0?0D:(double)sum / count;
+		}
+		
+		/**
+		 * @return the smallest recorded value in nanoseconds, 0 if nothing was recorded.
+		 */
+		public long getMin() {
+			for(int i = 0 ; i < counts.length ; i++) {
+				if(counts[i] > 0) {
+					return highestValue(i);
+				}
+			}
+			return 0;
+		}
+		
+		/**
+		 * @return the largest recorded value in nanoseconds, 0 if nothing was recorded.
+		 */
+		public long getMax() {
+			for(int i = counts.length - 1 ; i >= 0 ; i--) {
+				if(counts[i] > 0) {
+					return highestValue(i);
+				}
+			}
+			return 0;
+		}
+		
+		/**
+		 * @param percentile between 0 and 100, e.g. 99.9
+		 * @return the value in nanoseconds below or equal to which the given percentage of values lies.
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if(count == 0) {
+				return 0;
+			}
+			long target = Math.max(1,(long)Math.ceil(Math.min(100D,percentile) / 100D * count));
+			long seen = 0;
+			for(int i = 0 ; i < counts.length ; i++) {
+				seen += counts[i];
+				if(seen >= target) {
+					return highestValue(i);
+				}
+			}
+			return getMax();
+		}
+		
+		/**
+		 * Exports the distribution, e.g. to feed cumulative buckets of a monitoring system.
+		 * 
+		 * @return the highest value of every non empty bucket in nanoseconds mapped to its count, in ascending order.
+		 */
+		public Map<Long,Long> getDistribution() {
+			Map<Long,Long> distribution = new LinkedHashMap<Long,Long>();
+			for(int i = 0 ; i < counts.length ; i++) {
+				if(counts[i] > 0) {
+					distribution.put(highestValue(i),counts[i]);
+				}
+			}
+			return distribution;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append("count=").append(count);
+			builder.append(" mean=").append(TimeUnit.NANOSECONDS.toMicros((long)getMean())).append("us");
+			builder.append(" p50=").append(TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50))).append("us");
+			builder.append(" p99=").append(TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99))).append("us");
+			builder.append(" max=").append(TimeUnit.NANOSECONDS.toMicros(getMax())).append("us");
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+/**
+ * Phases of an ICAP transaction measured by the @see {@link IcapLatencyHandler}.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public enum IcapLatencyPhase {
+	/**
+	 * from the first byte of the request until the request including its body is decoded.
+	 */
+	DECODE,
+	/**
+	 * from the decoded request until the service writes the final response.
+	 */
+	SERVICE,
+	/**
+	 * from the final response write until the response including its body is flushed to the socket.
+	 */
+	WRITE,
+	/**
+	 * from the first byte of the request until the response is flushed to the socket.
+	 */
+	TOTAL
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the transaction latencies of all channels in one @see {@link IcapLatencyHistogram} per
+ * service, method and @see {@link IcapLatencyPhase}.
+ * 
+ * Service names and methods are controlled by the client. Extension methods are therefore always recorded 
+ * under {@link #OTHER_METHOD} and once maxServices distinct service and method combinations are tracked all 
+ * further services are recorded under {@link #OTHER_SERVICE}. At most four folded combinations are added beyond the limit.
+ * 
+ * The recorder can be switched off at runtime, the @see {@link IcapLatencyHandler} then only pays for
+ * reading a volatile flag.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class IcapLatencyRecorder {
+
+	public static final String OTHER_SERVICE = "*";
+	public static final IcapMethod OTHER_METHOD = IcapMethod.valueOf("*");
+	
+	private final int maxServices;
+	private final ConcurrentMap<String,IcapLatencyHistogram[]> histograms = new ConcurrentHashMap<String,IcapLatencyHistogram[]>();
+	private volatile boolean enabled = true;
+	
+	/**
+	 * @param maxServices the maximum amount of distinct service and method combinations that are tracked.
+	 */
+	public IcapLatencyRecorder(int maxServices) {
+		if(maxServices <= 0) {
+			throw new IllegalArgumentException("maxServices must be a positive integer: " + maxServices);
+		}
+		this.maxServices = maxServices;
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * @param service the service name, @see {@link IcapCodecUtil#getServiceName(String)}
+	 * @param method the ICAP method.
+	 * @param phase the transaction phase.
+	 * @param nanos the latency in nanoseconds.
+	 */
+	public void record(String service, IcapMethod method, IcapLatencyPhase phase, long nanos) {
+		histograms(service,method)[phase.ordinal()].record(nanos);
+	}
+	
+	/**
+	 * @return snapshots of all histograms keyed by service, method and phase.
+	 */
+	public Map<Key,IcapLatencyHistogram.Snapshot> snapshot() {
+		Map<Key,IcapLatencyHistogram.Snapshot> snapshot = new LinkedHashMap<Key,IcapLatencyHistogram.Snapshot>();
+		for(Map.Entry<String,IcapLatencyHistogram[]> entry : histograms.entrySet()) {
+			int separator = entry.getKey().lastIndexOf(' ');
+			String service = entry.getKey().substring(0,separator);
+			IcapMethod method = IcapMethod.valueOf(entry.getKey().substring(separator + 1));
+			for(IcapLatencyPhase phase : IcapLatencyPhase.values()) {
+				snapshot.put(new Key(service,method,phase),entry.getValue()[phase.ordinal()].snapshot());
+			}
+		}
+		return snapshot;
+	}
+	
+	private IcapLatencyHistogram[] histograms(String service, IcapMethod method) {
+		if(!IcapMethod.REQMOD.equals(method) && !IcapMethod.RESPMOD.equals(method) && !IcapMethod.OPTIONS.equals(method)) {
+			method = OTHER_METHOD;
+		}
+		String name = service + ' ' + method;
+		IcapLatencyHistogram[] phases = histograms.get(name);
+		if(phases == null) {
+			if(histograms.size() >= maxServices) {
+				name = OTHER_SERVICE + ' ' + method;
+				phases = histograms.get(name);
+				if(phases != null) {
+					return phases;
+				}
+			}
+			IcapLatencyHistogram[] newPhases = new IcapLatencyHistogram[IcapLatencyPhase.values().length];
+			for(int i = 0 ; i < newPhases.length ; i++) {
+				newPhases[i] = new IcapLatencyHistogram();
+			}
+			phases = histograms.putIfAbsent(name,newPhases);
+			if(phases == null) {
+				phases = newPhases;
+			}
+		}
+		return phases;
+	}
+	
+	/**
+	 * Identifies a histogram of a snapshot.
+	 */
+	public static final class Key {
+		
+		private final String service;
+		private final IcapMethod method;
+		private final IcapLatencyPhase phase;
+		
+		public Key(String service, IcapMethod method, IcapLatencyPhase phase) {
+			this.service = service;
+			this.method = method;
+			this.phase = phase;
+		}
+		
+		public String getService() {
+			return service;
+		}
+		
+		public IcapMethod getMethod() {
+			return method;
+		}
+		
+		public IcapLatencyPhase getPhase() {
+			return phase;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (service.hashCode() * 31 + method.toString().hashCode()) * 31 + phase.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)obj;
+			return service.equals(other.service) && method.toString().equals(other.method.toString()) && phase == other.phase;
+		}
+		
+		@Override
+		public String toString() {
+			return service + " " + method + " " + phase;
+		}
+	}
+}
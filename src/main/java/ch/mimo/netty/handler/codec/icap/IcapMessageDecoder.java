@@ -47,10 +47,20 @@ public abstract class IcapMessageDecoder extends ReplayingDecoder<StateEnum> {
     protected final int maxHttpHeaderSize;
     protected final int maxChunkSize;
     
+    private final IcapCodecMetrics metrics;
+    
+    private Object messageEvent;
+    private long messageBodySize;
+    
 	protected IcapMessage message;
 	
-	protected int currentChunkSize;
+	protected long currentChunkSize;
+	
+	final ChunkSizeLine chunkSizeLine = new ChunkSizeLine();
+	
+	final int[] initialLine = new int[6];
 	
+	private boolean recycleChunks;
 	
 	
     /**
@@ -70,6 +80,18 @@ public abstract class IcapMessageDecoder extends ReplayingDecoder<StateEnum> {
      * @param maxChunkSize
      */
     protected IcapMessageDecoder(int maxInitialLineLength, int maxIcapHeaderSize, int maxHttpHeaderSize, int maxChunkSize) {
+    	this(maxInitialLineLength,maxIcapHeaderSize,maxHttpHeaderSize,maxChunkSize,NoopIcapCodecMetrics.INSTANCE);
+    }
+    
+    /**
+     * Creates a new instance with the specified parameters.
+     * @param maxInitialLineLength
+     * @param maxIcapHeaderSize
+     * @param maxHttpHeaderSize
+     * @param maxChunkSize
+     * @param metrics receives the measurements of this decoder, @see {@link IcapCodecMetrics}
+     */
+    protected IcapMessageDecoder(int maxInitialLineLength, int maxIcapHeaderSize, int maxHttpHeaderSize, int maxChunkSize, IcapCodecMetrics metrics) {
 		super(StateEnum.SKIP_CONTROL_CHARS);
         LOG = InternalLoggerFactory.getInstance(getClass());
         if (maxInitialLineLength <= 0) {
@@ -84,40 +106,140 @@ public abstract class IcapMessageDecoder extends ReplayingDecoder<StateEnum> {
         if (maxChunkSize <= 0) {
             throw new IllegalArgumentException("maxChunkSize must be a positive integer: " + maxChunkSize);
         }
+        if(metrics == null) {
+        	throw new NullPointerException("metrics");
+        }
         this.maxInitialLineLength = maxInitialLineLength;
         this.maxIcapHeaderSize = maxIcapHeaderSize;
         this.maxHttpHeaderSize = maxHttpHeaderSize;
         this.maxChunkSize = maxChunkSize;
+        this.metrics = metrics;
     }
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
     	StateEnum stateEnumValue = state();
 		if(stateEnumValue != null) {
+			boolean measure = metrics.isEnabled();
+			long start = measure?System.nanoTime():0L;
+			int readerIndex = in.readerIndex();
+			if(messageEvent == null && stateEnumValue == StateEnum.SKIP_CONTROL_CHARS) {
+				messageEvent = IcapFlightRecorder.beginMessage();
+				messageBodySize = 0;
+			}
+			Object stateEvent = IcapFlightRecorder.beginState();
 			try {
 				State state = stateEnumValue.getState();
-				LOG.debug("Executing state [" + state + ']');
+				boolean trace = IcapTrace.isTracing(LOG,ctx);
+				if(trace) {
+					IcapTrace.trace(LOG,ctx,"Executing state [{}]",state);
+				}
+				int outSize = out.size();
 				state.onEntry(in,this);
-				StateReturnValue returnValue = state.execute(in,this);
-				LOG.debug("Return value from state [" + state + "] = [" + returnValue + "]");
-				StateEnum nextState = state.onExit(in,this,returnValue.getDecisionInformation());
-				LOG.debug("Next State [" + nextState + "]");
+				StateEnum nextState = state.execute(in,this,out);
+				IcapMessage current = message;
+				if(trace) {
+					IcapTrace.trace(LOG,ctx,"State [{}] decoded [{}] objects",state,out.size() - outSize);
+					IcapTrace.trace(LOG,ctx,"Next State [{}]",nextState);
+				}
 				if(nextState != null) {
 					checkpoint(nextState);
 				} else {
 					reset();
 				}
-				if(returnValue.isRelevant()) {
-					out.add(returnValue.getValue());
+				if(measure || messageEvent != null) {
+					for(int i = outSize ; i < out.size() ; i++) {
+						measureDecoded(out.get(i),current,measure);
+					}
+				}
+				if(measure) {
+					metrics.bytesDecoded(in.readerIndex() - readerIndex);
 				}
 			} catch(DecodingException e) {
+				decodingFailed(e);
 				reset();
 				throw e;
+			} catch(IcapDecodingError e) {
+				decodingFailed(e);
+				throw e;
+			} catch(RuntimeException e) {
+				decodingFailed(e);
+				throw e;
+			} finally {
+				if(measure) {
+					metrics.stateExecuted(stateEnumValue,System.nanoTime() - start);
+				}
+				IcapFlightRecorder.commitState(stateEvent,stateEnumValue);
+			}
+		}
+	}
+	
+	private void measureDecoded(Object value, IcapMessage current, boolean measure) {
+		if(value instanceof IcapMessage) {
+			IcapMessage decoded = (IcapMessage)value;
+			if(measure) {
+				metrics.messageDecoded(decoded);
+			}
+			IcapMessageElementEnum body = decoded.getBodyType();
+			if(body == null || body.equals(IcapMessageElementEnum.NULLBODY)) {
+				commitMessageEvent(decoded);
+			}
+		} else if(value instanceof IcapChunk) {
+			IcapChunk chunk = (IcapChunk)value;
+			if(measure) {
+				metrics.chunkDecoded(chunk);
+			}
+			messageBodySize += chunk.content().readableBytes();
+			if(chunk.isLast()) {
+				commitMessageEvent(current);
 			}
 		}
 	}
 	
+	private void commitMessageEvent(IcapMessage decoded) {
+		IcapFlightRecorder.commitMessage(messageEvent,decoded,messageBodySize);
+		messageEvent = null;
+	}
+	
+	private void decodingFailed(Throwable cause) {
+		metrics.decodingFailed(cause);
+		IcapFlightRecorder.decodingFailed(message,cause);
+		messageEvent = null;
+	}
+	
+	/**
+	 * Toggles whether decoded chunks and chunk trailers are taken from a per thread pool.
+	 * 
+	 * Pooled chunks return to the pool as soon as they are released, handlers that
+	 * keep a reference to a chunk after releasing it must therefore not enable this option.
+	 * 
+	 * @param recycleChunks true to hand out pooled chunks and trailers.
+	 */
+	public void setRecycleChunks(boolean recycleChunks) {
+		this.recycleChunks = recycleChunks;
+	}
+	
+	/**
+	 * @return true if decoded chunks and chunk trailers are pooled.
+	 */
+	public boolean isRecycleChunks() {
+		return recycleChunks;
+	}
+	
+	IcapChunk newChunk(ByteBuf content) {
+		if(recycleChunks) {
+			return RecyclableIcapChunk.newInstance(content);
+		}
+		return new DefaultIcapChunk(content);
+	}
+	
+	IcapChunkTrailer newChunkTrailer(boolean isPreview, boolean isEarlyTerminated, Integer useOriginalBodyOffset) {
+		if(recycleChunks) {
+			return RecyclableIcapChunkTrailer.newInstance(isPreview,isEarlyTerminated,useOriginalBodyOffset);
+		}
+		return new DefaultIcapChunkTrailer(isPreview,isEarlyTerminated,useOriginalBodyOffset);
+	}
+	
 	/**
 	 * set the decoders message to NULL and the next checkpoint to @see {@link StateEnum#SKIP_CONTROL_CHARS}
 	 */
@@ -129,4 +251,36 @@ public abstract class IcapMessageDecoder extends ReplayingDecoder<StateEnum> {
 	public abstract boolean isDecodingResponse();
 	
 	protected abstract IcapMessage createMessage(String[] initialLine);
+	
+	/**
+	 * creates the message from an initial line that is still in the buffer. 
+	 * The default implementation materializes the three elements and calls @see IcapMessageDecoder#createMessage(String[]).
+	 * 
+	 * @param buffer the buffer that contains the initial line.
+	 * @param initialLine start and end index of the three elements as created by @see {@link IcapDecoderUtil#splitInitialLine(ByteBuf, int, int, int[])}
+	 * @return the message.
+	 */
+	IcapMessage createMessage(ByteBuf buffer, int[] initialLine) {
+		return createMessage(new String[]{IcapDecoderUtil.toString(buffer,initialLine[0],initialLine[1]),
+				IcapDecoderUtil.toString(buffer,initialLine[2],initialLine[3]),
+				IcapDecoderUtil.toString(buffer,initialLine[4],initialLine[5])});
+	}
+	
+	/**
+	 * @param type the runtime class of a decoder.
+	 * @param base the decoder class that creates its messages directly from the buffer.
+	 * @return true if a class between type and base overrides @see IcapMessageDecoder#createMessage(String[]),
+	 * in which case the decoder has to create its messages through that method.
+	 */
+	static boolean overridesCreateMessage(Class<?> type, Class<?> base) {
+		for(Class<?> current = type ; current != null && current != base ; current = current.getSuperclass()) {
+			try {
+				current.getDeclaredMethod("createMessage",String[].class);
+				return true;
+			} catch(NoSuchMethodException e) {
+				// not overridden on this level
+			}
+		}
+		return false;
+	}
 }
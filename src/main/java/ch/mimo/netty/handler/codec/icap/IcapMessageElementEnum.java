@@ -15,6 +15,8 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * This enum contains all valid ICAP message element names that can occur in
  * an @see {@link Encapsulated} header.
@@ -42,12 +44,87 @@ public enum IcapMessageElementEnum {
 	
 	public static IcapMessageElementEnum fromString(String value) {
 		if(value != null) {
-			for(IcapMessageElementEnum entryName : IcapMessageElementEnum.values()) {
-				if(value.equalsIgnoreCase(entryName.getValue())) {
-					return entryName;
-				}
-			}
+			return fromCharSequence(value,0,value.length());
 		}
 		return null;
 	}
+	
+	/**
+	 * Case insensitive lookup of a element name within the given range of a sequence.
+	 * No intermediate String is created.
+	 * 
+	 * @param value the sequence that contains the element name.
+	 * @param start first index of the name.
+	 * @param end index after the last character of the name.
+	 * @return the matching element or null if the name is unknown.
+	 */
+	static IcapMessageElementEnum fromCharSequence(CharSequence value, int start, int end) {
+		int length = end - start;
+		if(length < 7) {
+			return null;
+		}
+		IcapMessageElementEnum candidate = candidate(length,value.charAt(start),value.charAt(start + 2));
+		if(candidate == null) {
+			return null;
+		}
+		String name = candidate.getValue();
+		for(int i = 0 ; i < length ; i++) {
+			if(toLowerCase(value.charAt(start + i)) != name.charAt(i)) {
+				return null;
+			}
+		}
+		return candidate;
+	}
+	
+	/**
+	 * Case insensitive lookup of a element name directly from a buffer.
+	 * 
+	 * @param buffer the buffer that contains the element name.
+	 * @param fromIndex first index of the name.
+	 * @param toIndex index after the last byte of the name.
+	 * @return the matching element or null if the name is unknown.
+	 */
+	static IcapMessageElementEnum fromBytes(ByteBuf buffer, int fromIndex, int toIndex) {
+		int length = toIndex - fromIndex;
+		if(length < 7) {
+			return null;
+		}
+		IcapMessageElementEnum candidate = candidate(length,buffer.getByte(fromIndex),buffer.getByte(fromIndex + 2));
+		if(candidate == null) {
+			return null;
+		}
+		String name = candidate.getValue();
+		for(int i = 0 ; i < length ; i++) {
+			if(toLowerCase(buffer.getByte(fromIndex + i)) != name.charAt(i)) {
+				return null;
+			}
+		}
+		return candidate;
+	}
+	
+	/*
+	 * the length together with the first and the third character identify every element name:
+	 * req-hdr, res-hdr, req-body, res-body, opt-body and null-body.
+	 */
+	private static IcapMessageElementEnum candidate(int length, int first, int third) {
+		switch(length) {
+		case 7:
+			third = toLowerCase(third);
+			return third == 'q'?REQHDR:third == 's'?RESHDR:null;
+		case 8:
+			if(toLowerCase(first) == 'o') {
+				return OPTBODY;
+			}
+			third = toLowerCase(third);
+			return third == 'q'?REQBODY:third == 's'?RESBODY:null;
+		case 9:
+			return NULLBODY;
+		default:
+			return null;
+		}
+	}
+	
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z'?c + 32:c;
+	}
 }
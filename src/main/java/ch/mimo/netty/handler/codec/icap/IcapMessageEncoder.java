@@ -39,14 +39,49 @@ public abstract class IcapMessageEncoder extends MessageToByteEncoder<Object> {
 	
 	private final InternalLogger LOG;
 	
+	private final IcapCodecMetrics metrics;
+	
+	private final boolean addDateHeader;
+	
 	public IcapMessageEncoder() {
+		this(NoopIcapCodecMetrics.INSTANCE);
+	}
+	
+	/**
+	 * @param metrics receives the measurements of this encoder, @see {@link IcapCodecMetrics}
+	 */
+	public IcapMessageEncoder(IcapCodecMetrics metrics) {
+		this(metrics,false);
+	}
+	
+	/**
+	 * @param metrics receives the measurements of this encoder, @see {@link IcapCodecMetrics}
+	 * @param addDateHeader whether a Date header with the current time is written for messages that do not contain one, @see {@link IcapDateHeader}
+	 */
+	public IcapMessageEncoder(IcapCodecMetrics metrics, boolean addDateHeader) {
+		if(metrics == null) {
+			throw new NullPointerException("metrics");
+		}
 		LOG = InternalLoggerFactory.getInstance(getClass());
+		this.metrics = metrics;
+		this.addDateHeader = addDateHeader;
+	}
+
+	/**
+	 * Only ICAP messages and chunks are encoded, everything else (e.g. pre-encoded buffers) is passed on.
+	 */
+	@Override
+	public boolean acceptOutboundMessage(Object msg) throws Exception {
+		return msg instanceof IcapMessage || msg instanceof IcapChunk;
 	}
 
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
-        LOG.debug("Encoding [" + msg.getClass().getName() + "]");
+        IcapTrace.trace(LOG,ctx,"Encoding [{}]",msg.getClass().getName());
+        int writerIndex = out.writerIndex();
+        Object encodingEvent = null;
 		if(msg instanceof IcapMessage) {
+			encodingEvent = IcapFlightRecorder.beginEncoding();
 			IcapMessage message = (IcapMessage)msg;
 			encodeInitialLine(out, message);
 			encodeHeaders(out, message);
@@ -112,6 +147,17 @@ public abstract class IcapMessageEncoder extends MessageToByteEncoder<Object> {
 				out.writeBytes(IcapCodecUtil.CRLF);
 			}
 		}
+		if(encodingEvent != null) {
+			IcapFlightRecorder.commitEncoding(encodingEvent,(IcapMessage)msg,out.writerIndex() - writerIndex);
+		}
+		if(metrics.isEnabled()) {
+			if(msg instanceof IcapMessage) {
+				metrics.messageEncoded((IcapMessage)msg);
+			} else {
+				metrics.chunkEncoded((IcapChunk)msg);
+			}
+			metrics.bytesEncoded(out.writerIndex() - writerIndex);
+		}
 	}
 
 	protected abstract int encodeInitialLine(ByteBuf buffer, IcapMessage message)  throws Exception;
@@ -157,6 +203,9 @@ public abstract class IcapMessageEncoder extends MessageToByteEncoder<Object> {
         for (Map.Entry<String, String> h: message.getHeaders()) {
             encodeHeader(buffer, h.getKey(), h.getValue());
         }
+        if(addDateHeader && !message.containsHeader(IcapHeaders.Names.DATE)) {
+        	IcapDateHeader.writeHeader(buffer);
+        }
         return buffer.readableBytes() - index;
     }
     
@@ -15,8 +15,7 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
-import java.util.HashMap;
-import java.util.Map;
+import io.netty.buffer.ByteBuf;
 
 /**
  * ICAP methods that are valid to use in messages.
@@ -41,15 +40,6 @@ public final class IcapMethod {
 	 */
 	public static final IcapMethod OPTIONS = new IcapMethod("OPTIONS");
 	
-    private static final Map<String, IcapMethod> METHOD_MAP =
-        new HashMap<String, IcapMethod>();
-
-	static {
-		METHOD_MAP.put(REQMOD.toString(),REQMOD);
-		METHOD_MAP.put(RESPMOD.toString(),RESPMOD);
-	    METHOD_MAP.put(OPTIONS.toString(),OPTIONS);
-	}
-	
 	private String name;
 	
 	IcapMethod(String name) {
@@ -58,25 +48,76 @@ public final class IcapMethod {
 	
     /**
      * Returns the {@link IcapMethod} represented by the specified name.
-     * If the specified name is a standard RTSP method name, a cached instance
+     * If the specified name is a standard ICAP method name, a cached instance
      * will be returned.  Otherwise, a new instance will be returned.
      */
     public static IcapMethod valueOf(String name) {
         if (name == null) {
             throw new NullPointerException("name");
         }
-
-        name = name.trim().toUpperCase();
-        if (name.length() == 0) {
+        int start = 0;
+        int end = name.length();
+        while(start < end && name.charAt(start) <= ' ') {
+        	start++;
+        }
+        while(end > start && name.charAt(end - 1) <= ' ') {
+        	end--;
+        }
+        if (start == end) {
             throw new IllegalArgumentException("empty name");
         }
-
-        IcapMethod result = METHOD_MAP.get(name);
-        if (result != null) {
-            return result;
-        } else {
-            return new IcapMethod(name);
+        IcapMethod candidate = candidate(end - start,name.charAt(start));
+        if(candidate != null && candidate.name.regionMatches(true,0,name,start,end - start)) {
+        	return candidate;
         }
+        return new IcapMethod(name.substring(start,end).toUpperCase());
+    }
+    
+    /**
+     * Returns the {@link IcapMethod} represented by the bytes in the given range. Standard
+     * ICAP methods are matched in place without creating a String.
+     * 
+     * @param buffer the buffer that contains the method name.
+     * @param fromIndex first index of the name.
+     * @param toIndex index after the last byte of the name.
+     * @return a cached instance for a standard method, otherwise a new instance.
+     */
+    public static IcapMethod valueOf(ByteBuf buffer, int fromIndex, int toIndex) {
+    	int length = toIndex - fromIndex;
+        if (length <= 0) {
+            throw new IllegalArgumentException("empty name");
+        }
+        IcapMethod candidate = candidate(length,buffer.getByte(fromIndex));
+        if(candidate != null && matches(candidate.name,buffer,fromIndex)) {
+        	return candidate;
+        }
+        return valueOf(IcapDecoderUtil.toString(buffer,fromIndex,toIndex));
+    }
+    
+    /*
+     * REQMOD is the only method with six characters, RESPMOD and OPTIONS differ in the first one.
+     */
+    private static IcapMethod candidate(int length, int first) {
+    	first = first & ~0x20;
+    	if(length == 6) {
+    		return first == 'R'?REQMOD:null;
+    	} else if(length == 7) {
+    		return first == 'R'?RESPMOD:first == 'O'?OPTIONS:null;
+    	}
+    	return null;
+    }
+    
+    private static boolean matches(String name, ByteBuf buffer, int fromIndex) {
+    	for(int i = 0 ; i < name.length() ; i++) {
+    		int c = buffer.getByte(fromIndex + i);
+    		if(c >= 'a' && c <= 'z') {
+    			c -= 32;
+    		}
+    		if(c != name.charAt(i)) {
+    			return false;
+    		}
+    	}
+    	return true;
     }
     
     @Override
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base handler for services that block, such as AV or DLP engines. Every message that is received 
+ * is handed over to an @see {@link Executor} where {@link #service(Object)} is invoked, the result is
+ * written back on the event loop of the channel.
+ * 
+ * Messages of one channel are processed one after the other and in the order they were received,
+ * different channels are processed in parallel. If more than maxPendingMessages are waiting for
+ * processing, reading from the channel is suspended until the backlog is worked off.
+ * 
+ * The handler owns the messages it receives. A message is released after the result of {@link #service(Object)}
+ * was written, or right away if there is no result. Parts of a message that are reused in the result
+ * (e.g. the encapsulated HTTP request) have to be retained by the service.
+ * 
+ * One executor can and should be shared between all channels, see {@link #newDefaultExecutor(int)}.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public abstract class IcapOffloadHandler extends ChannelInboundHandlerAdapter {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapOffloadHandler.class);
+	
+	private final Executor executor;
+	private final int maxPendingMessages;
+	
+	private final Queue<Object> queue = new ConcurrentLinkedQueue<Object>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+	
+	private volatile ChannelHandlerContext ctx;
+	private volatile boolean active = true;
+	private volatile boolean suspended;
+	
+	/**
+	 * @param executor the executor the service is invoked on.
+	 * @param maxPendingMessages amount of messages waiting for processing before reading is suspended.
+	 */
+	public IcapOffloadHandler(Executor executor, int maxPendingMessages) {
+		if(executor == null) {
+			throw new NullPointerException("executor");
+		}
+		if(maxPendingMessages <= 0) {
+			throw new IllegalArgumentException("maxPendingMessages must be a positive integer: " + maxPendingMessages);
+		}
+		this.executor = executor;
+		this.maxPendingMessages = maxPendingMessages;
+	}
+	
+	/**
+	 * Creates an executor suitable for blocking services. On JDK 21 and newer an executor that
+	 * starts a virtual thread per task is returned, on older JDKs a fixed pool of daemon threads.
+	 * 
+	 * @param maxThreads the amount of threads of the pool that is used if virtual threads are not available.
+	 * @return new executor instance.
+	 */
+	public static ExecutorService newDefaultExecutor(int maxThreads) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch(Exception e) {
+			LOG.debug("Virtual threads are not available, falling back to a bounded thread pool",e);
+		}
+		return newBoundedExecutor(maxThreads);
+	}
+	
+	/**
+	 * Creates a fixed pool of daemon threads.
+	 * 
+	 * @param maxThreads the amount of threads.
+	 * @return new executor instance.
+	 */
+	public static ExecutorService newBoundedExecutor(int maxThreads) {
+		return Executors.newFixedThreadPool(maxThreads,new DefaultThreadFactory("icap-offload",true));
+	}
+	
+	/**
+	 * Invoked on a thread of the executor for every received message.
+	 * 
+	 * @param msg the received message, e.g. an @see {@link IcapRequest} or @see {@link IcapChunk}.
+	 * @return the object to write back, e.g. an @see {@link IcapResponse}, or null.
+	 * @throws Exception is reported via exceptionCaught on the event loop.
+	 */
+	protected abstract Object service(Object msg) throws Exception;
+	
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		this.ctx = ctx;
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		queue.add(msg);
+		if(pending.incrementAndGet() >= maxPendingMessages && ctx.channel().config().isAutoRead()) {
+			suspended = true;
+			ctx.channel().config().setAutoRead(false);
+		}
+		schedule();
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		active = false;
+		schedule();
+		ctx.fireChannelInactive();
+	}
+	
+	private void schedule() {
+		if(scheduled.compareAndSet(false,true)) {
+			try {
+				executor.execute(drainTask);
+			} catch(RejectedExecutionException e) {
+				active = false;
+				scheduled.set(false);
+				discard();
+				ctx.fireExceptionCaught(e);
+			}
+		}
+	}
+	
+	private void drain() {
+		for(;;) {
+			Object msg;
+			while((msg = queue.poll()) != null) {
+				process(msg);
+				if(pending.decrementAndGet() <= maxPendingMessages / 2 && suspended) {
+					resume();
+				}
+			}
+			scheduled.set(false);
+			if(queue.isEmpty() || !scheduled.compareAndSet(false,true)) {
+				return;
+			}
+		}
+	}
+	
+	private void process(final Object msg) {
+		if(!active) {
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+		final Object result;
+		try {
+			result = service(msg);
+		} catch(final Throwable cause) {
+			ctx.executor().execute(new Runnable() {
+				@Override
+				public void run() {
+					ctx.fireExceptionCaught(cause);
+				}
+			});
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+		if(result == null) {
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+		ctx.executor().execute(new Runnable() {
+			@Override
+			public void run() {
+				ctx.writeAndFlush(result).addListener(new ChannelFutureListener() {
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+						ReferenceCountUtil.release(msg);
+					}
+				});
+			}
+		});
+	}
+	
+	private void resume() {
+		ctx.executor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if(suspended) {
+					suspended = false;
+					ctx.channel().config().setAutoRead(true);
+				}
+			}
+		});
+	}
+	
+	private void discard() {
+		Object msg;
+		while((msg = queue.poll()) != null) {
+			pending.decrementAndGet();
+			ReferenceCountUtil.release(msg);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.io.IOException;
+
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Client side support for the icap-ext-partial-content draft and for the completion of @see {@link IcapClientTransaction}s.
+ * 
+ * Every REQMOD or RESPMOD request that is written with a body announces "Allow: 206" as long as the original body is
+ * retained by an @see {@link IcapChunkSeparator} that was created with a memory threshold. Without such a separator
+ * 206 is not announced and a use-original-body response is rejected with an @see {@link IcapDecodingError}. If the server answers with a
+ * modified prefix and a use-original-body=N extension on the last chunk, the original body from offset N is appended 
+ * to the body of the response, so the body that is passed on is the complete modified body without the need to 
+ * transfer the unmodified rest twice. The use-original-body offset is cleared afterwards, the status
+ * of the response (206 Partial Content) is left as it is. If the response arrives after a preview, only the 
+ * preview is retained. In that case the retained bytes from offset N are appended and the use-original-body 
+ * offset is moved to the end of the preview, so the caller still has to append the rest of the body it did not send.
+ * 
+ * Once the response is complete, i.e. after a response without body or after its last chunk was passed on, the
+ * transaction of the channel is released. Handlers behind this one can therefore access the original body via 
+ * {@link IcapClientTransaction#current(io.netty.channel.Channel)} while they handle a 204 No Content response. 
+ * 
+ * The handler works with both, chunked responses and responses that were aggregated by @see {@link IcapChunkAggregator}. 
+ * It has to be placed behind the @see {@link IcapChunkSeparator}:
+ * 
+ * <pre>
+ * pipeline.addLast("encoder",new IcapRequestEncoder());
+ * pipeline.addLast("chunkSeparator",new IcapChunkSeparator(4096,1024 * 1024));
+ * pipeline.addLast("decoder",new IcapResponseDecoder());
+ * pipeline.addLast("partialContent",new IcapPartialContentHandler());
+ * pipeline.addLast("handler",new MyClientHandler());
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public class IcapPartialContentHandler extends ChannelDuplexHandler {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapPartialContentHandler.class);
+	
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+	
+	private static final int PARTIAL_CONTENT = IcapResponseStatus.PARTIAL_CONTENT.getCode();
+	
+	private final int chunkSize;
+	
+	public IcapPartialContentHandler() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * @param chunkSize maximum size of the chunks that carry the original body after the modified prefix.
+	 */
+	public IcapPartialContentHandler(int chunkSize) {
+		if(chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be a positive integer: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+	
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if(msg instanceof IcapRequest) {
+			if(isOriginalBodyRetained(ctx)) {
+				announcePartialContent((IcapRequest)msg);
+			} else {
+				IcapTrace.trace(LOG,ctx,"No separator retains the original body, {} is not announced",PARTIAL_CONTENT);
+			}
+		}
+		ctx.write(msg,promise);
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		IcapClientTransaction transaction = IcapClientTransaction.current(ctx.channel());
+		if(transaction == null) {
+			if(isUseOriginalBody(msg)) {
+				ReferenceCountUtil.release(msg);
+				throw new IcapDecodingError("use-original-body response without a retained original body");
+			}
+			ctx.fireChannelRead(msg);
+		} else if(msg instanceof IcapResponse) {
+			IcapResponse response = (IcapResponse)msg;
+			IcapMessageElementEnum body = response.getBodyType();
+			if(response.getUseOriginalBody() != null) {
+				try {
+					spliceAggregated(ctx,transaction,response);
+				} catch(IcapDecodingError e) {
+					ReferenceCountUtil.release(msg);
+					IcapClientTransaction.end(ctx.channel());
+					throw e;
+				} catch(IOException e) {
+					ReferenceCountUtil.release(msg);
+					IcapClientTransaction.end(ctx.channel());
+					throw e;
+				}
+				complete(ctx,msg);
+			} else if(!IcapResponseStatus.CONTINUE.equals(response.getStatus()) && (body == null || IcapMessageElementEnum.NULLBODY.equals(body))) {
+				complete(ctx,msg);
+			} else {
+				ctx.fireChannelRead(msg);
+			}
+		} else if(msg instanceof IcapChunk && ((IcapChunk)msg).isLast()) {
+			if(msg instanceof IcapChunkTrailer && ((IcapChunkTrailer)msg).getUseOriginalBody() != null) {
+				IcapChunkTrailer trailer = (IcapChunkTrailer)msg;
+				try {
+					trailer.setUseOriginalBody(spliceChunks(ctx,transaction,trailer.getUseOriginalBody()));
+				} catch(IcapDecodingError e) {
+					trailer.release();
+					IcapClientTransaction.end(ctx.channel());
+					throw e;
+				} catch(IOException e) {
+					trailer.release();
+					IcapClientTransaction.end(ctx.channel());
+					throw e;
+				}
+			}
+			complete(ctx,msg);
+		} else {
+			ctx.fireChannelRead(msg);
+		}
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		IcapClientTransaction.end(ctx.channel());
+		super.channelInactive(ctx);
+	}
+	
+	private static boolean isOriginalBodyRetained(ChannelHandlerContext ctx) {
+		IcapChunkSeparator separator = ctx.pipeline().get(IcapChunkSeparator.class);
+		return separator != null && separator.isRetainingOriginalBody();
+	}
+	
+	private static boolean isUseOriginalBody(Object msg) {
+		if(msg instanceof IcapResponse) {
+			return ((IcapResponse)msg).getUseOriginalBody() != null;
+		}
+		return msg instanceof IcapChunkTrailer && ((IcapChunkTrailer)msg).getUseOriginalBody() != null;
+	}
+	
+	private void announcePartialContent(IcapRequest request) {
+		if(!IcapMethod.REQMOD.equals(request.getMethod()) && !IcapMethod.RESPMOD.equals(request.getMethod())) {
+			return;
+		}
+		if(request.getHttpResponse() == null && request.getHttpRequest() == null) {
+			return;
+		}
+		if(!IcapCodecUtil.isAllowed(request,PARTIAL_CONTENT)) {
+			String allow = request.getHeader(IcapHeaders.Names.ALLOW);
+			request.setHeader(IcapHeaders.Names.ALLOW,allow == null?Integer.toString(PARTIAL_CONTENT):allow + ", " + PARTIAL_CONTENT);
+		}
+	}
+	
+	private void complete(ChannelHandlerContext ctx, Object msg) {
+		try {
+			ctx.fireChannelRead(msg);
+		} finally {
+			IcapClientTransaction.end(ctx.channel());
+		}
+	}
+	
+	/**
+	 * @return the use-original-body offset that is left for the caller, null if the whole body was appended.
+	 */
+	private Integer spliceChunks(ChannelHandlerContext ctx, IcapClientTransaction transaction, int offset) throws IOException {
+		validateOffset(transaction,offset);
+		IcapTrace.trace(LOG,ctx,"Appending original body from offset {}",offset);
+		long end = transaction.getLength();
+		for(long index = offset ; index < end ; index += chunkSize) {
+			ctx.fireChannelRead(new DefaultIcapChunk(transaction.readSlice(index,(int)Math.min(chunkSize,end - index))));
+		}
+		return remainingOffset(transaction,offset);
+	}
+	
+	private void spliceAggregated(ChannelHandlerContext ctx, IcapClientTransaction transaction, IcapResponse response) throws IOException {
+		int offset = response.getUseOriginalBody();
+		validateOffset(transaction,offset);
+		IcapTrace.trace(LOG,ctx,"Appending original body from offset {} to aggregated response",offset);
+		FullHttpMessage httpMessage = IcapMessageElementEnum.REQBODY.equals(response.getBodyType())?response.getHttpRequest():response.getHttpResponse();
+		if(httpMessage != null) {
+			long remaining = Math.max(0,transaction.getLength() - offset);
+			if(remaining > Integer.MAX_VALUE - httpMessage.content().readableBytes()) {
+				throw new IcapDecodingError("original body of [" + transaction.getLength() + "] bytes cannot be aggregated");
+			}
+			CompositeByteBuf content = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+			content.addComponent(true,httpMessage.content());
+			if(remaining > 0) {
+				content.addComponent(true,transaction.readSlice(offset,(int)remaining));
+			}
+			if(httpMessage instanceof FullHttpRequest) {
+				response.setHttpRequest(((FullHttpRequest)httpMessage).replace(content));
+			} else {
+				response.setHttpResponse(((FullHttpResponse)httpMessage).replace(content));
+			}
+		}
+		response.setUseOriginalBody(remainingOffset(transaction,offset));
+	}
+	
+	private void validateOffset(IcapClientTransaction transaction, int offset) {
+		if(offset < 0 || (transaction.isComplete() && offset > transaction.getLength())) {
+			throw new IcapDecodingError("use-original-body offset [" + offset + "] exceeds the original body of [" + transaction.getLength() + "] bytes");
+		}
+	}
+	
+	private Integer remainingOffset(IcapClientTransaction transaction, int offset) {
+		if(transaction.isComplete()) {
+			return null;
+		}
+		return (int)Math.max(offset,transaction.getLength());
+	}
+}
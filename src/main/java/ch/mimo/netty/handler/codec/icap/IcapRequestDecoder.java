@@ -15,6 +15,8 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * Decodes an ICAP Request into @see {@link IcapRequest} instance.
  * 
@@ -23,6 +25,8 @@ package ch.mimo.netty.handler.codec.icap;
  */
 public class IcapRequestDecoder extends IcapMessageDecoder {
 
+	private final boolean customMessages = overridesCreateMessage(getClass(),IcapRequestDecoder.class);
+
 	public IcapRequestDecoder() {
 		super();
 	}
@@ -39,10 +43,33 @@ public class IcapRequestDecoder extends IcapMessageDecoder {
 		super(maxInitialLineLength, maxIcapHeaderSize, maxHttpHeaderSize, maxChunkSize);
 	}
 
+	/**
+	 * @see IcapMessageDecoder IcapMessageDecoder constructor for more details.
+	 * 
+	 * @param maxInitialLineLength
+	 * @param maxIcapHeaderSize
+	 * @param maxHttpHeaderSize
+	 * @param maxChunkSize
+	 * @param metrics
+	 */
+	public IcapRequestDecoder(int maxInitialLineLength, int maxIcapHeaderSize, int maxHttpHeaderSize, int maxChunkSize, IcapCodecMetrics metrics) {
+		super(maxInitialLineLength, maxIcapHeaderSize, maxHttpHeaderSize, maxChunkSize, metrics);
+	}
+
 	@Override
 	protected IcapRequest createMessage(String[] initialLine) {
 		return new DefaultIcapRequest(IcapVersion.valueOf(initialLine[2]),IcapMethod.valueOf(initialLine[0]),initialLine[1],"");
 	}
+	
+	@Override
+	IcapMessage createMessage(ByteBuf buffer, int[] initialLine) {
+		if(customMessages) {
+			return super.createMessage(buffer,initialLine);
+		}
+		IcapMethod method = IcapMethod.valueOf(buffer,initialLine[0],initialLine[1]);
+		String uri = IcapDecoderUtil.toString(buffer,initialLine[2],initialLine[3]);
+		return new DefaultIcapRequest(IcapVersion.valueOf(buffer,initialLine[4],initialLine[5]),method,uri,"");
+	}
 
 	@Override
 	public boolean isDecodingResponse() {
@@ -32,6 +32,13 @@ public class IcapRequestEncoder extends IcapMessageEncoder {
 		super();
 	}
 	
+	/**
+	 * @param metrics receives the measurements of this encoder, @see {@link IcapCodecMetrics}
+	 */
+	public IcapRequestEncoder(IcapCodecMetrics metrics) {
+		super(metrics);
+	}
+	
 	@Override
 	protected int encodeInitialLine(ByteBuf buffer, IcapMessage message) throws Exception {
 		IcapRequest request = (IcapRequest) message;
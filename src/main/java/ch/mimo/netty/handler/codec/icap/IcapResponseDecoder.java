@@ -15,6 +15,8 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * ICAP Response decoder which creates an @see {@link IcapResponse} instance.
  * 
@@ -23,6 +25,8 @@ package ch.mimo.netty.handler.codec.icap;
  */
 public class IcapResponseDecoder extends IcapMessageDecoder {
 
+	private final boolean customMessages = overridesCreateMessage(getClass(),IcapResponseDecoder.class);
+
 	public IcapResponseDecoder() {
 		super();
 	}
@@ -38,11 +42,33 @@ public class IcapResponseDecoder extends IcapMessageDecoder {
 	public IcapResponseDecoder (int maxInitialLineLength, int maxIcapHeaderSize, int maxHttpHeaderSize, int maxChunkSize) {
 		super(maxInitialLineLength, maxIcapHeaderSize, maxHttpHeaderSize, maxChunkSize);
 	}
+
+	/**
+	 * @see IcapMessageDecoder IcapMessageDecoder constructor for more details.
+	 * 
+	 * @param maxInitialLineLength
+	 * @param maxIcapHeaderSize
+	 * @param maxHttpHeaderSize
+	 * @param maxChunkSize
+	 * @param metrics
+	 */
+	public IcapResponseDecoder(int maxInitialLineLength, int maxIcapHeaderSize, int maxHttpHeaderSize, int maxChunkSize, IcapCodecMetrics metrics) {
+		super(maxInitialLineLength, maxIcapHeaderSize, maxHttpHeaderSize, maxChunkSize, metrics);
+	}
 	
 	@Override
 	protected IcapMessage createMessage(String[] initialLine) {
 		return new DefaultIcapResponse(IcapVersion.valueOf(initialLine[0]),IcapResponseStatus.fromCode(initialLine[1]));
 	}
+	
+	@Override
+	IcapMessage createMessage(ByteBuf buffer, int[] initialLine) {
+		if(customMessages) {
+			return super.createMessage(buffer,initialLine);
+		}
+		IcapVersion version = IcapVersion.valueOf(buffer,initialLine[0],initialLine[1]);
+		return new DefaultIcapResponse(version,IcapResponseStatus.fromCode(buffer,initialLine[2],initialLine[3]));
+	}
 
 	@Override
 	public boolean isDecodingResponse() {
@@ -27,6 +27,25 @@ import io.netty.channel.ChannelHandler;
 @ChannelHandler.Sharable
 public class IcapResponseEncoder extends IcapMessageEncoder {
 
+	public IcapResponseEncoder() {
+		super();
+	}
+	
+	/**
+	 * @param metrics receives the measurements of this encoder, @see {@link IcapCodecMetrics}
+	 */
+	public IcapResponseEncoder(IcapCodecMetrics metrics) {
+		super(metrics);
+	}
+	
+	/**
+	 * @param metrics receives the measurements of this encoder, @see {@link IcapCodecMetrics}
+	 * @param addDateHeader whether a cached Date header is written for responses that do not contain one.
+	 */
+	public IcapResponseEncoder(IcapCodecMetrics metrics, boolean addDateHeader) {
+		super(metrics,addDateHeader);
+	}
+
 	@Override
 	protected int encodeInitialLine(ByteBuf buffer, IcapMessage message) {
 		IcapResponse request = (IcapResponse)message;
@@ -76,13 +76,24 @@ public enum IcapResponseStatus {
 	INSUFFICIENT_STORAGE(507,"Insufficient Storage"),
 	NOT_EXTENDED(510,"Not Extended");
 
+	private static final IcapResponseStatus[] BY_CODE = new IcapResponseStatus[600];
+	
+	static {
+		for(IcapResponseStatus status : IcapResponseStatus.values()) {
+			if(BY_CODE[status.code] == null) {
+				BY_CODE[status.code] = status;
+			}
+		}
+	}
 	
 	private String status;
 	private int code;
+	private byte[] initialLineValue;
 	
 	IcapResponseStatus(int code, String status) {
 		this.code = code;
 		this.status = status;
+		this.initialLineValue = (code + " " + status).getBytes(IcapCodecUtil.ASCII_CHARSET);
 	}
 	
 	public int getCode() {
@@ -90,17 +101,61 @@ public enum IcapResponseStatus {
 	}
 	
 	public void toResponseInitialLineValue(ByteBuf buffer) {
-		buffer.writeBytes(Integer.toString(code).getBytes(IcapCodecUtil.ASCII_CHARSET));
-		buffer.writeByte(IcapCodecUtil.SPACE);
-		buffer.writeBytes(status.getBytes(IcapCodecUtil.ASCII_CHARSET));
+		buffer.writeBytes(initialLineValue);
+	}
+	
+	/**
+	 * @param code the numeric status code.
+	 * @return the status for the code.
+	 * @throws IllegalArgumentException if the code is unknown.
+	 */
+	public static IcapResponseStatus fromCode(int code) {
+		IcapResponseStatus status = lookup(code);
+		if(status == null) {
+			throw new IllegalArgumentException("Unknown Icap response code [" + code + "]");
+		}
+		return status;
 	}
 	
 	public static IcapResponseStatus fromCode(String code) {
-		for(IcapResponseStatus status : IcapResponseStatus.values()) {
-			if(Integer.toString(status.getCode()).equalsIgnoreCase(code)) {
-				return status;
-			}
+		IcapResponseStatus status = null;
+		if(code != null && code.length() == 3) {
+			status = lookup(digit(code.charAt(0)) * 100 + digit(code.charAt(1)) * 10 + digit(code.charAt(2)));
 		}
-		throw new IllegalArgumentException("Unknown Icap response code [" + code + "]");
+		if(status == null) {
+			throw new IllegalArgumentException("Unknown Icap response code [" + code + "]");
+		}
+		return status;
+	}
+	
+	/**
+	 * reads a three digit status code directly from the buffer.
+	 * 
+	 * @param buffer
+	 * @param fromIndex first index of the code.
+	 * @param toIndex index after the last digit of the code.
+	 * @return the status for the code.
+	 * @throws IllegalArgumentException if the range does not contain a known code.
+	 */
+	public static IcapResponseStatus fromCode(ByteBuf buffer, int fromIndex, int toIndex) {
+		IcapResponseStatus status = null;
+		if(toIndex - fromIndex == 3) {
+			status = lookup(digit(buffer.getByte(fromIndex)) * 100 + digit(buffer.getByte(fromIndex + 1)) * 10 + digit(buffer.getByte(fromIndex + 2)));
+		}
+		if(status == null) {
+			throw new IllegalArgumentException("Unknown Icap response code [" + IcapDecoderUtil.toString(buffer,fromIndex,toIndex) + "]");
+		}
+		return status;
+	}
+	
+	private static IcapResponseStatus lookup(int code) {
+		return code >= 0 && code < BY_CODE.length?BY_CODE[code]:null;
+	}
+	
+	/*
+	 * returns a value that makes the whole code negative if c is not a digit.
+	 */
+	private static int digit(int c) {
+		return c >= '0' && c <= '9'?c - '0':-1000;
 	}
 }
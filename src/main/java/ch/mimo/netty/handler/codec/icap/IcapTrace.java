@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.logging.InternalLogger;
+
+/**
+ * Level guarded trace facility used by the codec handlers on their hot paths.
+ * 
+ * A trace statement is only formatted if the logger of the handler is at debug level
+ * or if tracing was explicitly enabled for the channel through {@link #enable(Channel)}.
+ * In all other cases the guard consists of a level check and an attribute lookup and
+ * nothing is allocated.
+ * 
+ * Channels that are traced explicitly log at info level, prefixed with the channel,
+ * so that a single connection can be followed without lowering the global log level.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class IcapTrace {
+	
+	static final AttributeKey<Boolean> TRACE = AttributeKey.valueOf(IcapTrace.class,"TRACE");
+	
+	private IcapTrace() {
+	}
+	
+	/**
+	 * enables tracing of all codec handlers for the given channel.
+	 * @param channel the channel to trace.
+	 */
+	public static void enable(Channel channel) {
+		channel.attr(TRACE).set(Boolean.TRUE);
+	}
+	
+	/**
+	 * disables tracing for the given channel.
+	 * @param channel the channel to no longer trace.
+	 */
+	public static void disable(Channel channel) {
+		if(channel.hasAttr(TRACE)) {
+			channel.attr(TRACE).set(null);
+		}
+	}
+	
+	/**
+	 * @param channel the channel to check.
+	 * @return true if tracing was enabled for this channel.
+	 */
+	public static boolean isEnabled(Channel channel) {
+		if(channel == null || !channel.hasAttr(TRACE)) {
+			return false;
+		}
+		Attribute<Boolean> attribute = channel.attr(TRACE);
+		return attribute.get() != null;
+	}
+	
+	/**
+	 * guard for trace statements.
+	 * @param log the logger of the calling handler.
+	 * @param ctx the context of the calling handler.
+	 * @return true if trace statements should be issued.
+	 */
+	static boolean isTracing(InternalLogger log, ChannelHandlerContext ctx) {
+		return log.isDebugEnabled() || (ctx != null && isEnabled(ctx.channel()));
+	}
+	
+	/**
+	 * issues a trace statement, handlers outside of the codec package use it in order to follow the same convention.
+	 * @param log the logger of the calling handler.
+	 * @param ctx the context of the calling handler.
+	 * @param format the message format with {} place holders.
+	 * @param argument the argument of the message.
+	 */
+	public static void trace(InternalLogger log, ChannelHandlerContext ctx, String format, Object argument) {
+		if(log.isDebugEnabled()) {
+			log.debug(format,argument);
+		} else if(ctx != null && isEnabled(ctx.channel())) {
+			log.info("{} " + format,ctx.channel(),argument);
+		}
+	}
+	
+	/**
+	 * issues a trace statement with two arguments.
+	 * @see #trace(InternalLogger, ChannelHandlerContext, String, Object)
+	 */
+	public static void trace(InternalLogger log, ChannelHandlerContext ctx, String format, Object argument1, Object argument2) {
+		if(log.isDebugEnabled()) {
+			log.debug(format,argument1,argument2);
+		} else if(ctx != null && isEnabled(ctx.channel())) {
+			log.info("{} " + format,ctx.channel(),argument1,argument2);
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bootstrap helpers that use the native epoll transport if it is available and NIO otherwise.
+ * 
+ * The epoll transport is an optional dependency (netty-transport-native-epoll), it has to be on the
+ * classpath and the platform has to be Linux for it to be used. On top of TCP it allows to
+ * listen on Unix domain sockets, which saves the loopback TCP overhead if the ICAP client (e.g. Squid)
+ * runs on the same host, and to bind several acceptors to the same port with SO_REUSEPORT.
+ * 
+ * <pre>
+ * EventLoopGroup bossGroup = IcapTransport.newEventLoopGroup(4);
+ * EventLoopGroup workerGroup = IcapTransport.newEventLoopGroup(0);
+ * ServerBootstrap bootstrap = IcapTransport.newServerBootstrap(bossGroup,workerGroup)
+ *     .childHandler(new MyIcapServerChannelInitializer());
+ * IcapTransport.bindReusePort(bootstrap,new InetSocketAddress(1344),4);
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class IcapTransport {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapTransport.class);
+	
+	private static final boolean EPOLL = isEpollPresent();
+	
+	private IcapTransport() {
+	}
+	
+	/**
+	 * @return true if the native epoll transport is used.
+	 */
+	public static boolean isEpollAvailable() {
+		return EPOLL;
+	}
+	
+	/**
+	 * @param threads the amount of threads, 0 for the netty default.
+	 * @return new epoll or NIO event loop group.
+	 */
+	public static EventLoopGroup newEventLoopGroup(int threads) {
+		if(EPOLL) {
+			return new EpollEventLoopGroup(threads);
+		}
+		return new NioEventLoopGroup(threads);
+	}
+	
+	/**
+	 * @return the TCP server channel class matching @see {@link #newEventLoopGroup(int)}.
+	 */
+	public static Class<? extends ServerChannel> serverChannelClass() {
+		if(EPOLL) {
+			return EpollServerSocketChannel.class;
+		}
+		return NioServerSocketChannel.class;
+	}
+	
+	/**
+	 * @return the TCP client channel class matching @see {@link #newEventLoopGroup(int)}.
+	 */
+	public static Class<? extends Channel> channelClass() {
+		if(EPOLL) {
+			return EpollSocketChannel.class;
+		}
+		return NioSocketChannel.class;
+	}
+	
+	/**
+	 * Creates a TCP server bootstrap with TCP_NODELAY enabled on accepted channels.
+	 * 
+	 * @param bossGroup the group accepting connections.
+	 * @param workerGroup the group serving accepted connections.
+	 * @return new server bootstrap, the child handler still has to be set.
+	 */
+	public static ServerBootstrap newServerBootstrap(EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+		return new ServerBootstrap()
+			.group(bossGroup,workerGroup)
+			.channel(serverChannelClass())
+			.childOption(ChannelOption.TCP_NODELAY,true);
+	}
+	
+	/**
+	 * Creates a TCP client bootstrap with TCP_NODELAY enabled.
+	 * 
+	 * @param group the client group.
+	 * @return new bootstrap, the handler still has to be set.
+	 */
+	public static Bootstrap newBootstrap(EventLoopGroup group) {
+		return new Bootstrap()
+			.group(group)
+			.channel(channelClass())
+			.option(ChannelOption.TCP_NODELAY,true);
+	}
+	
+	/**
+	 * Creates a server bootstrap listening on a Unix domain socket, 
+	 * bind it to a @see {@link io.netty.channel.unix.DomainSocketAddress}.
+	 * 
+	 * @param bossGroup the group accepting connections, has to be created by @see {@link #newEventLoopGroup(int)}.
+	 * @param workerGroup the group serving accepted connections, has to be created by @see {@link #newEventLoopGroup(int)}.
+	 * @return new server bootstrap, the child handler still has to be set.
+	 * @throws UnsupportedOperationException if epoll is not available.
+	 */
+	public static ServerBootstrap newDomainSocketServerBootstrap(EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+		ensureEpoll();
+		return new ServerBootstrap()
+			.group(bossGroup,workerGroup)
+			.channel(EpollServerDomainSocketChannel.class);
+	}
+	
+	/**
+	 * Creates a client bootstrap connecting to a Unix domain socket.
+	 * 
+	 * @param group the client group, has to be created by @see {@link #newEventLoopGroup(int)}.
+	 * @return new bootstrap, the handler still has to be set.
+	 * @throws UnsupportedOperationException if epoll is not available.
+	 */
+	public static Bootstrap newDomainSocketBootstrap(EventLoopGroup group) {
+		ensureEpoll();
+		return new Bootstrap()
+			.group(group)
+			.channel(EpollDomainSocketChannel.class);
+	}
+	
+	/**
+	 * Binds a TCP server several times to the same address with SO_REUSEPORT so that the kernel
+	 * distributes incoming connections between the acceptors. Each acceptor is registered with its own
+	 * event loop of the boss group, which therefore should have at least as many threads as acceptors.
+	 * 
+	 * Without epoll the server is bound once.
+	 * 
+	 * @param bootstrap bootstrap created by @see {@link #newServerBootstrap(EventLoopGroup, EventLoopGroup)}.
+	 * @param address the address to listen on.
+	 * @param acceptors the amount of acceptors.
+	 * @return the bound server channels.
+	 * @throws InterruptedException if interrupted while binding.
+	 */
+	public static List<Channel> bindReusePort(ServerBootstrap bootstrap, SocketAddress address, int acceptors) throws InterruptedException {
+		if(acceptors <= 0) {
+			throw new IllegalArgumentException("acceptors must be a positive integer: " + acceptors);
+		}
+		if(!EPOLL) {
+			acceptors = 1;
+		} else {
+			bootstrap.option(EpollChannelOption.SO_REUSEPORT,true);
+		}
+		List<Channel> channels = new ArrayList<Channel>(acceptors);
+		boolean bound = false;
+		try {
+			for(int i = 0 ; i < acceptors ; i++) {
+				ChannelFuture future = bootstrap.bind(address).await();
+				if(!future.isSuccess()) {
+					throw new ChannelException("Failed to bind to " + address,future.cause());
+				}
+				channels.add(future.channel());
+				// an ephemeral port is only chosen once, all further acceptors share it
+				address = future.channel().localAddress();
+			}
+			bound = true;
+		} finally {
+			if(!bound) {
+				for(Channel channel : channels) {
+					channel.close();
+				}
+			}
+		}
+		return channels;
+	}
+	
+	private static void ensureEpoll() {
+		if(!EPOLL) {
+			throw new UnsupportedOperationException("Unix domain sockets require the native epoll transport");
+		}
+	}
+	
+	private static boolean isEpollPresent() {
+		try {
+			return Epoll.isAvailable();
+		} catch(Throwable t) {
+			LOG.debug("Native epoll transport is not on the classpath",t);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of a decision a service took for a request. A verdict is either
+ * a 204 No Content (the request may pass unmodified) or a 200 OK that replaces the
+ * HTTP request with an HTTP response, e.g. a block page.
+ * 
+ * Verdicts are bound to the ISTag of the service that produced them.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapVerdictCache
+ * @see IcapVerdictCacheHandler
+ */
+public final class IcapVerdict {
+
+	private final IcapResponseStatus status;
+	private final String isTag;
+	private final HttpVersion httpVersion;
+	private final HttpResponseStatus httpStatus;
+	private final List<String[]> httpHeaders;
+	private final byte[] httpBody;
+	
+	private IcapVerdict(IcapResponseStatus status, String isTag, HttpVersion httpVersion, HttpResponseStatus httpStatus, List<String[]> httpHeaders, byte[] httpBody) {
+		this.status = status;
+		this.isTag = isTag;
+		this.httpVersion = httpVersion;
+		this.httpStatus = httpStatus;
+		this.httpHeaders = httpHeaders;
+		this.httpBody = httpBody;
+	}
+	
+	/**
+	 * Creates a verdict that allows the request to pass unmodified.
+	 * 
+	 * @param isTag the ISTag of the service that took the decision.
+	 * @return 204 No Content verdict.
+	 */
+	public static IcapVerdict noContent(String isTag) {
+		return new IcapVerdict(IcapResponseStatus.NO_CONTENT,isTag,null,null,null,null);
+	}
+	
+	/**
+	 * Creates a verdict from a response a service is about to send. 
+	 * The response itself is not modified, the HTTP response body is copied.
+	 * 
+	 * @param response the service response.
+	 * @return the verdict or null if the response does not represent a cacheable decision.
+	 */
+	public static IcapVerdict fromResponse(IcapResponse response) {
+		String isTag = response.getHeader(IcapHeaders.Names.ISTAG);
+		if(isTag == null) {
+			return null;
+		}
+		if(response.getStatus().equals(IcapResponseStatus.NO_CONTENT)) {
+			return noContent(isTag);
+		}
+		HttpResponse httpResponse = response.getHttpResponse();
+		if(!response.getStatus().equals(IcapResponseStatus.OK) || httpResponse == null || response.getHttpRequest() != null) {
+			return null;
+		}
+		List<String[]> headers = new ArrayList<String[]>();
+		for(Map.Entry<String, String> header : httpResponse.headers()) {
+			headers.add(new String[]{header.getKey(),header.getValue()});
+		}
+		byte[] body = null;
+		ByteBuf content = response.getHttpResponse().content();
+		if(content != null && content.isReadable()) {
+			body = new byte[content.readableBytes()];
+			content.getBytes(content.readerIndex(),body);
+		}
+		return new IcapVerdict(IcapResponseStatus.OK,isTag,httpResponse.protocolVersion(),httpResponse.status(),headers,body);
+	}
+	
+	/**
+	 * @return the ICAP status this verdict answers with.
+	 */
+	public IcapResponseStatus getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return the ISTag of the service that took this decision.
+	 */
+	public String getIsTag() {
+		return isTag;
+	}
+	
+	/**
+	 * Creates a new response out of this verdict. 
+	 * 
+	 * @param allocator used to allocate the HTTP response body if there is one.
+	 * @return a new @see {@link IcapResponse} instance.
+	 */
+	public IcapResponse toResponse(ByteBufAllocator allocator) {
+		IcapResponse response = new DefaultIcapResponse(IcapVersion.ICAP_1_0,status);
+		response.addHeader(IcapHeaders.Names.ISTAG,isTag);
+		if(httpStatus != null) {
+			FullHttpResponse httpResponse;
+			if(httpBody != null) {
+				ByteBuf content = allocator.buffer(httpBody.length);
+				content.writeBytes(httpBody);
+				httpResponse = new DefaultFullHttpResponse(httpVersion,httpStatus,content);
+			} else {
+				httpResponse = new DefaultFullHttpResponse(httpVersion,httpStatus);
+			}
+			HttpHeaders headers = httpResponse.headers();
+			for(String[] header : httpHeaders) {
+				headers.add(header[0],header[1]);
+			}
+			response.setHttpResponse(httpResponse);
+		}
+		return response;
+	}
+	
+	@Override
+	public String toString() {
+		return "IcapVerdict: [status=" + status + "] [istag=" + isTag + "] [http status=" + httpStatus + "]";
+	}
+}
@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent, size bounded and time limited cache of @see {@link IcapVerdict} instances.
+ * 
+ * The cache is split into lock striped segments, each segment evicts its least recently used
+ * entry once it is full. Entries are keyed by a compact 64 bit fingerprint of the HTTP
+ * method, host and path (see {@link #createKey(HttpRequest)}), the query string is not part of the key.
+ * 
+ * Every entry is bound to the ISTag of the service that produced it. ISTags carry no order, a late response
+ * may still carry the previous one. The ISTag of the cache is therefore only taken from the first verdict 
+ * and afterwards changed explicitly via {@link #setIsTag(String)}, e.g. when the service changes or answers 
+ * an OPTIONS request with a new ISTag. Verdicts with a different ISTag are not stored and all entries carrying
+ * a different ISTag are treated as misses and removed lazily.
+ * 
+ * Optionally the cache is backed by a persistent @see {@link IcapVerdictStore}. 204 No Content verdicts are
+ * written through to the store and memory misses are answered from it, which allows a restarted server to
+ * warm start. Since the store only knows fingerprints of ISTags, the current ISTag has to be set via
+ * {@link #setIsTag(String)} after a restart before verdicts can be served from the store.
+ * 
+ * One instance is meant to be shared between all channels of a service.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapVerdictCacheHandler
+ */
+public class IcapVerdictCache {
+	
+	private static final int SEGMENT_COUNT = 16;
+	
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	private final Segment[] segments;
+	private final long timeToLiveNanos;
+	private final IcapVerdictStore store;
+	private volatile String isTag;
+	
+	/**
+	 * @param maximumSize the maximum amount of verdicts held by this cache.
+	 * @param timeToLive how long a verdict stays valid after it was stored.
+	 * @param unit the unit of timeToLive.
+	 */
+	public IcapVerdictCache(int maximumSize, long timeToLive, TimeUnit unit) {
+		this(maximumSize,timeToLive,unit,null);
+	}
+	
+	/**
+	 * @param maximumSize the maximum amount of verdicts held in memory by this cache.
+	 * @param timeToLive how long a verdict stays valid after it was stored.
+	 * @param unit the unit of timeToLive.
+	 * @param store persistent second level store or null.
+	 */
+	public IcapVerdictCache(int maximumSize, long timeToLive, TimeUnit unit, IcapVerdictStore store) {
+		if(maximumSize <= 0) {
+			throw new IllegalArgumentException("maximumSize must be a positive integer: " + maximumSize);
+		}
+		if(timeToLive <= 0) {
+			throw new IllegalArgumentException("timeToLive must be a positive number: " + timeToLive);
+		}
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+		this.store = store;
+		int segmentCapacity = Math.max(1,(maximumSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+		segments = new Segment[SEGMENT_COUNT];
+		for(int i = 0 ; i < SEGMENT_COUNT ; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+	
+	/**
+	 * Creates the cache key for a HTTP request. The key is derived from the method, the lower case host
+	 * and the path. The host is taken from an absolute request URI or, if the URI is relative, from the
+	 * Host header. Query string and fragment are ignored.
+	 * 
+	 * @param request the encapsulated HTTP request.
+	 * @return 64 bit fingerprint of method, host and path.
+	 */
+	public static long createKey(HttpRequest request) {
+		String uri = request.uri();
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash,request.method().name(),0,request.method().name().length(),false);
+		hash = hash(hash,' ');
+		
+		int pathStart = 0;
+		int scheme = uri.indexOf("://");
+		if(scheme > 0 && uri.charAt(0) != '/') {
+			int authorityStart = scheme + 3;
+			int authorityEnd = endOf(uri,authorityStart,true);
+			int userInfo = uri.lastIndexOf('@',authorityEnd - 1);
+			if(userInfo >= authorityStart) {
+				authorityStart = userInfo + 1;
+			}
+			hash = hash(hash,uri,authorityStart,authorityEnd,true);
+			pathStart = authorityEnd;
+		} else {
+			String host = request.headers().get(HttpHeaderNames.HOST);
+			if(host != null) {
+				hash = hash(hash,host,0,host.length(),true);
+			}
+		}
+		int pathEnd = endOf(uri,pathStart,false);
+		if(pathEnd == pathStart) {
+			hash = hash(hash,'/');
+		} else {
+			hash = hash(hash,uri,pathStart,pathEnd,false);
+		}
+		return mix(hash);
+	}
+	
+	/**
+	 * retrieves a valid verdict.
+	 * 
+	 * @param key the key created by {@link #createKey(HttpRequest)}
+	 * @return the verdict or null if there is none, it expired or is bound to an outdated ISTag.
+	 */
+	public IcapVerdict get(long key) {
+		String currentIsTag = isTag;
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			Entry entry = segment.get(key);
+			if(entry != null) {
+				if(entry.expires - nanoTime() > 0 && entry.verdict.getIsTag().equals(currentIsTag)) {
+					return entry.verdict;
+				}
+				segment.remove(key);
+			}
+		}
+		if(store != null && currentIsTag != null && store.get(key,currentIsTag) == IcapResponseStatus.NO_CONTENT.getCode()) {
+			IcapVerdict verdict = IcapVerdict.noContent(currentIsTag);
+			synchronized (segment) {
+				segment.put(key,new Entry(verdict,nanoTime() + timeToLiveNanos));
+			}
+			return verdict;
+		}
+		return null;
+	}
+	
+	/**
+	 * stores a verdict. The first verdict binds a cache without ISTag to its ISTag, a verdict that 
+	 * carries a different ISTag than the current one is outdated and dropped.
+	 * 
+	 * @param key the key created by {@link #createKey(HttpRequest)}
+	 * @param verdict the verdict to store.
+	 */
+	public void put(long key, IcapVerdict verdict) {
+		if(verdict == null) {
+			throw new NullPointerException("verdict");
+		}
+		String currentIsTag = isTag;
+		if(currentIsTag == null) {
+			isTag = verdict.getIsTag();
+		} else if(!currentIsTag.equals(verdict.getIsTag())) {
+			return;
+		}
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key,new Entry(verdict,nanoTime() + timeToLiveNanos));
+		}
+		if(store != null && verdict.getStatus().equals(IcapResponseStatus.NO_CONTENT)) {
+			store.put(key,verdict.getIsTag(),IcapResponseStatus.NO_CONTENT.getCode(),timeToLiveNanos,TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * removes the verdict for the given key.
+	 * 
+	 * @param key the key created by {@link #createKey(HttpRequest)}
+	 */
+	public void invalidate(long key) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+		String currentIsTag = isTag;
+		if(store != null && currentIsTag != null) {
+			store.remove(key,currentIsTag);
+		}
+	}
+	
+	/**
+	 * removes all verdicts held in memory. Verdicts in the persistent store 
+	 * are invalidated by changing the ISTag.
+	 */
+	public void invalidateAll() {
+		for(Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Binds the cache to a new ISTag. All entries that were stored with a different ISTag
+	 * will no longer be returned.
+	 * 
+	 * @param isTag the current ISTag of the service.
+	 */
+	public void setIsTag(String isTag) {
+		this.isTag = isTag;
+	}
+	
+	/**
+	 * @return the ISTag the cache entries are currently bound to.
+	 */
+	public String getIsTag() {
+		return isTag;
+	}
+	
+	/**
+	 * @return the amount of entries including expired ones that were not yet removed.
+	 */
+	public int size() {
+		int size = 0;
+		for(Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+	
+	long nanoTime() {
+		return System.nanoTime();
+	}
+	
+	private Segment segmentFor(long key) {
+		return segments[(int)(key >>> 60) & (SEGMENT_COUNT - 1)];
+	}
+	
+	private static int endOf(String uri, int offset, boolean authority) {
+		for(int i = offset ; i < uri.length() ; i++) {
+			char c = uri.charAt(i);
+			if(c == '?' || c == '#' || (authority && c == '/')) {
+				return i;
+			}
+		}
+		return uri.length();
+	}
+	
+	/**
+	 * @return 64 bit fingerprint of a string, used to bind persistent verdicts to an ISTag.
+	 */
+	static long fingerprint(String value) {
+		return mix(hash(FNV_OFFSET_BASIS,value,0,value.length(),false));
+	}
+	
+	private static long hash(long hash, String value, int start, int end, boolean lowerCase) {
+		for(int i = start ; i < end ; i++) {
+			char c = value.charAt(i);
+			if(lowerCase && c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			hash = hash(hash,c);
+		}
+		return hash;
+	}
+	
+	private static long hash(long hash, char c) {
+		hash ^= c & 0xff;
+		hash *= FNV_PRIME;
+		hash ^= c >>> 8;
+		hash *= FNV_PRIME;
+		return hash;
+	}
+	
+	static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+	private static final class Entry {
+		
+		private final IcapVerdict verdict;
+		private final long expires;
+		
+		Entry(IcapVerdict verdict, long expires) {
+			this.verdict = verdict;
+			this.expires = expires;
+		}
+	}
+	
+	private static final class Segment extends LinkedHashMap<Long, Entry> {
+
+		private static final long serialVersionUID = -3325347062545420373L;
+		
+		private final int capacity;
+		
+		Segment(int capacity) {
+			super(16,0.75f,true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+			return size() > capacity;
+		}
+	}
+}
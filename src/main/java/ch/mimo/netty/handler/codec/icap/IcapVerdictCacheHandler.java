@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Answers REQMOD requests directly from a @see {@link IcapVerdictCache} instead of
+ * invoking the service.
+ * 
+ * On a cache miss the request is passed on and the response the service writes back is
+ * stored as verdict (if it is a 204 No Content or a 200 OK carrying an HTTP response).
+ * On a hit the cached verdict is written back immediately and the request, including all
+ * body chunks that are still to come, is discarded.
+ * 
+ * A cached 204 No Content verdict is only used if the request allows it, which is the case for
+ * preview requests and requests containing an Allow: 204 header.
+ * 
+ * The ISTag of an OPTIONS response that is written back is the signal that the service changed,
+ * the cache is bound to it via @see {@link IcapVerdictCache#setIsTag(String)}.
+ * 
+ * The handler has to be placed after the encoder and the @see {@link IcapChunkSeparator} so
+ * that cached responses can be written through them:
+ * 
+ * <pre>
+ * pipeline.addLast("decoder",new IcapRequestDecoder());
+ * pipeline.addLast("encoder",new IcapResponseEncoder());
+ * pipeline.addLast("chunkSeparator",new IcapChunkSeparator(4096));
+ * pipeline.addLast("verdictCache",new IcapVerdictCacheHandler(cache));
+ * pipeline.addLast("chunkAggregator",new IcapChunkAggregator(4096));
+ * pipeline.addLast("handler",new MyServiceHandler());
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapVerdictCache
+ * @see IcapVerdict
+ */
+public class IcapVerdictCacheHandler extends ChannelDuplexHandler {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(IcapVerdictCacheHandler.class);
+	
+	private static final String ALLOW_204 = "204";
+	
+	private final IcapVerdictCache cache;
+	
+	private boolean pending;
+	private long pendingKey;
+	private boolean discardBody;
+	private boolean optionsPending;
+	
+	/**
+	 * @param cache the shared verdict cache.
+	 */
+	public IcapVerdictCacheHandler(IcapVerdictCache cache) {
+		if(cache == null) {
+			throw new NullPointerException("cache");
+		}
+		this.cache = cache;
+	}
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if(msg instanceof IcapRequest) {
+			discardBody = false;
+			pending = false;
+			IcapRequest request = (IcapRequest)msg;
+			optionsPending = request.getMethod().equals(IcapMethod.OPTIONS);
+			if(request.getMethod().equals(IcapMethod.REQMOD) && request.getHttpRequest() != null) {
+				long key = IcapVerdictCache.createKey(request.getHttpRequest());
+				IcapVerdict verdict = cache.get(key);
+				if(verdict != null && isApplicable(request,verdict)) {
+					IcapTrace.trace(LOG,ctx,"Answering request from verdict cache [{}]",verdict);
+					discardBody = hasBodyChunks(request);
+					ReferenceCountUtil.release(request);
+					ctx.writeAndFlush(verdict.toResponse(ctx.alloc()));
+					return;
+				}
+				pending = true;
+				pendingKey = key;
+			}
+		} else if(msg instanceof IcapChunk && discardBody) {
+			if(((IcapChunk)msg).isLast()) {
+				discardBody = false;
+			}
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+		ctx.fireChannelRead(msg);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if(optionsPending && msg instanceof IcapResponse) {
+			optionsPending = false;
+			IcapResponse response = (IcapResponse)msg;
+			String isTag = response.getHeader(IcapHeaders.Names.ISTAG);
+			if(isTag != null && response.getStatus().equals(IcapResponseStatus.OK)) {
+				cache.setIsTag(isTag);
+			}
+		} else if(pending && msg instanceof IcapResponse) {
+			IcapResponse response = (IcapResponse)msg;
+			if(!response.getStatus().equals(IcapResponseStatus.CONTINUE)) {
+				pending = false;
+				IcapVerdict verdict = IcapVerdict.fromResponse(response);
+				if(verdict != null) {
+					cache.put(pendingKey,verdict);
+				}
+			}
+		}
+		ctx.write(msg,promise);
+	}
+	
+	private boolean isApplicable(IcapRequest request, IcapVerdict verdict) {
+		if(verdict.getStatus().equals(IcapResponseStatus.NO_CONTENT)) {
+			if(request.isPreviewMessage()) {
+				return true;
+			}
+			String allow = request.getHeader(IcapHeaders.Names.ALLOW);
+			return allow != null && allow.contains(ALLOW_204);
+		}
+		return true;
+	}
+	
+	private boolean hasBodyChunks(IcapRequest request) {
+		IcapMessageElementEnum body = request.getBodyType();
+		return body != null && !body.equals(IcapMessageElementEnum.NULLBODY);
+	}
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent verdict store that lives in a memory mapped file outside of the java heap.
+ * 
+ * The file contains an open addressing hash table with fixed size slots. Each slot holds
+ * a 64 bit key (e.g. a URL fingerprint from {@link IcapVerdictCache#createKey(io.netty.handler.codec.http.HttpRequest)}
+ * or a body digest), a fingerprint of the ISTag the verdict is bound to, an absolute expiry time and the ICAP status code of the verdict.
+ * Every slot carries a checksum, slots that were only partially written when a process crashed are detected and treated as empty.
+ * 
+ * Since the table is stored in the file a restarted server can serve verdicts immediately after the
+ * file was mapped. The table is split into lock striped partitions so that it can be used concurrently
+ * from all channels of a server.
+ * 
+ * Closing the store unmaps the file right away, every later access fails with an {@link IllegalStateException}.
+ * 
+ * File layout:
+ * <pre>
+ * header: magic (int), version (int), slot count (int), slot size (int), padding up to 64 bytes
+ * slot:   key (long), istag (long), expires (long), status (int), state (int), reserved (long), checksum (int), padding (int)
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapVerdictCache
+ */
+public class IcapVerdictStore implements Closeable {
+	
+	private static final int MAGIC = 0x49434150;
+	private static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_SIZE = 48;
+	
+	private static final int KEY_OFFSET = 0;
+	private static final int ISTAG_OFFSET = 8;
+	private static final int EXPIRES_OFFSET = 16;
+	private static final int STATUS_OFFSET = 24;
+	private static final int STATE_OFFSET = 28;
+	private static final int CHECKSUM_OFFSET = 40;
+	
+	private static final int STATE_EMPTY = 0;
+	private static final int STATE_OCCUPIED = 1;
+	private static final int STATE_DELETED = 2;
+	
+	private static final int STRIPES = 64;
+	private static final int MAX_PROBES = 16;
+	
+	private final RandomAccessFile file;
+	private MappedByteBuffer buffer;
+	private final Object[] locks;
+	private final int slotsPerStripe;
+	private final int probes;
+	
+	/**
+	 * Opens an existing store or creates a new one. An existing file is reused if its
+	 * header is valid and it was created with the same capacity, otherwise it is reinitialized.
+	 * 
+	 * @param path the file holding the store.
+	 * @param capacity the minimal amount of verdicts the store can hold.
+	 * @throws IOException if the file cannot be opened or mapped.
+	 */
+	public IcapVerdictStore(File path, int capacity) throws IOException {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be a positive integer: " + capacity);
+		}
+		int slotCount = STRIPES * MAX_PROBES;
+		while(slotCount < capacity) {
+			slotCount <<= 1;
+			if((long)slotCount * SLOT_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("capacity is too large: " + capacity);
+			}
+		}
+		this.slotsPerStripe = slotCount / STRIPES;
+		this.probes = Math.min(MAX_PROBES,slotsPerStripe);
+		this.locks = new Object[STRIPES];
+		for(int i = 0 ; i < STRIPES ; i++) {
+			locks[i] = new Object();
+		}
+		
+		int size = HEADER_SIZE + slotCount * SLOT_SIZE;
+		file = new RandomAccessFile(path,"rw");
+		try {
+			boolean reuse = file.length() == size;
+			file.setLength(size);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,0,size);
+			if(!reuse || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != slotCount || buffer.getInt(12) != SLOT_SIZE) {
+				initialize(slotCount);
+			}
+		} catch(IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * retrieves the status of a valid verdict.
+	 * 
+	 * @param key the verdict key.
+	 * @param isTag the current ISTag of the service.
+	 * @return the ICAP status code of the verdict or 0 if there is no valid verdict.
+	 */
+	public int get(long key, String isTag) {
+		long isTagHash = IcapVerdictCache.fingerprint(isTag);
+		long hash = IcapVerdictCache.mix(key ^ isTagHash);
+		int stripe = stripe(hash);
+		long now = currentTimeMillis();
+		synchronized (locks[stripe]) {
+			ensureOpen();
+			for(int probe = 0 ; probe < probes ; probe++) {
+				int offset = offset(stripe,hash,probe);
+				int state = buffer.getInt(offset + STATE_OFFSET);
+				if(state == STATE_EMPTY) {
+					return 0;
+				}
+				if(state == STATE_OCCUPIED && isValid(offset)
+						&& buffer.getLong(offset + KEY_OFFSET) == key && buffer.getLong(offset + ISTAG_OFFSET) == isTagHash) {
+					if(buffer.getLong(offset + EXPIRES_OFFSET) <= now) {
+						delete(offset);
+						return 0;
+					}
+					return buffer.getInt(offset + STATUS_OFFSET);
+				}
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * stores a verdict. If all slots the key can be stored in are taken,
+	 * the verdict that expires first is replaced.
+	 * 
+	 * @param key the verdict key.
+	 * @param isTag the ISTag the verdict is bound to.
+	 * @param status the ICAP status code of the verdict.
+	 * @param timeToLive how long the verdict stays valid.
+	 * @param unit the unit of timeToLive.
+	 */
+	public void put(long key, String isTag, int status, long timeToLive, TimeUnit unit) {
+		long isTagHash = IcapVerdictCache.fingerprint(isTag);
+		long hash = IcapVerdictCache.mix(key ^ isTagHash);
+		int stripe = stripe(hash);
+		long now = currentTimeMillis();
+		long expires = now + unit.toMillis(timeToLive);
+		synchronized (locks[stripe]) {
+			ensureOpen();
+			int target = -1;
+			int victim = -1;
+			long victimExpires = Long.MAX_VALUE;
+			for(int probe = 0 ; probe < probes ; probe++) {
+				int offset = offset(stripe,hash,probe);
+				int state = buffer.getInt(offset + STATE_OFFSET);
+				if(state == STATE_EMPTY) {
+					if(target == -1) {
+						target = offset;
+					}
+					break;
+				}
+				if(state != STATE_OCCUPIED || !isValid(offset)) {
+					if(target == -1) {
+						target = offset;
+					}
+					continue;
+				}
+				if(buffer.getLong(offset + KEY_OFFSET) == key && buffer.getLong(offset + ISTAG_OFFSET) == isTagHash) {
+					target = offset;
+					break;
+				}
+				long slotExpires = buffer.getLong(offset + EXPIRES_OFFSET);
+				if(slotExpires <= now && target == -1) {
+					target = offset;
+				} else if(slotExpires <= victimExpires) {
+					victim = offset;
+					victimExpires = slotExpires;
+				}
+			}
+			write(target != -1 ? target : victim,key,isTagHash,expires,status);
+		}
+	}
+	
+	/**
+	 * removes a verdict.
+	 * 
+	 * @param key the verdict key.
+	 * @param isTag the ISTag the verdict is bound to.
+	 */
+	public void remove(long key, String isTag) {
+		long isTagHash = IcapVerdictCache.fingerprint(isTag);
+		long hash = IcapVerdictCache.mix(key ^ isTagHash);
+		int stripe = stripe(hash);
+		synchronized (locks[stripe]) {
+			ensureOpen();
+			for(int probe = 0 ; probe < probes ; probe++) {
+				int offset = offset(stripe,hash,probe);
+				int state = buffer.getInt(offset + STATE_OFFSET);
+				if(state == STATE_EMPTY) {
+					return;
+				}
+				if(state == STATE_OCCUPIED && buffer.getLong(offset + KEY_OFFSET) == key && buffer.getLong(offset + ISTAG_OFFSET) == isTagHash) {
+					delete(offset);
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the amount of slots in this store.
+	 */
+	public int getCapacity() {
+		return slotsPerStripe * STRIPES;
+	}
+	
+	/**
+	 * forces all changes to be written to the storage device.
+	 */
+	public synchronized void flush() {
+		ensureOpen();
+		buffer.force();
+	}
+
+	/**
+	 * flushes the store, unmaps it and closes the underlying file.
+	 * Closing a store that is already closed has no effect.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(buffer == null) {
+			return;
+		}
+		MappedByteBuffer mapped = buffer;
+		mapped.force();
+		detach(0);
+		try {
+			file.close();
+		} finally {
+			PlatformDependent.freeDirectBuffer(mapped);
+		}
+	}
+	
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+	
+	private void ensureOpen() {
+		if(buffer == null) {
+			throw new IllegalStateException("verdict store is closed");
+		}
+	}
+	
+	/*
+	 * drops the buffer while holding all stripe locks so that no lookup
+	 * is running on the mapping when it gets unmapped.
+	 */
+	private void detach(int stripe) {
+		synchronized (locks[stripe]) {
+			if(stripe + 1 < STRIPES) {
+				detach(stripe + 1);
+			} else {
+				buffer = null;
+			}
+		}
+	}
+	
+	private void initialize(int slotCount) {
+		for(int i = 0 ; i < buffer.capacity() ; i += 8) {
+			buffer.putLong(i,0L);
+		}
+		buffer.putInt(0,MAGIC);
+		buffer.putInt(4,VERSION);
+		buffer.putInt(8,slotCount);
+		buffer.putInt(12,SLOT_SIZE);
+		buffer.force();
+	}
+	
+	private int stripe(long hash) {
+		return (int)(hash >>> 58) & (STRIPES - 1);
+	}
+	
+	private int offset(int stripe, long hash, int probe) {
+		int index = ((int)hash + probe) & (slotsPerStripe - 1);
+		return HEADER_SIZE + (stripe * slotsPerStripe + index) * SLOT_SIZE;
+	}
+	
+	private boolean isValid(int offset) {
+		return buffer.getInt(offset + CHECKSUM_OFFSET) == checksum(offset);
+	}
+	
+	private void write(int offset, long key, long isTagHash, long expires, int status) {
+		buffer.putLong(offset + KEY_OFFSET,key);
+		buffer.putLong(offset + ISTAG_OFFSET,isTagHash);
+		buffer.putLong(offset + EXPIRES_OFFSET,expires);
+		buffer.putInt(offset + STATUS_OFFSET,status);
+		buffer.putInt(offset + STATE_OFFSET,STATE_OCCUPIED);
+		buffer.putInt(offset + CHECKSUM_OFFSET,checksum(offset));
+	}
+	
+	private void delete(int offset) {
+		buffer.putInt(offset + STATE_OFFSET,STATE_DELETED);
+		buffer.putInt(offset + CHECKSUM_OFFSET,checksum(offset));
+	}
+	
+	private int checksum(int offset) {
+		long hash = IcapVerdictCache.mix(buffer.getLong(offset + KEY_OFFSET) ^ MAGIC);
+		hash = IcapVerdictCache.mix(hash ^ buffer.getLong(offset + ISTAG_OFFSET));
+		hash = IcapVerdictCache.mix(hash ^ buffer.getLong(offset + EXPIRES_OFFSET));
+		hash = IcapVerdictCache.mix(hash ^ buffer.getLong(offset + STATUS_OFFSET));
+		return (int)(hash ^ (hash >>> 32));
+	}
+}
@@ -16,9 +16,7 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.HttpVersion;
 
 /**
@@ -29,7 +27,7 @@ import io.netty.handler.codec.http.HttpVersion;
  */
 public final class IcapVersion {
 
-    private static final Pattern VERSION_PATTERN = Pattern.compile("(\\S+)/(\\d+)\\.(\\d+)");
+    private static final String ICAP_1_0_TEXT = "ICAP/1.0";
 	
 	private String protocolName;
 	private int major;
@@ -58,13 +56,15 @@ public final class IcapVersion {
     	if(text == null) {
     		throw new NullPointerException("text");
     	}
-        Matcher m = VERSION_PATTERN.matcher(text.trim().toUpperCase());
-        if (!m.matches()) {
-            throw new IllegalArgumentException("invalid version format: [" + text + "]");
-        }
-        protocolName = m.group(1);
-        major = Integer.parseInt(m.group(2));
-        minor = Integer.parseInt(m.group(3));
+    	String version = text.trim().toUpperCase();
+    	int slash = version.lastIndexOf('/');
+    	int dot = version.indexOf('.',slash + 1);
+    	if(slash <= 0 || dot < 0 || containsWhitespace(version,0,slash)) {
+    		throw invalidVersion(text);
+    	}
+        protocolName = version.substring(0,slash);
+        major = parseNumber(version,slash + 1,dot,text);
+        minor = parseNumber(version,dot + 1,version.length(),text);
         this.text = text;
     }
     
@@ -101,22 +101,83 @@ public final class IcapVersion {
     }
 	
     /**
-     * Returns an existing or new {@link HttpVersion} instance which matches to
-     * the specified RTSP version string.  If the specified {@code text} is
+     * Returns an existing or new {@link IcapVersion} instance which matches to
+     * the specified ICAP version string.  If the specified {@code text} is
      * equal to {@code "ICAP/1.0"}, {@link #ICAP_1_0} will be returned.
-     * Otherwise, a new {@link HttpVersion} instance will be returned.
+     * Otherwise, a new {@link IcapVersion} instance will be returned.
      */
     public static IcapVersion valueOf(String text) {
         if (text == null) {
             throw new NullPointerException("text");
         }
-        if (text.trim().toUpperCase().equals("ICAP/1.0")) {
+        int start = 0;
+        int end = text.length();
+        while(start < end && text.charAt(start) <= ' ') {
+        	start++;
+        }
+        while(end > start && text.charAt(end - 1) <= ' ') {
+        	end--;
+        }
+        if (end - start == ICAP_1_0_TEXT.length() && ICAP_1_0_TEXT.regionMatches(true,0,text,start,end - start)) {
             return ICAP_1_0;
         }
-
         return new IcapVersion(text);
     }
     
+    /**
+     * Returns the {@link IcapVersion} represented by the bytes in the given range.
+     * {@link #ICAP_1_0} is matched in place without creating a String.
+     * 
+     * @param buffer the buffer that contains the version.
+     * @param fromIndex first index of the version.
+     * @param toIndex index after the last byte of the version.
+     * @return the cached instance for ICAP/1.0, otherwise a new instance.
+     */
+    public static IcapVersion valueOf(ByteBuf buffer, int fromIndex, int toIndex) {
+    	if(toIndex - fromIndex == ICAP_1_0_TEXT.length()) {
+    		boolean matches = true;
+    		for(int i = 0 ; i < ICAP_1_0_TEXT.length() && matches ; i++) {
+    			int c = buffer.getByte(fromIndex + i);
+    			matches = (c >= 'a' && c <= 'z'?c - 32:c) == ICAP_1_0_TEXT.charAt(i);
+    		}
+    		if(matches) {
+    			return ICAP_1_0;
+    		}
+    	}
+    	return valueOf(IcapDecoderUtil.toString(buffer,fromIndex,toIndex));
+    }
+    
+    private static int parseNumber(String version, int start, int end, String text) {
+    	if(start == end) {
+    		throw invalidVersion(text);
+    	}
+    	long number = 0;
+    	for(int i = start ; i < end ; i++) {
+    		char c = version.charAt(i);
+    		if(c < '0' || c > '9') {
+    			throw invalidVersion(text);
+    		}
+    		number = number * 10 + (c - '0');
+    		if(number > Integer.MAX_VALUE) {
+    			throw invalidVersion(text);
+    		}
+    	}
+    	return (int)number;
+    }
+    
+    private static boolean containsWhitespace(String version, int start, int end) {
+    	for(int i = start ; i < end ; i++) {
+    		if(Character.isWhitespace(version.charAt(i))) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    private static IllegalArgumentException invalidVersion(String text) {
+    	return new IllegalArgumentException("invalid version format: [" + text + "]");
+    }
+    
     @Override
     public String toString() {
     	return text;
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+/**
+ * Metrics implementation that discards all measurements, used by the codec if no metrics are configured.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class NoopIcapCodecMetrics implements IcapCodecMetrics {
+
+	public static final NoopIcapCodecMetrics INSTANCE = new NoopIcapCodecMetrics();
+	
+	private NoopIcapCodecMetrics() {
+	}
+	
+	@Override
+	public boolean isEnabled() {
+		return false;
+	}
+
+	@Override
+	public void messageDecoded(IcapMessage message) {
+	}
+
+	@Override
+	public void chunkDecoded(IcapChunk chunk) {
+	}
+
+	@Override
+	public void bytesDecoded(int bytes) {
+	}
+
+	@Override
+	public void decodingFailed(Throwable cause) {
+	}
+
+	@Override
+	public void stateExecuted(StateEnum state, long nanos) {
+	}
+
+	@Override
+	public void messageEncoded(IcapMessage message) {
+	}
+
+	@Override
+	public void chunkEncoded(IcapChunk chunk) {
+	}
+
+	@Override
+	public void bytesEncoded(int bytes) {
+	}
+}
@@ -18,6 +18,8 @@ package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.List;
+
 /**
  * Decoder State that reads chunk delimiters
  * 
@@ -26,7 +28,7 @@ import io.netty.buffer.ByteBuf;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadChunkDelimiterState extends State<Object> {
+public class ReadChunkDelimiterState extends State {
 
 	public ReadChunkDelimiterState(String name) {
 		super(name);
@@ -37,21 +39,12 @@ public class ReadChunkDelimiterState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
-        for (;;) {
-            byte next = buffer.readByte();
-            if (next == IcapCodecUtil.CR) {
-                if (buffer.readByte() == IcapCodecUtil.LF) {
-                    return StateReturnValue.createIrrelevantResult();
-                }
-            } else if (next == IcapCodecUtil.LF) {
-                return StateReturnValue.createIrrelevantResult();
-            }
-        }
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
+		int lineFeed = IcapDecoderUtil.findLineFeed(buffer,buffer.readerIndex(),buffer.writerIndex());
+		if(lineFeed < 0) {
+			IcapDecoderUtil.requireMoreData(buffer);
+		}
+		buffer.readerIndex(lineFeed + 1);
 		return StateEnum.READ_CHUNK_SIZE_STATE;
 	}
 
@@ -18,7 +18,7 @@ package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
 
-import java.util.Map;
+import java.util.List;
 
 /**
  * Decoder State that reads chunk size
@@ -28,32 +28,7 @@ import java.util.Map;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadChunkSizeState extends State<ReadChunkSizeState.DecisionState> {
-
-	/**
-	 * Used to decide what state has to be processed next.
-	 * 
-	 * @author Michael Mimo Moratti (mimo@mimo.ch)
-	 *
-	 */
-	public static enum DecisionState {
-		READ_CHUNK(StateEnum.READ_CHUNK_STATE),
-		READ_HUGE_CHUNK_IN_SMALER_CHUNKS(StateEnum.READ_CHUNKED_CONTENT_AS_CHUNKS_STATE),
-		READ_TRAILING_HEADERS(StateEnum.READ_TRAILING_HEADERS_STATE),
-		IS_LAST_PREVIEW_CHUNK(StateEnum.READ_CHUNK_SIZE_STATE),
-		IS_LAST_CHUNK(StateEnum.SKIP_CONTROL_CHARS),
-		RESET(null);
-		
-		private StateEnum state;
-		
-		DecisionState(StateEnum nextState) {
-			state = nextState;
-		}
-		
-		public StateEnum getNextState() {
-			return state;
-		}
-	}
+public class ReadChunkSizeState extends State {
 	
 	public ReadChunkSizeState(String name) {
 		super(name);
@@ -76,74 +51,57 @@ public class ReadChunkSizeState extends State<ReadChunkSizeState.DecisionState>
 	 * 1. preview read next line
 	 * 2. attempt to parse chunk size and extensions
 	 * 2a. chunk length / extensions could not be parsed step out (END STATE/reset).
+	 *     A line that exceeds maxInitialLineLength is not consumed and fails the decoder with a TooLongFrameException,
+	 *     a reset would only parse it again as the initial line of the next message.
 	 * 2b. chunk length / extensions could be parsed, adjust readerIndex by reading the line.
 	 * 3. chunk size > 0, read the next chunk. (END STATE).
 	 * 4. chunk size == 0 && ieof extension is present, early termination of preview reading process. Stay in state and wait for more data.
 	 * 5. chunk size == 0 and message is preview message. Stay in state and wait for more data.
 	 * 6. chunk size == 0 step out (END STATE/reset).
 	 */
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
-		int chunkSize;
-		Map<String, String> extensions;
-		String previewLine = IcapDecoderUtil.previewLine(buffer,icapMessageDecoder.maxInitialLineLength);
-		try {
-			chunkSize = IcapDecoderUtil.getChunkSize(previewLine);
-			extensions = IcapDecoderUtil.getExtensions(previewLine);
-			IcapDecoderUtil.readLine(buffer,icapMessageDecoder.maxInitialLineLength);
-		} catch(DecodingException de) {
-			return StateReturnValue.createIrrelevantResultWithDecisionInformation(DecisionState.RESET);
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
+		ChunkSizeLine line = icapMessageDecoder.chunkSizeLine;
+		if(!line.parse(buffer,icapMessageDecoder.maxInitialLineLength)) {
+			return null;
 		}
+		long chunkSize = line.getSize();
 		icapMessageDecoder.currentChunkSize = chunkSize;
 
 		if(chunkSize > 0) {
 			if(chunkSize >= icapMessageDecoder.maxChunkSize) {
-				return StateReturnValue.createIrrelevantResultWithDecisionInformation(DecisionState.READ_HUGE_CHUNK_IN_SMALER_CHUNKS);
+				return StateEnum.READ_CHUNKED_CONTENT_AS_CHUNKS_STATE;
 			} else {
-				return StateReturnValue.createIrrelevantResultWithDecisionInformation(DecisionState.READ_CHUNK);
+				return StateEnum.READ_CHUNK_STATE;
 			}
-		} else if(chunkSize == 0 && extensions.containsKey(IcapCodecUtil.EXTENSION_IEOF)) {
+		} else if(line.isIeof()) {
 			icapMessageDecoder.currentChunkSize = 0;
-			IcapDecoderUtil.readLine(buffer,Integer.MAX_VALUE);
-			return StateReturnValue.createRelevantResultWithDecisionInformation(new DefaultIcapChunkTrailer(true,true),DecisionState.IS_LAST_PREVIEW_CHUNK);
-		} else if(chunkSize == 0) {
+			skipLine(buffer,Integer.MAX_VALUE);
+			out.add(icapMessageDecoder.newChunkTrailer(true,true,null));
+			return StateEnum.READ_CHUNK_SIZE_STATE;
+		} else {
 			if(!checkForLineBreak(buffer)) {
-				return StateReturnValue.createIrrelevantResultWithDecisionInformation(DecisionState.READ_TRAILING_HEADERS);
+				return StateEnum.READ_TRAILING_HEADERS_STATE;
 			}
-			IcapDecoderUtil.readLine(buffer,10);
+			skipLine(buffer,10);
 			if(icapMessageDecoder.message.isPreviewMessage()) {
-					return StateReturnValue.createRelevantResultWithDecisionInformation(new DefaultIcapChunkTrailer(true, false),DecisionState.IS_LAST_PREVIEW_CHUNK);
-			} else {
-				try {
-					Integer useOriginalBody = getUseOriginalBody(extensions);
-					return StateReturnValue.createRelevantResultWithDecisionInformation(new DefaultIcapChunkTrailer(false, false, useOriginalBody), DecisionState.IS_LAST_CHUNK);
-				} catch (DecodingException e) {
-					return StateReturnValue.createIrrelevantResultWithDecisionInformation(DecisionState.RESET);
-				}
+				out.add(icapMessageDecoder.newChunkTrailer(true,false,null));
+				return StateEnum.READ_CHUNK_SIZE_STATE;
 			}
-		} else {
-			return StateReturnValue.createIrrelevantResultWithDecisionInformation(DecisionState.RESET);
+			int useOriginalBody = line.getUseOriginalBody();
+			if(useOriginalBody == ChunkSizeLine.INVALID_USE_ORIGINAL_BODY) {
+				return null;
+			}
+			out.add(icapMessageDecoder.newChunkTrailer(false,false,useOriginalBody == ChunkSizeLine.NO_USE_ORIGINAL_BODY?null:useOriginalBody));
+			return StateEnum.SKIP_CONTROL_CHARS;
 		}
 	}
 	
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, DecisionState decisionInformation) throws DecodingException {
-		return decisionInformation.getNextState();
+	private void skipLine(ByteBuf buffer, int maxLineLength) throws DecodingException {
+		buffer.readerIndex(IcapDecoderUtil.findLineEnd(buffer,maxLineLength) + 1);
 	}
 	
 	private boolean checkForLineBreak(ByteBuf buffer) {
 		byte previewByte = buffer.getByte(buffer.readerIndex() + 1);
 		return previewByte == IcapCodecUtil.CR || previewByte == IcapCodecUtil.LF;
 	}
-
-	private Integer getUseOriginalBody(Map<String, String> extensions) throws DecodingException {
-		String value = extensions.get(IcapCodecUtil.EXTENSION_USE_ORIGINAL_BODY);
-		if (value == null) {
-			return null;
-		}
-		try {
-			return Integer.parseInt(value);
-		} catch (NumberFormatException e) {
-			throw new DecodingException(e);
-		}
-	}
 }
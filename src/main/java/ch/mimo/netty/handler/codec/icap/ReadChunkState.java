@@ -18,6 +18,8 @@ package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.List;
+
 /**
  * Decoder State that reads chunk content
  * 
@@ -26,7 +28,7 @@ import io.netty.buffer.ByteBuf;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadChunkState extends State<Object> {
+public class ReadChunkState extends State {
 	
 	public ReadChunkState(String name) {
 		super(name);
@@ -37,14 +39,10 @@ public class ReadChunkState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {		
-		IcapChunk chunk = new DefaultIcapChunk(buffer.readBytes(icapMessageDecoder.currentChunkSize));
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
+		IcapChunk chunk = icapMessageDecoder.newChunk(buffer.readBytes((int)icapMessageDecoder.currentChunkSize));
 		chunk.setPreviewChunk(icapMessageDecoder.message.isPreviewMessage());
-		return StateReturnValue.createRelevantResult(chunk);
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
+		out.add(chunk);
 		return StateEnum.READ_CHUNK_DELIMITER_STATE;
-	}	
+	}
 }
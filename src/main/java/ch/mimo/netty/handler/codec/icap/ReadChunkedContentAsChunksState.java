@@ -18,6 +18,8 @@ package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.List;
+
 /**
  * Decoder State that reads one huge chunk into many smaller chunks
  * 
@@ -26,7 +28,7 @@ import io.netty.buffer.ByteBuf;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadChunkedContentAsChunksState extends State<Object> {
+public class ReadChunkedContentAsChunksState extends State {
 
 	public ReadChunkedContentAsChunksState(String name) {
 		super(name);
@@ -37,25 +39,21 @@ public class ReadChunkedContentAsChunksState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
 		IcapChunk chunk = null;
 		if(icapMessageDecoder.currentChunkSize > icapMessageDecoder.maxChunkSize) {
-			chunk = new DefaultIcapChunk(buffer.readBytes(icapMessageDecoder.maxChunkSize));
+			chunk = icapMessageDecoder.newChunk(buffer.readBytes(icapMessageDecoder.maxChunkSize));
 			icapMessageDecoder.currentChunkSize -= icapMessageDecoder.maxChunkSize;
 		} else {
-			chunk = new DefaultIcapChunk(buffer.readBytes(icapMessageDecoder.currentChunkSize));
+			chunk = icapMessageDecoder.newChunk(buffer.readBytes((int)icapMessageDecoder.currentChunkSize));
 			icapMessageDecoder.currentChunkSize = 0;
 		}
 		chunk.setPreviewChunk(icapMessageDecoder.message.isPreviewMessage());
+		out.add(chunk);
 		if(chunk.isLast()) {
 			icapMessageDecoder.currentChunkSize = 0;
-			return StateReturnValue.createRelevantResult(new Object[]{chunk,new DefaultIcapChunkTrailer()}); 
+			out.add(icapMessageDecoder.newChunkTrailer(false,false,null));
 		}
-		return StateReturnValue.createRelevantResult(chunk);
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
 		if(icapMessageDecoder.currentChunkSize == 0) {
 			return StateEnum.READ_CHUNK_DELIMITER_STATE;
 		}
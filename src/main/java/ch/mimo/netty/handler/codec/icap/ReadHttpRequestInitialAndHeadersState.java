@@ -19,6 +19,7 @@ package ch.mimo.netty.handler.codec.icap;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpMethod;
@@ -32,7 +33,7 @@ import io.netty.handler.codec.http.HttpVersion;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadHttpRequestInitialAndHeadersState extends State<Object> {
+public class ReadHttpRequestInitialAndHeadersState extends State {
 
 	public ReadHttpRequestInitialAndHeadersState(String name) {
 		super(name);
@@ -49,28 +50,22 @@ public class ReadHttpRequestInitialAndHeadersState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
 		String line = IcapDecoderUtil.readLine(buffer,icapMessageDecoder.maxInitialLineLength);
 		String[] initialLine = IcapDecoderUtil.splitInitialLine(line);
-		FullHttpRequest message = new DefaultFullHttpRequest(HttpVersion.valueOf(initialLine[2]),HttpMethod.valueOf(initialLine[0]),initialLine[1]);
+		FullHttpRequest message = new DefaultFullHttpRequest(HttpVersion.valueOf(initialLine[2]),HttpMethod.valueOf(initialLine[0]),initialLine[1],Unpooled.buffer(0),false);
 		icapMessageDecoder.message.setHttpRequest(message);
 		List<String[]> headerList = IcapDecoderUtil.readHeaders(buffer,icapMessageDecoder.maxHttpHeaderSize);
 		message.headers().clear();
 		for(String[] header : headerList) {
-			message.headers().add(header[0],header[1]);
+			IcapDecoderUtil.addDecodedHttpHeader(message.headers(),header[0],header[1]);
 		}
 		Encapsulated encapsulated = icapMessageDecoder.message.getEncapsulatedHeader();
 		encapsulated.setEntryAsProcessed(encapsulated.getNextEntry());
-		if(encapsulated.getNextEntry() != null && encapsulated.getNextEntry().equals(IcapMessageElementEnum.RESHDR)) {
-			return StateReturnValue.createIrrelevantResult();
-		}
-		return StateReturnValue.createRelevantResult(icapMessageDecoder.message);
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
-		Encapsulated encapsulated = icapMessageDecoder.message.getEncapsulatedHeader();
 		IcapMessageElementEnum entry = encapsulated.getNextEntry();
+		if(entry == null || !entry.equals(IcapMessageElementEnum.RESHDR)) {
+			out.add(icapMessageDecoder.message);
+		}
 		if(entry != null) {
 			if(entry.equals(IcapMessageElementEnum.RESHDR)) {
 				return StateEnum.READ_HTTP_RESPONSE_INITIAL_AND_HEADERS;
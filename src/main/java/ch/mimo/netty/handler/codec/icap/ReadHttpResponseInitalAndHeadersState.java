@@ -19,6 +19,7 @@ package ch.mimo.netty.handler.codec.icap;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
@@ -32,7 +33,7 @@ import io.netty.handler.codec.http.HttpVersion;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadHttpResponseInitalAndHeadersState extends State<Object> {
+public class ReadHttpResponseInitalAndHeadersState extends State {
 
 	public ReadHttpResponseInitalAndHeadersState(String name) {
 		super(name);
@@ -49,27 +50,21 @@ public class ReadHttpResponseInitalAndHeadersState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
 		String line = IcapDecoderUtil.readLine(buffer,icapMessageDecoder.maxInitialLineLength);
 		String[] initialLine = IcapDecoderUtil.splitInitialLine(line);
-		FullHttpResponse message = new DefaultFullHttpResponse(HttpVersion.valueOf(initialLine[0]),HttpResponseStatus.valueOf(Integer.parseInt(initialLine[1])));
+		FullHttpResponse message = new DefaultFullHttpResponse(HttpVersion.valueOf(initialLine[0]),HttpResponseStatus.valueOf(Integer.parseInt(initialLine[1])),Unpooled.buffer(0),false);
 		icapMessageDecoder.message.setHttpResponse(message);
 		List<String[]> headerList = IcapDecoderUtil.readHeaders(buffer,icapMessageDecoder.maxHttpHeaderSize);
 		for(String[] header : headerList) {
-			message.headers().add(header[0],header[1]);
+			IcapDecoderUtil.addDecodedHttpHeader(message.headers(),header[0],header[1]);
 		}
 		Encapsulated encapsulated = icapMessageDecoder.message.getEncapsulatedHeader();
 		encapsulated.setEntryAsProcessed(encapsulated.getNextEntry());
-		if(encapsulated.getNextEntry() != null && encapsulated.getNextEntry().equals(IcapMessageElementEnum.REQHDR)) {
-			return StateReturnValue.createIrrelevantResult();
-		}
-		return StateReturnValue.createRelevantResult(icapMessageDecoder.message);
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
-		Encapsulated encapsulated = icapMessageDecoder.message.getEncapsulatedHeader();
 		IcapMessageElementEnum entry = encapsulated.getNextEntry();
+		if(entry == null || !entry.equals(IcapMessageElementEnum.REQHDR)) {
+			out.add(icapMessageDecoder.message);
+		}
 		if(entry != null) {
 			if(entry.equals(IcapMessageElementEnum.REQHDR)) {
 				return StateEnum.READ_HTTP_REQUEST_INITIAL_AND_HEADERS;
@@ -28,7 +28,7 @@ import io.netty.buffer.ByteBuf;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadIcapHeaderState extends State<Object> {
+public class ReadIcapHeaderState extends State {
 	
 	private static final String SYNTHETIC_ENCAPSULATED_HEADER_VALUE = "null-body=0";
 	
@@ -44,11 +44,11 @@ public class ReadIcapHeaderState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
 		List<String[]> headerList = IcapDecoderUtil.readHeaders(buffer,icapMessageDecoder.maxIcapHeaderSize);
 		icapMessageDecoder.message.clearHeaders();
 		for(String[] header : headerList) {
-			icapMessageDecoder.message.addHeader(header[0],header[1]);
+			addDecodedHeader(icapMessageDecoder.message,header[0],header[1]);
 		}
 		boolean isRequest = icapMessageDecoder.message instanceof IcapRequest;
 		boolean isOptionsRequest = isRequest && ((IcapRequest)icapMessageDecoder.message).getMethod().equals(IcapMethod.OPTIONS);
@@ -59,22 +59,20 @@ public class ReadIcapHeaderState extends State<Object> {
 		Encapsulated encapsulated = null;
 		String headerValue = icapMessageDecoder.message.getHeader(IcapHeaders.Names.ENCAPSULATED);
 		if(headerValue != null) {
-			encapsulated = new Encapsulated(icapMessageDecoder.message.getHeader(IcapHeaders.Names.ENCAPSULATED));
+			encapsulated = new Encapsulated(headerValue);
 			icapMessageDecoder.message.setEncapsulatedHeader(encapsulated);
 		}
 		if(isOptionsRequest) {
-			return StateReturnValue.createRelevantResult(icapMessageDecoder.message);
+			out.add(icapMessageDecoder.message);
 		} else if(encapsulated != null && !encapsulated.containsEntry(IcapMessageElementEnum.REQHDR) && !encapsulated.containsEntry(IcapMessageElementEnum.RESHDR)) {
-			return StateReturnValue.createRelevantResult(icapMessageDecoder.message);
+			out.add(icapMessageDecoder.message);
 		}
-		return StateReturnValue.createIrrelevantResult();
+		return getNextState(icapMessageDecoder.message,isOptionsRequest);
 	}
 
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
-		IcapMessage message = icapMessageDecoder.message;
+	private StateEnum getNextState(IcapMessage message, boolean isOptionsRequest) {
 		Encapsulated encapsulated = message.getEncapsulatedHeader();
-		if(message instanceof IcapRequest && ((IcapRequest)message).getMethod().equals(IcapMethod.OPTIONS)) {
+		if(isOptionsRequest) {
 			if(encapsulated != null && encapsulated.containsEntry(IcapMessageElementEnum.OPTBODY)) {
 				return StateEnum.READ_CHUNK_SIZE_STATE;
 			} else {
@@ -97,6 +95,18 @@ public class ReadIcapHeaderState extends State<Object> {
 		return null;
 	}
 	
+	/*
+	 * header lines are split at LF and folded lines are joined with a space. A single table lookup per character 
+	 * proves name and value valid, anything else (e.g. a bare CR) takes the validating path and is rejected there.
+	 */
+	private static void addDecodedHeader(IcapMessage message, String name, String value) {
+		if(message instanceof AbstractIcapMessage && IcapCodecUtil.isValidDecodedHeader(name,value)) {
+			((AbstractIcapMessage)message).addTrustedHeader(name,value);
+		} else {
+			message.addHeader(name,value);
+		}
+	}
+	
 	private void validateMandatoryMessageHeaders(IcapMessage message) {
 		if(!(message instanceof IcapResponse)) {
 			if(!message.containsHeader(IcapHeaders.Names.HOST)) {
@@ -138,7 +148,7 @@ public class ReadIcapHeaderState extends State<Object> {
 		}
 		
 		if(requiresSynthecticEncapsulationHeader) {
-			message.addHeader(IcapHeaders.Names.ENCAPSULATED,SYNTHETIC_ENCAPSULATED_HEADER_VALUE);
+			addDecodedHeader(message,IcapHeaders.Names.ENCAPSULATED,SYNTHETIC_ENCAPSULATED_HEADER_VALUE);
 		}
 	}
 }
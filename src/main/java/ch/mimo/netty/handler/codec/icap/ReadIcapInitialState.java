@@ -18,6 +18,8 @@ package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.List;
+
 /**
  * Decoder State that reads icap initial.
  * 
@@ -26,7 +28,7 @@ import io.netty.buffer.ByteBuf;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadIcapInitialState extends State<Object> {
+public class ReadIcapInitialState extends State {
 
 	public ReadIcapInitialState(String name) {
 		super(name);
@@ -38,21 +40,17 @@ public class ReadIcapInitialState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
-		String[] initialLine = IcapDecoderUtil.splitInitialLine(IcapDecoderUtil.readLine(buffer,icapMessageDecoder.maxInitialLineLength));
-		if (initialLine.length >= 3) {
-			try {
-				icapMessageDecoder.message = icapMessageDecoder.createMessage(initialLine);
-			}
-			catch (IllegalArgumentException e) {
-				icapMessageDecoder.message = null;
-			}
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
+		int readerIndex = buffer.readerIndex();
+		int lineFeed = IcapDecoderUtil.findLineEnd(buffer,icapMessageDecoder.maxInitialLineLength);
+		int[] initialLine = IcapDecoderUtil.splitInitialLine(buffer,readerIndex,IcapDecoderUtil.getLineContentEnd(buffer,readerIndex,lineFeed),icapMessageDecoder.initialLine);
+		buffer.readerIndex(lineFeed + 1);
+		try {
+			icapMessageDecoder.message = icapMessageDecoder.createMessage(buffer,initialLine);
+		}
+		catch (IllegalArgumentException e) {
+			icapMessageDecoder.message = null;
 		}
-		return StateReturnValue.createIrrelevantResult();
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
 		if(icapMessageDecoder.message == null) {
 			return StateEnum.SKIP_CONTROL_CHARS;
 		}
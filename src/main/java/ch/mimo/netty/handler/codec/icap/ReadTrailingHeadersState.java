@@ -20,7 +20,6 @@ import java.util.List;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.HttpHeaders;
-import io.netty.handler.codec.http.LastHttpContent;
 
 /**
  * Decoder State that reads http trailing headers.
@@ -30,7 +29,7 @@ import io.netty.handler.codec.http.LastHttpContent;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class ReadTrailingHeadersState extends State<Object> {
+public class ReadTrailingHeadersState extends State {
 
 	public ReadTrailingHeadersState(String name) {
 		super(name);
@@ -41,13 +40,13 @@ public class ReadTrailingHeadersState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
 		SizeDelimiter sizeDelimiter = new SizeDelimiter(icapMessageDecoder.maxHttpHeaderSize);
 		boolean preview = icapMessageDecoder.message.isPreviewMessage();
         String line = IcapDecoderUtil.readSingleHeaderLine(buffer,sizeDelimiter);
         String lastHeader = null;
         if (line.length() != 0) {
-            LastHttpContent trailer = new DefaultIcapChunkTrailer(preview,false);
+            IcapChunkTrailer trailer = icapMessageDecoder.newChunkTrailer(preview,false,null);
             do {
                 char firstChar = line.charAt(0);
                 if (lastHeader != null && (firstChar == ' ' || firstChar == '\t')) {
@@ -73,13 +72,10 @@ public class ReadTrailingHeadersState extends State<Object> {
                 line = IcapDecoderUtil.readSingleHeaderLine(buffer,sizeDelimiter);
             } while (line.length() != 0);
 
-            return StateReturnValue.createRelevantResult(trailer);
+            out.add(trailer);
+            return null;
         }
-        return StateReturnValue.createRelevantResult(new DefaultIcapChunkTrailer(preview,false));
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
-		return null;
+        out.add(icapMessageDecoder.newChunkTrailer(preview,false,null));
+        return null;
 	}
 }
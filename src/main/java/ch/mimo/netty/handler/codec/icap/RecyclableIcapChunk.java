@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderResult;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.Recycler;
+
+/**
+ * Pooled variant of @see {@link DefaultIcapChunk} that is handed out by the decoder if
+ * chunk recycling is enabled. The chunk returns to the pool of the decoding thread
+ * as soon as it is released, together with its content.
+ * 
+ * Derived chunks (copy, duplicate, replace) are plain @see {@link DefaultIcapChunk} instances.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapMessageDecoder#setRecycleChunks(boolean)
+ */
+final class RecyclableIcapChunk extends AbstractReferenceCounted implements IcapChunk {
+
+	private static final Recycler<RecyclableIcapChunk> RECYCLER = new Recycler<RecyclableIcapChunk>() {
+		@Override
+		protected RecyclableIcapChunk newObject(Handle<RecyclableIcapChunk> handle) {
+			return new RecyclableIcapChunk(handle);
+		}
+	};
+	
+	private final Recycler.Handle<RecyclableIcapChunk> handle;
+	private ByteBuf content;
+	private boolean preview;
+	private boolean earlyTerminated;
+	private boolean last;
+	private DecoderResult decoderResult = DecoderResult.SUCCESS;
+	
+	private RecyclableIcapChunk(Recycler.Handle<RecyclableIcapChunk> handle) {
+		this.handle = handle;
+	}
+	
+	static RecyclableIcapChunk newInstance(ByteBuf content) {
+		RecyclableIcapChunk chunk = RECYCLER.get();
+		chunk.setRefCnt(1);
+		chunk.content = content;
+		chunk.last = !content.isReadable();
+		return chunk;
+	}
+	
+	@Override
+	public ByteBuf content() {
+		return content;
+	}
+
+	@Override
+	public void setPreviewChunk(boolean preview) {
+		this.preview = preview;
+	}
+
+	@Override
+	public boolean isPreviewChunk() {
+		return preview;
+	}
+
+	@Override
+	public void setEarlyTermination(boolean earlyTermination) {
+		this.earlyTerminated = earlyTermination;
+	}
+
+	@Override
+	public boolean isEarlyTerminated() {
+		return earlyTerminated;
+	}
+
+	@Override
+	public boolean isLast() {
+		return last;
+	}
+
+	@Override
+	@Deprecated
+	public DecoderResult getDecoderResult() {
+		return decoderResult;
+	}
+
+	@Override
+	public DecoderResult decoderResult() {
+		return decoderResult;
+	}
+
+	@Override
+	public void setDecoderResult(DecoderResult result) {
+		if(result == null) {
+			throw new NullPointerException("decoderResult");
+		}
+		this.decoderResult = result;
+	}
+
+	@Override
+	public IcapChunk copy() {
+		return replace(content.copy());
+	}
+
+	@Override
+	public IcapChunk duplicate() {
+		return replace(content.duplicate());
+	}
+
+	@Override
+	public IcapChunk retainedDuplicate() {
+		return replace(content.retainedDuplicate());
+	}
+
+	@Override
+	public IcapChunk replace(ByteBuf content) {
+		DefaultIcapChunk chunk = new DefaultIcapChunk(content);
+		chunk.setPreviewChunk(preview);
+		chunk.setEarlyTermination(earlyTerminated);
+		chunk.setDecoderResult(decoderResult);
+		return chunk;
+	}
+
+	@Override
+	public RecyclableIcapChunk retain() {
+		super.retain();
+		return this;
+	}
+
+	@Override
+	public RecyclableIcapChunk retain(int increment) {
+		super.retain(increment);
+		return this;
+	}
+
+	@Override
+	public RecyclableIcapChunk touch() {
+		content.touch();
+		return this;
+	}
+
+	@Override
+	public RecyclableIcapChunk touch(Object hint) {
+		content.touch(hint);
+		return this;
+	}
+
+	@Override
+	protected void deallocate() {
+		ByteBuf buffer = content;
+		content = null;
+		preview = false;
+		earlyTerminated = false;
+		last = false;
+		decoderResult = DecoderResult.SUCCESS;
+		handle.recycle(this);
+		buffer.release();
+	}
+
+	public String toString() {
+		return "RecyclableIcapChunk: [isPreviewChunk=" + preview + "] [wasEarlyTerminated=" + earlyTerminated + "] [data=" + (content != null?content.readableBytes():0) + "]";
+	}
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderResult;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.Recycler;
+
+/**
+ * Pooled variant of @see {@link DefaultIcapChunkTrailer} that is handed out by the decoder if
+ * chunk recycling is enabled. The trailer and its trailing headers container return to the 
+ * pool of the decoding thread as soon as the trailer is released.
+ * 
+ * Derived trailers (copy, duplicate, replace) are plain @see {@link DefaultIcapChunkTrailer} instances.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ * @see IcapMessageDecoder#setRecycleChunks(boolean)
+ */
+final class RecyclableIcapChunkTrailer extends AbstractReferenceCounted implements IcapChunkTrailer, LastHttpContent {
+
+	private static final Recycler<RecyclableIcapChunkTrailer> RECYCLER = new Recycler<RecyclableIcapChunkTrailer>() {
+		@Override
+		protected RecyclableIcapChunkTrailer newObject(Handle<RecyclableIcapChunkTrailer> handle) {
+			return new RecyclableIcapChunkTrailer(handle);
+		}
+	};
+	
+	private final Recycler.Handle<RecyclableIcapChunkTrailer> handle;
+	private final HttpHeaders trailingHeaders;
+	private boolean preview;
+	private boolean earlyTerminated;
+	private Integer useOriginalBodyOffset;
+	private IcapBodyDigest bodyDigest;
+	private DecoderResult decoderResult = DecoderResult.SUCCESS;
+	
+	private RecyclableIcapChunkTrailer(Recycler.Handle<RecyclableIcapChunkTrailer> handle) {
+		this.handle = handle;
+		this.trailingHeaders = new DefaultHttpHeaders();
+	}
+	
+	static RecyclableIcapChunkTrailer newInstance(boolean isPreview, boolean isEarlyTerminated, Integer useOriginalBodyOffset) {
+		RecyclableIcapChunkTrailer trailer = RECYCLER.get();
+		trailer.setRefCnt(1);
+		trailer.preview = isPreview;
+		trailer.earlyTerminated = isEarlyTerminated;
+		trailer.useOriginalBodyOffset = useOriginalBodyOffset;
+		return trailer;
+	}
+	
+	@Override
+	public ByteBuf content() {
+		return Unpooled.EMPTY_BUFFER;
+	}
+	
+	@Override
+	public HttpHeaders trailingHeaders() {
+		return trailingHeaders;
+	}
+
+	@Override
+	public void setPreviewChunk(boolean preview) {
+		this.preview = preview;
+	}
+
+	@Override
+	public boolean isPreviewChunk() {
+		return preview;
+	}
+
+	@Override
+	public void setEarlyTermination(boolean earlyTermination) {
+		this.earlyTerminated = earlyTermination;
+	}
+
+	@Override
+	public boolean isEarlyTerminated() {
+		return earlyTerminated;
+	}
+
+	@Override
+	public boolean isLast() {
+		return true;
+	}
+
+	@Override
+	public void setUseOriginalBody(Integer offset) {
+		this.useOriginalBodyOffset = offset;
+	}
+
+	@Override
+	public Integer getUseOriginalBody() {
+		return useOriginalBodyOffset;
+	}
+
+	void setBodyDigest(IcapBodyDigest digest) {
+		this.bodyDigest = digest;
+	}
+
+	IcapBodyDigest getBodyDigest() {
+		return bodyDigest;
+	}
+
+	@Override
+	@Deprecated
+	public DecoderResult getDecoderResult() {
+		return decoderResult;
+	}
+
+	@Override
+	public DecoderResult decoderResult() {
+		return decoderResult;
+	}
+
+	@Override
+	public void setDecoderResult(DecoderResult result) {
+		if(result == null) {
+			throw new NullPointerException("decoderResult");
+		}
+		this.decoderResult = result;
+	}
+
+	@Override
+	public LastHttpContent copy() {
+		return replace(Unpooled.EMPTY_BUFFER);
+	}
+
+	@Override
+	public LastHttpContent duplicate() {
+		return replace(Unpooled.EMPTY_BUFFER);
+	}
+
+	@Override
+	public LastHttpContent retainedDuplicate() {
+		return replace(Unpooled.EMPTY_BUFFER);
+	}
+
+	@Override
+	public LastHttpContent replace(ByteBuf content) {
+		DefaultIcapChunkTrailer trailer = new DefaultIcapChunkTrailer(preview,earlyTerminated,useOriginalBodyOffset);
+		trailer.trailingHeaders().set(trailingHeaders);
+		trailer.setDecoderResult(decoderResult);
+		trailer.setBodyDigest(bodyDigest);
+		return trailer;
+	}
+
+	@Override
+	public RecyclableIcapChunkTrailer retain() {
+		super.retain();
+		return this;
+	}
+
+	@Override
+	public RecyclableIcapChunkTrailer retain(int increment) {
+		super.retain(increment);
+		return this;
+	}
+
+	@Override
+	public RecyclableIcapChunkTrailer touch() {
+		content().touch();
+		return this;
+	}
+
+	@Override
+	public RecyclableIcapChunkTrailer touch(Object hint) {
+		content().touch(hint);
+		return this;
+	}
+
+	@Override
+	protected void deallocate() {
+		trailingHeaders.clear();
+		preview = false;
+		earlyTerminated = false;
+		useOriginalBodyOffset = null;
+		bodyDigest = null;
+		decoderResult = DecoderResult.SUCCESS;
+		handle.recycle(this);
+	}
+
+	public String toString() {
+		return "RecyclableIcapChunkTrailer: [isPreviewChunk=" + preview + "] [wasEarlyTerminated=" + earlyTerminated + "] [useOriginalBodyOffset=" + useOriginalBodyOffset + "]";
+	}
+}
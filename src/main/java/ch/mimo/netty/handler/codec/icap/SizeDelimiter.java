@@ -49,6 +49,13 @@ public class SizeDelimiter {
 		return counter;
 	}
 	
+	/**
+	 * @return the number of counts left before the limit is reached.
+	 */
+	public int getRemaining() {
+		return limit - counter;
+	}
+	
 	private void checkLimit() throws DecodingException {
 		if(counter >= limit) {
 			throw new DecodingException(new TooLongFrameException(errorMessage + "[" + (counter - limit) + "] counts"));
@@ -18,6 +18,8 @@ package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.List;
+
 /**
  * Decoder State that reads control chars and whitespaces.
  * 
@@ -26,7 +28,7 @@ import io.netty.buffer.ByteBuf;
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public class SkipControlCharsState extends State<Object> {
+public class SkipControlCharsState extends State {
 
 	public SkipControlCharsState(String name) {
 		super(name);
@@ -38,13 +40,8 @@ public class SkipControlCharsState extends State<Object> {
 	}
 
 	@Override
-	public StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException {
+	public StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException {
 		IcapDecoderUtil.skipControlCharacters(buffer);
-		return StateReturnValue.createIrrelevantResult();
-	}
-
-	@Override
-	public StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, Object decisionInformation) throws DecodingException {
 		return StateEnum.READ_ICAP_INITIAL_STATE;
 	}
 }
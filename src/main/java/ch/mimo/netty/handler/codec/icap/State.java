@@ -18,17 +18,17 @@ package ch.mimo.netty.handler.codec.icap;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.List;
+
 /**
  * Abstract state implementation for all Decoder states.
  * 
  * @author Michael Mimo Moratti (mimo@mimo.ch)
  *
- * @param <T>
- * 
  * @see IcapMessageDecoder
  * @see StateEnum
  */
-public abstract class State<T extends Object> {
+public abstract class State {
 	
 	private String name;
 	
@@ -42,16 +42,16 @@ public abstract class State<T extends Object> {
 	public abstract void onEntry(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException;
 	
 	/**
-	 * execution method
-	 * @return @see {@link StateReturnValue} that contains, dependent on the relevance a return value.
-	 */
-	public abstract StateReturnValue execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder) throws DecodingException;
-	
-	/**
-	 * Flow decision method
-	 * @return has to return a valid next state. Can be itself.
+	 * execution and flow decision method.
+	 * 
+	 * Decoded objects are added to the output list of the decoder. This must only happen 
+	 * once the state has read everything it requires from the buffer, the decoder can 
+	 * otherwise replay the state and emit the same objects twice.
+	 * 
+	 * @param out the output list of the decoder.
+	 * @return has to return a valid next state. Can be itself. null resets the decoder.
 	 */
-	public abstract StateEnum onExit(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, T decisionInformation) throws DecodingException;
+	public abstract StateEnum execute(ByteBuf buffer, IcapMessageDecoder icapMessageDecoder, List<Object> out) throws DecodingException;
 
 	public String toString() {
 		return name;
@@ -34,13 +34,13 @@ public enum StateEnum {
 	READ_CHUNK_DELIMITER_STATE(new ReadChunkDelimiterState("READ_CHUNK_DELIMITER_STATE")),
 	READ_TRAILING_HEADERS_STATE(new ReadTrailingHeadersState("READ_TRAILING_HEADERS_STATE"));
 	
-	private State<? extends Object> state;
+	private State state;
 	
-	StateEnum(State<? extends Object> state) {
+	StateEnum(State state) {
 		this.state = state;
 	}
 	
-	public State<? extends Object> getState() {
+	public State getState() {
 		return state;
 	}
 	
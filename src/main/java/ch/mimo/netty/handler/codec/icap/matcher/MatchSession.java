@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap.matcher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+
+/**
+ * Scan position of one stream, e.g. the body of one ICAP transaction, in a @see {@link PatternMatcher}.
+ * 
+ * The automaton state is kept between calls so a pattern that straddles two chunks is found in the chunk
+ * that contains its last byte. Scanning never changes the reader or writer index of a buffer.
+ * 
+ * A session is not thread safe, use one session per stream and call {@link #reset()} before it is reused
+ * for the next stream.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class MatchSession implements ByteProcessor {
+
+	private final PatternMatcher matcher;
+	private final int[] classes;
+	private final int[] transitions;
+	
+	private int state;
+	private long position;
+	private int pattern = -1;
+	private long matchEnd = -1;
+	
+	MatchSession(PatternMatcher matcher) {
+		this.matcher = matcher;
+		this.classes = matcher.getClasses();
+		this.transitions = matcher.getTransitions();
+	}
+	
+	/**
+	 * Scans the readable bytes of a buffer until the first match.
+	 * 
+	 * @param buffer the next bytes of the stream.
+	 * @return the buffer index of the byte that completed a match or -1 if no pattern ends within the buffer.
+	 */
+	public int find(ByteBuf buffer) {
+		return find(buffer,buffer.readerIndex(),buffer.readableBytes());
+	}
+	
+	/**
+	 * Scans a region of a buffer until the first match. In order to find further matches call this
+	 * method again starting from the returned index + 1.
+	 * 
+	 * @param buffer the buffer to scan.
+	 * @param index the index of the first byte to scan.
+	 * @param length the amount of bytes to scan.
+	 * @return the buffer index of the byte that completed a match or -1 if no pattern ends within the region.
+	 */
+	public int find(ByteBuf buffer, int index, int length) {
+		if(length == 0) {
+			return -1;
+		}
+		int found = buffer.forEachByte(index,length,this);
+		if(found < 0) {
+			position += length;
+			return -1;
+		}
+		position += found - index + 1;
+		matchEnd = position;
+		pattern = matcher.getOutput(state);
+		return found;
+	}
+	
+	/**
+	 * Scans a byte array until the first match.
+	 * 
+	 * @param bytes the array to scan.
+	 * @param offset the offset of the first byte to scan.
+	 * @param length the amount of bytes to scan.
+	 * @return the array index of the byte that completed a match or -1 if no pattern ends within the region.
+	 */
+	public int find(byte[] bytes, int offset, int length) {
+		int end = offset + length;
+		for(int i = offset ; i < end ; i++) {
+			if(!process(bytes[i])) {
+				position += i - offset + 1;
+				matchEnd = position;
+				pattern = matcher.getOutput(state);
+				return i;
+			}
+		}
+		position += length;
+		return -1;
+	}
+	
+	@Override
+	public boolean process(byte value) {
+		int next = transitions[state + classes[value & 0xff]];
+		if(next >= 0) {
+			state = next;
+			return true;
+		}
+		state = ~next;
+		return false;
+	}
+	
+	/**
+	 * @return the index of the longest pattern found by the last successful find or -1 if nothing was found yet.
+	 */
+	public int getPattern() {
+		return pattern;
+	}
+	
+	/**
+	 * @return the stream offset right after the last found pattern or -1 if nothing was found yet.
+	 */
+	public long getMatchEnd() {
+		return matchEnd;
+	}
+	
+	/**
+	 * @return the stream offset of the first byte of the last found pattern or -1 if nothing was found yet.
+	 */
+	public long getMatchStart() {
+		return pattern < 0?-1:matchEnd - matcher.getPatternLength(pattern);
+	}
+	
+	/**
+	 * @return whether any pattern was found since the last reset.
+	 */
+	public boolean isMatched() {
+		return pattern >= 0;
+	}
+	
+	/**
+	 * @return the amount of bytes scanned since the last reset.
+	 */
+	public long getPosition() {
+		return position;
+	}
+	
+	/**
+	 * @return the matcher this session belongs to.
+	 */
+	public PatternMatcher getMatcher() {
+		return matcher;
+	}
+	
+	/**
+	 * Starts over with a new stream.
+	 */
+	public void reset() {
+		state = 0;
+		position = 0;
+		pattern = -1;
+		matchEnd = -1;
+	}
+	
+	@Override
+	public String toString() {
+		return "MatchSession: [position=" + position + "] [pattern=" + pattern + "] [match end=" + matchEnd + "]";
+	}
+}
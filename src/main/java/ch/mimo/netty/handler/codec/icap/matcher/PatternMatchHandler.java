@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap.matcher;
+
+import ch.mimo.netty.handler.codec.icap.IcapChunk;
+import ch.mimo.netty.handler.codec.icap.IcapMessage;
+import ch.mimo.netty.handler.codec.icap.IcapTrace;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Scans the body chunks of every received ICAP message with a @see {@link PatternMatcher} while they pass 
+ * through the pipeline. The first match of a message is reported to {@link #matched(ChannelHandlerContext, IcapMessage, MatchSession)}
+ * right away, without waiting for the rest of the body, so a service can answer early, e.g. with a block page
+ * after the preview.
+ * 
+ * The automaton state is kept from one chunk to the next and across the end of a preview, so patterns
+ * that straddle chunk boundaries are found as well. Scanning starts over with every new message.
+ * 
+ * The handler has to be placed after the decoder (and the decompressor if bodies are compressed) but before
+ * a chunk aggregator:
+ * 
+ * <pre>
+ * pipeline.addLast("decoder",new IcapRequestDecoder());
+ * pipeline.addLast("matcher",new MySignatureHandler(matcher));
+ * pipeline.addLast("chunkAggregator",new IcapChunkAggregator(4096));
+ * pipeline.addLast("handler",new MyServiceHandler());
+ * </pre>
+ * 
+ * One @see {@link PatternMatcher} can be shared by all channels, the handler itself holds per channel state.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public abstract class PatternMatchHandler extends ChannelInboundHandlerAdapter {
+
+	private static final InternalLogger LOG = InternalLoggerFactory.getInstance(PatternMatchHandler.class);
+	
+	private final MatchSession session;
+	
+	private IcapMessage message;
+	private boolean scanning;
+	private boolean discarding;
+	
+	/**
+	 * @param matcher the compiled patterns to search for.
+	 */
+	public PatternMatchHandler(PatternMatcher matcher) {
+		if(matcher == null) {
+			throw new NullPointerException("matcher");
+		}
+		this.session = matcher.newSession();
+	}
+	
+	/**
+	 * Invoked on the first match within the body of a message.
+	 * 
+	 * @param ctx the context of this handler, e.g. in order to write an early response.
+	 * @param message the message the body belongs to.
+	 * @param session the session that holds the matched pattern and its position within the body.
+	 * @return true if the remaining body chunks of this message, including the chunk that contained the
+	 * match, are released instead of being passed on. Handlers further down the pipeline will then not see 
+	 * the end of this message. False in order to pass on the whole body.
+	 * @throws Exception is passed to exceptionCaught.
+	 */
+	protected abstract boolean matched(ChannelHandlerContext ctx, IcapMessage message, MatchSession session) throws Exception;
+	
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if(msg instanceof IcapMessage) {
+			message = (IcapMessage)msg;
+			session.reset();
+			scanning = message.getBodyType() != null;
+			discarding = false;
+		} else if(msg instanceof IcapChunk) {
+			IcapChunk chunk = (IcapChunk)msg;
+			if(discarding) {
+				discarding = !chunk.isLast();
+				ReferenceCountUtil.release(msg);
+				return;
+			}
+			if(scanning && session.find(chunk.content()) >= 0) {
+				scanning = false;
+				IcapTrace.trace(LOG,ctx,"Pattern [{}] found at [{}]",session.getPattern(),session.getMatchStart());
+				if(matched(ctx,message,session)) {
+					discarding = !chunk.isLast();
+					ReferenceCountUtil.release(msg);
+					return;
+				}
+			}
+		}
+		ctx.fireChannelRead(msg);
+	}
+	
+	/**
+	 * @return the session of the current message.
+	 */
+	protected MatchSession getSession() {
+		return session;
+	}
+}
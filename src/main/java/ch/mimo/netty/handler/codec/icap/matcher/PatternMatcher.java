@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap.matcher;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Immutable Aho-Corasick automaton that finds any of a set of byte patterns in a stream of bytes.
+ * 
+ * The automaton is compiled into a dense transition table. Bytes that do not occur in any pattern share one
+ * byte class so the table only grows with the amount of distinct bytes used by the patterns, not with the 
+ * whole alphabet. Scanning costs one table lookup per byte independent of the amount of patterns.
+ * 
+ * A matcher is thread safe and is meant to be compiled once and shared between all channels, the scan
+ * position of a single body is kept in a @see {@link MatchSession} created by {@link #newSession()}.
+ * 
+ * <pre>
+ * PatternMatcher matcher = PatternMatcher.compile(true,"eicar","X5O!P%@AP");
+ * MatchSession session = matcher.newSession();
+ * if(session.find(chunk.content()) >= 0) {
+ *     String signature = matcher.getPatternAsString(session.getPattern());
+ * }
+ * </pre>
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class PatternMatcher {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private final byte[][] patterns;
+	private final boolean ignoreCase;
+	private final int[] classes;
+	private final int classCount;
+	private final int[] transitions;
+	private final int[] outputs;
+	
+	private PatternMatcher(byte[][] patterns, boolean ignoreCase) {
+		this.patterns = patterns;
+		this.ignoreCase = ignoreCase;
+		this.classes = new int[256];
+		this.classCount = assignClasses();
+		int maxStates = 1;
+		for(byte[] pattern : patterns) {
+			maxStates += pattern.length;
+		}
+		if((long)maxStates * classCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("patterns exceed the maximum automaton size");
+		}
+		int[] table = new int[maxStates * classCount];
+		int[] match = new int[maxStates];
+		Arrays.fill(match,-1);
+		int states = buildTrie(table,match);
+		this.transitions = Arrays.copyOf(table,states * classCount);
+		this.outputs = Arrays.copyOf(match,states);
+		buildFailureTransitions(states);
+	}
+	
+	/**
+	 * Compiles a matcher for the UTF-8 representation of the given patterns.
+	 * 
+	 * @param ignoreCase whether ASCII letters match regardless of their case.
+	 * @param patterns the patterns to search for.
+	 * @return new matcher instance.
+	 */
+	public static PatternMatcher compile(boolean ignoreCase, String... patterns) {
+		if(patterns == null) {
+			throw new NullPointerException("patterns");
+		}
+		byte[][] bytes = new byte[patterns.length][];
+		for(int i = 0 ; i < patterns.length ; i++) {
+			if(patterns[i] == null) {
+				throw new NullPointerException("pattern [" + i + "]");
+			}
+			bytes[i] = patterns[i].getBytes(UTF_8);
+		}
+		return compile(ignoreCase,bytes);
+	}
+	
+	/**
+	 * Compiles a matcher for the given binary patterns.
+	 * 
+	 * @param ignoreCase whether ASCII letters match regardless of their case.
+	 * @param patterns the patterns to search for, the arrays are copied.
+	 * @return new matcher instance.
+	 */
+	public static PatternMatcher compile(boolean ignoreCase, byte[]... patterns) {
+		if(patterns == null) {
+			throw new NullPointerException("patterns");
+		}
+		if(patterns.length == 0) {
+			throw new IllegalArgumentException("at least one pattern is required");
+		}
+		byte[][] copy = new byte[patterns.length][];
+		for(int i = 0 ; i < patterns.length ; i++) {
+			if(patterns[i] == null) {
+				throw new NullPointerException("pattern [" + i + "]");
+			}
+			if(patterns[i].length == 0) {
+				throw new IllegalArgumentException("pattern [" + i + "] is empty");
+			}
+			copy[i] = patterns[i].clone();
+		}
+		return new PatternMatcher(copy,ignoreCase);
+	}
+	
+	/**
+	 * @return a new session that scans one stream from its beginning.
+	 */
+	public MatchSession newSession() {
+		return new MatchSession(this);
+	}
+	
+	/**
+	 * @return the amount of patterns of this matcher.
+	 */
+	public int getPatternCount() {
+		return patterns.length;
+	}
+	
+	/**
+	 * @param index the pattern index as reported by @see {@link MatchSession#getPattern()}
+	 * @return a copy of the pattern.
+	 */
+	public byte[] getPattern(int index) {
+		return patterns[index].clone();
+	}
+	
+	/**
+	 * @param index the pattern index as reported by @see {@link MatchSession#getPattern()}
+	 * @return the pattern decoded as UTF-8.
+	 */
+	public String getPatternAsString(int index) {
+		return new String(patterns[index],UTF_8);
+	}
+	
+	/**
+	 * @param index the pattern index as reported by @see {@link MatchSession#getPattern()}
+	 * @return the length of the pattern in bytes.
+	 */
+	public int getPatternLength(int index) {
+		return patterns[index].length;
+	}
+	
+	/**
+	 * @return whether ASCII letters match regardless of their case.
+	 */
+	public boolean isIgnoreCase() {
+		return ignoreCase;
+	}
+	
+	/**
+	 * @return the amount of states of the compiled automaton.
+	 */
+	public int getStateCount() {
+		return outputs.length;
+	}
+	
+	int[] getClasses() {
+		return classes;
+	}
+	
+	int[] getTransitions() {
+		return transitions;
+	}
+	
+	int getClassCount() {
+		return classCount;
+	}
+	
+	/**
+	 * @param offset the offset of a state in the transition table.
+	 * @return the index of the longest pattern that ends in this state.
+	 */
+	int getOutput(int offset) {
+		return outputs[offset / classCount];
+	}
+	
+	private int assignClasses() {
+		boolean[] used = new boolean[256];
+		for(byte[] pattern : patterns) {
+			for(byte value : pattern) {
+				used[fold(value & 0xff)] = true;
+			}
+		}
+		int count = 1;
+		for(int value = 0 ; value < 256 ; value++) {
+			if(used[value]) {
+				classes[value] = count++;
+			}
+		}
+		if(ignoreCase) {
+			for(int value = 'A' ; value <= 'Z' ; value++) {
+				classes[value] = classes[fold(value)];
+			}
+		}
+		return count;
+	}
+	
+	private int fold(int value) {
+		return ignoreCase && value >= 'A' && value <= 'Z'?value + ('a' - 'A'):value;
+	}
+	
+	/*
+	 * The trie is built with state numbers, 0 is the root and therefore never a valid child. 
+	 */
+	private int buildTrie(int[] table, int[] match) {
+		int states = 1;
+		for(int index = 0 ; index < patterns.length ; index++) {
+			int state = 0;
+			for(byte value : patterns[index]) {
+				int slot = state * classCount + classes[value & 0xff];
+				if(table[slot] == 0) {
+					table[slot] = states++;
+				}
+				state = table[slot];
+			}
+			if(match[state] < 0) {
+				match[state] = index;
+			}
+		}
+		return states;
+	}
+	
+	/*
+	 * Completes the trie into a DFA in breadth first order, afterwards every transition holds the offset of 
+	 * the target state in the table, inverted if the target state reports a match.
+	 */
+	private void buildFailureTransitions(int states) {
+		int[] failure = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for(int cls = 0 ; cls < classCount ; cls++) {
+			int child = transitions[cls];
+			if(child != 0) {
+				failure[child] = 0;
+				queue[tail++] = child;
+			}
+		}
+		while(head < tail) {
+			int state = queue[head++];
+			if(outputs[state] < 0) {
+				outputs[state] = outputs[failure[state]];
+			}
+			int base = state * classCount;
+			int failureBase = failure[state] * classCount;
+			for(int cls = 0 ; cls < classCount ; cls++) {
+				int child = transitions[base + cls];
+				if(child != 0) {
+					failure[child] = transitions[failureBase + cls];
+					queue[tail++] = child;
+				} else {
+					transitions[base + cls] = transitions[failureBase + cls];
+				}
+			}
+		}
+		for(int i = 0 ; i < transitions.length ; i++) {
+			int target = transitions[i];
+			transitions[i] = outputs[target] >= 0?~(target * classCount):target * classCount;
+		}
+	}
+}
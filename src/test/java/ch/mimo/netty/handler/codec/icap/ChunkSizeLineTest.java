@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+
+public class ChunkSizeLineTest extends AbstractIcapTest {
+
+	private ChunkSizeLine line = new ChunkSizeLine();
+	
+	private static ByteBuf buffer(String content) {
+		return Unpooled.copiedBuffer(content.getBytes());
+	}
+	
+	@Test
+	public void testParseChunkSize() throws DecodingException {
+		ByteBuf buffer = buffer("1a3F\r\nDATA");
+		assertTrue("line was not parsed",line.parse(buffer,100));
+		assertEquals("wrong chunk size",0x1a3F,line.getSize());
+		assertFalse("ieof is present",line.isIeof());
+		assertEquals("use-original-body is present",ChunkSizeLine.NO_USE_ORIGINAL_BODY,line.getUseOriginalBody());
+		assertEquals("line was not consumed",'D',buffer.readByte());
+	}
+	
+	@Test
+	public void testParseChunkSizeWithLineFeedOnly() throws DecodingException {
+		ByteBuf buffer = buffer(" 10 \nDATA");
+		assertTrue("line was not parsed",line.parse(buffer,100));
+		assertEquals("wrong chunk size",16,line.getSize());
+		assertEquals("line was not consumed",'D',buffer.readByte());
+	}
+	
+	@Test
+	public void testParseIeof() throws DecodingException {
+		assertTrue("line was not parsed",line.parse(buffer("0; ieof\r\n\r\n"),100));
+		assertEquals("wrong chunk size",0,line.getSize());
+		assertTrue("ieof is missing",line.isIeof());
+	}
+	
+	@Test
+	public void testParseUseOriginalBody() throws DecodingException {
+		assertTrue("line was not parsed",line.parse(buffer("0;foo=bar; use-original-body = 150 ;ieof\r\n"),100));
+		assertEquals("wrong use-original-body",150,line.getUseOriginalBody());
+		assertTrue("ieof is missing",line.isIeof());
+		assertTrue("line was not parsed",line.parse(buffer("0; use-original-body=abc\r\n"),100));
+		assertEquals("invalid use-original-body accepted",ChunkSizeLine.INVALID_USE_ORIGINAL_BODY,line.getUseOriginalBody());
+		assertTrue("line was not parsed",line.parse(buffer("0; use-original-body\r\n"),100));
+		assertEquals("empty use-original-body accepted",ChunkSizeLine.INVALID_USE_ORIGINAL_BODY,line.getUseOriginalBody());
+		assertFalse("ieof was not reset",line.isIeof());
+	}
+	
+	@Test
+	public void testParseSizeBeyondIntegerRange() throws DecodingException {
+		assertTrue("line was not parsed",line.parse(buffer("1FFFFFFFF\r\n"),100));
+		assertEquals("wrong chunk size",0x1FFFFFFFFL,line.getSize());
+		assertFalse("overflowing chunk size was accepted",line.parse(buffer("10000000000000000\r\n"),100));
+	}
+	
+	@Test
+	public void testInvalidChunkSizeIsNotConsumed() throws DecodingException {
+		ByteBuf buffer = buffer("REQMOD icap://icap.mimo.ch/reqmod ICAP/1.0\r\n");
+		assertFalse("invalid line was parsed",line.parse(buffer,100));
+		assertEquals("invalid line was consumed",0,buffer.readerIndex());
+		assertFalse("invalid line was parsed",line.parse(buffer("5x\r\n"),100));
+		assertFalse("invalid line was parsed",line.parse(buffer(";ieof\r\n"),100));
+	}
+	
+	@Test
+	public void testLineTooLong() {
+		boolean exception = false;
+		try {
+			line.parse(buffer("5;ieof;use-original-body=10\r\n"),10);
+		} catch(DecodingException e) {
+			exception = true;
+		}
+		assertTrue("No maximum length reached exception was thrown!",exception);
+	}
+}
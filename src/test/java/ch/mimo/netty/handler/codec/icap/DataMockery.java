@@ -271,6 +271,13 @@ public final class DataMockery extends Assert {
 		return request;
 	}
 	
+	public static final IcapRequest createRESPMODWithStreamedBodyIcapRequest() {
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.RESPMOD,"icap://icap.mimo.ch:1344/respmod","icap-server.net");
+		request.setHttpResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK));
+		request.setBody(IcapMessageElementEnum.RESBODY);
+		return request;
+	}
+	
 	public static final IcapRequest createREQMODWithGetRequestNoBodyAndEncapsulationHeaderIcapMessage() {
 		IcapRequest request = createREQMODWithGetRequestNoBodyIcapMessage();
 		request.addHeader("Encapsulated","req-hdr=0, null-body=170");
@@ -576,6 +583,64 @@ public final class DataMockery extends Assert {
 		return buffer;
 	}
 	
+	public static final ByteBuf createREQMODWithBareCarriageReturnInHttpHeader() throws UnsupportedEncodingException {
+		ByteBuf buffer = Unpooled.buffer();
+		addLine(buffer,"REQMOD icap://icap.mimo.ch:1344/reqmod ICAP/1.0");
+		addLine(buffer,"Host: icap-server.net");
+		addLine(buffer,"Encapsulated: req-hdr=0, null-body=72");
+		addLine(buffer,null);
+		addLine(buffer,"GET / HTTP/1.1");
+		addLine(buffer,"Host: www.origin-server.com");
+		addLine(buffer,"X-Foo: a\rInjected: yes");
+		addLine(buffer,null);
+		return buffer;
+	}
+	
+	public static final ByteBuf createRESPMODWithBareCarriageReturnInHttpResponseHeader() throws UnsupportedEncodingException {
+		ByteBuf buffer = Unpooled.buffer();
+		addLine(buffer,"RESPMOD icap://icap.mimo.ch:1344/reqmod ICAP/1.0");
+		addLine(buffer,"Host: icap-server.net");
+		addLine(buffer,"Encapsulated: res-hdr=0, null-body=50");
+		addLine(buffer,null);
+		addLine(buffer,"HTTP/1.1 200 OK");
+		addLine(buffer,"X-Foo: a\rInjected: yes");
+		addLine(buffer,null);
+		return buffer;
+	}
+	
+	public static final ByteBuf createOPTIONSRequestWithProhibitedCharacterInHeaderName() throws UnsupportedEncodingException {
+		ByteBuf buffer = Unpooled.buffer();
+		addLine(buffer,"OPTIONS icap://icap.mimo.ch:1344/reqmod ICAP/1.0");
+		addLine(buffer,"Host: icap-server.net");
+		addLine(buffer,"X-Foo;Bar: yes");
+		addLine(buffer,"Encapsulated: null-body=0");
+		addLine(buffer,null);
+		return buffer;
+	}
+	
+	public static final ByteBuf createOPTIONSRequestWithFormFeedInHeaderValue() throws UnsupportedEncodingException {
+		ByteBuf buffer = Unpooled.buffer();
+		addLine(buffer,"OPTIONS icap://icap.mimo.ch:1344/reqmod ICAP/1.0");
+		addLine(buffer,"Host: icap-server.net");
+		addLine(buffer,"X-Foo: a\fb");
+		addLine(buffer,"Encapsulated: null-body=0");
+		addLine(buffer,null);
+		return buffer;
+	}
+	
+	public static final ByteBuf createREQMODWithVerticalTabInHttpHeader() throws UnsupportedEncodingException {
+		ByteBuf buffer = Unpooled.buffer();
+		addLine(buffer,"REQMOD icap://icap.mimo.ch:1344/reqmod ICAP/1.0");
+		addLine(buffer,"Host: icap-server.net");
+		addLine(buffer,"Encapsulated: req-hdr=0, null-body=62");
+		addLine(buffer,null);
+		addLine(buffer,"GET / HTTP/1.1");
+		addLine(buffer,"Host: www.origin-server.com");
+		addLine(buffer,"X-Foo: a\u000bb");
+		addLine(buffer,null);
+		return buffer;
+	}
+	
 	public static final ByteBuf createREQMODWithImplicitTwoChunkBodyResponse() throws UnsupportedEncodingException {
 		ByteBuf buffer = Unpooled.buffer();
 		addLine(buffer,"ICAP/1.0 200 OK");
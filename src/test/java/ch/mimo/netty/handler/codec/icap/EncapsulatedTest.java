@@ -23,7 +23,7 @@ import io.netty.buffer.Unpooled;
 import junit.framework.Assert;
 
 import io.netty.buffer.ByteBuf;
-import org.junit.Ignore;
+import io.netty.util.AsciiString;
 import org.junit.Test;
 
 public class EncapsulatedTest extends Assert {
@@ -33,6 +33,19 @@ public class EncapsulatedTest extends Assert {
 		assertNull("value was not null as expected",IcapMessageElementEnum.fromString(null));
 	}
 	
+	@Test
+	public void testIcapMessageElementEnumLookup() {
+		for(IcapMessageElementEnum element : IcapMessageElementEnum.values()) {
+			assertEquals("wrong element",element,IcapMessageElementEnum.fromString(element.getValue().toUpperCase()));
+			ByteBuf buffer = Unpooled.copiedBuffer(" " + element.getValue() + "=0",IcapCodecUtil.ASCII_CHARSET);
+			assertEquals("wrong element",element,IcapMessageElementEnum.fromBytes(buffer,1,buffer.writerIndex() - 2));
+		}
+		assertNull("unknown element",IcapMessageElementEnum.fromString("req-bod"));
+		assertNull("unknown element",IcapMessageElementEnum.fromString("req-bodx"));
+		assertNull("unknown element",IcapMessageElementEnum.fromString("nul-bodyy"));
+		assertNull("unknown element",IcapMessageElementEnum.fromString("rex-hdr"));
+	}
+	
 	@Test
 	public void testSimpleValueParsing() {
 		String parameter = "req-hdr=0, res-hdr=45, req-body=124";
@@ -146,7 +159,6 @@ public class EncapsulatedTest extends Assert {
 	}
 	
 	@Test
-    @Ignore("fails upstream")
 	public void testEncodeEncapsulatedHeaderWithNullBodyThatHasZeroValue() {
 		ByteBuf buffer = Unpooled.buffer();
 		Encapsulated encapsulated = new Encapsulated();
@@ -163,4 +175,73 @@ public class EncapsulatedTest extends Assert {
 		assertEquals("encoded encapsulation header was wrong","Encapsulated: req-hdr=0, res-hdr=123, null-body=0\r\n\r\n",buffer.toString(Charset.defaultCharset()));
 		assertEquals("wrong body element found",IcapMessageElementEnum.NULLBODY,encapsulated.containsBodyEntry());
 	}
+	
+	@Test
+	public void testParseFromAsciiString() {
+		Encapsulated encapsulated = new Encapsulated(new AsciiString("REQ-HDR=0, res-body=137".getBytes(IcapCodecUtil.ASCII_CHARSET)));
+		assertEquals("req-hdr was expected",IcapMessageElementEnum.REQHDR,encapsulated.getNextEntry());
+		assertEquals("wrong body element found",IcapMessageElementEnum.RESBODY,encapsulated.containsBodyEntry());
+	}
+	
+	@Test
+	public void testStringConstructorIsKept() throws Exception {
+		Encapsulated encapsulated = Encapsulated.class.getConstructor(String.class).newInstance("req-hdr=0, null-body=12");
+		assertEquals("req-hdr was expected",IcapMessageElementEnum.REQHDR,encapsulated.getNextEntry());
+		assertEquals("wrong body element found",IcapMessageElementEnum.NULLBODY,encapsulated.containsBodyEntry());
+	}
+	
+	@Test
+	public void testUnknownElement() {
+		boolean error = false;
+		try {
+			new Encapsulated("req-hdr=0, foo-body=10");
+		} catch(IcapDecodingError e) {
+			error = true;
+		}
+		assertTrue("Validation error did not occur",error);
+	}
+	
+	@Test
+	public void testDuplicateElement() {
+		boolean error = false;
+		try {
+			new Encapsulated("req-hdr=0, req-hdr=10");
+		} catch(IcapDecodingError e) {
+			error = true;
+		}
+		assertTrue("Validation error did not occur",error);
+	}
+	
+	@Test
+	public void testPositionOverflow() {
+		boolean error = false;
+		try {
+			new Encapsulated("req-hdr=0, req-body=2147483648");
+		} catch(IcapDecodingError e) {
+			error = true;
+		}
+		assertTrue("Validation error did not occur",error);
+	}
+	
+	@Test
+	public void testProcessingOutOfOrder() {
+		Encapsulated encapsulated = new Encapsulated("req-hdr=0, res-hdr=45, res-body=124");
+		encapsulated.setEntryAsProcessed(IcapMessageElementEnum.RESHDR);
+		assertEquals("req-hdr was expected",IcapMessageElementEnum.REQHDR,encapsulated.getNextEntry());
+		encapsulated.setEntryAsProcessed(IcapMessageElementEnum.REQHDR);
+		assertEquals("res-body was expected",IcapMessageElementEnum.RESBODY,encapsulated.getNextEntry());
+		encapsulated.setEntryAsProcessed(IcapMessageElementEnum.REQBODY);
+		assertEquals("res-body was expected",IcapMessageElementEnum.RESBODY,encapsulated.getNextEntry());
+	}
+	
+	@Test
+	public void testAddEntryReplacesPosition() throws UnsupportedEncodingException {
+		ByteBuf buffer = Unpooled.buffer();
+		Encapsulated encapsulated = new Encapsulated();
+		encapsulated.addEntry(IcapMessageElementEnum.RESHDR,0);
+		encapsulated.addEntry(IcapMessageElementEnum.REQHDR,10);
+		encapsulated.addEntry(IcapMessageElementEnum.RESHDR,20);
+		encapsulated.encode(buffer);
+		assertEquals("encoded encapsulation header was wrong","Encapsulated: req-hdr=10, res-hdr=20\r\n\r\n",buffer.toString(Charset.defaultCharset()));
+	}
 }
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapAdmissionControlTest extends AbstractIcapTest {
+
+	private long time;
+	private IcapConcurrencyLimit limit;
+	
+	@Before
+	public void setUp() {
+		time = 0;
+		limit = new IcapConcurrencyLimit(1,1,10,100,TimeUnit.MILLISECONDS);
+	}
+	
+	@Test
+	public void increaseLimitOnFastTransactions() {
+		for(int i = 0 ; i < 10 ; i++) {
+			assertTrue("transaction not admitted",limit.tryAcquire());
+			limit.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		assertTrue("limit was not increased",limit.getLimit() > 1);
+		assertEquals("transactions still in flight",0,limit.getInFlight());
+	}
+	
+	@Test
+	public void decreaseLimitOnSlowTransactions() {
+		limit = new IcapConcurrencyLimit(10,2,10,100,TimeUnit.MILLISECONDS);
+		for(int i = 0 ; i < 50 ; i++) {
+			assertTrue("transaction not admitted",limit.tryAcquire());
+			limit.onSuccess(TimeUnit.SECONDS.toNanos(1));
+		}
+		assertEquals("limit did not decrease to minimum",2,limit.getLimit());
+	}
+	
+	@Test
+	public void rejectWithServiceUnavailable() throws Exception {
+		EmbeddedChannel first = createChannel(Collections.<String>emptySet());
+		EmbeddedChannel second = createChannel(Collections.<String>emptySet());
+		IcapRequest admitted = DataMockery.createREQMODWithGetRequestNoBodyIcapMessage();
+		first.writeInbound(admitted);
+		assertSame("request was not passed on",admitted,first.readInbound());
+		
+		IcapRequest rejected = DataMockery.createREQMODWithGetRequestNoBodyIcapMessage();
+		second.writeInbound(rejected);
+		assertNull("request was passed on",second.readInbound());
+		assertEquals("request was not released",0,rejected.refCnt());
+		IcapResponse response = decodeResponse(second);
+		assertEquals("wrong status",IcapResponseStatus.SERVICE_UNAVAILABLE,response.getStatus());
+		assertEquals("wrong istag","Serial-0815",response.getHeader(IcapHeaders.Names.ISTAG));
+		
+		time = TimeUnit.MILLISECONDS.toNanos(10);
+		first.writeOutbound(new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.NO_CONTENT));
+		ReferenceCountUtil.release(first.readOutbound());
+		assertEquals("transaction was not completed",0,limit.getInFlight());
+		
+		IcapRequest next = DataMockery.createREQMODWithGetRequestNoBodyIcapMessage();
+		second.writeInbound(next);
+		assertSame("request was not admitted",next,second.readInbound());
+		ReferenceCountUtil.release(admitted);
+		ReferenceCountUtil.release(next);
+	}
+	
+	@Test
+	public void bypassConfiguredService() throws Exception {
+		createChannel(Collections.<String>emptySet()).writeInbound(DataMockery.createREQMODWithGetRequestNoBodyIcapMessage());
+		EmbeddedChannel channel = createChannel(Collections.singleton("reqmod"));
+		IcapRequest request = DataMockery.createREQMODWithGetRequestNoBodyIcapMessage();
+		request.setBody(IcapMessageElementEnum.REQBODY);
+		request.addHeader(IcapHeaders.Names.PREVIEW,"4");
+		channel.writeInbound(request);
+		channel.writeInbound(new DefaultIcapChunk(Unpooled.copiedBuffer("data",IcapCodecUtil.ASCII_CHARSET)));
+		channel.writeInbound(new DefaultIcapChunkTrailer(true,false));
+		assertNull("body was passed on",channel.readInbound());
+		assertEquals("wrong status",IcapResponseStatus.NO_CONTENT,decodeResponse(channel).getStatus());
+	}
+	
+	@Test
+	public void shareResponsesBetweenChannels() {
+		createChannel(Collections.<String>emptySet()).writeInbound(DataMockery.createREQMODWithGetRequestNoBodyIcapMessage());
+		EmbeddedChannel first = createChannel(Collections.<String>emptySet());
+		first.writeInbound(DataMockery.createREQMODWithGetRequestNoBodyIcapMessage());
+		assertEquals("wrong status",IcapResponseStatus.SERVICE_UNAVAILABLE,decodeResponse(first).getStatus());
+		first.finishAndReleaseAll();
+		
+		EmbeddedChannel second = createChannel(Collections.<String>emptySet());
+		second.writeInbound(DataMockery.createREQMODWithGetRequestNoBodyIcapMessage());
+		IcapResponse response = decodeResponse(second);
+		assertEquals("wrong status",IcapResponseStatus.SERVICE_UNAVAILABLE,response.getStatus());
+		assertEquals("wrong istag","Serial-0815",response.getHeader(IcapHeaders.Names.ISTAG));
+	}
+	
+	@Test
+	public void passOptionsRequests() {
+		createChannel(Collections.<String>emptySet()).writeInbound(DataMockery.createREQMODWithGetRequestNoBodyIcapMessage());
+		EmbeddedChannel channel = createChannel(Collections.<String>emptySet());
+		IcapRequest options = DataMockery.createOPTIONSIcapRequest();
+		channel.writeInbound(options);
+		assertSame("options request was rejected",options,channel.readInbound());
+		ReferenceCountUtil.release(options);
+	}
+	
+	private EmbeddedChannel createChannel(Set<String> bypassServices) {
+		return new EmbeddedChannel(new IcapResponseEncoder(),new IcapAdmissionControlHandler(limit,"Serial-0815",bypassServices) {
+			@Override
+			long nanoTime() {
+				return time;
+			}
+		});
+	}
+	
+	private IcapResponse decodeResponse(EmbeddedChannel channel) {
+		ByteBuf encoded = (ByteBuf)channel.readOutbound();
+		assertNotNull("no response written",encoded);
+		EmbeddedChannel decoder = new EmbeddedChannel(new IcapResponseDecoder());
+		decoder.writeInbound(encoded);
+		IcapResponse response = (IcapResponse)decoder.readInbound();
+		assertNotNull("response could not be decoded",response);
+		return response;
+	}
+	
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+public class IcapBodyDigestHandlerTest extends AbstractIcapTest {
+
+	private static final byte[] BODY = "This is the body of the encapsulated HTTP response, split into several chunks.".getBytes();
+	
+	@Test
+	public void digestChunksOfDifferentBufferTypes() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapBodyDigestHandler(IcapBodyDigestHandler.MD5,IcapBodyDigestHandler.SHA1,IcapBodyDigestHandler.SHA256));
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		channel.writeInbound(request);
+		ByteBuf heap = Unpooled.wrappedBuffer(BODY,0,10);
+		ByteBuf direct = Unpooled.directBuffer().writeBytes(BODY,10,20);
+		CompositeByteBuf composite = Unpooled.compositeBuffer();
+		composite.addComponent(true,Unpooled.wrappedBuffer(BODY,30,5));
+		composite.addComponent(true,Unpooled.directBuffer().writeBytes(BODY,35,BODY.length - 35));
+		channel.writeInbound(new DefaultIcapChunk(heap));
+		channel.writeInbound(new DefaultIcapChunk(direct));
+		channel.writeInbound(new DefaultIcapChunk(composite));
+		assertNull("digest attached before the end of the body",IcapBodyDigestHandler.getBodyDigest(request));
+		IcapChunkTrailer trailer = new DefaultIcapChunkTrailer();
+		channel.writeInbound(trailer);
+		
+		IcapBodyDigest digest = IcapBodyDigestHandler.getBodyDigest(request);
+		assertNotNull("digest was not attached to the message",digest);
+		assertSame("digest was not attached to the trailer",digest,IcapBodyDigestHandler.getBodyDigest(trailer));
+		assertEquals("wrong length",BODY.length,digest.getLength());
+		for(String algorithm : new String[]{"MD5","SHA-1","SHA-256"}) {
+			assertEquals("wrong " + algorithm + " digest",expected(algorithm,BODY),digest.getHexDigest(algorithm));
+		}
+		channel.readInbound();
+		IcapChunk chunk = channel.readInbound();
+		assertEquals("reader index of the chunk was changed",10,chunk.content().readableBytes());
+		chunk.release();
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void digestAcrossPreviewAndContinuation() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapBodyDigestHandler());
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		channel.writeInbound(request);
+		DefaultIcapChunk preview = new DefaultIcapChunk(Unpooled.wrappedBuffer(BODY,0,8));
+		preview.setPreviewChunk(true);
+		channel.writeInbound(preview);
+		channel.writeInbound(new DefaultIcapChunkTrailer(true,false));
+		assertNull("digest attached at the end of the preview",IcapBodyDigestHandler.getBodyDigest(request));
+		channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer(BODY,8,BODY.length - 8)));
+		channel.writeInbound(new DefaultIcapChunk(Unpooled.EMPTY_BUFFER));
+		assertEquals("wrong digest",expected("SHA-256",BODY),IcapBodyDigestHandler.getBodyDigest(request).getHexDigest("SHA-256"));
+		assertNull("unexpected algorithm",IcapBodyDigestHandler.getBodyDigest(request).getDigest("MD5"));
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void digestBeforeAggregation() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapBodyDigestHandler(IcapBodyDigestHandler.MD5),new IcapChunkAggregator(4096));
+		channel.writeInbound(DataMockery.createRESPMODWithStreamedBodyIcapRequest());
+		channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer(BODY)));
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		IcapRequest request = channel.readInbound();
+		assertEquals("wrong digest",expected("MD5",BODY),IcapBodyDigestHandler.getBodyDigest(request).getHexDigest("MD5"));
+		request.release();
+	}
+	
+	@Test
+	public void digestAggregatedMessage() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapBodyDigestHandler(IcapBodyDigestHandler.SHA1));
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		request.setHttpResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK,Unpooled.wrappedBuffer(BODY)));
+		channel.writeInbound(request);
+		assertEquals("wrong digest",expected("SHA-1",BODY),IcapBodyDigestHandler.getBodyDigest(request).getHexDigest("SHA-1"));
+		assertEquals("reader index of the body was changed",BODY.length,request.getHttpResponse().content().readableBytes());
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void ignoreMessageWithoutBody() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapBodyDigestHandler());
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		request.setBody(null);
+		channel.writeInbound(request);
+		IcapChunkTrailer trailer = new DefaultIcapChunkTrailer();
+		channel.writeInbound(trailer);
+		assertNull("unexpected digest",IcapBodyDigestHandler.getBodyDigest(request));
+		assertNull("unexpected digest",IcapBodyDigestHandler.getBodyDigest(trailer));
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void rejectUnknownAlgorithm() {
+		boolean exception = false;
+		try {
+			new IcapBodyDigestHandler("SHA-0815");
+		} catch(IllegalArgumentException e) {
+			exception = true;
+		}
+		assertTrue("unknown algorithm was accepted",exception);
+	}
+	
+	private static String expected(String algorithm, byte[] body) throws Exception {
+		return ByteBufUtil.hexDump(MessageDigest.getInstance(algorithm).digest(body));
+	}
+}
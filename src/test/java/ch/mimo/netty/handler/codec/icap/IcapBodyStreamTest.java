@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class IcapBodyStreamTest extends AbstractIcapTest {
+
+	@Test
+	public void writeChunksAsTheyArrive() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(1024),new ChunkedWriteHandler());
+		IcapBodyStream body = new IcapBodyStream(channel,1024);
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		channel.write(request);
+		channel.writeAndFlush(body);
+		assertSame("message was not written",request,channel.readOutbound());
+		assertNull("unexpected chunk",channel.readOutbound());
+		
+		assertTrue("producer was paused",body.write(buffer("first part, ")));
+		channel.runPendingTasks();
+		IcapChunk chunk = channel.readOutbound();
+		assertEquals("wrong chunk","first part, ",chunk.content().toString(IcapCodecUtil.ASCII_CHARSET));
+		chunk.release();
+		
+		body.write(buffer("second part"));
+		body.write(Unpooled.EMPTY_BUFFER);
+		body.end();
+		channel.runPendingTasks();
+		assertEquals("wrong body","second part",IcapChunkedInputTest.readBody(channel,1024));
+		assertEquals("wrong progress",23,body.progress());
+		request.getHttpResponse().release();
+		
+		boolean exception = false;
+		try {
+			body.write(buffer("too late"));
+		} catch(IllegalStateException e) {
+			exception = true;
+		}
+		assertTrue("write after the end was accepted",exception);
+	}
+	
+	@Test
+	public void pauseProducerWhileChannelIsNotWritable() throws Exception {
+		final AtomicBoolean blocked = new AtomicBoolean(true);
+		EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+			@Override
+			public void flush(ChannelHandlerContext ctx) throws Exception {
+				if(!blocked.get()) {
+					ctx.flush();
+				}
+			}
+		},new IcapChunkSeparator(1024),new ChunkedWriteHandler());
+		channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1,2));
+		IcapBodyStream body = new IcapBodyStream(channel,10);
+		final AtomicInteger resumed = new AtomicInteger();
+		body.setResumeListener(new Runnable() {
+			@Override
+			public void run() {
+				resumed.incrementAndGet();
+			}
+		});
+		channel.writeAndFlush(DataMockery.createRESPMODWithStreamedBodyIcapRequest());
+		channel.write(body);
+		assertFalse("channel is writable",channel.isWritable());
+		
+		assertTrue("producer was paused",body.write(buffer("0123456789")));
+		assertFalse("producer was not paused",body.write(buffer("abc")));
+		channel.runPendingTasks();
+		assertEquals("chunks were written to a channel that is not writable",13,body.getPendingBytes());
+		assertEquals("producer was resumed",0,resumed.get());
+		
+		blocked.set(false);
+		channel.flush();
+		assertTrue("channel is not writable",channel.isWritable());
+		channel.pipeline().get(ChunkedWriteHandler.class).resumeTransfer();
+		channel.runPendingTasks();
+		assertEquals("pending bytes were not written",0,body.getPendingBytes());
+		assertEquals("producer was not resumed",1,resumed.get());
+		body.end();
+		channel.runPendingTasks();
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void releasePendingBuffersOnClose() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler());
+		IcapBodyStream body = new IcapBodyStream(channel,1024);
+		ByteBuf content = buffer("pending");
+		body.write(content);
+		body.close();
+		assertEquals("pending buffer was not released",0,content.refCnt());
+		ByteBuf late = buffer("late");
+		boolean exception = false;
+		try {
+			body.write(late);
+		} catch(IllegalStateException e) {
+			exception = true;
+		}
+		assertTrue("closed stream accepts data",exception);
+		assertEquals("late buffer was not released",0,late.refCnt());
+	}
+	
+	private static ByteBuf buffer(String value) {
+		return Unpooled.wrappedBuffer(value.getBytes(IcapCodecUtil.ASCII_CHARSET));
+	}
+}
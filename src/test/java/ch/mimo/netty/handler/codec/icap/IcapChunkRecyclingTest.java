@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.io.UnsupportedEncodingException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapChunkRecyclingTest extends AbstractIcapTest {
+
+	private EmbeddedChannel embeddedChannel;
+	
+	@Before
+	public void setUp() {
+		IcapRequestDecoder decoder = new IcapRequestDecoder();
+		assertFalse("recycling is enabled by default",decoder.isRecycleChunks());
+		decoder.setRecycleChunks(true);
+		embeddedChannel = new EmbeddedChannel(decoder);
+	}
+	
+	@After
+	public void tearDown() {
+		embeddedChannel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void testDecodeRecycledChunks() throws UnsupportedEncodingException {
+		embeddedChannel.writeInbound(DataMockery.createREQMODWithTwoChunkBody());
+		IcapRequest request = (IcapRequest)embeddedChannel.readInbound();
+		DataMockery.assertCreateREQMODWithTwoChunkBody(request);
+		IcapChunk first = (IcapChunk)embeddedChannel.readInbound();
+		assertTrue("chunk is not pooled",first instanceof RecyclableIcapChunk);
+		DataMockery.assertCreateREQMODWithTwoChunkBodyFirstChunk(first);
+		IcapChunk second = (IcapChunk)embeddedChannel.readInbound();
+		DataMockery.assertCreateREQMODWithTwoChunkBodySecondChunk(second);
+		IcapChunk trailer = (IcapChunk)embeddedChannel.readInbound();
+		assertTrue("trailer is not pooled",trailer instanceof RecyclableIcapChunkTrailer);
+		DataMockery.assertCreateREQMODWithTwoChunkBodyThirdChunk(trailer);
+		request.release();
+		assertTrue("chunk was not released",first.release());
+		assertTrue("chunk was not released",second.release());
+		assertTrue("trailer was not released",trailer.release());
+	}
+	
+	@Test
+	public void testDecodeRecycledTrailingHeaders() throws UnsupportedEncodingException {
+		for(int i = 0 ; i < 32 ; i++) {
+			embeddedChannel.writeInbound(DataMockery.createREQMODWithTwoChunkBodyAndTrailingHeaders());
+			((IcapRequest)embeddedChannel.readInbound()).release();
+			((IcapChunk)embeddedChannel.readInbound()).release();
+			((IcapChunk)embeddedChannel.readInbound()).release();
+			IcapChunkTrailer trailer = (IcapChunkTrailer)embeddedChannel.readInbound();
+			DataMockery.assertCreateREQMODWithTwoChunkBodyTrailingHeaderChunk(trailer);
+			trailer.release();
+		}
+	}
+	
+	@Test
+	public void testChunksAreReused() throws UnsupportedEncodingException {
+		Map<Object,Object> instances = new IdentityHashMap<Object,Object>();
+		int chunks = 0;
+		for(int i = 0 ; i < 64 ; i++) {
+			embeddedChannel.writeInbound(DataMockery.createREQMODWithTwoChunkBody());
+			((IcapRequest)embeddedChannel.readInbound()).release();
+			for(int j = 0 ; j < 2 ; j++) {
+				IcapChunk chunk = (IcapChunk)embeddedChannel.readInbound();
+				assertFalse("recycled chunk is last",chunk.isLast());
+				assertFalse("recycled chunk kept preview flag",chunk.isPreviewChunk());
+				instances.put(chunk,chunk);
+				chunks++;
+				chunk.release();
+			}
+			IcapChunkTrailer trailer = (IcapChunkTrailer)embeddedChannel.readInbound();
+			assertTrue("recycled trailer kept headers",trailer.trailingHeaders().isEmpty());
+			trailer.release();
+		}
+		assertTrue("chunks were not reused [" + instances.size() + "]",instances.size() < chunks / 2);
+	}
+	
+	@Test
+	public void testLastIsFixedAtDecoding() throws UnsupportedEncodingException {
+		embeddedChannel.writeInbound(DataMockery.createREQMODWithTwoChunkBody());
+		((IcapRequest)embeddedChannel.readInbound()).release();
+		IcapChunk chunk = (IcapChunk)embeddedChannel.readInbound();
+		chunk.content().skipBytes(chunk.content().readableBytes());
+		assertFalse("consumed chunk is last",chunk.isLast());
+		assertTrue("wrong name",chunk.touch("hint").toString().startsWith("RecyclableIcapChunk:"));
+		chunk.release();
+		assertFalse("released chunk is last",chunk.isLast());
+		((IcapChunk)embeddedChannel.readInbound()).release();
+		IcapChunkTrailer trailer = (IcapChunkTrailer)embeddedChannel.readInbound();
+		assertTrue("wrong name",trailer.touch("hint").toString().startsWith("RecyclableIcapChunkTrailer:"));
+		trailer.release();
+	}
+	
+	@Test
+	public void testDerivedChunksAreNotPooled() throws UnsupportedEncodingException {
+		embeddedChannel.writeInbound(DataMockery.createREQMODWithPreview());
+		((IcapRequest)embeddedChannel.readInbound()).release();
+		IcapChunk chunk = (IcapChunk)embeddedChannel.readInbound();
+		IcapChunk copy = (IcapChunk)chunk.copy();
+		assertTrue("copy is pooled",copy instanceof DefaultIcapChunk);
+		assertEquals("copy lost preview flag",chunk.isPreviewChunk(),copy.isPreviewChunk());
+		assertEquals("copy has different content",chunk.content(),copy.content());
+		chunk.release();
+		copy.release();
+		IcapChunkTrailer trailer = (IcapChunkTrailer)embeddedChannel.readInbound();
+		IcapChunkTrailer trailerCopy = (IcapChunkTrailer)trailer.copy();
+		assertTrue("trailer copy is pooled",trailerCopy instanceof DefaultIcapChunkTrailer);
+		assertEquals("trailer copy lost preview flag",trailer.isPreviewChunk(),trailerCopy.isPreviewChunk());
+		trailer.release();
+	}
+}
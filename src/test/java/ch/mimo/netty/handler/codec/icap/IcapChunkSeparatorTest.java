@@ -17,7 +17,14 @@
 package ch.mimo.netty.handler.codec.icap;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
 
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.ReferenceCountUtil;
 import org.junit.Before;
@@ -214,7 +221,59 @@ public class IcapChunkSeparatorTest extends AbstractIcapTest {
 		assertNotNull("chunk trailer was null",trailer);
 	}
 
+	@Test
+	public void completeWritePromiseWithTrailer() {
+		HoldingWriteHandler holder = new HoldingWriteHandler();
+		embeddedChannel = new EmbeddedChannel(holder,new IcapChunkSeparator(20));
+		ChannelFuture future = embeddedChannel.writeAndFlush(DataMockery.createREQMODWithGetRequestAndDataIcapMessage());
+		assertEquals("wrong amount of writes",5,holder.messages.size());
+		assertTrue("last write is not the trailer",holder.messages.get(4) instanceof IcapChunkTrailer);
+		for(int i = 0 ; i < 4 ; i++) {
+			holder.promises.get(i).setSuccess();
+		}
+		assertFalse("promise completed before the body was written",future.isDone());
+		holder.promises.get(4).setSuccess();
+		assertTrue("promise did not complete with the trailer",future.isSuccess());
+		holder.release();
+	}
+	
+	@Test
+	public void doNotFlushStreamedChunks() {
+		HoldingWriteHandler holder = new HoldingWriteHandler();
+		embeddedChannel = new EmbeddedChannel(holder,new IcapChunkSeparator(20));
+		embeddedChannel.write(new DefaultIcapChunk(Unpooled.copiedBuffer("data",IcapCodecUtil.ASCII_CHARSET)));
+		assertEquals("chunk was not written",1,holder.messages.size());
+		assertEquals("chunk was flushed",0,holder.flushes);
+		embeddedChannel.flush();
+		assertEquals("flush was not passed on",1,holder.flushes);
+		holder.release();
+	}
+
 	private <T> T readOutbound() {
 		return ReferenceCountUtil.releaseLater((T) embeddedChannel.readOutbound());
 	}
+
+	private static final class HoldingWriteHandler extends ChannelOutboundHandlerAdapter {
+		
+		private final List<Object> messages = new ArrayList<Object>();
+		private final List<ChannelPromise> promises = new ArrayList<ChannelPromise>();
+		private int flushes;
+		
+		@Override
+		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+			messages.add(msg);
+			promises.add(promise);
+		}
+		
+		@Override
+		public void flush(ChannelHandlerContext ctx) throws Exception {
+			flushes++;
+		}
+		
+		private void release() {
+			for(Object msg : messages) {
+				ReferenceCountUtil.release(msg);
+			}
+		}
+	}
 }
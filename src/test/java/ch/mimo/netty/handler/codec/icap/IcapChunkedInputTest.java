@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class IcapChunkedInputTest extends AbstractIcapTest {
+
+	private static final String BODY = "A body that is streamed from a source instead of being held in memory.";
+	
+	@Test
+	public void streamBodyFromInputStream() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(1024),new ChunkedWriteHandler());
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		channel.write(request);
+		channel.writeAndFlush(IcapChunkedInput.fromStream(new ByteArrayInputStream(BODY.getBytes()),16));
+		IcapMessage message = channel.readOutbound();
+		assertSame("message was not written",request,message);
+		assertEquals("wrong body type",IcapMessageElementEnum.RESBODY,message.getBodyType());
+		assertEquals("wrong body",BODY,readBody(channel,16));
+		message.getHttpResponse().release();
+	}
+	
+	@Test
+	public void completeWriteAndCloseInput() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(1024),new ChunkedWriteHandler());
+		final AtomicBoolean closed = new AtomicBoolean();
+		InputStream stream = new ByteArrayInputStream(BODY.getBytes()) {
+			@Override
+			public void close() throws IOException {
+				closed.set(true);
+				super.close();
+			}
+		};
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		ChannelFuture messageFuture = channel.write(request);
+		ChannelFuture bodyFuture = channel.writeAndFlush(IcapChunkedInput.fromStream(stream,16));
+		assertTrue("message write did not complete",messageFuture.isSuccess());
+		assertTrue("body write did not complete",bodyFuture.isSuccess());
+		assertTrue("input was not closed",closed.get());
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void streamBodyFromFile() throws Exception {
+		File file = File.createTempFile("icap-chunked-input",".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(BODY.getBytes());
+			out.close();
+			EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(1024,1024),new ChunkedWriteHandler());
+			IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+			channel.write(request);
+			IcapChunkedInput input = IcapChunkedInput.fromFile(file,32);
+			assertEquals("wrong length",BODY.length(),input.length());
+			channel.writeAndFlush(input);
+			IcapMessage message = channel.readOutbound();
+			assertEquals("wrong body",BODY,readBody(channel,32));
+			IcapClientTransaction transaction = IcapClientTransaction.current(channel);
+			assertNotNull("streamed body was not retained",transaction);
+			assertEquals("wrong retained length",BODY.length(),transaction.getLength());
+			assertEquals("wrong progress",BODY.length(),input.progress());
+			message.getHttpResponse().release();
+			channel.finishAndReleaseAll();
+		} finally {
+			assertTrue("file was not deleted",file.delete());
+		}
+	}
+	
+	@Test
+	public void encodeAndDecodeStreamedBody() throws Exception {
+		EmbeddedChannel client = new EmbeddedChannel(new IcapRequestEncoder(),new IcapChunkSeparator(1024),new ChunkedWriteHandler());
+		client.write(DataMockery.createRESPMODWithStreamedBodyIcapRequest());
+		client.writeAndFlush(IcapChunkedInput.fromStream(new ByteArrayInputStream(BODY.getBytes()),20));
+		EmbeddedChannel server = new EmbeddedChannel(new IcapRequestDecoder(),new IcapChunkAggregator(4096));
+		ByteBuf buffer;
+		while((buffer = client.readOutbound()) != null) {
+			server.writeInbound(buffer);
+		}
+		IcapRequest request = server.readInbound();
+		assertNotNull("request was not decoded",request);
+		assertEquals("wrong body",BODY,request.getHttpResponse().content().toString(IcapCodecUtil.ASCII_CHARSET));
+		request.getHttpResponse().release();
+	}
+	
+	static String readBody(EmbeddedChannel channel, int chunkSize) {
+		StringBuilder body = new StringBuilder();
+		boolean trailer = false;
+		Object msg;
+		while((msg = channel.readOutbound()) != null) {
+			assertFalse("chunk after the trailer",trailer);
+			IcapChunk chunk = (IcapChunk)msg;
+			assertTrue("chunk exceeds the chunk size",chunk.content().readableBytes() <= chunkSize);
+			body.append(chunk.content().toString(IcapCodecUtil.ASCII_CHARSET));
+			trailer = chunk instanceof IcapChunkTrailer;
+			ReferenceCountUtil.release(msg);
+		}
+		assertTrue("trailer is missing",trailer);
+		return body.toString();
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+
+import org.junit.Test;
+
+public class IcapClientTransactionTest extends AbstractIcapTest {
+
+	@Test
+	public void retainBodyInMemory() throws Exception {
+		IcapClientTransaction transaction = new IcapClientTransaction(ByteBufAllocator.DEFAULT,100);
+		ByteBuf first = buffer("first ");
+		ByteBuf second = buffer("second");
+		transaction.append(first);
+		transaction.append(second);
+		assertFalse("body was spilled",transaction.isSpilled());
+		assertEquals("wrong length",12,transaction.getLength());
+		assertEquals("buffer was not retained",2,first.refCnt());
+		assertEquals("reader index was changed",0,first.readerIndex());
+		assertEquals("wrong content","st sec",read(transaction,3,6));
+		transaction.release();
+		assertTrue("transaction was not released",transaction.isReleased());
+		assertEquals("buffer was not released",1,first.refCnt());
+		assertEquals("buffer was not released",1,second.refCnt());
+	}
+	
+	@Test
+	public void spillBodyBeyondThreshold() throws Exception {
+		IcapClientTransaction transaction = new IcapClientTransaction(ByteBufAllocator.DEFAULT,8);
+		ByteBuf first = buffer("0123456");
+		transaction.append(first);
+		assertFalse("body was spilled",transaction.isSpilled());
+		transaction.append(buffer("789abc"));
+		assertTrue("body was not spilled",transaction.isSpilled());
+		assertEquals("memory was not released",1,first.refCnt());
+		ByteBuf direct = Unpooled.directBuffer().writeBytes("defghij".getBytes());
+		direct.readerIndex(1);
+		transaction.append(direct);
+		assertEquals("wrong length",19,transaction.getLength());
+		assertEquals("wrong content","0123456789abcefghij",read(transaction,0,19));
+		assertEquals("wrong content","bcef",read(transaction,11,4));
+		transaction.release();
+		boolean exception = false;
+		try {
+			transaction.readSlice(0,1);
+		} catch(IllegalStateException e) {
+			exception = true;
+		}
+		assertTrue("released transaction was read",exception);
+	}
+	
+	@Test
+	public void rejectReadBeyondBody() throws Exception {
+		IcapClientTransaction transaction = new IcapClientTransaction(ByteBufAllocator.DEFAULT,100);
+		transaction.append(buffer("abc"));
+		boolean exception = false;
+		try {
+			transaction.readSlice(2,2);
+		} catch(IndexOutOfBoundsException e) {
+			exception = true;
+		}
+		assertTrue("read beyond the body was accepted",exception);
+		transaction.release();
+	}
+	
+	@Test
+	public void separatorRetainsWrittenBody() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(4,0));
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.REQMOD,"icap://icap.mimo.ch:1344/reqmod","icap-server.net");
+		request.setHttpRequest(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.POST,"/",buffer("form=data")));
+		channel.writeOutbound(request);
+		IcapClientTransaction transaction = IcapClientTransaction.current(channel);
+		assertNotNull("no transaction was started",transaction);
+		assertTrue("body was not spilled",transaction.isSpilled());
+		assertEquals("wrong content","form=data",read(transaction,0,9));
+		
+		channel.writeOutbound(new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.OPTIONS,"icap://icap.mimo.ch:1344/reqmod","icap-server.net"));
+		assertNull("transaction of an OPTIONS request",IcapClientTransaction.current(channel));
+		assertTrue("previous transaction was not released",transaction.isReleased());
+		Object msg;
+		while((msg = channel.readOutbound()) != null) {
+			if(msg instanceof IcapMessage && ((IcapMessage)msg).getHttpRequest() != null) {
+				((IcapMessage)msg).getHttpRequest().release();
+			} else {
+				ReferenceCountUtil.release(msg);
+			}
+		}
+	}
+	
+	@Test
+	public void separatorEndsTransactionOnClose() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(4,0));
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.REQMOD,"icap://icap.mimo.ch:1344/reqmod","icap-server.net");
+		request.setHttpRequest(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.POST,"/",buffer("form=data")));
+		channel.writeOutbound(request);
+		IcapClientTransaction transaction = IcapClientTransaction.current(channel);
+		assertNotNull("no transaction was started",transaction);
+		assertTrue("body was not spilled",transaction.isSpilled());
+		channel.finishAndReleaseAll();
+		assertTrue("transaction was not released",transaction.isReleased());
+		assertNull("transaction was not ended",IcapClientTransaction.current(channel));
+	}
+	
+	private static ByteBuf buffer(String value) {
+		return Unpooled.wrappedBuffer(value.getBytes(IcapCodecUtil.ASCII_CHARSET));
+	}
+	
+	private static String read(IcapClientTransaction transaction, long offset, int amount) throws Exception {
+		ByteBuf slice = transaction.readSlice(offset,amount);
+		try {
+			return slice.toString(IcapCodecUtil.ASCII_CHARSET);
+		} finally {
+			slice.release();
+		}
+	}
+}
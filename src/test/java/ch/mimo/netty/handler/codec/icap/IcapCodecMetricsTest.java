@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapCodecMetricsTest extends AbstractIcapTest {
+
+	private DefaultIcapCodecMetrics metrics;
+	
+	@Before
+	public void setUp() {
+		metrics = new DefaultIcapCodecMetrics();
+	}
+	
+	@Test
+	public void countDecodedRequestWithBody() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapRequestDecoder(4096,8192,8192,8192,metrics));
+		ByteBuf request = DataMockery.createREQMODWithTwoChunkBody();
+		int bytes = request.readableBytes();
+		channel.writeInbound(request);
+		releaseInbound(channel);
+		assertEquals("wrong amount of REQMOD requests",1,metrics.getDecodedRequests(IcapMethod.REQMOD));
+		assertEquals("wrong amount of OPTIONS requests",0,metrics.getDecodedRequests(IcapMethod.OPTIONS));
+		assertEquals("wrong amount of full messages",1,metrics.getFullMessages());
+		assertEquals("wrong amount of preview messages",0,metrics.getPreviewMessages());
+		assertEquals("wrong amount of chunks",3,metrics.getDecodedChunks());
+		assertEquals("wrong amount of decoded bytes",bytes,metrics.getDecodedBytes());
+		assertTrue("header state was not measured",metrics.getStateExecutions(StateEnum.READ_ICAP_HEADER_STATE) > 0);
+		assertTrue("no time was measured",metrics.getStateNanos(StateEnum.READ_ICAP_HEADER_STATE) > 0);
+	}
+	
+	@Test
+	public void countExtensionMethodsInOneCounter() throws Exception {
+		metrics.messageDecoded(new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.valueOf("LOG"),"icap://icap.mimo.ch:1344/log","icap-server.net"));
+		metrics.messageDecoded(new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.valueOf("AUDIT"),"icap://icap.mimo.ch:1344/log","icap-server.net"));
+		metrics.messageDecoded(new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.valueOf("reqmod"),"icap://icap.mimo.ch:1344/reqmod","icap-server.net"));
+		assertEquals("wrong amount of extension requests",2,metrics.getDecodedRequests(IcapMethod.valueOf("OTHER")));
+		assertEquals("wrong amount of REQMOD requests",1,metrics.getDecodedRequests(IcapMethod.REQMOD));
+		assertEquals("wrong amount of RESPMOD requests",0,metrics.getDecodedRequests(IcapMethod.RESPMOD));
+	}
+	
+	@Test
+	public void countEarlyTerminatedPreview() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapRequestDecoder(4096,8192,8192,8192,metrics));
+		channel.writeInbound(DataMockery.createREQMODWithEarlyTerminatedPreview());
+		releaseInbound(channel);
+		assertEquals("wrong amount of preview messages",1,metrics.getPreviewMessages());
+		assertEquals("wrong amount of ieof terminations",1,metrics.getEarlyTerminations());
+	}
+	
+	@Test
+	public void countDecodingErrorsByCause() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapRequestDecoder(10,8192,8192,8192,metrics));
+		try {
+			channel.writeInbound(DataMockery.createOPTIONSRequest());
+			fail("initial line was not too long");
+		} catch(Exception e) {
+			// expected
+		}
+		assertEquals("error was not counted",1,metrics.getDecodingErrors(TooLongFrameException.class));
+	}
+	
+	@Test
+	public void countEncodedResponse() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapResponseEncoder(metrics));
+		channel.writeOutbound(DataMockery.createOPTIONSIcapResponse());
+		ByteBuf encoded = (ByteBuf)channel.readOutbound();
+		assertEquals("wrong amount of OK responses",1,metrics.getEncodedResponses(IcapResponseStatus.OK));
+		assertEquals("wrong amount of encoded bytes",encoded.readableBytes(),metrics.getEncodedBytes());
+		encoded.release();
+	}
+	
+	@Test
+	public void noopMetricsAreDisabled() {
+		assertFalse("noop metrics are enabled",NoopIcapCodecMetrics.INSTANCE.isEnabled());
+	}
+	
+	private void releaseInbound(EmbeddedChannel channel) {
+		Object msg;
+		while((msg = channel.readInbound()) != null) {
+			ReferenceCountUtil.release(msg);
+		}
+	}
+}
@@ -148,4 +148,39 @@ public class IcapCodecUtilTest extends AbstractIcapTest {
 		}
 		assertTrue("no exception was thrown",exception);
 	}
+	
+	@Test
+	public void serviceNameFromUri() {
+		assertEquals("reqmod",IcapCodecUtil.getServiceName("icap://icap.mimo.ch:1344/reqmod?mode=fast"));
+		assertEquals("",IcapCodecUtil.getServiceName("icap://icap.mimo.ch:1344"));
+		assertEquals("respmod",IcapCodecUtil.getServiceName("/respmod"));
+	}
+	
+	@Test
+	public void validateHeaderNameCharacterTable() {
+		String prohibited = "\t\n\u000b\f\r ,:;=";
+		for(char c = 0 ; c < 300 ; c++) {
+			boolean exception = false;
+			try {
+				IcapCodecUtil.validateHeaderName("X-" + c);
+			} catch(IllegalArgumentException iage) {
+				exception = true;
+			}
+			assertEquals("wrong validation for character [" + (int)c + "]",c > 127 || prohibited.indexOf(c) >= 0,exception);
+		}
+	}
+	
+	@Test
+	public void validateHeaderValueCharacterTable() {
+		for(char c = 0 ; c < 300 ; c++) {
+			boolean exception = false;
+			try {
+				IcapCodecUtil.validateHeaderValue("a" + c + "b");
+			} catch(IllegalArgumentException iage) {
+				exception = true;
+			}
+			assertEquals("wrong validation for character [" + (int)c + "]",c == '\r' || c == '\n' || c == 0x0b || c == '\f',exception);
+		}
+		IcapCodecUtil.validateHeaderValue("folded\r\n\tvalue");
+	}
 }
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import org.junit.Test;
+
+public class IcapContentDecompressorTest extends AbstractIcapTest {
+	
+	private static final int WINDOW_SIZE = 1024;
+	
+	@Test
+	public void inflateGzipBodySplitIntoSmallChunks() throws Exception {
+		byte[] body = createBody(20000);
+		byte[] compressed = gzip(body);
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(WINDOW_SIZE,100,false));
+		IcapRequest request = createRequest("gzip",compressed.length);
+		channel.writeInbound(request);
+		writeChunks(channel,compressed,7,false);
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		
+		IcapRequest decodedRequest = channel.readInbound();
+		assertSame("request was not passed on",request,decodedRequest);
+		assertFalse("Content-Encoding was not removed",decodedRequest.getHttpResponse().headers().contains("Content-Encoding"));
+		assertFalse("Content-Length was not removed",decodedRequest.getHttpResponse().headers().contains("Content-Length"));
+		assertArrayEquals(body,readBody(channel));
+		assertFalse("unexpected message",channel.finish());
+	}
+	
+	@Test
+	public void inflateGzipWithOptionalHeaderFields() throws Exception {
+		byte[] body = createBody(5000);
+		byte[] member = gzip(body);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(member,0,3);
+		out.write(0x02 | 0x04 | 0x08 | 0x10);
+		out.write(member,4,6);
+		out.write(new byte[]{3,0,'a','b','c'});
+		out.write("name.txt\0".getBytes("ASCII"));
+		out.write("comment\0".getBytes("ASCII"));
+		out.write(new byte[]{0x12,0x34});
+		out.write(member,10,member.length - 10);
+		byte[] compressed = out.toByteArray();
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(WINDOW_SIZE,100,false));
+		channel.writeInbound(createRequest("x-gzip",-1));
+		writeChunks(channel,compressed,1,false);
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		channel.readInbound();
+		assertArrayEquals(body,readBody(channel));
+	}
+	
+	@Test
+	public void inflateZlibAndRawDeflate() throws Exception {
+		byte[] body = createBody(30000);
+		for(boolean raw : new boolean[]{false,true}) {
+			EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(WINDOW_SIZE,100,false));
+			channel.writeInbound(createRequest("deflate",-1));
+			writeChunks(channel,deflate(body,raw),1000,false);
+			channel.writeInbound(new DefaultIcapChunkTrailer());
+			channel.readInbound();
+			assertArrayEquals(body,readBody(channel));
+		}
+	}
+	
+	@Test
+	public void inflateRawDeflateEndingBeyondFullWindow() throws Exception {
+		int windowSize = IcapContentDecompressor.DEFAULT_WINDOW_SIZE;
+		for(int length = windowSize ; length < windowSize + 256 ; length++) {
+			byte[] body = new byte[length];
+			for(int i = 0 ; i < length ; i++) {
+				body[i] = (byte)('a' + (i / 97) % 5);
+			}
+			byte[] data = deflate(body,true);
+			for(int chunkSize : new int[]{16,data.length}) {
+				EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(windowSize,1000,false));
+				channel.writeInbound(createRequest("deflate",-1));
+				writeChunks(channel,data,chunkSize,false);
+				channel.writeInbound(new DefaultIcapChunkTrailer());
+				channel.readInbound();
+				assertArrayEquals(body,readBody(channel));
+			}
+		}
+	}
+	
+	@Test
+	public void decodedChunksAreBoundedByWindowSize() throws Exception {
+		byte[] body = new byte[50000];
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(WINDOW_SIZE,100,false));
+		channel.writeInbound(createRequest("gzip",-1));
+		writeChunks(channel,gzip(body),100000,false);
+		channel.readInbound();
+		int total = 0;
+		IcapChunk chunk;
+		while((chunk = channel.readInbound()) != null) {
+			assertTrue("chunk exceeds the window size",chunk.content().readableBytes() <= WINDOW_SIZE);
+			total += chunk.content().readableBytes();
+			chunk.release();
+		}
+		assertEquals("wrong amount of decoded bytes",body.length,total);
+	}
+	
+	@Test
+	public void inflateAcrossPreviewAndContinuation() throws Exception {
+		byte[] body = createBody(10000);
+		byte[] compressed = gzip(body);
+		int preview = compressed.length / 2;
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(WINDOW_SIZE,100,false));
+		channel.writeInbound(createRequest("gzip",-1));
+		DefaultIcapChunk previewChunk = new DefaultIcapChunk(Unpooled.wrappedBuffer(compressed,0,preview));
+		previewChunk.setPreviewChunk(true);
+		channel.writeInbound(previewChunk);
+		DefaultIcapChunkTrailer previewEnd = new DefaultIcapChunkTrailer(true,false);
+		channel.writeInbound(previewEnd);
+		channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer(compressed,preview,compressed.length - preview)));
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		channel.readInbound();
+		ByteBuf decoded = Unpooled.buffer();
+		Object msg;
+		while((msg = channel.readInbound()) != null) {
+			decoded.writeBytes(((IcapChunk)msg).content());
+			((IcapChunk)msg).release();
+		}
+		byte[] result = new byte[decoded.readableBytes()];
+		decoded.readBytes(result);
+		assertArrayEquals(body,result);
+	}
+	
+	@Test
+	public void retainOriginalContent() throws Exception {
+		byte[] compressed = gzip(createBody(3000));
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(WINDOW_SIZE,100,true));
+		IcapContentDecompressor decompressor = channel.pipeline().get(IcapContentDecompressor.class);
+		channel.writeInbound(createRequest("gzip",-1));
+		writeChunks(channel,compressed,500,false);
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		assertEquals("wrong content encoding","gzip",decompressor.getContentEncoding());
+		ByteBuf original = decompressor.getOriginalContent();
+		byte[] originalBytes = new byte[original.readableBytes()];
+		original.getBytes(original.readerIndex(),originalBytes);
+		assertArrayEquals(compressed,originalBytes);
+		channel.readInbound();
+		readBody(channel);
+		
+		channel.writeInbound(createRequest(null,-1));
+		assertEquals("original content was not released",0,original.refCnt());
+		assertNull("original content of previous message",decompressor.getOriginalContent());
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void uncompressedBodyIsPassedThrough() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor());
+		channel.writeInbound(createRequest(null,-1));
+		IcapChunk chunk = new DefaultIcapChunk(Unpooled.wrappedBuffer(new byte[]{1,2,3}));
+		channel.writeInbound(chunk);
+		channel.readInbound();
+		assertSame("chunk was not passed through",chunk,channel.readInbound());
+		chunk.release();
+	}
+	
+	@Test
+	public void rejectDecompressionBomb() throws Exception {
+		byte[] compressed = gzip(new byte[10 * 1024 * 1024]);
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor(WINDOW_SIZE,100,false));
+		channel.writeInbound(createRequest("gzip",-1));
+		boolean exception = false;
+		try {
+			writeChunks(channel,compressed,compressed.length,false);
+		} catch(TooLongFrameException e) {
+			exception = true;
+		}
+		assertTrue("decompression bomb was not detected",exception);
+		int total = 0;
+		IcapChunk chunk;
+		channel.readInbound();
+		while((chunk = channel.readInbound()) != null) {
+			total += chunk.content().readableBytes();
+			chunk.release();
+		}
+		assertTrue("too much data was decoded before the bomb was detected [" + total + "]",total <= Math.max(ContentInflater.RATIO_GRACE,compressed.length * 100) + WINDOW_SIZE);
+	}
+	
+	@Test
+	public void rejectInvalidData() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor());
+		channel.writeInbound(createRequest("gzip",-1));
+		boolean exception = false;
+		try {
+			channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer("this is not gzip".getBytes("ASCII"))));
+		} catch(DecompressionException e) {
+			exception = true;
+		}
+		assertTrue("invalid data was not detected",exception);
+		
+		byte[] compressed = gzip(createBody(100));
+		compressed[compressed.length - 5]++;
+		channel.writeInbound(createRequest("gzip",-1));
+		exception = false;
+		try {
+			channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer(compressed)));
+		} catch(DecompressionException e) {
+			exception = true;
+		}
+		assertTrue("wrong CRC was not detected",exception);
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void dropRemainingChunksAfterFailure() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentDecompressor());
+		channel.writeInbound(createRequest("gzip",-1));
+		assertNotNull("request was not passed on",channel.readInbound());
+		boolean exception = false;
+		try {
+			channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer("this is not gzip".getBytes("ASCII"))));
+		} catch(DecompressionException e) {
+			exception = true;
+		}
+		assertTrue("invalid data was not detected",exception);
+		DefaultIcapChunk chunk = new DefaultIcapChunk(Unpooled.wrappedBuffer(gzip(createBody(100))));
+		DefaultIcapChunkTrailer trailer = new DefaultIcapChunkTrailer();
+		channel.writeInbound(chunk);
+		channel.writeInbound(trailer);
+		assertNull("compressed chunk was passed on",channel.readInbound());
+		assertEquals("chunk was not released",0,chunk.refCnt());
+		assertEquals("trailer was not released",0,trailer.refCnt());
+		
+		byte[] body = createBody(100);
+		channel.writeInbound(createRequest("gzip",-1));
+		channel.readInbound();
+		writeChunks(channel,gzip(body),7,false);
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		assertArrayEquals(body,readBody(channel));
+		channel.finishAndReleaseAll();
+	}
+	
+	private IcapRequest createRequest(String contentEncoding, int contentLength) {
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.RESPMOD,"icap://icap.mimo.ch:1344/respmod","icap-server.net");
+		request.setBody(IcapMessageElementEnum.RESBODY);
+		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK);
+		if(contentEncoding != null) {
+			response.headers().add("Content-Encoding",contentEncoding);
+		}
+		if(contentLength >= 0) {
+			response.headers().add("Content-Length",contentLength);
+		}
+		request.setHttpResponse(response);
+		return request;
+	}
+	
+	private void writeChunks(EmbeddedChannel channel, byte[] data, int chunkSize, boolean preview) {
+		for(int offset = 0 ; offset < data.length ; offset += chunkSize) {
+			DefaultIcapChunk chunk = new DefaultIcapChunk(Unpooled.wrappedBuffer(data,offset,Math.min(chunkSize,data.length - offset)));
+			chunk.setPreviewChunk(preview);
+			channel.writeInbound(chunk);
+		}
+	}
+	
+	private byte[] readBody(EmbeddedChannel channel) {
+		ByteBuf body = Unpooled.buffer();
+		Object msg;
+		while((msg = channel.readInbound()) != null) {
+			IcapChunk chunk = (IcapChunk)msg;
+			if(chunk.isLast()) {
+				assertNull("trailer must be the last message",channel.readInbound());
+			}
+			body.writeBytes(chunk.content());
+			chunk.release();
+		}
+		byte[] bytes = new byte[body.readableBytes()];
+		body.readBytes(bytes);
+		return bytes;
+	}
+	
+	private static byte[] createBody(int length) {
+		Random random = new Random(length);
+		byte[] body = new byte[length];
+		for(int i = 0 ; i < length ; i++) {
+			body[i] = (byte)('a' + random.nextInt(8));
+		}
+		return body;
+	}
+	
+	private static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(body);
+		gzip.close();
+		return out.toByteArray();
+	}
+	
+	private static byte[] deflate(byte[] body, boolean raw) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DeflaterOutputStream deflate = new DeflaterOutputStream(out,new Deflater(Deflater.DEFAULT_COMPRESSION,raw));
+		deflate.write(body);
+		deflate.close();
+		return out.toByteArray();
+	}
+	
+	private static void assertArrayEquals(byte[] expected, byte[] actual) {
+		assertEquals("wrong length",expected.length,actual.length);
+		for(int i = 0 ; i < expected.length ; i++) {
+			assertEquals("wrong byte at [" + i + "]",expected[i],actual[i]);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import org.junit.Test;
+
+public class IcapContentTypeSnifferTest extends AbstractIcapTest {
+
+	private static final byte[] PNG = new byte[]{(byte)0x89,'P','N','G',0x0d,0x0a,0x1a,0x0a,0,0,0,0x0d,'I','H','D','R'};
+	
+	@Test
+	public void detectDefaultSignatures() throws Exception {
+		IcapContentTypeSignatures signatures = IcapContentTypeSignatures.DEFAULT;
+		assertEquals("wrong type","image/png",signatures.detect(Unpooled.wrappedBuffer(PNG)));
+		assertEquals("wrong type","application/pdf",signatures.detect(buffer("%PDF-1.7\n")));
+		assertEquals("wrong type","image/webp",signatures.detect(buffer("RIFF\u0010\u0000\u0000\u0000WEBPVP8 ")));
+		assertEquals("wrong type","audio/wav",signatures.detect(buffer("RIFF\u0010\u0000\u0000\u0000WAVEfmt ")));
+		assertEquals("wrong type","video/mp4",signatures.detect(buffer("\u0000\u0000\u0000\u0018ftypmp42")));
+		assertEquals("wrong type","application/x-msdownload",signatures.detect(buffer("MZ\u0090\u0000")));
+		assertNull("unexpected type",signatures.detect(buffer("RIFF\u0010\u0000\u0000\u0000XXXX")));
+		assertNull("unexpected type",signatures.detect(buffer("plain text")));
+		assertNull("unexpected type",signatures.detect(Unpooled.EMPTY_BUFFER));
+	}
+	
+	@Test
+	public void preferLongestSignature() throws Exception {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("50 4B","application/x-pk");
+		map.put("50 4B ?? 04","application/zip");
+		map.put("?? 4B 03 04 14","application/x-office");
+		IcapContentTypeSignatures signatures = IcapContentTypeSignatures.compile(map);
+		assertEquals("wrong max length",5,signatures.getMaxLength());
+		assertEquals("wrong type","application/x-office",signatures.detect(Unpooled.wrappedBuffer(new byte[]{0x50,0x4b,0x03,0x04,0x14})));
+		assertEquals("wrong type","application/zip",signatures.detect(Unpooled.wrappedBuffer(new byte[]{0x50,0x4b,0x07,0x04,0x14})));
+		assertEquals("wrong type","application/x-pk",signatures.detect(Unpooled.wrappedBuffer(new byte[]{0x50,0x4b,0x03})));
+	}
+	
+	@Test
+	public void rejectInvalidSignatures() throws Exception {
+		for(String signature : new String[]{"","50 4","ZZ"}) {
+			Map<String, String> map = new HashMap<String, String>();
+			map.put(signature,"application/x-invalid");
+			boolean exception = false;
+			try {
+				IcapContentTypeSignatures.compile(map);
+			} catch(IllegalArgumentException e) {
+				exception = true;
+			}
+			assertTrue("invalid signature [" + signature + "] was accepted",exception);
+		}
+	}
+	
+	@Test
+	public void detectFromPreviewChunks() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentTypeSniffer());
+		IcapRequest request = createRequest("text/plain");
+		channel.writeInbound(request);
+		channel.writeInbound(previewChunk(PNG,0,4));
+		assertNull("request was passed on before the type was detected",channel.readInbound());
+		channel.writeInbound(previewChunk(PNG,4,12));
+		channel.writeInbound(new DefaultIcapChunkTrailer(true,false));
+		assertSame("request was not passed on",request,channel.readInbound());
+		assertEquals("wrong detected type","image/png",IcapContentTypeSniffer.getDetectedContentType(request));
+		for(int i = 0 ; i < 3 ; i++) {
+			IcapChunk chunk = channel.readInbound();
+			assertNotNull("chunk was not passed on",chunk);
+			chunk.release();
+		}
+		IcapChunk continuation = new DefaultIcapChunk(Unpooled.wrappedBuffer(new byte[]{1,2,3}));
+		channel.writeInbound(continuation);
+		assertSame("continuation chunk was held back",continuation,channel.readInbound());
+		continuation.release();
+		assertFalse("unexpected message",channel.finish());
+	}
+	
+	@Test
+	public void detectOnceEnoughBytesArrived() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentTypeSniffer());
+		IcapRequest request = createRequest(null);
+		channel.writeInbound(request);
+		byte[] body = new byte[IcapContentTypeSignatures.DEFAULT.getMaxLength()];
+		System.arraycopy(PNG,0,body,0,8);
+		channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer(body)));
+		assertSame("request was not passed on",request,channel.readInbound());
+		assertEquals("wrong detected type","image/png",IcapContentTypeSniffer.getDetectedContentType(request));
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void fallBackToDeclaredContentType() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentTypeSniffer());
+		IcapRequest request = createRequest("Text/HTML; charset=UTF-8");
+		channel.writeInbound(request);
+		channel.writeInbound(previewChunk("just text".getBytes("ASCII"),0,9));
+		channel.writeInbound(new DefaultIcapChunkTrailer(true,true));
+		assertSame("request was not passed on",request,channel.readInbound());
+		assertEquals("wrong declared type","text/html",IcapContentTypeSniffer.getDetectedContentType(request));
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void passRequestWithoutBody() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentTypeSniffer());
+		IcapRequest request = createRequest("image/gif");
+		request.setBody(null);
+		channel.writeInbound(request);
+		assertSame("request was held back",request,channel.readInbound());
+		assertEquals("wrong declared type","image/gif",IcapContentTypeSniffer.getDetectedContentType(request));
+	}
+	
+	@Test
+	public void releasePendingMessagesOnClose() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapContentTypeSniffer());
+		channel.writeInbound(createRequest(null));
+		IcapChunk chunk = previewChunk(PNG,0,2);
+		channel.writeInbound(chunk);
+		channel.pipeline().fireChannelInactive();
+		assertEquals("pending chunk was not released",0,chunk.refCnt());
+		assertNull("message was passed on",channel.readInbound());
+	}
+	
+	private IcapRequest createRequest(String contentType) {
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.RESPMOD,"icap://icap.mimo.ch:1344/respmod","icap-server.net");
+		request.setBody(IcapMessageElementEnum.RESBODY);
+		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK);
+		if(contentType != null) {
+			response.headers().add("Content-Type",contentType);
+		}
+		request.setHttpResponse(response);
+		return request;
+	}
+	
+	private IcapChunk previewChunk(byte[] data, int offset, int length) {
+		DefaultIcapChunk chunk = new DefaultIcapChunk(Unpooled.wrappedBuffer(data,offset,length));
+		chunk.setPreviewChunk(true);
+		return chunk;
+	}
+	
+	private static ByteBuf buffer(String value) throws Exception {
+		return Unpooled.wrappedBuffer(value.getBytes("ISO-8859-1"));
+	}
+}
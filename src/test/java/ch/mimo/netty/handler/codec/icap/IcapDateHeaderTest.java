@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+
+public class IcapDateHeaderTest extends AbstractIcapTest {
+
+	@Test
+	public void formatAndParse() {
+		Date date = new Date(784111777000L);
+		assertEquals("wrong format","Sun, 06 Nov 1994 08:49:37 GMT",IcapDateHeader.format(date));
+		assertEquals("wrong date",date,IcapDateHeader.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+		assertEquals("RFC 850 date not parsed",date,IcapDateHeader.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+		assertEquals("asctime date not parsed",date,IcapDateHeader.parse("Sun Nov  6 08:49:37 1994"));
+		assertNull("invalid date was parsed",IcapDateHeader.parse("Sun, 06 Nov"));
+	}
+	
+	@Test
+	public void formatMatchesSimpleDateFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		Random random = new Random(42);
+		long[] dates = new long[]{0L,-1L,951782400000L,951868799000L,4107542399000L,-2208988800000L};
+		for(long date : dates) {
+			assertEquals("wrong format for [" + date + "]",format.format(new Date(date)),IcapDateHeader.format(new Date(date)));
+		}
+		for(int i = 0 ; i < 10000 ; i++) {
+			Date date = new Date((random.nextLong() % 253402300799000L) & Long.MAX_VALUE);
+			assertEquals("wrong format for [" + date.getTime() + "]",format.format(date),IcapDateHeader.format(date));
+		}
+	}
+	
+	@Test
+	public void cachedValueIsReusedWithinOneSecond() {
+		IcapDateHeader.CachedDate first = IcapDateHeader.getCachedDate(784111777000L);
+		assertSame("cached value expected",first,IcapDateHeader.getCachedDate(784111777999L));
+		assertEquals("wrong cached value","Sun, 06 Nov 1994 08:49:37 GMT",first.value);
+		IcapDateHeader.CachedDate next = IcapDateHeader.getCachedDate(784111778000L);
+		assertNotSame("value was not refreshed",first,next);
+		assertEquals("wrong refreshed value","Sun, 06 Nov 1994 08:49:38 GMT",next.value);
+	}
+	
+	@Test
+	public void writeHeader() {
+		ByteBuf buffer = Unpooled.buffer();
+		IcapDateHeader.writeHeader(buffer);
+		String line = buffer.toString(IcapCodecUtil.ASCII_CHARSET);
+		assertTrue("wrong header name",line.startsWith("Date: "));
+		assertTrue("missing CRLF",line.endsWith("\r\n"));
+		assertNotNull("invalid date",IcapDateHeader.parse(line.substring(6,line.length() - 2)));
+	}
+}
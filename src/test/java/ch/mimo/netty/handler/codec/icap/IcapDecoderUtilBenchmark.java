@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Micro benchmark that compares the line scanning of @see {@link IcapDecoderUtil} with the
+ * former byte by byte implementation on a long header block.
+ * 
+ * Not part of the test suite, run the main method with the test classpath.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class IcapDecoderUtilBenchmark {
+
+	private static final int HEADERS = 64;
+	private static final int WARMUP = 20000;
+	private static final int ITERATIONS = 50000;
+	
+	private IcapDecoderUtilBenchmark() {
+	}
+	
+	public static void main(String[] args) throws Exception {
+		ByteBuf block = createHeaderBlock(Unpooled.directBuffer());
+		long sink = 0;
+		for(int round = 0 ; round < 3 ; round++) {
+			for(int i = 0 ; i < WARMUP ; i++) {
+				sink += readLegacy(block) + readCurrent(block);
+			}
+			long start = System.nanoTime();
+			for(int i = 0 ; i < ITERATIONS ; i++) {
+				sink += readLegacy(block);
+			}
+			long legacy = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int i = 0 ; i < ITERATIONS ; i++) {
+				sink += readCurrent(block);
+			}
+			long current = System.nanoTime() - start;
+			System.out.println("header block [" + block.readableBytes() + "] bytes, byte by byte [" + (legacy / ITERATIONS) + "] ns, swar [" + (current / ITERATIONS) + "] ns");
+		}
+		System.out.println(sink);
+		block.release();
+	}
+	
+	private static ByteBuf createHeaderBlock(ByteBuf buffer) {
+		for(int i = 0 ; i < HEADERS ; i++) {
+			buffer.writeBytes(("X-Header-" + i + ": Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0 Safari/537.36").getBytes());
+			buffer.writeBytes(IcapCodecUtil.CRLF);
+		}
+		buffer.writeBytes(IcapCodecUtil.CRLF);
+		return buffer;
+	}
+	
+	private static long readCurrent(ByteBuf block) throws DecodingException {
+		ByteBuf buffer = block.duplicate();
+		SizeDelimiter sizeDelimiter = new SizeDelimiter(Integer.MAX_VALUE);
+		long length = 0;
+		String line;
+		do {
+			line = IcapDecoderUtil.readSingleHeaderLine(buffer,sizeDelimiter);
+			length += line.length();
+		} while(line.length() != 0);
+		return length;
+	}
+	
+	private static long readLegacy(ByteBuf block) throws DecodingException {
+		ByteBuf buffer = block.duplicate();
+		SizeDelimiter sizeDelimiter = new SizeDelimiter(Integer.MAX_VALUE);
+		long length = 0;
+		String line;
+		do {
+			line = readLegacySingleHeaderLine(buffer,sizeDelimiter);
+			length += line.length();
+		} while(line.length() != 0);
+		return length;
+	}
+	
+	private static String readLegacySingleHeaderLine(ByteBuf buffer, SizeDelimiter sizeDelimiter) throws DecodingException {
+		StringBuilder sb = new StringBuilder(64);
+		loop: for (;;) {
+			char nextByte = (char) buffer.readByte();
+			sizeDelimiter.increment();
+			if(nextByte == IcapCodecUtil.CR) {
+				nextByte = (char) buffer.readByte();
+				sizeDelimiter.increment();
+				if (nextByte == IcapCodecUtil.LF) {
+					break loop;
+				}
+			} else if(nextByte == IcapCodecUtil.LF) {
+				break loop;
+			}
+			sb.append(nextByte);
+		}
+		return sb.toString();
+	}
+}
@@ -420,4 +420,69 @@ public class IcapDecoderUtilTest extends Assert {
 		Map<String, String> extensions = IcapDecoderUtil.getExtensions(line);
 		assertEquals("extensions present", Collections.emptyMap(), extensions);
 	}
+	
+	@Test
+	public void testFindLineFeedAtEveryPosition() {
+		for(int length = 1 ; length < 40 ; length++) {
+			for(int position = 0 ; position < length ; position++) {
+				byte[] data = new byte[length];
+				for(int i = 0 ; i < length ; i++) {
+					data[i] = (byte)(i % 2 == 0?0x8A:0x0B);
+				}
+				data[position] = IcapCodecUtil.LF;
+				if(position + 1 < length) {
+					data[position + 1] = IcapCodecUtil.LF;
+				}
+				ByteBuf buffer = Unpooled.wrappedBuffer(data);
+				assertEquals("wrong line feed position",position,IcapDecoderUtil.findLineFeed(buffer,0,length));
+			}
+			ByteBuf buffer = Unpooled.wrappedBuffer(new byte[length]);
+			assertEquals("line feed found",-1,IcapDecoderUtil.findLineFeed(buffer,0,length));
+		}
+	}
+	
+	@Test
+	public void testReadLineDecodesLatin1() throws DecodingException {
+		ByteBuf buffer = Unpooled.directBuffer();
+		buffer.writeBytes(new byte[]{'c','a','f',(byte)0xE9,IcapCodecUtil.CR,IcapCodecUtil.LF});
+		assertEquals("wrong line","caf\u00E9",IcapDecoderUtil.readLine(buffer,100));
+		assertFalse("line was not consumed",buffer.isReadable());
+		buffer.release();
+	}
+	
+	@Test
+	public void testReadIncompleteLine() throws DecodingException {
+		ByteBuf buffer = Unpooled.buffer(64).writeBytes("REQMOD icap://icap.mimo.ch".getBytes());
+		boolean exception = false;
+		try {
+			IcapDecoderUtil.readLine(buffer,100);
+		} catch(IndexOutOfBoundsException e) {
+			exception = true;
+		}
+		assertTrue("incomplete line was read",exception);
+		assertEquals("reader index was moved",0,buffer.readerIndex());
+	}
+	
+	@Test
+	public void testReadLineOfMaximumLength() throws DecodingException {
+		ByteBuf buffer = Unpooled.copiedBuffer("0123456789\r\n0123456789A\r\n".getBytes());
+		assertEquals("wrong line","0123456789",IcapDecoderUtil.readLine(buffer,10));
+		boolean exception = false;
+		try {
+			IcapDecoderUtil.readLine(buffer,10);
+		} catch(DecodingException e) {
+			exception = true;
+		}
+		assertTrue("No maximum length reached exception was thrown!",exception);
+	}
+	
+	@Test
+	public void testReadHeaderLineWithinLimit() throws DecodingException {
+		ByteBuf buffer = Unpooled.copiedBuffer("Host: icap.mimo.ch\r\n\r\n".getBytes());
+		SizeDelimiter sizeDelimiter = new SizeDelimiter(23);
+		assertEquals("Host header was expected","Host: icap.mimo.ch",IcapDecoderUtil.readSingleHeaderLine(buffer,sizeDelimiter));
+		assertEquals("wrong header size",20,sizeDelimiter.getSize());
+		assertEquals("end of headers expected","",IcapDecoderUtil.readSingleHeaderLine(buffer,sizeDelimiter));
+		assertEquals("wrong header size",22,sizeDelimiter.getSize());
+	}
 }
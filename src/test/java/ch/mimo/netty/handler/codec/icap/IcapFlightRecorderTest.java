@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapFlightRecorderTest extends AbstractIcapTest {
+
+	@Before
+	public void assumeFlightRecorder() {
+		Assume.assumeTrue(IcapFlightRecorder.AVAILABLE);
+	}
+	
+	@Test
+	public void recordCodecEvents() throws Exception {
+		Recording recording = new Recording();
+		recording.enable("ch.mimo.netty.icap.MessageDecoded");
+		recording.enable("ch.mimo.netty.icap.MessageAggregated");
+		recording.enable("ch.mimo.netty.icap.MessageEncoded");
+		recording.enable("ch.mimo.netty.icap.DecodingFailed");
+		recording.start();
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapRequestDecoder(),new IcapChunkAggregator(4096));
+		channel.writeInbound(DataMockery.createREQMODWithTwoChunkBody());
+		ReferenceCountUtil.release(channel.readInbound());
+		
+		EmbeddedChannel encoder = new EmbeddedChannel(new IcapResponseEncoder());
+		encoder.writeOutbound(DataMockery.createOPTIONSIcapResponse());
+		ByteBuf encoded = encoder.readOutbound();
+		long bytesWritten = encoded.readableBytes();
+		encoded.release();
+		
+		EmbeddedChannel failing = new EmbeddedChannel(new IcapRequestDecoder(10,8192,8192,8192));
+		try {
+			failing.writeInbound(DataMockery.createOPTIONSRequest());
+		} catch(Exception e) {
+			// expected
+		}
+		
+		recording.stop();
+		File file = File.createTempFile("netty-icap",".jfr");
+		try {
+			recording.dump(file.toPath());
+			recording.close();
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+			RecordedEvent decoded = single(events,"ch.mimo.netty.icap.MessageDecoded");
+			assertEquals("wrong method","REQMOD",decoded.getString("method"));
+			assertEquals("wrong uri","icap://icap.mimo.ch:1344/reqmod",decoded.getString("uri"));
+			assertEquals("wrong body size",109L,decoded.getLong("bodySize"));
+			assertEquals("wrong aggregated size",109L,single(events,"ch.mimo.netty.icap.MessageAggregated").getLong("bodySize"));
+			RecordedEvent encodedEvent = single(events,"ch.mimo.netty.icap.MessageEncoded");
+			assertEquals("wrong status",200,encodedEvent.getInt("status"));
+			assertEquals("wrong amount of bytes written",bytesWritten,encodedEvent.getLong("bytesWritten"));
+			assertFalse("encoded event has a body size",encodedEvent.hasField("bodySize"));
+			assertEquals("wrong failure",TooLongFrameException.class.getName(),single(events,"ch.mimo.netty.icap.DecodingFailed").getString("failure"));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private RecordedEvent single(List<RecordedEvent> events, String name) {
+		List<RecordedEvent> matching = new ArrayList<RecordedEvent>();
+		for(RecordedEvent event : events) {
+			if(event.getEventType().getName().equals(name)) {
+				matching.add(event);
+			}
+		}
+		assertEquals("wrong amount of events " + name,1,matching.size());
+		return matching.get(0);
+	}
+}
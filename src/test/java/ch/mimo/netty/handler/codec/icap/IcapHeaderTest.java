@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 
 import org.junit.Test;
 
@@ -318,7 +319,8 @@ public class IcapHeaderTest extends AbstractIcapTest {
 		Date date = new Date();
 		headers.addDateHeader(IcapHeaders.Names.DATE,date);
 		String dateValue = headers.getHeader(IcapHeaders.Names.DATE);
-		SimpleDateFormat format = new SimpleDateFormat("E, dd MMM yyyy HH:mm:ss z",Locale.ENGLISH);
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
 		assertEquals("Date is not as expected",format.format(date),dateValue);
 	}
 	
@@ -329,6 +331,29 @@ public class IcapHeaderTest extends AbstractIcapTest {
 		headers.addDateHeader(IcapHeaders.Names.DATE,date);
 		Date returnedDate = headers.getDateHeader(IcapHeaders.Names.DATE);
 		assertNotNull("The returned date was null",returnedDate);
+		assertEquals("The returned date was wrong",date.getTime() / 1000,returnedDate.getTime() / 1000);
+	}
+	
+	@Test
+	public void addCurrentDateHeader() {
+		IcapHeaders headers = new IcapHeaders();
+		long before = System.currentTimeMillis() / 1000;
+		headers.addDateHeader(IcapHeaders.Names.DATE);
+		long time = headers.getDateHeader(IcapHeaders.Names.DATE).getTime() / 1000;
+		assertTrue("Date is not the current time",time >= before && time <= System.currentTimeMillis() / 1000);
+	}
+	
+	@Test
+	public void getInvalidDateHeader() {
+		IcapHeaders headers = new IcapHeaders();
+		headers.addHeader(IcapHeaders.Names.DATE,"yesterday");
+		boolean exception = false;
+		try {
+			headers.getDateHeader(IcapHeaders.Names.DATE);
+		} catch(IllegalArgumentException iae) {
+			exception = true;
+		}
+		assertTrue("no iae was thrown",exception);
 	}
 
 	@Test
@@ -343,4 +368,23 @@ public class IcapHeaderTest extends AbstractIcapTest {
 		assertTrue("Header 'FOO' should exist (2)", headers.containsHeader("foo"));
 		assertEquals("Header 'FOO' should be 'baz'", "baz", headers.getHeader("foo"));
 	}
+	
+	@Test
+	public void addTrustedHeaderWithoutValidation() {
+		IcapHeaders headers = new IcapHeaders();
+		headers.addTrustedHeader("X-Name;","value");
+		assertEquals("trusted header was not added","value",headers.getHeader("X-Name;"));
+	}
+	
+	@Test
+	public void addConstantHeaderNameStillValidatesValue() {
+		IcapHeaders headers = new IcapHeaders();
+		boolean exception = false;
+		try {
+			headers.addHeader(IcapHeaders.Names.HOST,"icap.mimo.ch\r\nX-Injected: true");
+		} catch(IllegalArgumentException iae) {
+			exception = true;
+		}
+		assertTrue("response splitting was not detected",exception);
+	}
 }
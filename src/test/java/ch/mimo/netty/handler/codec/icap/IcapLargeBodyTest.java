@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapLargeBodyTest extends AbstractIcapTest {
+
+	private static final long BODY_SIZE = 3L * 1024 * 1024 * 1024 + 17;
+	private static final int MAX_CHUNK_SIZE = 64 * 1024;
+	private static final int SLICE_SIZE = 256 * 1024;
+	
+	private BufferedRequestDecoder decoder;
+	private EmbeddedChannel embeddedChannel;
+	private ByteBuf data;
+	
+	@Before
+	public void setUp() {
+		decoder = new BufferedRequestDecoder();
+		embeddedChannel = new EmbeddedChannel(decoder);
+		byte[] bytes = new byte[SLICE_SIZE];
+		for(int i = 0 ; i < bytes.length ; i++) {
+			bytes[i] = (byte)i;
+		}
+		data = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes));
+	}
+	
+	@After
+	public void tearDown() {
+		embeddedChannel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void testStreamBodyLargerThanTwoGigabytes() throws UnsupportedEncodingException {
+		embeddedChannel.writeInbound(DataMockery.createREQMODWithTwoChunkBodyAnnouncement());
+		IcapRequest request = (IcapRequest)embeddedChannel.readInbound();
+		assertNotNull("request was not decoded",request);
+		request.release();
+		
+		embeddedChannel.writeInbound(Unpooled.copiedBuffer((Long.toHexString(BODY_SIZE) + "\r\n").getBytes("ASCII")));
+		long remaining = BODY_SIZE;
+		long received = 0;
+		long chunks = 0;
+		int maxBuffered = 0;
+		while(remaining > 0) {
+			int length = (int)Math.min(SLICE_SIZE,remaining);
+			embeddedChannel.writeInbound(data.slice(0,length));
+			remaining -= length;
+			maxBuffered = Math.max(maxBuffered,decoder.getBufferedBytes());
+			Object object;
+			while((object = embeddedChannel.readInbound()) != null) {
+				IcapChunk chunk = (IcapChunk)object;
+				assertTrue("chunk exceeds maximum chunk size",chunk.content().readableBytes() <= MAX_CHUNK_SIZE);
+				received += chunk.content().readableBytes();
+				chunks++;
+				chunk.release();
+			}
+		}
+		embeddedChannel.writeInbound(Unpooled.copiedBuffer("\r\n0\r\n\r\n".getBytes("ASCII")));
+		
+		Object object;
+		IcapChunkTrailer trailer = null;
+		while((object = embeddedChannel.readInbound()) != null) {
+			if(object instanceof IcapChunkTrailer) {
+				trailer = (IcapChunkTrailer)object;
+			} else {
+				IcapChunk chunk = (IcapChunk)object;
+				received += chunk.content().readableBytes();
+				chunks++;
+				chunk.release();
+			}
+		}
+		assertEquals("wrong body size received",BODY_SIZE,received);
+		assertEquals("wrong number of chunks",(BODY_SIZE + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE,chunks);
+		assertNotNull("trailer is missing",trailer);
+		assertTrue("decoder buffered [" + maxBuffered + "] bytes",maxBuffered < MAX_CHUNK_SIZE + SLICE_SIZE);
+	}
+	
+	private static class BufferedRequestDecoder extends IcapRequestDecoder {
+		
+		BufferedRequestDecoder() {
+			super(4096,8192,8192,MAX_CHUNK_SIZE);
+		}
+		
+		int getBufferedBytes() {
+			ByteBuf buffer = internalBuffer();
+			return buffer.readableBytes();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapLatencyTest extends AbstractIcapTest {
+
+	private long time;
+	private IcapLatencyRecorder recorder;
+	private EmbeddedChannel channel;
+	
+	@Before
+	public void setUp() {
+		time = 0;
+		recorder = new IcapLatencyRecorder(16);
+		IcapLatencyHandler latency = new IcapLatencyHandler(recorder) {
+			@Override
+			long nanoTime() {
+				return time;
+			}
+		};
+		channel = new EmbeddedChannel(latency.getFirstByteHandler(),new IcapRequestDecoder(),new IcapResponseEncoder(),latency);
+	}
+	
+	@Test
+	public void bucketsAreContinuous() {
+		for(long value = 0 ; value < 100000 ; value++) {
+			int index = IcapLatencyHistogram.bucketIndex(value);
+			assertTrue("value below bucket",IcapLatencyHistogram.lowestValue(index) <= value);
+			assertTrue("value above bucket",IcapLatencyHistogram.highestValue(index) >= value);
+		}
+		long value = 123456789L;
+		long highest = IcapLatencyHistogram.highestValue(IcapLatencyHistogram.bucketIndex(value));
+		assertTrue("precision too low",(highest - value) / (double)value < 0.016);
+	}
+	
+	@Test
+	public void percentiles() {
+		IcapLatencyHistogram histogram = new IcapLatencyHistogram();
+		for(long value = 1 ; value <= 1000 ; value++) {
+			histogram.record(value * 1000);
+		}
+		IcapLatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals("wrong count",1000,snapshot.getCount());
+		assertEquals("wrong mean",500500D,snapshot.getMean(),0.1D);
+		assertEquals("wrong median",500000D,snapshot.getValueAtPercentile(50),500000 * 0.016);
+		assertEquals("wrong p99",990000D,snapshot.getValueAtPercentile(99),990000 * 0.016);
+		assertEquals("wrong max",1000000D,snapshot.getMax(),1000000 * 0.016);
+		assertEquals("wrong distribution",1000L,sum(snapshot.getDistribution()));
+	}
+	
+	@Test
+	public void recordTransactionPhases() throws Exception {
+		time = 100;
+		channel.writeInbound(DataMockery.createREQMODWithTwoChunkBodyAnnouncement());
+		time = 250;
+		channel.writeInbound(DataMockery.createREQMODWithTowChunkBodyChunkOne());
+		channel.writeInbound(DataMockery.createREQMODWithTwoChunkBodyChunkTwo());
+		time = 300;
+		channel.writeInbound(DataMockery.createREQMODWithTwoChunkBodyChunkThree());
+		releaseInbound();
+		
+		time = 1300;
+		channel.write(new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.NO_CONTENT));
+		time = 1500;
+		channel.flush();
+		ReferenceCountUtil.release(channel.readOutbound());
+		
+		Map<IcapLatencyRecorder.Key,IcapLatencyHistogram.Snapshot> snapshot = recorder.snapshot();
+		assertEquals("wrong decode time",200D,max(snapshot,IcapLatencyPhase.DECODE),200 * 0.016D);
+		assertEquals("wrong service time",1000D,max(snapshot,IcapLatencyPhase.SERVICE),1000 * 0.016D);
+		assertEquals("wrong write time",200D,max(snapshot,IcapLatencyPhase.WRITE),200 * 0.016D);
+		assertEquals("wrong total time",1400D,max(snapshot,IcapLatencyPhase.TOTAL),1400 * 0.016D);
+	}
+	
+	@Test
+	public void waitForLastResponseChunk() throws Exception {
+		channel.writeInbound(DataMockery.createREQMODWithGetRequestNoBody());
+		releaseInbound();
+		time = 100;
+		IcapResponse response = new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.OK);
+		response.setBody(IcapMessageElementEnum.RESBODY);
+		channel.writeOutbound(response);
+		time = 200;
+		channel.writeOutbound(DataMockery.createREQMODWithTwoChunkBodyIcapChunkOne());
+		time = 300;
+		channel.writeOutbound(new DefaultIcapChunkTrailer());
+		releaseOutbound();
+		assertEquals("wrong write time",200D,max(recorder.snapshot(),IcapLatencyPhase.WRITE),200 * 0.016D);
+	}
+	
+	@Test
+	public void disabledRecorder() throws Exception {
+		recorder.setEnabled(false);
+		channel.writeInbound(DataMockery.createREQMODWithGetRequestNoBody());
+		releaseInbound();
+		channel.writeOutbound(new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.NO_CONTENT));
+		releaseOutbound();
+		assertTrue("latencies were recorded",recorder.snapshot().isEmpty());
+	}
+	
+	@Test
+	public void limitServices() {
+		recorder = new IcapLatencyRecorder(2);
+		recorder.record("one",IcapMethod.REQMOD,IcapLatencyPhase.TOTAL,1);
+		recorder.record("two",IcapMethod.REQMOD,IcapLatencyPhase.TOTAL,1);
+		recorder.record("three",IcapMethod.REQMOD,IcapLatencyPhase.TOTAL,1);
+		recorder.record("four",IcapMethod.REQMOD,IcapLatencyPhase.TOTAL,1);
+		IcapLatencyHistogram.Snapshot other = recorder.snapshot().get(new IcapLatencyRecorder.Key(IcapLatencyRecorder.OTHER_SERVICE,IcapMethod.REQMOD,IcapLatencyPhase.TOTAL));
+		assertNotNull("services were not folded",other);
+		assertEquals("wrong count",2,other.getCount());
+	}
+	
+	@Test
+	public void foldExtensionMethods() {
+		recorder = new IcapLatencyRecorder(2);
+		recorder.record("one",IcapMethod.valueOf("LOG"),IcapLatencyPhase.TOTAL,1);
+		recorder.record("one",IcapMethod.valueOf("AUDIT"),IcapLatencyPhase.TOTAL,1);
+		recorder.record("two",IcapMethod.REQMOD,IcapLatencyPhase.TOTAL,1);
+		for(int i = 0 ; i < 16 ; i++) {
+			recorder.record("one",IcapMethod.valueOf("X-" + i),IcapLatencyPhase.TOTAL,1);
+			recorder.record("service" + i,IcapMethod.valueOf("X-" + i),IcapLatencyPhase.TOTAL,1);
+		}
+		Map<IcapLatencyRecorder.Key,IcapLatencyHistogram.Snapshot> snapshot = recorder.snapshot();
+		assertEquals("wrong amount of histograms",3 * IcapLatencyPhase.values().length,snapshot.size());
+		assertEquals("wrong count",18,snapshot.get(new IcapLatencyRecorder.Key("one",IcapLatencyRecorder.OTHER_METHOD,IcapLatencyPhase.TOTAL)).getCount());
+		assertEquals("wrong count",16,snapshot.get(new IcapLatencyRecorder.Key(IcapLatencyRecorder.OTHER_SERVICE,IcapLatencyRecorder.OTHER_METHOD,IcapLatencyPhase.TOTAL)).getCount());
+	}
+	
+	private long max(Map<IcapLatencyRecorder.Key,IcapLatencyHistogram.Snapshot> snapshot, IcapLatencyPhase phase) {
+		IcapLatencyHistogram.Snapshot histogram = snapshot.get(new IcapLatencyRecorder.Key("reqmod",IcapMethod.REQMOD,phase));
+		assertNotNull("phase was not recorded " + phase,histogram);
+		assertEquals("wrong count",1,histogram.getCount());
+		return histogram.getMax();
+	}
+	
+	private long sum(Map<Long,Long> distribution) {
+		long sum = 0;
+		for(Long count : distribution.values()) {
+			sum += count;
+		}
+		return sum;
+	}
+	
+	private void releaseInbound() {
+		Object msg;
+		while((msg = channel.readInbound()) != null) {
+			ReferenceCountUtil.release(msg);
+		}
+	}
+	
+	private void releaseOutbound() {
+		Object msg;
+		while((msg = channel.readOutbound()) != null) {
+			ReferenceCountUtil.release(msg);
+		}
+	}
+}
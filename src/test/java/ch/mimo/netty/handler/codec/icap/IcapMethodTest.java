@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+
+public class IcapMethodTest extends AbstractIcapTest {
+
+	@Test
+	public void getCachedMethods() {
+		assertSame("REQMOD expected",IcapMethod.REQMOD,IcapMethod.valueOf("REQMOD"));
+		assertSame("RESPMOD expected",IcapMethod.RESPMOD,IcapMethod.valueOf(" respmod "));
+		assertSame("OPTIONS expected",IcapMethod.OPTIONS,IcapMethod.valueOf("Options"));
+	}
+	
+	@Test
+	public void getUnknownMethod() {
+		IcapMethod method = IcapMethod.valueOf(" reqmad");
+		assertNotSame("unknown method must not be cached",IcapMethod.REQMOD,method);
+		assertEquals("wrong method name","REQMAD",method.toString());
+	}
+	
+	@Test
+	public void getValueFromEmptyString() {
+		boolean exception = false;
+		try {
+			IcapMethod.valueOf("  ");
+		} catch(IllegalArgumentException iae) {
+			exception = true;
+		}
+		assertTrue("no iae was thrown",exception);
+	}
+	
+	@Test
+	public void getMethodsFromBuffer() {
+		ByteBuf buffer = Unpooled.copiedBuffer("reqmod RESPMOD OPTIONS XPTIONS",IcapCodecUtil.ASCII_CHARSET);
+		assertSame("REQMOD expected",IcapMethod.REQMOD,IcapMethod.valueOf(buffer,0,6));
+		assertSame("RESPMOD expected",IcapMethod.RESPMOD,IcapMethod.valueOf(buffer,7,14));
+		assertSame("OPTIONS expected",IcapMethod.OPTIONS,IcapMethod.valueOf(buffer,15,22));
+		assertEquals("wrong method name","XPTIONS",IcapMethod.valueOf(buffer,23,30).toString());
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapOffloadHandlerTest extends AbstractIcapTest {
+
+	private ExecutorService executor;
+	private DefaultEventLoopGroup eventLoop;
+	private BlockingQueue<Object> written;
+	private BlockingQueue<Throwable> exceptions;
+	
+	@Before
+	public void setUp() {
+		executor = IcapOffloadHandler.newBoundedExecutor(4);
+		eventLoop = new DefaultEventLoopGroup(1);
+		written = new LinkedBlockingQueue<Object>();
+		exceptions = new LinkedBlockingQueue<Throwable>();
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		eventLoop.shutdownGracefully(0,0,TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void keepOrderPerChannel() throws Exception {
+		final Random random = new Random(42);
+		EmbeddedChannel channel = createChannel(new IcapOffloadHandler(executor,1000) {
+			@Override
+			protected Object service(Object msg) throws Exception {
+				Thread.sleep(random.nextInt(3));
+				return Integer.valueOf(((ByteBuf)msg).readInt());
+			}
+		});
+		List<ByteBuf> messages = new ArrayList<ByteBuf>();
+		for(int i = 0 ; i < 100 ; i++) {
+			ByteBuf buf = Unpooled.buffer(4).writeInt(i);
+			messages.add(buf);
+			channel.writeInbound(buf);
+		}
+		for(int i = 0 ; i < 100 ; i++) {
+			assertEquals("wrong order",Integer.valueOf(i),written.poll(5,TimeUnit.SECONDS));
+		}
+		for(ByteBuf buf : messages) {
+			awaitRelease(buf);
+		}
+	}
+	
+	@Test
+	public void releaseMessageWithoutResult() throws Exception {
+		final ByteBuf buf = Unpooled.buffer(4).writeInt(1);
+		EmbeddedChannel channel = createChannel(new IcapOffloadHandler(executor,10) {
+			@Override
+			protected Object service(Object msg) throws Exception {
+				return msg == buf?null:"unexpected";
+			}
+		});
+		channel.writeInbound(buf);
+		awaitRelease(buf);
+		assertTrue("result was written",written.isEmpty());
+	}
+	
+	@Test
+	public void reportServiceFailure() throws Exception {
+		final ByteBuf buf = Unpooled.buffer(4).writeInt(1);
+		EmbeddedChannel channel = createChannel(new IcapOffloadHandler(executor,10) {
+			@Override
+			protected Object service(Object msg) throws Exception {
+				throw new IllegalStateException("scanner failed");
+			}
+		});
+		channel.writeInbound(buf);
+		Throwable cause = exceptions.poll(5,TimeUnit.SECONDS);
+		assertTrue("failure was not reported",cause instanceof IllegalStateException);
+		awaitRelease(buf);
+	}
+	
+	@Test
+	public void suspendReadingOnBacklog() throws Exception {
+		final Object lock = new Object();
+		final EmbeddedChannel channel = createChannel(new IcapOffloadHandler(executor,2) {
+			@Override
+			protected Object service(Object msg) throws Exception {
+				synchronized (lock) {
+					return msg;
+				}
+			}
+		});
+		synchronized (lock) {
+			channel.writeInbound("one");
+			channel.writeInbound("two");
+			awaitAutoRead(channel,false);
+		}
+		assertEquals("one",written.poll(5,TimeUnit.SECONDS));
+		assertEquals("two",written.poll(5,TimeUnit.SECONDS));
+		awaitAutoRead(channel,true);
+	}
+	
+	@Test
+	public void releaseQueuedMessagesOnClose() throws Exception {
+		final Object lock = new Object();
+		EmbeddedChannel channel = createChannel(new IcapOffloadHandler(executor,10) {
+			@Override
+			protected Object service(Object msg) throws Exception {
+				synchronized (lock) {
+					return null;
+				}
+			}
+		});
+		ByteBuf first = Unpooled.buffer(4).writeInt(1);
+		ByteBuf second = Unpooled.buffer(4).writeInt(2);
+		synchronized (lock) {
+			channel.writeInbound(first);
+			channel.writeInbound(second);
+			channel.close();
+		}
+		awaitRelease(first);
+		awaitRelease(second);
+	}
+	
+	/*
+	 * The embedded event loop is not thread safe, the handler under test and the handlers
+	 * that capture its output are therefore executed on a real event loop.
+	 */
+	private EmbeddedChannel createChannel(IcapOffloadHandler handler) {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		channel.pipeline().addLast(eventLoop,new ChannelOutboundHandlerAdapter() {
+			@Override
+			public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+				written.add(msg);
+				promise.setSuccess();
+			}
+		});
+		channel.pipeline().addLast(eventLoop,handler);
+		channel.pipeline().addLast(eventLoop,new ChannelInboundHandlerAdapter() {
+			@Override
+			public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+				exceptions.add(cause);
+			}
+		});
+		return channel;
+	}
+	
+	private void awaitRelease(ByteBuf buf) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(buf.refCnt() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals("message was not released",0,buf.refCnt());
+	}
+	
+	private void awaitAutoRead(EmbeddedChannel channel, boolean autoRead) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(channel.config().isAutoRead() != autoRead && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals("unexpected auto read state",autoRead,channel.config().isAutoRead());
+	}
+}
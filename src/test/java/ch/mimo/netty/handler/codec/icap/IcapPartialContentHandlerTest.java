@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import org.junit.Test;
+
+public class IcapPartialContentHandlerTest extends AbstractIcapTest {
+
+	private static final String ORIGINAL = "0123456789abcdef";
+	
+	@Test
+	public void announcePartialContentSupport() throws Exception {
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler());
+		IcapRequest request = createRespmodRequest();
+		channel.writeOutbound(request);
+		assertEquals("wrong Allow header","206",request.getHeader(IcapHeaders.Names.ALLOW));
+		release(channel);
+		
+		request = createRespmodRequest();
+		request.addHeader(IcapHeaders.Names.ALLOW,"204");
+		channel.writeOutbound(request);
+		assertEquals("wrong Allow header","204, 206",request.getHeader(IcapHeaders.Names.ALLOW));
+		assertTrue("206 is not allowed",IcapCodecUtil.isAllowed(request,206));
+		assertTrue("204 is not allowed",IcapCodecUtil.isAllowed(request,204));
+		assertFalse("200 is allowed",IcapCodecUtil.isAllowed(request,200));
+		release(channel);
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void spliceOriginalBodyIntoChunks() throws Exception {
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler(4));
+		IcapRequest request = createRespmodRequest();
+		ByteBuf originalContent = request.getHttpResponse().content();
+		channel.writeOutbound(request);
+		release(channel);
+		assertEquals("original body was not retained",1,originalContent.refCnt());
+		
+		channel.writeInbound(createPartialResponse());
+		channel.writeInbound(new DefaultIcapChunk(Unpooled.wrappedBuffer("BANNER".getBytes())));
+		channel.writeInbound(new DefaultIcapChunkTrailer(false,false,10));
+		
+		assertNotNull("response was not passed on",channel.readInbound());
+		StringBuilder body = new StringBuilder();
+		IcapChunk chunk;
+		while((chunk = channel.readInbound()) != null) {
+			assertTrue("chunk exceeds the chunk size",chunk.content().readableBytes() <= 6);
+			body.append(chunk.content().toString(IcapCodecUtil.ASCII_CHARSET));
+			if(chunk.isLast()) {
+				assertNull("use-original-body offset was not cleared",((IcapChunkTrailer)chunk).getUseOriginalBody());
+			}
+			chunk.release();
+		}
+		assertEquals("wrong body","BANNERabcdef",body.toString());
+		assertEquals("original body was not released",0,originalContent.refCnt());
+		assertNull("transaction was not ended",IcapClientTransaction.current(channel));
+	}
+	
+	@Test
+	public void spliceOriginalBodyIntoAggregatedResponse() throws Exception {
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler());
+		IcapRequest request = createRespmodRequest();
+		channel.writeOutbound(request);
+		IcapResponse response = createPartialResponse();
+		response.setHttpResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK,Unpooled.wrappedBuffer("<b>".getBytes())));
+		response.setUseOriginalBody(3);
+		channel.writeInbound(response);
+		IcapResponse spliced = channel.readInbound();
+		assertNull("use-original-body offset was not cleared",spliced.getUseOriginalBody());
+		assertEquals("wrong body","<b>3456789abcdef",spliced.getHttpResponse().content().toString(IcapCodecUtil.ASCII_CHARSET));
+		assertEquals("wrong status",IcapResponseStatus.PARTIAL_CONTENT,spliced.getStatus());
+		spliced.getHttpResponse().release();
+		release(channel);
+	}
+	
+	@Test
+	public void retainChunksWrittenAfterPreview() throws Exception {
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler());
+		IcapRequest request = createRespmodRequest();
+		request.addHeader(IcapHeaders.Names.PREVIEW,"16");
+		channel.writeOutbound(request);
+		channel.writeInbound(new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.CONTINUE));
+		channel.writeOutbound(new DefaultIcapChunk(Unpooled.wrappedBuffer("ghij".getBytes())));
+		channel.writeOutbound(new DefaultIcapChunkTrailer());
+		channel.writeInbound(createPartialResponse());
+		channel.writeInbound(new DefaultIcapChunkTrailer(false,false,14));
+		channel.readInbound();
+		channel.readInbound();
+		release(channel);
+		StringBuilder body = new StringBuilder();
+		IcapChunk chunk;
+		while((chunk = channel.readInbound()) != null) {
+			body.append(chunk.content().toString(IcapCodecUtil.ASCII_CHARSET));
+			chunk.release();
+		}
+		assertEquals("wrong body","efghij",body.toString());
+		release(channel);
+	}
+	
+	@Test
+	public void leaveUnsentBodyAfterPreview() throws Exception {
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler());
+		IcapRequest request = createPreviewRequest();
+		channel.writeOutbound(request);
+		release(channel);
+		assertFalse("preview is the complete body",IcapClientTransaction.current(channel).isComplete());
+		channel.writeInbound(createPartialResponse());
+		channel.writeInbound(new DefaultIcapChunkTrailer(false,false,3));
+		assertNotNull("response was not passed on",channel.readInbound());
+		IcapChunk chunk = channel.readInbound();
+		assertEquals("wrong body","34567",chunk.content().toString(IcapCodecUtil.ASCII_CHARSET));
+		chunk.release();
+		IcapChunkTrailer trailer = channel.readInbound();
+		assertEquals("wrong use-original-body offset",Integer.valueOf(8),trailer.getUseOriginalBody());
+		assertNull("transaction was not ended",IcapClientTransaction.current(channel));
+		
+		channel.writeOutbound(createPreviewRequest());
+		release(channel);
+		IcapResponse response = createPartialResponse();
+		response.setHttpResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK,Unpooled.wrappedBuffer("<b>".getBytes())));
+		response.setUseOriginalBody(12);
+		channel.writeInbound(response);
+		IcapResponse spliced = channel.readInbound();
+		assertEquals("wrong use-original-body offset",Integer.valueOf(12),spliced.getUseOriginalBody());
+		assertEquals("wrong body","<b>",spliced.getHttpResponse().content().toString(IcapCodecUtil.ASCII_CHARSET));
+		spliced.getHttpResponse().release();
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void completeTransactionWithEarlyTerminatedPreview() throws Exception {
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler());
+		IcapRequest request = createRespmodRequest();
+		request.addHeader(IcapHeaders.Names.PREVIEW,"20");
+		channel.writeOutbound(request);
+		release(channel);
+		assertTrue("early terminated preview is not the complete body",IcapClientTransaction.current(channel).isComplete());
+		channel.writeInbound(createPartialResponse());
+		boolean exception = false;
+		try {
+			channel.writeInbound(new DefaultIcapChunkTrailer(false,false,17));
+		} catch(IcapDecodingError e) {
+			exception = true;
+		}
+		assertTrue("invalid offset was accepted",exception);
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void provideOriginalBodyWhileHandlingNoContent() throws Exception {
+		final StringBuilder original = new StringBuilder();
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler(),new ChannelInboundHandlerAdapter() {
+			@Override
+			public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+				IcapClientTransaction transaction = IcapClientTransaction.current(ctx.channel());
+				ByteBuf body = transaction.readSlice(0,(int)transaction.getLength());
+				original.append(body.toString(IcapCodecUtil.ASCII_CHARSET));
+				body.release();
+			}
+		});
+		IcapRequest request = createRespmodRequest();
+		ByteBuf originalContent = request.getHttpResponse().content();
+		channel.writeOutbound(request);
+		release(channel);
+		channel.writeInbound(new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.NO_CONTENT));
+		assertEquals("original body was not available",ORIGINAL,original.toString());
+		assertEquals("original body was not released",0,originalContent.refCnt());
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void doNotAnnouncePartialContentWithoutRetainingSeparator() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(4096),new IcapPartialContentHandler());
+		IcapRequest request = createRespmodRequest();
+		channel.writeOutbound(request);
+		assertNull("206 was announced",request.getHeader(IcapHeaders.Names.ALLOW));
+		release(channel);
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void rejectOriginalBodyWithoutTransaction() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapPartialContentHandler());
+		channel.writeOutbound(createRespmodRequest());
+		release(channel);
+		IcapResponse response = createPartialResponse();
+		channel.writeInbound(response);
+		assertSame("response was not passed on",response,channel.readInbound());
+		IcapChunkTrailer trailer = new DefaultIcapChunkTrailer(false,false,3);
+		boolean exception = false;
+		try {
+			channel.writeInbound(trailer);
+		} catch(IcapDecodingError e) {
+			exception = true;
+		}
+		assertTrue("use-original-body without retained body was accepted",exception);
+		assertEquals("trailer was not released",0,trailer.refCnt());
+		assertNull("trailer was passed on",channel.readInbound());
+	}
+	
+	@Test
+	public void rejectOffsetBeyondOriginalBody() throws Exception {
+		EmbeddedChannel channel = createChannel(new IcapPartialContentHandler());
+		channel.writeOutbound(createRespmodRequest());
+		release(channel);
+		channel.writeInbound(createPartialResponse());
+		boolean exception = false;
+		try {
+			channel.writeInbound(new DefaultIcapChunkTrailer(false,false,17));
+		} catch(IcapDecodingError e) {
+			exception = true;
+		}
+		assertTrue("invalid offset was accepted",exception);
+		assertNull("transaction was not ended",IcapClientTransaction.current(channel));
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void reconstructBodyFromEncodedPartialResponse() throws Exception {
+		EmbeddedChannel server = new EmbeddedChannel(new IcapResponseEncoder(),new IcapChunkSeparator(20));
+		server.writeOutbound(DataMockery.createREQMODWithPartialContentUsingModifiedOriginalBodyIcapResponse());
+		ByteBuf encoded = Unpooled.buffer();
+		ByteBuf buffer;
+		while((buffer = server.readOutbound()) != null) {
+			encoded.writeBytes(buffer);
+			buffer.release();
+		}
+		
+		EmbeddedChannel client = new EmbeddedChannel(new IcapChunkSeparator(1024,1024),new IcapResponseDecoder(),new IcapPartialContentHandler(8));
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.REQMOD,"icap://icap.mimo.ch:1344/reqmod","icap-server.net");
+		request.setHttpRequest(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.POST,"/",Unpooled.wrappedBuffer("ABCDE and the rest of the original body".getBytes())));
+		client.writeOutbound(request);
+		release(client);
+		client.writeInbound(encoded);
+		IcapResponse response = client.readInbound();
+		assertEquals("wrong status",IcapResponseStatus.PARTIAL_CONTENT,response.getStatus());
+		StringBuilder body = new StringBuilder();
+		IcapChunk chunk;
+		while((chunk = client.readInbound()) != null) {
+			body.append(chunk.content().toString(IcapCodecUtil.ASCII_CHARSET));
+			chunk.release();
+		}
+		assertEquals("wrong body","This replaces the first five bytes of the original content. and the rest of the original body",body.toString());
+	}
+	
+	private EmbeddedChannel createChannel(ChannelHandler... handlers) {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapChunkSeparator(1024,1024));
+		channel.pipeline().addLast(handlers);
+		return channel;
+	}
+	
+	private IcapRequest createRespmodRequest() {
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.RESPMOD,"icap://icap.mimo.ch:1344/respmod","icap-server.net");
+		request.setHttpResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK,Unpooled.wrappedBuffer(ORIGINAL.getBytes())));
+		return request;
+	}
+	
+	private IcapRequest createPreviewRequest() {
+		IcapRequest request = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.RESPMOD,"icap://icap.mimo.ch:1344/respmod","icap-server.net");
+		request.addHeader(IcapHeaders.Names.PREVIEW,"8");
+		request.setHttpResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.OK,Unpooled.wrappedBuffer(ORIGINAL.substring(0,8).getBytes())));
+		return request;
+	}
+	
+	private IcapResponse createPartialResponse() {
+		IcapResponse response = new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.PARTIAL_CONTENT);
+		response.setBody(IcapMessageElementEnum.RESBODY);
+		return response;
+	}
+	
+	private void release(EmbeddedChannel channel) {
+		Object msg;
+		while((msg = channel.readOutbound()) != null) {
+			if(msg instanceof IcapMessage) {
+				IcapMessage message = (IcapMessage)msg;
+				if(message.getHttpRequest() != null) {
+					message.getHttpRequest().release();
+				}
+				if(message.getHttpResponse() != null) {
+					message.getHttpResponse().release();
+				}
+			} else {
+				io.netty.util.ReferenceCountUtil.release(msg);
+			}
+		}
+	}
+}
@@ -16,8 +16,12 @@
 package ch.mimo.netty.handler.codec.icap;
 
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
 import io.netty.util.ReferenceCountUtil;
 import org.junit.Before;
 import org.junit.Test;
@@ -368,6 +372,125 @@ public class IcapRequestDecoderTest extends AbstractIcapTest {
 		assertEquals("wrong request method",IcapMethod.OPTIONS,optionsRequest.getMethod());
 	}
 
+	@Test
+	public void decodeREQMODRequestWithTwoChunkBodyByteByByte() throws UnsupportedEncodingException {
+		ByteBuf buffer = DataMockery.createREQMODWithTwoChunkBodyAndTrailingHeaders();
+		while(buffer.isReadable()) {
+			embeddedChannel.writeInbound(buffer.readRetainedSlice(1));
+		}
+		buffer.release();
+		IcapRequest result = readInbound();
+		assertNotNull("The decoded icap request instance is null",result);
+		DataMockery.assertCreateREQMODWithTwoChunkBody(result);
+		DataMockery.assertCreateREQMODWithTwoChunkBodyFirstChunk((IcapChunk)readInbound());
+		DataMockery.assertCreateREQMODWithTwoChunkBodySecondChunk((IcapChunk)readInbound());
+		DataMockery.assertCreateREQMODWithTwoChunkBodyTrailingHeaderChunk((IcapChunkTrailer)readInbound());
+		assertNull("replayed state emitted additional objects",embeddedChannel.readInbound());
+	}
+
+	@Test
+	public void rejectBareCarriageReturnInHttpRequestHeader() throws UnsupportedEncodingException {
+		boolean exception = false;
+		try {
+			embeddedChannel.writeInbound(DataMockery.createREQMODWithBareCarriageReturnInHttpHeader());
+		} catch(DecoderException e) {
+			exception = e.getCause() instanceof IllegalArgumentException;
+		}
+		assertTrue("http request header with a bare CR was accepted",exception);
+		assertNull("http request header with a bare CR was decoded",embeddedChannel.readInbound());
+	}
+	
+	@Test
+	public void rejectBareCarriageReturnInHttpResponseHeader() throws UnsupportedEncodingException {
+		boolean exception = false;
+		try {
+			embeddedChannel.writeInbound(DataMockery.createRESPMODWithBareCarriageReturnInHttpResponseHeader());
+		} catch(DecoderException e) {
+			exception = e.getCause() instanceof IllegalArgumentException;
+		}
+		assertTrue("http response header with a bare CR was accepted",exception);
+		assertNull("http response header with a bare CR was decoded",embeddedChannel.readInbound());
+	}
+	
+	@Test
+	public void rejectProhibitedCharacterInIcapHeaderName() throws UnsupportedEncodingException {
+		boolean exception = false;
+		try {
+			embeddedChannel.writeInbound(DataMockery.createOPTIONSRequestWithProhibitedCharacterInHeaderName());
+		} catch(DecoderException e) {
+			exception = e.getCause() instanceof IllegalArgumentException;
+		}
+		assertTrue("icap header name with a prohibited character was accepted",exception);
+		assertNull("icap header name with a prohibited character was decoded",embeddedChannel.readInbound());
+	}
+	
+	@Test
+	public void rejectFormFeedInIcapHeaderValue() throws UnsupportedEncodingException {
+		boolean exception = false;
+		try {
+			embeddedChannel.writeInbound(DataMockery.createOPTIONSRequestWithFormFeedInHeaderValue());
+		} catch(DecoderException e) {
+			exception = e.getCause() instanceof IllegalArgumentException;
+		}
+		assertTrue("icap header value with a form feed was accepted",exception);
+		assertNull("icap header value with a form feed was decoded",embeddedChannel.readInbound());
+	}
+	
+	@Test
+	public void rejectVerticalTabInHttpRequestHeader() throws UnsupportedEncodingException {
+		boolean exception = false;
+		try {
+			embeddedChannel.writeInbound(DataMockery.createREQMODWithVerticalTabInHttpHeader());
+		} catch(DecoderException e) {
+			exception = e.getCause() instanceof IllegalArgumentException;
+		}
+		assertTrue("http request header with a vertical tab was accepted",exception);
+		assertNull("http request header with a vertical tab was decoded",embeddedChannel.readInbound());
+	}
+	
+	@Test
+	public void failOnTooLongChunkSizeLine() throws UnsupportedEncodingException {
+		embeddedChannel = new EmbeddedChannel(new IcapRequestDecoder(64,8192,8192,4096));
+		StringBuilder builder = new StringBuilder();
+		builder.append("REQMOD icap://icap.mimo.ch:1344/reqmod ICAP/1.0\r\n");
+		builder.append("Host: icap-server.net\r\n");
+		builder.append("Encapsulated: req-hdr=0, req-body=45\r\n\r\n");
+		builder.append("POST / HTTP/1.1\r\n");
+		builder.append("Host: www.origin-server.com\r\n\r\n");
+		builder.append("5;");
+		for(int i = 0 ; i < 100 ; i++) {
+			builder.append('x');
+		}
+		builder.append("\r\nhello\r\n0\r\n\r\n");
+		boolean exception = false;
+		try {
+			embeddedChannel.writeInbound(Unpooled.copiedBuffer(builder.toString(),IcapCodecUtil.ASCII_CHARSET));
+		} catch(DecoderException e) {
+			exception = e.getCause() instanceof DecodingException && e.getCause().getCause() instanceof TooLongFrameException;
+		}
+		assertTrue("too long chunk size line was accepted",exception);
+		IcapRequest request = readInbound();
+		assertNotNull("request was not decoded",request);
+		assertEquals("wrong request method",IcapMethod.REQMOD,request.getMethod());
+		assertNull("chunk was decoded from a too long chunk size line",embeddedChannel.readInbound());
+	}
+	
+	@Test
+	public void useOverriddenMessageFactory() throws UnsupportedEncodingException {
+		final AtomicInteger calls = new AtomicInteger();
+		embeddedChannel = new EmbeddedChannel(new IcapRequestDecoder() {
+			@Override
+			protected IcapRequest createMessage(String[] initialLine) {
+				calls.incrementAndGet();
+				return super.createMessage(initialLine);
+			}
+		});
+		embeddedChannel.writeInbound(DataMockery.createOPTIONSRequest());
+		IcapRequest request = readInbound();
+		assertNotNull("message was not decoded",request);
+		assertEquals("overridden factory was not used",1,calls.get());
+	}
+	
 	private <T> T readInbound() {
 		return ReferenceCountUtil.releaseLater((T)embeddedChannel.readInbound());
 	}
@@ -17,6 +17,7 @@
 package ch.mimo.netty.handler.codec.icap;
 
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.ReferenceCountUtil;
@@ -163,6 +164,22 @@ public class IcapResponseDecoderTest extends AbstractIcapTest {
 		assertNotNull("The decoded icap response instance is null",response);
 	}
 
+	@Test
+	public void useOverriddenMessageFactory() throws UnsupportedEncodingException {
+		final AtomicInteger calls = new AtomicInteger();
+		embeddedChannel = new EmbeddedChannel(new IcapResponseDecoder() {
+			@Override
+			protected IcapMessage createMessage(String[] initialLine) {
+				calls.incrementAndGet();
+				return super.createMessage(initialLine);
+			}
+		});
+		embeddedChannel.writeInbound(DataMockery.createOPTIONSResponse());
+		IcapResponse response = readInbound();
+		assertNotNull("message was not decoded",response);
+		assertEquals("overridden factory was not used",1,calls.get());
+	}
+	
 	private <T> T readInbound() {
 		return ReferenceCountUtil.releaseLater((T)embeddedChannel.readInbound());
 	}
@@ -140,4 +140,22 @@ public class IcapResponseEncoderTest extends AbstractEncoderTest {
 	private <T> T readOutbound() {
 		return ReferenceCountUtil.releaseLater((T)embeddedChannel.readOutbound());
 	}
+	
+	@Test
+	public void encodeResponseWithCachedDateHeader() throws UnsupportedEncodingException {
+		EmbeddedChannel channel = new EmbeddedChannel(new IcapResponseEncoder(NoopIcapCodecMetrics.INSTANCE,true));
+		channel.writeOutbound(DataMockery.create100ContinueIcapResponse());
+		String response = getBufferContent(channel.readOutbound());
+		int index = response.indexOf("Date: ");
+		assertTrue("Date header is missing",index >= 0);
+		assertNotNull("Date header is not valid",IcapDateHeader.parse(response.substring(index + 6,response.indexOf("\r\n",index))));
+		assertEquals("Date header must be written once",response.indexOf("Date: "),response.lastIndexOf("Date: "));
+		
+		IcapResponse withDate = DataMockery.create100ContinueIcapResponse();
+		withDate.addHeader(IcapHeaders.Names.DATE,"Sun, 06 Nov 1994 08:49:37 GMT");
+		channel.writeOutbound(withDate);
+		response = getBufferContent(channel.readOutbound());
+		assertTrue("existing Date header was not kept",response.contains("Date: Sun, 06 Nov 1994 08:49:37 GMT\r\n"));
+		assertEquals("Date header must be written once",response.indexOf("Date: "),response.lastIndexOf("Date: "));
+	}
 }
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+
+public class IcapResponseStatusTest extends AbstractIcapTest {
+
+	@Test
+	public void getStatusFromCode() {
+		assertEquals("wrong status",IcapResponseStatus.NO_CONTENT,IcapResponseStatus.fromCode(204));
+		assertEquals("wrong status",IcapResponseStatus.OK,IcapResponseStatus.fromCode("200"));
+		assertEquals("first status with a code expected",IcapResponseStatus.MULTI_STATUS,IcapResponseStatus.fromCode("207"));
+	}
+	
+	@Test
+	public void getStatusFromUnknownCodes() {
+		String[] codes = new String[]{null,"","20","2000","299","999","2x4"," 200"};
+		for(String code : codes) {
+			boolean exception = false;
+			try {
+				IcapResponseStatus.fromCode(code);
+			} catch(IllegalArgumentException iae) {
+				exception = true;
+			}
+			assertTrue("no iae was thrown for [" + code + "]",exception);
+		}
+	}
+	
+	@Test
+	public void getStatusFromBuffer() {
+		ByteBuf buffer = Unpooled.copiedBuffer("ICAP/1.0 204 No Content",IcapCodecUtil.ASCII_CHARSET);
+		assertEquals("wrong status",IcapResponseStatus.NO_CONTENT,IcapResponseStatus.fromCode(buffer,9,12));
+		boolean exception = false;
+		try {
+			IcapResponseStatus.fromCode(buffer,0,3);
+		} catch(IllegalArgumentException iae) {
+			exception = true;
+		}
+		assertTrue("no iae was thrown",exception);
+	}
+	
+	@Test
+	public void writeInitialLineValue() {
+		ByteBuf buffer = Unpooled.buffer();
+		IcapResponseStatus.ICAP_SERVICE_NOT_FOUND.toResponseInitialLineValue(buffer);
+		assertEquals("wrong initial line value","404 ICAP Service not found",buffer.toString(IcapCodecUtil.ASCII_CHARSET));
+	}
+}
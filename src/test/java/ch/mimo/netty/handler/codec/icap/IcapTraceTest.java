@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapTraceTest extends AbstractIcapTest {
+
+	private static final String LOGGER_NAME = "ch.mimo.netty.handler.codec.icap.trace.test";
+	
+	private Logger jdkLogger;
+	private RecordingHandler handler;
+	private InternalLogger log;
+	private EmbeddedChannel channel;
+	private ChannelHandlerContext ctx;
+	
+	@Before
+	public void setUp() {
+		jdkLogger = Logger.getLogger(LOGGER_NAME);
+		jdkLogger.setUseParentHandlers(false);
+		jdkLogger.setLevel(Level.INFO);
+		handler = new RecordingHandler();
+		jdkLogger.addHandler(handler);
+		log = InternalLoggerFactory.getInstance(LOGGER_NAME);
+		channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		ctx = channel.pipeline().firstContext();
+	}
+	
+	@After
+	public void tearDown() {
+		jdkLogger.removeHandler(handler);
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void testToggle() {
+		assertFalse("channel is traced by default",IcapTrace.isEnabled(channel));
+		IcapTrace.enable(channel);
+		assertTrue("channel is not traced",IcapTrace.isEnabled(channel));
+		IcapTrace.disable(channel);
+		assertFalse("channel is still traced",IcapTrace.isEnabled(channel));
+	}
+	
+	@Test
+	public void testNoTraceIfDisabled() {
+		assertFalse("tracing without debug level or channel toggle",IcapTrace.isTracing(log,ctx));
+		IcapTrace.trace(log,ctx,"state [{}]","value");
+		assertTrue("trace statement was logged",handler.records.isEmpty());
+	}
+	
+	@Test
+	public void testTraceOnlyTracedChannel() {
+		IcapTrace.enable(channel);
+		assertTrue("channel is not traced",IcapTrace.isTracing(log,ctx));
+		IcapTrace.trace(log,ctx,"state [{}] = [{}]","first","second");
+		assertEquals("wrong number of trace statements",1,handler.records.size());
+		LogRecord record = handler.records.get(0);
+		assertEquals("wrong level",Level.INFO,record.getLevel());
+		assertEquals("wrong message",channel + " state [first] = [second]",record.getMessage());
+		
+		EmbeddedChannel other = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		IcapTrace.trace(log,other.pipeline().firstContext(),"state [{}]","other");
+		assertEquals("untraced channel was logged",1,handler.records.size());
+		other.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void testTraceAtDebugLevel() {
+		jdkLogger.setLevel(Level.FINE);
+		assertTrue("debug level is not traced",IcapTrace.isTracing(log,ctx));
+		IcapTrace.trace(log,ctx,"state [{}]","value");
+		assertEquals("wrong number of trace statements",1,handler.records.size());
+		assertEquals("wrong level",Level.FINE,handler.records.get(0).getLevel());
+		assertEquals("wrong message","state [value]",handler.records.get(0).getMessage());
+	}
+	
+	@Test
+	public void testDecoderTracesChannel() {
+		EmbeddedChannel decoder = new EmbeddedChannel(new IcapRequestDecoder());
+		IcapTrace.enable(decoder);
+		decoder.writeInbound(DataMockery.createOPTIONSIcapRequest());
+		IcapRequest request = (IcapRequest)decoder.readInbound();
+		assertNotNull("request was not decoded",request);
+		assertTrue("channel is not traced",IcapTrace.isEnabled(decoder));
+		decoder.finishAndReleaseAll();
+	}
+	
+	private static class RecordingHandler extends Handler {
+		
+		private final List<LogRecord> records = new ArrayList<LogRecord>();
+		
+		@Override
+		public void publish(LogRecord record) {
+			records.add(record);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() throws SecurityException {
+		}
+	}
+}
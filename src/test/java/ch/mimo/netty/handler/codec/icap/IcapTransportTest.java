@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapTransportTest extends AbstractJDKLoggerPreparation {
+
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup workerGroup;
+	
+	@Before
+	public void setUp() {
+		bossGroup = IcapTransport.newEventLoopGroup(2);
+		workerGroup = IcapTransport.newEventLoopGroup(1);
+	}
+	
+	@After
+	public void tearDown() {
+		bossGroup.shutdownGracefully();
+		workerGroup.shutdownGracefully();
+	}
+	
+	@Test
+	public void bindAcceptorsToSamePort() throws Exception {
+		ServerBootstrap bootstrap = IcapTransport.newServerBootstrap(bossGroup,workerGroup)
+			.childHandler(new ChannelInboundHandlerAdapter());
+		List<Channel> acceptors = IcapTransport.bindReusePort(bootstrap,new InetSocketAddress(InetAddress.getLoopbackAddress(),0),2);
+		try {
+			assertEquals("wrong amount of acceptors",IcapTransport.isEpollAvailable()?2:1,acceptors.size());
+			int port = ((InetSocketAddress)acceptors.get(0).localAddress()).getPort();
+			for(Channel acceptor : acceptors) {
+				assertEquals("acceptor bound to other port",port,((InetSocketAddress)acceptor.localAddress()).getPort());
+			}
+			ChannelFuture future = IcapTransport.newBootstrap(workerGroup)
+				.handler(new ChannelInboundHandlerAdapter())
+				.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),port)).awaitUninterruptibly();
+			assertTrue("connect failed",future.isSuccess());
+			future.channel().close().awaitUninterruptibly();
+		} finally {
+			for(Channel acceptor : acceptors) {
+				acceptor.close().awaitUninterruptibly();
+			}
+		}
+	}
+	
+	@Test
+	public void domainSocketsRequireEpoll() {
+		if(IcapTransport.isEpollAvailable()) {
+			assertNotNull(IcapTransport.newDomainSocketServerBootstrap(bossGroup,workerGroup));
+		} else {
+			try {
+				IcapTransport.newDomainSocketServerBootstrap(bossGroup,workerGroup);
+				fail("unix domain sockets without epoll");
+			} catch(UnsupportedOperationException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapVerdictCacheTest extends AbstractIcapTest {
+
+	private long time;
+	private IcapVerdictCache cache;
+	private EmbeddedChannel embeddedChannel;
+	
+	@Before
+	public void setUp() {
+		time = 0;
+		cache = new IcapVerdictCache(64,10,TimeUnit.SECONDS) {
+			@Override
+			long nanoTime() {
+				return time;
+			}
+		};
+		embeddedChannel = new EmbeddedChannel(new IcapVerdictCacheHandler(cache));
+	}
+	
+	@Test
+	public void keyIgnoresQueryAndHostCase() {
+		long absolute = IcapVerdictCache.createKey(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.GET,"http://WWW.Origin-Server.com/some/path?query=1"));
+		FullHttpRequest relative = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.GET,"/some/path#fragment");
+		relative.headers().add("Host","www.origin-server.com");
+		assertEquals("keys are not identical",absolute,IcapVerdictCache.createKey(relative));
+	}
+	
+	@Test
+	public void keyDependsOnMethodAndPath() {
+		long get = IcapVerdictCache.createKey(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.GET,"http://www.origin-server.com/a"));
+		long post = IcapVerdictCache.createKey(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.POST,"http://www.origin-server.com/a"));
+		long other = IcapVerdictCache.createKey(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,HttpMethod.GET,"http://www.origin-server.com/b"));
+		assertFalse("method is not part of the key",get == post);
+		assertFalse("path is not part of the key",get == other);
+	}
+	
+	@Test
+	public void expireEntry() {
+		cache.put(1L,IcapVerdict.noContent("Serial-0815"));
+		assertNotNull("verdict was not cached",cache.get(1L));
+		time = TimeUnit.SECONDS.toNanos(10);
+		assertNull("verdict did not expire",cache.get(1L));
+		assertEquals("expired entry was not removed",0,cache.size());
+	}
+	
+	@Test
+	public void invalidateOnIsTagChange() {
+		cache.put(1L,IcapVerdict.noContent("Serial-0815"));
+		assertEquals("cache was not bound to the first istag","Serial-0815",cache.getIsTag());
+		cache.setIsTag("Serial-0816");
+		cache.put(2L,IcapVerdict.noContent("Serial-0816"));
+		assertNull("verdict with outdated istag returned",cache.get(1L));
+		assertNotNull("verdict with current istag missing",cache.get(2L));
+		cache.setIsTag("Serial-0817");
+		assertNull("verdict with outdated istag returned",cache.get(2L));
+	}
+	
+	@Test
+	public void dropLateVerdictWithPreviousIsTag() {
+		cache.setIsTag("Serial-0816");
+		cache.put(1L,IcapVerdict.noContent("Serial-0816"));
+		cache.put(2L,IcapVerdict.noContent("Serial-0815"));
+		assertEquals("istag was moved back","Serial-0816",cache.getIsTag());
+		assertNotNull("newer verdict was invalidated",cache.get(1L));
+		assertNull("outdated verdict was stored",cache.get(2L));
+	}
+	
+	@Test
+	public void bindIsTagOfOptionsResponse() {
+		cache.put(1L,IcapVerdict.noContent("Serial-0815"));
+		IcapRequest options = new DefaultIcapRequest(IcapVersion.ICAP_1_0,IcapMethod.OPTIONS,"icap://icap.mimo.ch:1344/reqmod","icap-server.net");
+		embeddedChannel.writeInbound(options);
+		assertSame("request was not passed on",options,embeddedChannel.readInbound());
+		IcapResponse response = new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.OK);
+		response.addHeader(IcapHeaders.Names.ISTAG,"Serial-0816");
+		embeddedChannel.writeOutbound(response);
+		ReferenceCountUtil.release(embeddedChannel.readOutbound());
+		assertEquals("istag of the options response was not bound","Serial-0816",cache.getIsTag());
+		assertNull("verdict with outdated istag returned",cache.get(1L));
+	}
+	
+	@Test
+	public void boundedSize() {
+		for(long key = 0 ; key < 10000 ; key++) {
+			cache.put(key << 32,IcapVerdict.noContent("Serial-0815"));
+		}
+		assertTrue("cache exceeds its maximum size",cache.size() <= 64);
+	}
+	
+	@Test
+	public void answerRequestFromCache() {
+		IcapRequest request = DataMockery.createREQMODWithGetRequestNoBodyIcapMessage();
+		embeddedChannel.writeInbound(request);
+		assertSame("request was not passed on",request,embeddedChannel.readInbound());
+		ReferenceCountUtil.release(request);
+		embeddedChannel.writeOutbound(createBlockResponse());
+		ReferenceCountUtil.release(embeddedChannel.readOutbound());
+		
+		embeddedChannel.writeInbound(DataMockery.createREQMODWithGetRequestNoBodyIcapMessage());
+		assertNull("request was passed on although it is cached",embeddedChannel.readInbound());
+		IcapResponse response = (IcapResponse)embeddedChannel.readOutbound();
+		assertNotNull("no response from cache",response);
+		assertEquals("wrong status",IcapResponseStatus.OK,response.getStatus());
+		assertEquals("wrong istag","Serial-0815",response.getHeader(IcapHeaders.Names.ISTAG));
+		assertEquals("wrong http status",HttpResponseStatus.FORBIDDEN,response.getHttpResponse().getStatus());
+		assertEquals("wrong body","blocked",response.getHttpResponse().content().toString(IcapCodecUtil.ASCII_CHARSET));
+		ReferenceCountUtil.release(response);
+	}
+	
+	@Test
+	public void discardBodyChunksAfterHit() {
+		IcapRequest request = DataMockery.createREQMODWithGetRequestNoBodyIcapMessage();
+		request.setBody(IcapMessageElementEnum.REQBODY);
+		cache.put(IcapVerdictCache.createKey(request.getHttpRequest()),IcapVerdict.noContent("Serial-0815"));
+		request.addHeader(IcapHeaders.Names.ALLOW,"204");
+		embeddedChannel.writeInbound(request);
+		embeddedChannel.writeInbound(new DefaultIcapChunk(Unpooled.copiedBuffer("data",IcapCodecUtil.ASCII_CHARSET)));
+		embeddedChannel.writeInbound(new DefaultIcapChunkTrailer());
+		assertNull("body was passed on",embeddedChannel.readInbound());
+		IcapResponse response = (IcapResponse)embeddedChannel.readOutbound();
+		assertEquals("wrong status",IcapResponseStatus.NO_CONTENT,response.getStatus());
+	}
+	
+	@Test
+	public void ignoreNoContentVerdictIfNotAllowed() {
+		IcapRequest request = DataMockery.createREQMODWithGetRequestNoBodyIcapMessage();
+		cache.put(IcapVerdictCache.createKey(request.getHttpRequest()),IcapVerdict.noContent("Serial-0815"));
+		embeddedChannel.writeInbound(request);
+		assertSame("request was not passed on",request,embeddedChannel.readInbound());
+		assertNull("response written although 204 is not allowed",embeddedChannel.readOutbound());
+		ReferenceCountUtil.release(request);
+	}
+	
+	private IcapResponse createBlockResponse() {
+		IcapResponse response = new DefaultIcapResponse(IcapVersion.ICAP_1_0,IcapResponseStatus.OK);
+		response.addHeader("ISTag","Serial-0815");
+		FullHttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,HttpResponseStatus.FORBIDDEN,Unpooled.copiedBuffer("blocked",IcapCodecUtil.ASCII_CHARSET));
+		httpResponse.headers().add("Content-Type","text/plain");
+		response.setHttpResponse(httpResponse);
+		return response;
+	}
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IcapVerdictStoreTest extends AbstractIcapTest {
+
+	private File file;
+	private IcapVerdictStore store;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("icap-verdict-store",".dat");
+		file.delete();
+		store = new IcapVerdictStore(file,1024);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		store.close();
+		file.delete();
+	}
+	
+	@Test
+	public void putAndGet() {
+		store.put(42L,"Serial-0815",204,1,TimeUnit.HOURS);
+		assertEquals("wrong status",204,store.get(42L,"Serial-0815"));
+		assertEquals("verdict found for unknown key",0,store.get(43L,"Serial-0815"));
+	}
+	
+	@Test
+	public void bindToIsTag() {
+		store.put(42L,"Serial-0815",204,1,TimeUnit.HOURS);
+		assertEquals("verdict found for other istag",0,store.get(42L,"Serial-0816"));
+	}
+	
+	@Test
+	public void removeVerdict() {
+		store.put(42L,"Serial-0815",204,1,TimeUnit.HOURS);
+		store.remove(42L,"Serial-0815");
+		assertEquals("verdict was not removed",0,store.get(42L,"Serial-0815"));
+	}
+	
+	@Test
+	public void failAfterClose() throws IOException {
+		store.put(42L,"Serial-0815",204,1,TimeUnit.HOURS);
+		store.close();
+		store.close();
+		boolean exception = false;
+		try {
+			store.get(42L,"Serial-0815");
+		} catch(IllegalStateException e) {
+			exception = true;
+		}
+		assertTrue("closed store was accessed",exception);
+	}
+	
+	@Test
+	public void expireVerdict() throws IOException {
+		store.close();
+		final long[] time = new long[]{1000L};
+		store = new IcapVerdictStore(file,1024) {
+			@Override
+			long currentTimeMillis() {
+				return time[0];
+			}
+		};
+		store.put(42L,"Serial-0815",204,10,TimeUnit.SECONDS);
+		time[0] += 10000L;
+		assertEquals("verdict did not expire",0,store.get(42L,"Serial-0815"));
+	}
+	
+	@Test
+	public void survivesReopen() throws IOException {
+		for(long key = 0 ; key < 500 ; key++) {
+			store.put(key,"Serial-0815",204,1,TimeUnit.HOURS);
+		}
+		store.close();
+		store = new IcapVerdictStore(file,1024);
+		for(long key = 0 ; key < 500 ; key++) {
+			assertEquals("verdict lost after reopen [" + key + "]",204,store.get(key,"Serial-0815"));
+		}
+	}
+	
+	@Test
+	public void ignoreCorruptSlots() throws IOException {
+		store.put(42L,"Serial-0815",204,1,TimeUnit.HOURS);
+		store.close();
+		RandomAccessFile raw = new RandomAccessFile(file,"rw");
+		try {
+			byte[] data = new byte[(int)raw.length()];
+			raw.readFully(data);
+			for(int i = 64 ; i < data.length ; i += 48) {
+				if(data[i + 31] != 0) {
+					data[i + 16] ^= 0x7f;
+				}
+			}
+			raw.seek(0);
+			raw.write(data);
+		} finally {
+			raw.close();
+		}
+		store = new IcapVerdictStore(file,1024);
+		assertEquals("corrupt slot was returned",0,store.get(42L,"Serial-0815"));
+		store.put(42L,"Serial-0815",204,1,TimeUnit.HOURS);
+		assertEquals("corrupt slot was not reused",204,store.get(42L,"Serial-0815"));
+	}
+	
+	@Test
+	public void reinitializeOnCapacityChange() throws IOException {
+		store.put(42L,"Serial-0815",204,1,TimeUnit.HOURS);
+		store.close();
+		store = new IcapVerdictStore(file,65536);
+		assertEquals("verdict survived reinitialization",0,store.get(42L,"Serial-0815"));
+	}
+	
+	@Test
+	public void evictWhenFull() {
+		for(long key = 0 ; key < store.getCapacity() * 4 ; key++) {
+			store.put(key,"Serial-0815",204,1,TimeUnit.HOURS);
+		}
+		long last = store.getCapacity() * 4 - 1;
+		assertEquals("latest verdict was not stored",204,store.get(last,"Serial-0815"));
+	}
+	
+	@Test
+	public void warmStartVerdictCache() throws IOException {
+		IcapVerdictCache cache = new IcapVerdictCache(16,1,TimeUnit.HOURS,store);
+		cache.put(42L,IcapVerdict.noContent("Serial-0815"));
+		store.close();
+		store = new IcapVerdictStore(file,1024);
+		cache = new IcapVerdictCache(16,1,TimeUnit.HOURS,store);
+		assertNull("verdict returned without istag",cache.get(42L));
+		cache.setIsTag("Serial-0815");
+		IcapVerdict verdict = cache.get(42L);
+		assertNotNull("verdict was not restored from store",verdict);
+		assertEquals("wrong status",IcapResponseStatus.NO_CONTENT,verdict.getStatus());
+	}
+}
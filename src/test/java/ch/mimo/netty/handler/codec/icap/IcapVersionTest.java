@@ -15,6 +15,9 @@
  ******************************************************************************/
 package ch.mimo.netty.handler.codec.icap;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import org.junit.Test;
 
 public class IcapVersionTest extends AbstractIcapTest {
@@ -45,4 +48,35 @@ public class IcapVersionTest extends AbstractIcapTest {
 		}
 		assertTrue("no iae was thrown",exception);
 	}
+	
+	@Test
+	public void getValueOfLowerCaseStringWithWhitespace() {
+		assertSame("cached version expected",IcapVersion.ICAP_1_0,IcapVersion.valueOf(" icap/1.0 "));
+	}
+	
+	@Test
+	public void getValueOfOtherVersion() {
+		IcapVersion version = IcapVersion.valueOf("ICAP/2.13");
+		assertEquals("wrong protocol name","ICAP",version.getProtocolName());
+		assertEquals("wrong major version",2,version.getMajorVersion());
+		assertEquals("wrong minor version",13,version.getMinorVersion());
+	}
+	
+	@Test
+	public void getValueFromVersionWithoutMinor() {
+		boolean exception = false;
+		try {
+			IcapVersion.valueOf("ICAP/1.");
+		} catch(IllegalArgumentException iae) {
+			exception = true;
+		}
+		assertTrue("no iae was thrown",exception);
+	}
+	
+	@Test
+	public void getValueOfBuffer() {
+		ByteBuf buffer = Unpooled.copiedBuffer("REQMOD icap://x Icap/1.0",IcapCodecUtil.ASCII_CHARSET);
+		assertSame("cached version expected",IcapVersion.ICAP_1_0,IcapVersion.valueOf(buffer,16,24));
+		assertEquals("wrong minor version",1,IcapVersion.valueOf(Unpooled.copiedBuffer("ICAP/1.1",IcapCodecUtil.ASCII_CHARSET),0,8).getMinorVersion());
+	}
 }
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap.matcher;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.mimo.netty.handler.codec.icap.AbstractIcapTest;
+import ch.mimo.netty.handler.codec.icap.DataMockery;
+import ch.mimo.netty.handler.codec.icap.DefaultIcapChunk;
+import ch.mimo.netty.handler.codec.icap.DefaultIcapChunkTrailer;
+import ch.mimo.netty.handler.codec.icap.IcapChunk;
+import ch.mimo.netty.handler.codec.icap.IcapMessage;
+import ch.mimo.netty.handler.codec.icap.IcapRequest;
+
+public class PatternMatchHandlerTest extends AbstractIcapTest {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private final PatternMatcher matcher = PatternMatcher.compile(true,"malware","tracker.js");
+	
+	@Test
+	public void reportMatchAcrossChunksOnce() throws Exception {
+		RecordingHandler handler = new RecordingHandler(matcher,false);
+		EmbeddedChannel channel = new EmbeddedChannel(handler);
+		IcapRequest request = DataMockery.createRESPMODWithStreamedBodyIcapRequest();
+		channel.writeInbound(request);
+		channel.writeInbound(chunk("download of mal"));
+		channel.writeInbound(chunk("WARE and more malware"));
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		assertEquals("wrong amount of matches",1,handler.matches.size());
+		assertEquals("wrong match start",Long.valueOf(12),handler.matches.get(0));
+		assertSame("wrong message",request,handler.message);
+		assertSame("message was not passed on",request,channel.readInbound());
+		for(int i = 0 ; i < 3 ; i++) {
+			IcapChunk chunk = channel.readInbound();
+			assertNotNull("chunk was not passed on",chunk);
+			chunk.release();
+		}
+		assertFalse("unexpected message",channel.finish());
+	}
+	
+	@Test
+	public void discardBodyAfterMatch() throws Exception {
+		RecordingHandler handler = new RecordingHandler(matcher,true);
+		EmbeddedChannel channel = new EmbeddedChannel(handler);
+		channel.writeInbound(DataMockery.createRESPMODWithStreamedBodyIcapRequest());
+		IcapChunk first = chunk("clean start");
+		channel.writeInbound(first);
+		IcapChunk matching = chunk("<script src=tracker.js>");
+		channel.writeInbound(matching);
+		IcapChunk rest = chunk("rest of the page");
+		channel.writeInbound(rest);
+		channel.writeInbound(new DefaultIcapChunkTrailer());
+		assertEquals("matching chunk was not released",0,matching.refCnt());
+		assertEquals("remaining chunk was not released",0,rest.refCnt());
+		channel.readInbound();
+		assertSame("first chunk was not passed on",first,channel.readInbound());
+		assertNull("body was passed on after the match",channel.readInbound());
+		first.release();
+		
+		channel.writeInbound(DataMockery.createRESPMODWithStreamedBodyIcapRequest());
+		IcapChunk next = chunk("malware");
+		channel.writeInbound(next);
+		assertEquals("next message was not scanned",2,handler.matches.size());
+		assertEquals("wrong match start of the next message",Long.valueOf(0),handler.matches.get(1));
+		channel.finishAndReleaseAll();
+	}
+	
+	@Test
+	public void scanPreviewAndContinuation() throws Exception {
+		RecordingHandler handler = new RecordingHandler(matcher,false);
+		EmbeddedChannel channel = new EmbeddedChannel(handler);
+		channel.writeInbound(DataMockery.createRESPMODWithStreamedBodyIcapRequest());
+		DefaultIcapChunk preview = (DefaultIcapChunk)chunk("xxxxmalw");
+		preview.setPreviewChunk(true);
+		channel.writeInbound(preview);
+		channel.writeInbound(new DefaultIcapChunkTrailer(true,false));
+		assertTrue("unexpected match",handler.matches.isEmpty());
+		channel.writeInbound(chunk("are"));
+		assertEquals("pattern across the preview was not found",Long.valueOf(4),handler.matches.get(0));
+		channel.finishAndReleaseAll();
+	}
+	
+	private IcapChunk chunk(String content) {
+		return new DefaultIcapChunk(Unpooled.wrappedBuffer(content.getBytes(ASCII)));
+	}
+	
+	private static final class RecordingHandler extends PatternMatchHandler {
+		
+		private final boolean discard;
+		private final List<Long> matches = new ArrayList<Long>();
+		private IcapMessage message;
+		
+		RecordingHandler(PatternMatcher matcher, boolean discard) {
+			super(matcher);
+			this.discard = discard;
+		}
+		
+		@Override
+		protected boolean matched(ChannelHandlerContext ctx, IcapMessage message, MatchSession session) {
+			this.message = message;
+			matches.add(session.getMatchStart());
+			return discard;
+		}
+	}
+}
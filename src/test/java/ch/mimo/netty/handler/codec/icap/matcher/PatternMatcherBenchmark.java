@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap.matcher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.util.Random;
+
+/**
+ * Micro benchmark that scans a large synthetic body, split into chunks, for a few thousand signatures 
+ * with @see {@link PatternMatcher} and compares it with searching each signature on its own.
+ * 
+ * Not part of the test suite, run the main method with the test classpath. The optional arguments
+ * are the amount of signatures and the body size in megabytes.
+ * 
+ * @author Michael Mimo Moratti (mimo@mimo.ch)
+ *
+ */
+public final class PatternMatcherBenchmark {
+
+	private static final int CHUNK_SIZE = 8192;
+	private static final int NAIVE_PATTERNS = 50;
+	
+	private PatternMatcherBenchmark() {
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int patternCount = args.length > 0?Integer.parseInt(args[0]):5000;
+		int bodySize = (args.length > 1?Integer.parseInt(args[1]):64) * 1024 * 1024;
+		Random random = new Random(42);
+		String[] patterns = new String[patternCount];
+		for(int i = 0 ; i < patternCount ; i++) {
+			patterns[i] = randomText(random,8 + random.nextInt(24));
+		}
+		long start = System.nanoTime();
+		PatternMatcher matcher = PatternMatcher.compile(true,patterns);
+		System.out.println("compiled [" + patternCount + "] patterns into [" + matcher.getStateCount() + "] states in [" + ((System.nanoTime() - start) / 1000000) + "] ms");
+		
+		ByteBuf[] bodies = new ByteBuf[]{Unpooled.buffer(bodySize),Unpooled.directBuffer(bodySize)};
+		byte[] text = randomText(random,bodySize).getBytes("US-ASCII");
+		for(ByteBuf body : bodies) {
+			body.writeBytes(text);
+		}
+		long sink = 0;
+		for(int round = 0 ; round < 5 ; round++) {
+			for(ByteBuf body : bodies) {
+				MatchSession session = matcher.newSession();
+				start = System.nanoTime();
+				sink += scan(session,body);
+				report((body.isDirect()?"direct":"heap") + " automaton",bodySize,System.nanoTime() - start);
+			}
+			start = System.nanoTime();
+			sink += scanNaive(bodies[0],patterns);
+			report("heap indexOf for [" + NAIVE_PATTERNS + "] patterns",bodySize,System.nanoTime() - start);
+		}
+		System.out.println(sink);
+		for(ByteBuf body : bodies) {
+			body.release();
+		}
+	}
+	
+	private static long scan(MatchSession session, ByteBuf body) {
+		long matches = 0;
+		for(int offset = 0 ; offset < body.writerIndex() ; offset += CHUNK_SIZE) {
+			ByteBuf chunk = body.slice(offset,Math.min(CHUNK_SIZE,body.writerIndex() - offset));
+			int index = chunk.readerIndex();
+			int found;
+			while((found = session.find(chunk,index,chunk.writerIndex() - index)) >= 0) {
+				matches++;
+				index = found + 1;
+			}
+		}
+		return matches + session.getPosition();
+	}
+	
+	private static long scanNaive(ByteBuf body, String[] patterns) {
+		long matches = 0;
+		for(int i = 0 ; i < NAIVE_PATTERNS ; i++) {
+			ByteBuf needle = Unpooled.wrappedBuffer(patterns[i].getBytes());
+			matches += ByteBufUtil.indexOf(needle,body);
+		}
+		return matches;
+	}
+	
+	private static void report(String name, int bytes, long nanos) {
+		System.out.println(name + ": [" + (bytes / 1024 / 1024) + "] MB in [" + (nanos / 1000000) + "] ms, [" + (bytes * 1000L / Math.max(1,nanos)) + "] MB/s");
+	}
+	
+	private static String randomText(Random random, int length) {
+		char[] text = new char[length];
+		for(int i = 0 ; i < length ; i++) {
+			text[i] = (char)(random.nextInt(5) == 0?' ':'a' + random.nextInt(26));
+		}
+		return new String(text);
+	}
+}
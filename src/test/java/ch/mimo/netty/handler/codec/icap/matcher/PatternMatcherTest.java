@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap.matcher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import ch.mimo.netty.handler.codec.icap.AbstractIcapTest;
+
+public class PatternMatcherTest extends AbstractIcapTest {
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	@Test
+	public void findSinglePattern() {
+		PatternMatcher matcher = PatternMatcher.compile(false,"virus");
+		MatchSession session = matcher.newSession();
+		ByteBuf buffer = buffer("this body contains a virus signature");
+		int index = session.find(buffer);
+		assertEquals("wrong match index",25,index);
+		assertEquals("wrong pattern",0,session.getPattern());
+		assertEquals("wrong match start",21,session.getMatchStart());
+		assertEquals("wrong match end",26,session.getMatchEnd());
+		assertEquals("reader index was changed",0,buffer.readerIndex());
+	}
+	
+	@Test
+	public void findNothing() {
+		MatchSession session = PatternMatcher.compile(false,"virus","worm").newSession();
+		assertEquals("unexpected match",-1,session.find(buffer("a perfectly clean body")));
+		assertFalse("session is matched",session.isMatched());
+		assertEquals("wrong position",22,session.getPosition());
+		assertEquals("wrong match start",-1,session.getMatchStart());
+	}
+	
+	@Test
+	public void findOverlappingPatterns() {
+		PatternMatcher matcher = PatternMatcher.compile(false,"he","she","his","hers");
+		MatchSession session = matcher.newSession();
+		ByteBuf buffer = buffer("ushers");
+		int index = session.find(buffer);
+		assertEquals("wrong match index",3,index);
+		assertEquals("wrong pattern","she",matcher.getPatternAsString(session.getPattern()));
+		index = session.find(buffer,index + 1,buffer.writerIndex() - index - 1);
+		assertEquals("wrong match index",5,index);
+		assertEquals("wrong pattern","hers",matcher.getPatternAsString(session.getPattern()));
+		assertEquals("wrong match start",2,session.getMatchStart());
+		assertEquals("unexpected match",-1,session.find(buffer,6,0));
+	}
+	
+	@Test
+	public void reportSuffixPattern() {
+		PatternMatcher matcher = PatternMatcher.compile(false,"abcd","bc");
+		MatchSession session = matcher.newSession();
+		assertEquals("wrong match index",3,session.find(buffer("xabce")));
+		assertEquals("wrong pattern","bc",matcher.getPatternAsString(session.getPattern()));
+	}
+	
+	@Test
+	public void findPatternAcrossChunks() {
+		PatternMatcher matcher = PatternMatcher.compile(false,"X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR");
+		MatchSession session = matcher.newSession();
+		String body = "prefix X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR suffix";
+		int found = -1;
+		for(int i = 0 ; i < body.length() ; i += 3) {
+			ByteBuf chunk = buffer(body.substring(i,Math.min(body.length(),i + 3)));
+			if(session.find(chunk) >= 0) {
+				found = i;
+				break;
+			}
+		}
+		assertEquals("pattern was not found in the right chunk",39,found);
+		assertEquals("wrong match start",7,session.getMatchStart());
+	}
+	
+	@Test
+	public void findBinaryPattern() {
+		PatternMatcher matcher = PatternMatcher.compile(false,new byte[]{(byte)0xff,0x00,(byte)0x80},new byte[]{0x00,0x00});
+		MatchSession session = matcher.newSession();
+		byte[] body = new byte[]{1,(byte)0xff,0x00,(byte)0x80,2};
+		assertEquals("wrong match index",3,session.find(body,0,body.length));
+		assertEquals("wrong pattern",0,session.getPattern());
+		assertEquals("wrong match index",2,session.find(Unpooled.directBuffer().writeBytes(new byte[]{3,0,0,0})));
+		assertEquals("wrong pattern",1,session.getPattern());
+	}
+	
+	@Test
+	public void ignoreCase() {
+		PatternMatcher matcher = PatternMatcher.compile(true,"Casino","POKER");
+		MatchSession session = matcher.newSession();
+		assertEquals("wrong match index",10,session.find(buffer("best cASINO")));
+		session.reset();
+		assertEquals("wrong match index",4,session.find(buffer("Poker")));
+		MatchSession exact = PatternMatcher.compile(false,"Casino").newSession();
+		assertEquals("unexpected match",-1,exact.find(buffer("casino")));
+	}
+	
+	@Test
+	public void resetSession() {
+		MatchSession session = PatternMatcher.compile(false,"abc").newSession();
+		assertEquals("unexpected match",-1,session.find(buffer("ab")));
+		session.reset();
+		assertEquals("state was not reset",-1,session.find(buffer("c")));
+		assertEquals("wrong position",1,session.getPosition());
+	}
+	
+	@Test
+	public void compactAutomaton() {
+		PatternMatcher matcher = PatternMatcher.compile(false,"abc","abd","b");
+		assertEquals("wrong state count",6,matcher.getStateCount());
+		assertEquals("wrong pattern count",3,matcher.getPatternCount());
+		assertEquals("wrong pattern length",3,matcher.getPatternLength(1));
+	}
+	
+	@Test
+	public void rejectInvalidPatterns() {
+		boolean exception = false;
+		try {
+			PatternMatcher.compile(false,"abc","");
+		} catch(IllegalArgumentException e) {
+			exception = true;
+		}
+		assertTrue("empty pattern was accepted",exception);
+		exception = false;
+		try {
+			PatternMatcher.compile(false,new byte[0][]);
+		} catch(IllegalArgumentException e) {
+			exception = true;
+		}
+		assertTrue("missing patterns were accepted",exception);
+		exception = false;
+		try {
+			PatternMatcher.compile(false,"abc",null);
+		} catch(NullPointerException e) {
+			exception = true;
+		}
+		assertTrue("null pattern was accepted",exception);
+	}
+	
+	private static ByteBuf buffer(String value) {
+		return Unpooled.wrappedBuffer(value.getBytes(ASCII));
+	}
+}
@@ -18,7 +18,9 @@ package ch.mimo.netty.handler.codec.icap.socket;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -33,8 +35,8 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
-import io.netty.channel.socket.ServerSocketChannel;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 
@@ -103,27 +105,58 @@ public abstract class AbstractSocketTest extends AbstractJDKLoggerPreparation {
 		runTrickleTests = Boolean.valueOf(System.getProperty(RUN_TRICKLE_TESTS));
 	}
 	
+	@Before
+	public void assumeTransportAvailable() {
+		Assume.assumeTrue(isTransportAvailable());
+	}
+	
+	protected boolean isTransportAvailable() {
+		return true;
+	}
+	
+	protected SocketAddress newServerAddress() {
+		return new InetSocketAddress(0);
+	}
+	
+	protected SocketAddress newClientAddress(SocketAddress serverAddress) {
+		return new InetSocketAddress(LOCALHOST,((InetSocketAddress)serverAddress).getPort());
+	}
+	
     protected abstract Class<? extends ServerChannel> newServerSocketChannelFactory();
     protected abstract Class<? extends Channel> newClientSocketChannelFactory();
     protected abstract EventLoopGroup newServerEventLoopGroup(Executor executor);
 	protected abstract EventLoopGroup newClientEventLoopGroup(Executor executor);
 	protected abstract Map<ChannelOption, Object> clientAdditionalChannelOptions();
+	
+	protected Map<ChannelOption, Object> serverChildChannelOptions() {
+		Map<ChannelOption, Object> options = new HashMap<ChannelOption, Object>();
+		options.put(ChannelOption.SO_REUSEADDR, true);
+		options.put(ChannelOption.TCP_NODELAY, true);
+		return options;
+	}
+	
+	protected Map<ChannelOption, Object> clientChannelOptions() {
+		Map<ChannelOption, Object> options = new HashMap<ChannelOption, Object>();
+		options.put(ChannelOption.TCP_NODELAY, true);
+		options.putAll(clientAdditionalChannelOptions());
+		return options;
+	}
 
     protected void runSocketTest(AbstractHandler serverHandler, AbstractHandler clientHandler, Object[] messages, PipelineType pipelineType) {
 		EventLoopGroup serverBossGroup = newServerEventLoopGroup(executor);
 		EventLoopGroup serverWorkerGroup = newServerEventLoopGroup(executor);
     	ServerBootstrap serverBootstrap  = new ServerBootstrap()
 			.channel(newServerSocketChannelFactory())
-			.childOption(ChannelOption.SO_REUSEADDR, true)
-			.childOption(ChannelOption.TCP_NODELAY, true)
 			.group(serverBossGroup, serverWorkerGroup);
+        for(Map.Entry<ChannelOption, Object> e : serverChildChannelOptions().entrySet()) {
+			serverBootstrap.childOption(e.getKey(), e.getValue());
+		}
 
     	EventLoopGroup clientGroup = newClientEventLoopGroup(executor);
         final Bootstrap clientBootstrap = new Bootstrap()
 			.channel(newClientSocketChannelFactory())
-			.option(ChannelOption.TCP_NODELAY, true)
 			.group(clientGroup);
-        for(Map.Entry<ChannelOption, Object> e : clientAdditionalChannelOptions().entrySet()) {
+        for(Map.Entry<ChannelOption, Object> e : clientChannelOptions().entrySet()) {
 			clientBootstrap.option(e.getKey(), e.getValue());
 		}
 
@@ -152,11 +185,10 @@ public abstract class AbstractSocketTest extends AbstractJDKLoggerPreparation {
 		serverBootstrap.childHandler(serverChannelInitializer);
         clientBootstrap.handler(clientChannelInitializer);
 
-        ChannelFuture serverChannel = serverBootstrap.bind(new InetSocketAddress(0));
+        ChannelFuture serverChannel = serverBootstrap.bind(newServerAddress());
         assertTrue(serverChannel.awaitUninterruptibly().isSuccess());
-        int port = ((ServerSocketChannel)serverChannel.channel()).localAddress().getPort();
         
-        ChannelFuture channelFuture = clientBootstrap.connect(new InetSocketAddress(LOCALHOST,port));
+        ChannelFuture channelFuture = clientBootstrap.connect(newClientAddress(serverChannel.channel().localAddress()));
         assertTrue(channelFuture.awaitUninterruptibly().isSuccess());
 
         Channel clientChannel = channelFuture.channel();
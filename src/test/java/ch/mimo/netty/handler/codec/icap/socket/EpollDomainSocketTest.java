@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2012 Michael Mimo Moratti
+ * Modifications Copyright (c) 2018 eBlocker GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ch.mimo.netty.handler.codec.icap.socket;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import ch.mimo.netty.handler.codec.icap.IcapTransport;
+
+public class EpollDomainSocketTest extends SocketTests {
+
+	@Override
+	protected boolean isTransportAvailable() {
+		return IcapTransport.isEpollAvailable();
+	}
+	
+	@Override
+	protected SocketAddress newServerAddress() {
+		try {
+			File socket = File.createTempFile("netty-icap",".sock");
+			socket.delete();
+			socket.deleteOnExit();
+			return new DomainSocketAddress(socket);
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	@Override
+	protected SocketAddress newClientAddress(SocketAddress serverAddress) {
+		return serverAddress;
+	}
+	
+	@Override
+	protected Class<EpollServerDomainSocketChannel> newServerSocketChannelFactory() {
+		return EpollServerDomainSocketChannel.class;
+	}
+
+	@Override
+	protected Class<EpollDomainSocketChannel> newClientSocketChannelFactory() {
+		return EpollDomainSocketChannel.class;
+	}
+
+    @Override
+    protected EventLoopGroup newServerEventLoopGroup(Executor executor) {
+        return new EpollEventLoopGroup(1, executor);
+    }
+
+    @Override
+    protected EventLoopGroup newClientEventLoopGroup(Executor executor) {
+        return new EpollEventLoopGroup(1, executor);
+    }
+
+    @Override
+    protected Map<ChannelOption, Object> clientAdditionalChannelOptions() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Unix domain sockets do not support the TCP options of the other transports.
+     */
+    @Override
+    protected Map<ChannelOption, Object> serverChildChannelOptions() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    protected Map<ChannelOption, Object> clientChannelOptions() {
+        return clientAdditionalChannelOptions();
+    }
+}